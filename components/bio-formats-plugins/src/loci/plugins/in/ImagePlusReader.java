@@ -39,6 +39,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.Location;
 import loci.common.Region;
@@ -48,6 +52,7 @@ import loci.common.StatusReporter;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.services.ServiceFactory;
+import loci.formats.CoreMetadata;
 import loci.formats.FilePattern;
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
@@ -55,6 +60,7 @@ import loci.formats.IFormatReader;
 import loci.formats.Modulo;
 import loci.formats.meta.IMetadata;
 import loci.formats.services.OMEXMLService;
+import loci.plugins.BF;
 import loci.plugins.Slicer;
 import loci.plugins.util.BFVirtualStack;
 import loci.plugins.util.ImageProcessorReader;
@@ -74,6 +80,18 @@ public class ImagePlusReader implements StatusReporter {
   /** Special property prefix for storing planar LUTs. */
   public static final String PROP_LUT = "LUT-";
 
+  /**
+   * Rough heap cost, in bytes, of each metadata entry or plane that a
+   * worker reader keeps track of.
+   */
+  private static final long READER_ENTRY_SIZE = 256;
+
+  /**
+   * Minimum time in milliseconds that the remaining planes of a stack must
+   * take to read in one thread before worker threads are started.
+   */
+  private static final long MIN_PARALLEL_TIME = 200;
+
   // -- Fields --
 
   /**
@@ -83,6 +101,9 @@ public class ImagePlusReader implements StatusReporter {
 
   protected List<StatusListener> listeners = new Vector<StatusListener>();
 
+  /** Maximum number of threads used to read planes into memory. */
+  private int threadCount = Runtime.getRuntime().availableProcessors();
+
   // -- Constructors --
 
   /**
@@ -117,6 +138,20 @@ public class ImagePlusReader implements StatusReporter {
     return imps.toArray(new ImagePlus[imps.size()]);
   }
 
+  /**
+   * Sets the maximum number of threads, including the calling thread, used
+   * to read planes into memory. Defaults to the number of available
+   * processors; with one thread, planes are read in the calling thread only.
+   */
+  public void setThreadCount(int threads) {
+    threadCount = threads;
+  }
+
+  /** Gets the maximum number of threads used to read planes into memory. */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
   // -- StatusReporter methods --
 
   @Override
@@ -253,6 +288,12 @@ public class ImagePlusReader implements StatusReporter {
     // when all image windows are closed, the Bio-Formats reader is closed
     if (options.isVirtual()) {
       process.getVirtualReader().setRefCount(imps.size());
+      for (ImagePlus imp : imps) {
+        final ImageStack stack = imp.getStack();
+        if (stack instanceof BFVirtualStack) {
+          ((BFVirtualStack) stack).setPrefetching(true);
+        }
+      }
     }
 
     // end timing
@@ -330,6 +371,9 @@ public class ImagePlusReader implements StatusReporter {
     // CTR FIXME: Make virtual stack work with different color modes?
     final BFVirtualStack virtualStack = new BFVirtualStack(options.getId(),
       reader, false, false, false);
+    // the rest of the import reads from the same reader without locking it,
+    // so planes are not prefetched until the import is finished
+    virtualStack.setPrefetching(false);
     for (int i=0; i<imageCount; i++) {
       final String label = constructSliceLabel(i,
         reader, meta, s, zCount, cCount, tCount);
@@ -362,27 +406,46 @@ public class ImagePlusReader implements StatusReporter {
 
     // get list of planes to load
     final boolean[] load = getPlanesToLoad(s);
-    int current = 0, total = 0;
+    int total = 0;
     for (int j=0; j<load.length; j++) if (load[j]) total++;
-
-    final List<ImageProcessor> procs = new ArrayList<ImageProcessor>();
-    final List<String> labels = new ArrayList<String>();
+    final int[] planes = new int[total];
+    for (int i=0, j=0; i<load.length; i++) if (load[i]) planes[j++] = i;
 
     // read applicable image planes
     final Region region = process.getCropRegion(s);
-    for (int i=0; i<load.length; i++) {
-      if (!load[i]) continue;
+    final ImageProcessor[][] planeProcs = new ImageProcessor[total][];
+    final int workers = thumbnail ? 0 : getWorkerCount(s, region, total);
+    if (workers > 0) {
+      // time the first plane, and only start workers if the remaining planes
+      // take clearly longer to read than opening another reader
+      updateTiming(s, 0, 0, total);
+      final long start = System.currentTimeMillis();
+      planeProcs[0] = readProcessors(process, planes[0], region, false);
+      final long rest = (System.currentTimeMillis() - start) * (total - 1);
+      if (rest > Math.max(MIN_PARALLEL_TIME, 2 * process.getInitTime())) {
+        readPlanesInParallel(process, s, planes, region, planeProcs, workers);
+      }
+    }
+    for (int j=0; j<total; j++) {
+      // skip planes already read by the workers
+      if (planeProcs[j] != null) continue;
 
       // limit message update rate
-      updateTiming(s, current, current++, total);
+      updateTiming(s, j, j, total);
 
       // get image processor for ith plane
-      final ImageProcessor[] p = readProcessors(process, i, region, thumbnail);
+      planeProcs[j] = readProcessors(process, planes[j], region, thumbnail);
+    }
+
+    final List<ImageProcessor> procs = new ArrayList<ImageProcessor>();
+    final List<String> labels = new ArrayList<String>();
+    for (int j=0; j<total; j++) {
+      final ImageProcessor[] p = planeProcs[j];
       if (p == null || p.length == 0) {
-        throw new FormatException("Cannot read plane #" + i);
+        throw new FormatException("Cannot read plane #" + planes[j]);
       }
       // generate a label for ith plane
-      final String label = constructSliceLabel(i,
+      final String label = constructSliceLabel(planes[j],
         reader, meta, s, zCount, cCount, tCount);
 
       for (ImageProcessor ip : p) {
@@ -394,6 +457,169 @@ public class ImagePlusReader implements StatusReporter {
     return createStack(procs, labels, luts);
   }
 
+  /**
+   * Gets the number of worker threads to use when reading the given number
+   * of planes into memory, in addition to the importer's own thread. Each
+   * worker needs room for about two copies of a plane, plus its own reader
+   * and that reader's metadata, on top of the memory that the
+   * {@link MemoryDialog} estimates for the stack itself.
+   */
+  private int getWorkerCount(int s, Region region, int total) {
+    final int workers = Math.min(threadCount, total) - 1;
+    if (workers <= 0) return 0;
+
+    final ImageProcessorReader reader = process.getReader();
+    reader.setSeries(s);
+    final int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+    final long planeSize = (long) bpp * region.width * region.height;
+    final long spare = MemoryDialog.getAvailableMemory() -
+      planeSize * total - MemoryDialog.MINIMUM_MEMORY_PADDING;
+    if (spare <= 0) return 0;
+    final long workerSize = 2 * planeSize + getReaderSize(reader);
+    return (int) Math.min(workers, spare / workerSize);
+  }
+
+  /**
+   * Estimates the heap used by a reader opened on the same dataset as the
+   * given reader, from the number of metadata entries and planes that it
+   * tracks. Datasets with large metadata tables or many series therefore
+   * get fewer workers.
+   */
+  private long getReaderSize(IFormatReader reader) {
+    long entries = reader.getGlobalMetadata().size();
+    for (CoreMetadata core : reader.getCoreMetadataList()) {
+      entries += core.imageCount;
+      if (core.seriesMetadata != null) entries += core.seriesMetadata.size();
+    }
+    return entries * READER_ENTRY_SIZE;
+  }
+
+  /**
+   * Reads all but the first of the given planes into memory using the
+   * importer's reader in this thread, along with a pool of workers that each
+   * open their own reader on the same dataset. Planes are handed out in
+   * order, so the stack fills from the front. Once every plane has been
+   * handed out, this waits only for the workers that are still reading one;
+   * workers that are still opening their readers close them on their own.
+   * A worker that fails leaves its remaining planes to the others, and
+   * planes that it could not read are left null, to be read again in this
+   * thread where a missing LuraWave license code can still be prompted for.
+   */
+  private void readPlanesInParallel(final ImportProcess process,
+    final int s, final int[] planes, final Region region,
+    final ImageProcessor[][] procs, int workers)
+    throws FormatException, IOException
+  {
+    final AtomicInteger next = new AtomicInteger(1);
+    final AtomicInteger done = new AtomicInteger(1);
+
+    // workers that have read a plane, whose min/max values must be handed
+    // over in this thread; also guards the number of planes being read
+    final List<ImageProcessorReader> readers =
+      new ArrayList<ImageProcessorReader>();
+    final int[] reading = new int[1];
+
+    final ExecutorService pool = Executors.newFixedThreadPool(workers,
+      new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "importer-reader-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+    for (int w=0; w<workers; w++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          ImageProcessorReader r = null;
+          boolean used = false;
+          try {
+            r = process.createWorkerReader();
+            if (r == null) return;
+            r.setSeries(s);
+            while (true) {
+              final int j;
+              synchronized (readers) {
+                j = next.getAndIncrement();
+                if (j >= planes.length) break;
+                if (!used) readers.add(r);
+                used = true;
+                reading[0]++;
+              }
+              try {
+                procs[j] = r.openProcessors(planes[j],
+                  region.x, region.y, region.width, region.height);
+                done.incrementAndGet();
+              }
+              finally {
+                synchronized (readers) {
+                  reading[0]--;
+                  readers.notifyAll();
+                }
+              }
+            }
+          }
+          catch (FormatException exc) {
+            BF.debug("Worker reader failed: " + exc.getMessage());
+          }
+          catch (IOException exc) {
+            BF.debug("Worker reader failed: " + exc.getMessage());
+          }
+          catch (RuntimeException exc) {
+            BF.debug("Worker reader failed: " + exc);
+          }
+          finally {
+            // a reader that read nothing has no min/max values to hand over
+            if (r != null && !used) {
+              try {
+                r.close();
+              }
+              catch (IOException exc) {
+                BF.debug("Could not close worker reader: " + exc.getMessage());
+              }
+            }
+          }
+        }
+      });
+    }
+    pool.shutdown();
+
+    try {
+      int j;
+      while ((j = next.getAndIncrement()) < planes.length) {
+        updateTiming(s, done.get(), done.get(), planes.length);
+        procs[j] = readProcessors(process, planes[j], region, false);
+        done.incrementAndGet();
+      }
+    }
+    finally {
+      // stop handing out planes, and wait for the planes being read
+      next.set(planes.length);
+      boolean interrupted = false;
+      final List<ImageProcessorReader> used;
+      synchronized (readers) {
+        while (reading[0] > 0) {
+          try {
+            readers.wait(100);
+          }
+          catch (InterruptedException exc) {
+            interrupted = true;
+          }
+          updateTiming(s, done.get(), done.get(), planes.length);
+        }
+        used = new ArrayList<ImageProcessorReader>(readers);
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      for (ImageProcessorReader r : used) {
+        process.closeWorkerReader(r);
+      }
+    }
+  }
+
   /**
    * HACK: This method mainly exists to prompt the user for a missing
    * LuraWave license code, in the case of LWF-compressed Flex.
@@ -54,6 +54,7 @@ import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.MinMaxCalculator;
+import loci.formats.ReaderWrapper;
 import loci.formats.TileStitcher;
 import loci.formats.in.DefaultMetadataOptions;
 import loci.formats.in.MetadataLevel;
@@ -101,6 +102,9 @@ public class ImportProcess implements StatusReporter {
   private VirtualReader virtualReader;
   private ImageProcessorReader reader;
 
+  /** Output dimension order applied to every series of the reader stack. */
+  private String outputOrder;
+
   /** Whether the process has been canceled. */
   private boolean cancel;
 
@@ -115,6 +119,9 @@ public class ImportProcess implements StatusReporter {
   /** A descriptive label for each series. */
   private String[] seriesLabels;
 
+  /** Time in milliseconds taken to initialize the base reader. */
+  private long initTime;
+
   // -- Constructors --
 
   public ImportProcess() throws IOException {
@@ -270,6 +277,18 @@ public class ImportProcess implements StatusReporter {
     return omeXML;
   }
 
+  // -- ImportProcess methods - post-FILE --
+
+  /**
+   * Gets the time in milliseconds taken to initialize the base reader on
+   * the dataset, as a guide to the cost of opening another reader on it.
+   * Valid only after {@link ImportStep#FILE}.
+   */
+  public long getInitTime() {
+    assertStep(ImportStep.FILE);
+    return initTime;
+  }
+
   // -- ImportProcess methods - post-STACK --
 
   /** Valid only after {@link ImportStep#STACK}. */
@@ -447,6 +466,90 @@ public class ImportProcess implements StatusReporter {
     return total;
   }
 
+  // -- ImportProcess methods - post-DIM_ORDER --
+
+  /**
+   * Opens a separate reader on the current dataset, with the same reader
+   * wrappers and dimension orders as {@link #getReader()}, so that planes
+   * can be read in another thread. Returns null if the data source cannot
+   * be opened more than once. The reader must be passed to
+   * {@link #closeWorkerReader(ImageProcessorReader)} when done.
+   * This method does not touch the main reader, so it may be called from
+   * any thread. Valid only after {@link ImportStep#DIM_ORDER}.
+   */
+  public ImageProcessorReader createWorkerReader()
+    throws FormatException, IOException
+  {
+    assertStep(ImportStep.DIM_ORDER);
+    if (!options.isLocal() && !options.isHTTP()) return null;
+
+    IFormatReader r =
+      LociPrefs.makeImageReader().getReader(baseReader.getClass());
+    if (r == null) return null;
+    r.setMetadataFiltered(true);
+    r.setGroupFiles(!options.isUngroupFiles());
+    r.setMetadataOptions(baseReader.getMetadataOptions());
+
+    if (fileStitcher != null) {
+      FileStitcher stitcher = new FileStitcher(r);
+      stitcher.setUsingPatternIds(true);
+      stitcher.setCanChangePattern(false);
+      r = stitcher;
+    }
+    r = new ChannelFiller(r);
+    r = new ChannelSeparator(r);
+    final DimensionSwapper swapper = new DimensionSwapper(r);
+    r = swapper;
+    if (minMaxCalculator != null) r = new MinMaxCalculator(r);
+    if (tileStitcher != null) r = new TileStitcher(r);
+    final ImageProcessorReader worker = new ImageProcessorReader(r);
+    boolean success = false;
+    try {
+      worker.setId(options.getId());
+
+      for (int s=0; s<worker.getSeriesCount(); s++) {
+        worker.setSeries(s);
+        String dimOrder = options.getInputOrder(s);
+        if (dimOrder != null) swapper.swapDimensions(dimOrder);
+        swapper.setOutputOrder(outputOrder);
+      }
+      success = true;
+    }
+    finally {
+      // do not leak the worker's open files if it could not be initialized
+      if (!success) {
+        try {
+          worker.close();
+        }
+        catch (IOException exc) {
+          BF.debug("Could not close worker reader: " + exc.getMessage());
+        }
+      }
+    }
+    return worker;
+  }
+
+  /**
+   * Closes a reader created by {@link #createWorkerReader()}, adding any
+   * min/max values it computed to {@link #getMinMaxCalculator()}.
+   * Must be called from the thread that reads from {@link #getReader()}.
+   */
+  public void closeWorkerReader(ImageProcessorReader worker)
+    throws FormatException, IOException
+  {
+    if (minMaxCalculator != null) {
+      IFormatReader r = worker;
+      while (r instanceof ReaderWrapper) {
+        if (r instanceof MinMaxCalculator) {
+          minMaxCalculator.addMinMax((MinMaxCalculator) r);
+          break;
+        }
+        r = ((ReaderWrapper) r).getReader();
+      }
+    }
+    worker.close();
+  }
+
   // -- ImportProcess methods - post-METADATA --
 
   /** Valid only after {@link ImportStep#METADATA}. */
@@ -502,8 +605,9 @@ public class ImportProcess implements StatusReporter {
         }
         baseReader.setMetadataOptions(mo);
     }
+    final long start = System.currentTimeMillis();
     baseReader.setId(options.getId());
-    
+    initTime = System.currentTimeMillis() - start;
   }
 
   /** Performed following ImportStep.STACK notification. */
@@ -563,7 +667,7 @@ public class ImportProcess implements StatusReporter {
   /** Performed following ImportStep.DIM_ORDER notification. */
   private void initializeDimOrder() {
     final int seriesCount = getSeriesCount();
-    final String stackOrder = getStackOrder();
+    final String stackOrder = outputOrder = getStackOrder();
 
     for (int s=0; s<seriesCount; s++) {
       reader.setSeries(s);
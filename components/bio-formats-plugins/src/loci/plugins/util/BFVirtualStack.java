@@ -40,14 +40,20 @@ import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.Modulo;
+import loci.formats.ReaderWrapper;
 import loci.formats.cache.Cache;
 import loci.formats.cache.CacheException;
 import loci.formats.cache.CacheStrategy;
 import loci.formats.cache.CrosshairStrategy;
+import loci.formats.cache.ICacheSource;
 import loci.plugins.util.RecordedImageProcessor.MethodEntry;
 
 /**
  * Subclass of VirtualStack that uses Bio-Formats to read planes on demand.
+ * Planes around the current position are prefetched in the background by a
+ * {@link PrefetchCache}. Reads synchronize on the innermost reader, which
+ * may be shared with other stacks, but planes that are already cached are
+ * returned without taking its lock.
  *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
@@ -56,8 +62,14 @@ public class BFVirtualStack extends VirtualStack {
   // -- Fields --
 
   protected ImageProcessorReader reader;
+
+  /**
+   * Innermost reader wrapped by {@link #reader}, on which all reads
+   * synchronize, since it may be shared by several stacks.
+   */
+  private IFormatReader lock;
   protected String id;
-  protected Cache cache;
+  protected PrefetchCache cache;
 
   private List<List<MethodEntry>> methodStacks;
   private int currentSlice = -1;
@@ -69,6 +81,11 @@ public class BFVirtualStack extends VirtualStack {
 
   private int series;
 
+  /** Dimensions of the series, so that planes can be located without
+   *  locking the reader. */
+  private String dimensionOrder;
+  private int sizeX, sizeY, sizeZ, sizeC, effectiveSizeC, sizeT, imageCount;
+
   private int[] len;
 
   private int[] planeIndexes;
@@ -101,6 +118,10 @@ public class BFVirtualStack extends VirtualStack {
       null, path);
     reader = new ImageProcessorReader(r);
     id = path;
+    lock = r;
+    while (lock instanceof ReaderWrapper) {
+      lock = ((ReaderWrapper) lock).getReader();
+    }
 
     this.colorize = colorize;
     this.merge = merge && !r.isIndexed();
@@ -108,6 +129,16 @@ public class BFVirtualStack extends VirtualStack {
 
     this.series = r.getSeries();
 
+    IFormatReader dims = this.merge ? new ChannelMerger(r) : r;
+    dimensionOrder = dims.getDimensionOrder();
+    sizeX = r.getSizeX();
+    sizeY = r.getSizeY();
+    sizeZ = dims.getSizeZ();
+    sizeC = r.getSizeC();
+    effectiveSizeC = dims.getEffectiveSizeC();
+    sizeT = dims.getSizeT();
+    imageCount = dims.getImageCount();
+
     // set up cache
     int[] subC;
     Modulo moduloC = r.getModuloC();
@@ -123,7 +154,14 @@ public class BFVirtualStack extends VirtualStack {
     len[len.length - 1] = r.getSizeT();
     CacheStrategy strategy = new CrosshairStrategy(len);
 
-    cache = new Cache(strategy, new ImageProcessorSource(r), true);
+    ICacheSource source = new ImageProcessorSource(reader) {
+      @Override
+      public Object getObject(int index) throws CacheException {
+        reader.setSeries(series);
+        return super.getObject(index);
+      }
+    };
+    cache = new PrefetchCache(strategy, source, lock);
 
     methodStacks = new ArrayList<List<MethodEntry>>();
     for (int i=0; i<r.getImageCount(); i++) {
@@ -139,11 +177,11 @@ public class BFVirtualStack extends VirtualStack {
 
   public Cache getCache() { return cache; }
 
-  public RecordedImageProcessor getRecordedProcessor() {
+  public synchronized RecordedImageProcessor getRecordedProcessor() {
     return currentProcessor;
   }
 
-  public List<MethodEntry> getMethodStack() {
+  public synchronized List<MethodEntry> getMethodStack() {
     if (currentSlice >= 0) return methodStacks.get(currentSlice);
     return null;
   }
@@ -152,44 +190,61 @@ public class BFVirtualStack extends VirtualStack {
     this.planeIndexes = planeIndexes;
   }
 
+  /**
+   * Sets whether planes near the current slice are read in the background.
+   * Prefetching should be off while the stack's reader is used elsewhere
+   * without synchronizing on it, e.g. while the importer is still reading
+   * metadata and LUTs from it.
+   */
+  public void setPrefetching(boolean prefetch) throws CacheException {
+    cache.setPrefetching(prefetch);
+  }
+
+  /**
+   * Closes the stack's cache, releasing the memory it holds. The reader is
+   * not closed, as it may be shared with other stacks.
+   */
+  public void close() {
+    cache.close();
+  }
+
   // -- VirtualStack API methods --
 
   @Override
-  public synchronized ImageProcessor getProcessor(int n) {
-    reader.setSeries(series);
-
-    // check cache first
-    if (currentSlice >= 0 && currentProcessor != null) {
-      List<MethodEntry> currentStack = currentProcessor.getMethodStack();
-      if (currentStack.size() > 1) {
-        methodStacks.get(currentSlice).addAll(currentStack);
+  public ImageProcessor getProcessor(int n) {
+    synchronized (this) {
+      if (currentSlice >= 0 && currentProcessor != null) {
+        List<MethodEntry> currentStack = currentProcessor.getMethodStack();
+        if (currentStack.size() > 1) {
+          methodStacks.get(currentSlice).addAll(currentStack);
+        }
+        // a calibration may have been applied to the previous slice after
+        // it was returned, e.g. by the importer's Calibrator
+        if (calibrationTable == null) {
+          calibrationTable = currentProcessor.getChild().getCalibrationTable();
+        }
       }
     }
     int sliceIndex = planeIndexes == null ? n - 1 : planeIndexes[n - 1];
-    int[] pos = reader.getZCTCoords(sliceIndex);
-    if (merge) pos = new ChannelMerger(reader).getZCTCoords(sliceIndex);
+    int[] pos = FormatTools.getZCTCoords(dimensionOrder,
+      sizeZ, effectiveSizeC, sizeT, imageCount, sliceIndex);
     int[] cachePos = FormatTools.rasterToPosition(len, sliceIndex);
     ImageProcessor ip = null;
 
+    // check cache first, without locking the reader; a miss is read in
+    // this thread, while the surrounding planes are prefetched in the
+    // background
     try {
-      ip = (ImageProcessor) cache.getObject(cachePos);
       cache.setCurrentPos(cachePos);
+      ip = (ImageProcessor) cache.loadObject(cachePos);
     }
     catch (CacheException exc) {
       exc.printStackTrace();
     }
 
-    // cache missed
-    try {
-      if (ip == null) {
-        ip = reader.openProcessors(reader.getIndex(pos[0], pos[1], pos[2]))[0];
-      }
-    }
-    catch (FormatException exc) {
-      exc.printStackTrace();
-    }
-    catch (IOException exc) {
-      exc.printStackTrace();
+    // cache failed
+    if (ip == null) {
+      ip = openProcessor(pos[0], pos[1], pos[2]);
     }
 
     if (colorize) {
@@ -211,9 +266,7 @@ public class BFVirtualStack extends VirtualStack {
       if (ip != null) ip.setColorModel(model);
     }
     else if (merge) {
-      currentSlice = n - 1;
-      ImageProcessor[] otherChannels =
-        new ImageProcessor[reader.getSizeC() - 1];
+      ImageProcessor[] otherChannels = new ImageProcessor[sizeC - 1];
       for (int i=0; i<otherChannels.length; i++) {
         int channel = i >= pos[1] ? i + 1 : i;
         try {
@@ -224,40 +277,15 @@ public class BFVirtualStack extends VirtualStack {
           exc.printStackTrace();
         }
         if (otherChannels[i] == null) {
-          try {
-            int index = reader.getIndex(pos[0], channel, pos[2]);
-            otherChannels[i] = reader.openProcessors(index)[0];
-          }
-          catch (FormatException exc) {
-            exc.printStackTrace();
-          }
-          catch (IOException exc) {
-            exc.printStackTrace();
-          }
+          otherChannels[i] = openProcessor(pos[0], channel, pos[2]);
         }
       }
-      currentProcessor = new RecordedImageProcessor(ip, pos[1], otherChannels);
-      currentProcessor.setDoRecording(record);
-      if (calibrationTable == null) {
-        calibrationTable = currentProcessor.getChild().getCalibrationTable();
-      }
-      else {
-        currentProcessor.setCalibrationTable(calibrationTable);
-      }
-      return currentProcessor.getChild();
+      return setCurrentProcessor(n,
+        new RecordedImageProcessor(ip, pos[1], otherChannels));
     }
 
     if (ip != null) {
-      currentSlice = n - 1;
-      currentProcessor = new RecordedImageProcessor(ip);
-      currentProcessor.setDoRecording(record);
-      if (calibrationTable == null) {
-        calibrationTable = currentProcessor.getChild().getCalibrationTable();
-      }
-      else {
-        currentProcessor.setCalibrationTable(calibrationTable);
-      }
-      return currentProcessor.getChild();
+      return setCurrentProcessor(n, new RecordedImageProcessor(ip));
     }
 
     return null;
@@ -265,22 +293,54 @@ public class BFVirtualStack extends VirtualStack {
 
   @Override
   public int getWidth() {
-    reader.setSeries(series);
-    return reader.getSizeX();
+    return sizeX;
   }
 
   @Override
   public int getHeight() {
-    reader.setSeries(series);
-    return reader.getSizeY();
+    return sizeY;
   }
 
   @Override
   public int getSize() {
     if (reader.getCurrentFile() == null) return 0;
-    reader.setSeries(series);
-    if (merge) return new ChannelMerger(reader).getImageCount();
-    return planeIndexes == null ? reader.getImageCount() : planeIndexes.length;
+    if (merge) return imageCount;
+    return planeIndexes == null ? imageCount : planeIndexes.length;
+  }
+
+  // -- Helper methods --
+
+  /** Reads a single plane directly, bypassing the cache. */
+  private ImageProcessor openProcessor(int z, int c, int t) {
+    synchronized (lock) {
+      try {
+        reader.setSeries(series);
+        return reader.openProcessors(reader.getIndex(z, c, t))[0];
+      }
+      catch (FormatException exc) {
+        exc.printStackTrace();
+      }
+      catch (IOException exc) {
+        exc.printStackTrace();
+      }
+    }
+    return null;
+  }
+
+  /** Records the given processor as the current slice. */
+  private synchronized ImageProcessor setCurrentProcessor(int n,
+    RecordedImageProcessor processor)
+  {
+    currentSlice = n - 1;
+    currentProcessor = processor;
+    currentProcessor.setDoRecording(record);
+    if (calibrationTable == null) {
+      calibrationTable = currentProcessor.getChild().getCalibrationTable();
+    }
+    else {
+      currentProcessor.setCalibrationTable(calibrationTable);
+    }
+    return currentProcessor.getChild();
   }
 
 }
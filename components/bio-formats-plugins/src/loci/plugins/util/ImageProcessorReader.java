@@ -182,11 +182,25 @@ public class ImageProcessorReader extends ReaderWrapper {
   public ImageProcessor[] openProcessors(int no, int x, int y, int w, int h)
     throws FormatException, IOException
   {
+    int c = getRGBChannelCount();
+    int type = getPixelType();
+
+    // single channel 16-bit and float planes are read directly into the
+    // processor's pixel array, skipping the byte array conversion below
+    if (c == 1 && (type == FormatTools.INT16 || type == FormatTools.UINT16)) {
+      short[] q = openShorts(no, null, x, y, w, h);
+      if (FormatTools.isSigned(type)) q = DataTools.makeSigned(q);
+      return new ImageProcessor[] {
+        new ShortProcessor(w, h, q, createColorModel())};
+    }
+    if (c == 1 && type == FormatTools.FLOAT) {
+      float[] q = openFloats(no, null, x, y, w, h);
+      return new ImageProcessor[] {new FloatProcessor(w, h, q, null)};
+    }
+
     // read byte array
     byte[] b = openBytes(no, x, y, w, h);
 
-    int c = getRGBChannelCount();
-    int type = getPixelType();
     int bpp = FormatTools.getBytesPerPixel(type);
     boolean interleave = isInterleaved();
 
@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * Bio-Formats Plugins for ImageJ: a collection of ImageJ plugins including the
+ * Bio-Formats Importer, Bio-Formats Exporter, Bio-Formats Macro Extensions,
+ * Data Browser and Stack Slicer.
+ * %%
+ * Copyright (C) 2006 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.plugins.util;
+
+import ij.IJ;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.formats.FormatTools;
+import loci.formats.cache.Cache;
+import loci.formats.cache.CacheException;
+import loci.formats.cache.ICacheSource;
+import loci.formats.cache.ICacheStrategy;
+
+/**
+ * Cache that loads objects on a background thread instead of the caller's
+ * thread. In addition to the positions chosen by the cache strategy, it
+ * prefetches along the axis and in the direction of the most recent change
+ * of position. The memory used by each prefetching cache is limited to a
+ * fraction of {@link IJ#maxMemory()}.
+ *
+ * All access to the cache source happens while holding the lock object given
+ * to the constructor, so that callers sharing the underlying reader can
+ * synchronize on the same object. Nothing is loaded in the background until
+ * the current position is first set, and prefetching can be suspended while
+ * the reader is used by code that does not hold the lock.
+ */
+public class PrefetchCache extends Cache {
+
+  // -- Constants --
+
+  /** Default number of planes to prefetch ahead of the current position. */
+  public static final int DEFAULT_LOOKAHEAD = 16;
+
+  /** Default fraction of ImageJ's maximum memory that may be used. */
+  public static final double DEFAULT_MEMORY_FRACTION = 0.25;
+
+  // -- Fields --
+
+  /** Lock held while reading from the cache source. */
+  private final Object sourceLock;
+
+  /** Number of planes to prefetch ahead of the current position. */
+  private int lookahead = DEFAULT_LOOKAHEAD;
+
+  /** Axis along which the position last changed, or -1 if unknown. */
+  private int axis = -1;
+
+  /** Direction (1 or -1) of the last change of position. */
+  private int direction = 1;
+
+  // -- Constructor --
+
+  /**
+   * Constructs a prefetching cache.
+   * @param strategy the strategy choosing the positions around the current
+   *   position to keep cached
+   * @param source the source of cached objects
+   * @param sourceLock the object on which reads from the source synchronize
+   */
+  public PrefetchCache(ICacheStrategy strategy, ICacheSource source,
+    Object sourceLock) throws CacheException
+  {
+    super(strategy, source, false);
+    this.sourceLock = sourceLock;
+    long memory = IJ.maxMemory();
+    if (memory <= 0) memory = Runtime.getRuntime().maxMemory();
+    setByteLimit((long) (memory * DEFAULT_MEMORY_FRACTION));
+    setThreadCount(1);
+    autoUpdate = true;
+  }
+
+  // -- PrefetchCache API methods --
+
+  /** Gets the number of planes prefetched ahead of the current position. */
+  public synchronized int getLookahead() { return lookahead; }
+
+  /** Sets the number of planes prefetched ahead of the current position. */
+  public void setLookahead(int lookahead) throws CacheException {
+    synchronized (this) {
+      this.lookahead = lookahead;
+    }
+    if (autoUpdate) recache();
+  }
+
+  /**
+   * Sets whether objects are loaded in the background when the current
+   * position changes. While prefetching is off, objects are only read on
+   * request, in the calling thread; loads that were already queued still
+   * complete.
+   */
+  public void setPrefetching(boolean prefetch) throws CacheException {
+    synchronized (this) {
+      autoUpdate = prefetch;
+    }
+    if (prefetch) recache();
+  }
+
+  /** Gets whether objects are loaded in the background. */
+  public synchronized boolean isPrefetching() { return autoUpdate; }
+
+  // -- Cache API methods --
+
+  /* @see Cache#setCurrentPos(int[]) */
+  @Override
+  public void setCurrentPos(int[] pos) throws CacheException {
+    synchronized (this) {
+      int[] last = getCurrentPos();
+      for (int i=0; pos != null && i<pos.length && i<last.length; i++) {
+        if (pos[i] != last[i]) {
+          axis = i;
+          direction = pos[i] > last[i] ? 1 : -1;
+          break;
+        }
+      }
+    }
+    super.setCurrentPos(pos);
+  }
+
+  // -- Internal Cache API methods --
+
+  /**
+   * Orders the strategy's positions that are not behind the direction of
+   * movement first, then positions ahead along the axis of movement, then
+   * the strategy's remaining positions and a few positions behind.
+   */
+  @Override
+  protected int[] getLoadOrder() throws CacheException {
+    int[] len = strategy.getLengths();
+    int[][] positions = strategy.getLoadList(currentPos);
+
+    int moving = axis;
+    if (moving < 0) {
+      // until the position changes, assume movement along the last
+      // non-trivial axis (typically time, then Z)
+      for (int i=len.length-1; i>=0 && moving < 0; i--) {
+        if (len[i] > 1) moving = i;
+      }
+    }
+
+    List<Integer> ahead = new ArrayList<Integer>();
+    List<Integer> behind = new ArrayList<Integer>();
+    for (int[] pos : positions) {
+      int ndx = FormatTools.positionToRaster(len, pos);
+      if (moving >= 0 && isBehind(pos[moving], len[moving], moving)) {
+        behind.add(ndx);
+      }
+      else ahead.add(ndx);
+    }
+    if (moving >= 0) {
+      int[] pos = currentPos.clone();
+      for (int i=1; i<=lookahead && i<len[moving]; i++) {
+        pos[moving] = mod(currentPos[moving] + i * direction, len[moving]);
+        ahead.add(FormatTools.positionToRaster(len, pos));
+      }
+      for (int i=1; i<=lookahead / 4 && i<len[moving]; i++) {
+        pos[moving] = mod(currentPos[moving] - i * direction, len[moving]);
+        behind.add(FormatTools.positionToRaster(len, pos));
+      }
+    }
+    ahead.addAll(behind);
+
+    boolean[] seen = new boolean[cache.length];
+    int[] load = new int[ahead.size()];
+    int n = 0;
+    for (Integer ndx : ahead) {
+      if (!seen[ndx]) {
+        seen[ndx] = true;
+        load[n++] = ndx;
+      }
+    }
+    int[] result = new int[n];
+    System.arraycopy(load, 0, result, 0, n);
+    return result;
+  }
+
+  /* @see Cache#readObject(int) */
+  @Override
+  protected Object readObject(int ndx) throws CacheException {
+    synchronized (sourceLock) {
+      return source.getObject(ndx);
+    }
+  }
+
+  /* @see Cache#sizeOf(Object) */
+  @Override
+  protected long sizeOf(Object o) {
+    if (o instanceof ImageProcessor) {
+      ImageProcessor ip = (ImageProcessor) o;
+      int bytes = ip instanceof ColorProcessor ? 4 : ip.getBitDepth() / 8;
+      return (long) ip.getWidth() * ip.getHeight() * bytes;
+    }
+    return super.sizeOf(o);
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Returns true if the given axis value is closer to the current position
+   * going against the direction of movement than going with it.
+   */
+  private boolean isBehind(int value, int length, int moving) {
+    int forward = mod((value - currentPos[moving]) * direction, length);
+    return forward != 0 && forward > length - forward;
+  }
+
+  private static int mod(int value, int length) {
+    int m = value % length;
+    return m < 0 ? m + length : m;
+  }
+
+}
@@ -97,7 +97,11 @@ public class VirtualImagePlus extends ImagePlus {
 
   @Override
   public void close() {
+    ImageStack stack = getStack();
     super.close();
+    if (stack instanceof BFVirtualStack) {
+      ((BFVirtualStack) stack).close();
+    }
     try {
       r.close();
     }
@@ -1704,6 +1704,64 @@ public class ImporterTest {
     seriesInZctOrderTest(imp,false,false,zFrom,zTo,zBy,cFrom,cTo,cBy,tFrom,tTo,tBy);
   }
 
+  /** opens the given file into memory, reading planes with the given number of threads */
+  private ImagePlus openWithThreads(String path, int threads)
+  {
+    ImagePlus[] imps = null;
+
+    try {
+      ImporterOptions options = new ImporterOptions();
+      options.setAutoscale(true);
+      options.setId(path);
+      ImportProcess process = new ImportProcess(options);
+      assertTrue(process.execute());
+      ImagePlusReader reader = new ImagePlusReader(process);
+      reader.setThreadCount(threads);
+      imps = reader.openImagePlus();
+      process.getReader().close();
+    }
+    catch (IOException e) {
+      fail(e.getMessage());
+    }
+    catch (FormatException e) {
+      fail(e.getMessage());
+    }
+
+    impsCountTest(imps,1);
+
+    return imps[0];
+  }
+
+  /** tests that reading planes with worker threads gives the same stack as reading them in one thread */
+  private void memoryParallelReadTester(int pixType, int threads)
+  {
+    // slow planes, so that the importer starts its worker threads
+    String path = constructFakeFilename("parallel&sleepOpenBytes=25", pixType, 64, 48, 3, 2, 4, -1, false, -1, false, -1);
+
+    ImagePlus expected = openWithThreads(path, 1);
+    ImagePlus imp = openWithThreads(path, threads);
+
+    xyzctTest(imp,64,48,3,2,4);
+
+    ImageStack expectedStack = expected.getStack();
+    ImageStack stack = imp.getStack();
+    assertEquals(expectedStack.getSize(), stack.getSize());
+    for (int i = 1; i <= stack.getSize(); i++) {
+      ImageProcessor expectedProc = expectedStack.getProcessor(i);
+      ImageProcessor proc = stack.getProcessor(i);
+      assertEquals(expectedStack.getSliceLabel(i), stack.getSliceLabel(i));
+      for (int y = 0; y < proc.getHeight(); y++) {
+        for (int x = 0; x < proc.getWidth(); x++) {
+          assertEquals(expectedProc.getPixelValue(x, y), proc.getPixelValue(x, y), 0);
+        }
+      }
+    }
+
+    // min/max values computed by the workers are merged into the importer's
+    assertEquals(expected.getDisplayRangeMin(), imp.getDisplayRangeMin(), 0);
+    assertEquals(expected.getDisplayRangeMax(), imp.getDisplayRangeMax(), 0);
+  }
+
   /** tests BF's options.setCrop() and options.setCropRegion() */
   private void memoryCropTester(int x, int y, int ox, int oy, int cropSize)
   {
@@ -2386,6 +2444,14 @@ public class ImporterTest {
     memoryCropTester(100, 122, 0, 15, 3);
   }
 
+  @Test
+  public void testMemoryParallelRead()
+  {
+    memoryParallelReadTester(FormatTools.UINT8, 4);
+    memoryParallelReadTester(FormatTools.UINT16, 3);
+    memoryParallelReadTester(FormatTools.FLOAT, 2);
+  }
+
   @Test
   public void testSplitChannels()
   {
@@ -0,0 +1,515 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tools;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import loci.common.DebugTools;
+import loci.common.Location;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatWriter;
+import loci.formats.ImageWriter;
+import loci.formats.MetadataTools;
+import loci.formats.in.FakeReader;
+import loci.formats.meta.IMetadata;
+import loci.formats.out.TiffWriter;
+import loci.formats.tiff.IFD;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageGenerator writes large synthetic datasets to disk, for testing how
+ * readers and writers scale without needing real acquisitions.
+ *
+ * Pixel data is generated by {@link FakeReader}, so the output is
+ * deterministic for a given set of options.  Planes are written one tile at
+ * a time when the output format is TIFF-based, so memory use depends on the
+ * tile size rather than the plane size; the OME-XML metadata is still held
+ * in memory and grows with the number of series.
+ *
+ * The output name may contain the same patterns as bfconvert (e.g.
+ * <code>%s</code>, <code>%z</code>, <code>%c</code>, <code>%t</code>) to
+ * split the dataset across multiple files.
+ */
+public class ImageGenerator {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(ImageGenerator.class);
+
+  /**
+   * Planes with at least this many pixels are written as tiles even if no
+   * tile size was specified.
+   */
+  private static final long TILE_THRESHOLD = 4096L * 4096L;
+
+  /** Default tile size used when writing large planes. */
+  private static final int DEFAULT_TILE_SIZE = 512;
+
+  // -- Fields --
+
+  private String out;
+  private String name = "generated";
+
+  private int sizeX = FakeReader.DEFAULT_SIZE_X;
+  private int sizeY = FakeReader.DEFAULT_SIZE_Y;
+  private int sizeZ = FakeReader.DEFAULT_SIZE_Z;
+  private int sizeC = FakeReader.DEFAULT_SIZE_C;
+  private int sizeT = FakeReader.DEFAULT_SIZE_T;
+  private String pixelType =
+    FormatTools.getPixelTypeString(FakeReader.DEFAULT_PIXEL_TYPE);
+  private int seriesCount = 1;
+  private int resolutions = 1;
+
+  private int plates = 0;
+  private int rows = 1;
+  private int columns = 1;
+  private int fields = 1;
+  private int plateAcquisitions = 1;
+
+  private int tileWidth = 0, tileHeight = 0;
+  private String compression = null;
+  private boolean bigtiff = false;
+  private boolean overwrite = false;
+
+  /** Readers generating the pixels for each resolution level. */
+  private FakeReader[] levels;
+
+  private IMetadata metadata;
+
+  private HashMap<String, Integer> nextOutputIndex =
+    new HashMap<String, Integer>();
+
+  // -- ImageGenerator API methods --
+
+  /**
+   * Parse the given argument list.
+   * @return whether or not the argument list is valid
+   */
+  public boolean parseArgs(String[] args) {
+    if (args == null || args.length == 0) {
+      return false;
+    }
+    try {
+      for (int i=0; i<args.length; i++) {
+        if (args[i].startsWith("-")) {
+          if (args[i].equals("-debug")) {
+            DebugTools.enableLogging("DEBUG");
+          }
+          else if (args[i].equals("-name")) name = args[++i];
+          else if (args[i].equals("-sizeX")) {
+            sizeX = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-sizeY")) {
+            sizeY = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-sizeZ")) {
+            sizeZ = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-sizeC")) {
+            sizeC = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-sizeT")) {
+            sizeT = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-pixelType")) pixelType = args[++i];
+          else if (args[i].equals("-series")) {
+            seriesCount = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-resolutions")) {
+            resolutions = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-plates")) {
+            plates = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-rows")) {
+            rows = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-columns")) {
+            columns = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-fields")) {
+            fields = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-runs")) {
+            plateAcquisitions = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-tilex")) {
+            tileWidth = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-tiley")) {
+            tileHeight = Integer.parseInt(args[++i]);
+          }
+          else if (args[i].equals("-compression")) compression = args[++i];
+          else if (args[i].equals("-bigtiff")) bigtiff = true;
+          else if (args[i].equals("-overwrite")) overwrite = true;
+          else {
+            LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
+            return false;
+          }
+        }
+        else if (out == null) out = args[i];
+        else {
+          LOGGER.error("Found unknown argument: {}; exiting.", args[i]);
+          return false;
+        }
+      }
+    }
+    catch (NumberFormatException e) {
+      LOGGER.error("Invalid number: {}", e.getMessage());
+      return false;
+    }
+    catch (ArrayIndexOutOfBoundsException e) {
+      LOGGER.error("Missing value for last option; exiting.");
+      return false;
+    }
+    return out != null;
+  }
+
+  public void printUsage() {
+    String[] s = {
+      "To generate a synthetic dataset, run:",
+      "  mkdataset [-sizeX X] [-sizeY Y] [-sizeZ Z] [-sizeC C] [-sizeT T]",
+      "    [-pixelType type] [-series n] [-resolutions n] [-plates n]",
+      "    [-rows n] [-columns n] [-fields n] [-runs n] [-tilex w]",
+      "    [-tiley h] [-compression codec] [-bigtiff] [-overwrite]",
+      "    [-name name]",
+      "    [-debug] out_file",
+      "",
+      "     out_file: the output file name; it may contain the same",
+      "               patterns as bfconvert (%s, %n, %z, %c, %t) to",
+      "               write each series or plane to a separate file",
+      "   -sizeX etc: image dimensions (default: " +
+        FakeReader.DEFAULT_SIZE_X + " x " + FakeReader.DEFAULT_SIZE_Y +
+        ", one plane)",
+      "   -pixelType: pixel type, e.g. uint8 or uint16 (default: " +
+        pixelType + ")",
+      "      -series: number of series (default: 1)",
+      " -resolutions: number of resolution levels per series, including",
+      "               the full resolution; each further level halves the",
+      "               width and height and is written as its own series",
+      "      -plates: number of plates; -rows, -columns, -fields and -runs",
+      "               then set the plate layout and replace -series",
+      "-tilex/-tiley: tile size for TIFF-based output (default: " +
+        DEFAULT_TILE_SIZE + " for planes of",
+      "               4096 x 4096 pixels or more, whole planes otherwise)",
+      " -compression: codec for output, e.g. LZW",
+      "     -bigtiff: force BigTIFF output",
+      "   -overwrite: replace existing output files",
+      "        -name: image name (default: generated)",
+      "       -debug: turn on debugging output",
+      "",
+      "Example: a tiled, compressed 3-level pyramid with 100 planes:",
+      "  mkdataset -sizeX 40000 -sizeY 40000 -sizeZ 100 -resolutions 3 \\",
+      "    -tilex 512 -tiley 512 -compression LZW -bigtiff big.ome.tif",
+      "",
+      "Multi-file layouts should use a plain TIFF extension, as each",
+      "OME-TIFF file would contain the metadata for the whole dataset.",
+      ""
+    };
+    for (int i=0; i<s.length; i++) {
+      LOGGER.info(s[i]);
+    }
+  }
+
+  /**
+   * Generates the dataset described by the given arguments.
+   * @return whether or not the dataset was written
+   */
+  public boolean generate(String[] args) throws FormatException, IOException {
+    DebugTools.enableLogging("INFO");
+
+    if (!parseArgs(args)) {
+      printUsage();
+      return false;
+    }
+
+    try {
+      FakeImage.isValidRange(resolutions, 1, 31);
+      FakeImage.isValidRange(seriesCount, 1, Integer.MAX_VALUE);
+      FormatTools.pixelTypeFromString(pixelType);
+    }
+    catch (IllegalArgumentException e) {
+      LOGGER.error(e.getMessage());
+      return false;
+    }
+    if ((sizeX >> (resolutions - 1)) < 1 || (sizeY >> (resolutions - 1)) < 1)
+    {
+      LOGGER.error("Too many resolutions for a {} x {} image", sizeX, sizeY);
+      return false;
+    }
+
+    long start = System.currentTimeMillis();
+    initialize();
+
+    IFormatWriter writer = new ImageWriter();
+    writer.setMetadataRetrieve(metadata);
+    writer.setWriteSequentially(true);
+    writer.setInterleaved(false);
+
+    int baseSeries = levels[0].getSeriesCount();
+    int totalSeries = baseSeries * resolutions;
+    long bytes = 0;
+    long timeLastLogged = System.currentTimeMillis();
+    String currentFile = null;
+
+    for (int series=0; series<totalSeries; series++) {
+      FakeReader source = levels[series / baseSeries];
+      source.setSeries(series / baseSeries == 0 ? series : 0);
+      int imageCount = source.getImageCount();
+
+      for (int plane=0; plane<imageCount; plane++) {
+        String file = getFilename(series, plane);
+        if (!file.equals(currentFile)) {
+          if (currentFile != null) {
+            writer.close();
+          }
+          if (!checkOutputFile(file)) {
+            return false;
+          }
+          writer.setMetadataRetrieve(metadata);
+          setBigTiff(writer, file);
+          writer.setId(file);
+          if (compression != null) writer.setCompression(compression);
+          currentFile = file;
+        }
+        writer.setSeries(series);
+
+        int outputIndex = 0;
+        if (nextOutputIndex.containsKey(file)) {
+          outputIndex = nextOutputIndex.get(file);
+        }
+        bytes += writePlane(writer, source, plane, outputIndex, file);
+        nextOutputIndex.put(file, outputIndex + 1);
+        if (plane == imageCount - 1) {
+          nextOutputIndex.remove(file);
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - timeLastLogged >= 1000) {
+          LOGGER.info("\tSeries {}/{}: wrote {}/{} planes", new Object[] {
+            series + 1, totalSeries, plane + 1, imageCount});
+          timeLastLogged = now;
+        }
+      }
+    }
+    writer.close();
+    for (FakeReader level : levels) {
+      level.close();
+    }
+
+    long end = System.currentTimeMillis();
+    float sec = (end - start) / 1000f;
+    float mb = bytes / (1024f * 1024f);
+    LOGGER.info("{}s elapsed, {} MB of pixels written ({} MB/s)",
+      new Object[] {sec, mb, sec > 0 ? mb / sec : mb});
+    return true;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Sets up one {@link FakeReader} per resolution level, and adds the
+   * images for the reduced resolutions to the full resolution's metadata.
+   */
+  private void initialize() throws FormatException, IOException {
+    levels = new FakeReader[resolutions];
+    for (int r=0; r<resolutions; r++) {
+      StringBuilder id = new StringBuilder(name);
+      appendToken(id, "sizeX", sizeX >> r);
+      appendToken(id, "sizeY", sizeY >> r);
+      appendToken(id, "sizeZ", sizeZ);
+      appendToken(id, "sizeC", sizeC);
+      appendToken(id, "sizeT", sizeT);
+      id.append("&pixelType=").append(pixelType);
+      if (r == 0) {
+        if (plates > 0) {
+          appendToken(id, "plates", plates);
+          appendToken(id, "plateRows", rows);
+          appendToken(id, "plateCols", columns);
+          appendToken(id, "fields", fields);
+          appendToken(id, "plateAcqs", plateAcquisitions);
+        }
+        else {
+          appendToken(id, "series", seriesCount);
+        }
+      }
+      id.append(".fake");
+
+      levels[r] = new FakeReader();
+      if (r == 0) {
+        metadata = MetadataTools.createOMEXMLMetadata();
+        levels[r].setMetadataStore(metadata);
+      }
+      levels[r].setId(id.toString());
+    }
+
+    int baseSeries = levels[0].getSeriesCount();
+    for (int r=1; r<resolutions; r++) {
+      FakeReader level = levels[r];
+      for (int s=0; s<baseSeries; s++) {
+        String imageName = metadata.getImageName(s);
+        if (imageName == null) imageName = name;
+        MetadataTools.populateMetadata(metadata, r * baseSeries + s,
+          imageName + " resolution " + r, level.isLittleEndian(),
+          level.getDimensionOrder(),
+          FormatTools.getPixelTypeString(level.getPixelType()),
+          level.getSizeX(), level.getSizeY(), level.getSizeZ(),
+          level.getSizeC(), level.getSizeT(), level.getRGBChannelCount());
+      }
+    }
+  }
+
+  private void appendToken(StringBuilder id, String key, int value) {
+    id.append("&").append(key).append("=").append(value);
+  }
+
+  /**
+   * Returns the file to which the given plane is written.  The series
+   * patterns are replaced here, as reduced resolution series are not known
+   * to the full resolution reader.
+   */
+  private String getFilename(int series, int plane)
+    throws FormatException, IOException
+  {
+    int baseSeries = levels[0].getSeriesCount();
+    String imageName = metadata.getImageName(series);
+    if (imageName == null) imageName = "Series" + series;
+    imageName = imageName.replaceAll("/", "_").replaceAll("\\\\", "_");
+    String pattern = out.replaceAll(FormatTools.SERIES_NUM,
+      String.valueOf(series));
+    pattern = pattern.replaceAll(FormatTools.SERIES_NAME, imageName);
+    return FormatTools.getFilename(series % baseSeries, plane, levels[0],
+      pattern);
+  }
+
+  /**
+   * Checks whether the given output file may be written, deleting it if
+   * it exists and overwriting was requested.
+   */
+  private boolean checkOutputFile(String file) {
+    Location f = new Location(file);
+    if (f.exists()) {
+      if (!overwrite) {
+        LOGGER.error("Output file {} exists; use -overwrite to replace it.",
+          file);
+        return false;
+      }
+      f.delete();
+    }
+    Location parent = f.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists()) {
+      parent.mkdirs();
+    }
+    return true;
+  }
+
+  private void setBigTiff(IFormatWriter writer, String file)
+    throws FormatException
+  {
+    IFormatWriter w = writer;
+    if (w instanceof ImageWriter) {
+      w = ((ImageWriter) w).getWriter(file);
+    }
+    if (w instanceof TiffWriter) {
+      ((TiffWriter) w).setBigTiff(bigtiff);
+    }
+  }
+
+  /**
+   * Writes a single plane, tile by tile if the output format allows it.
+   * @return the number of pixel bytes written
+   */
+  private long writePlane(IFormatWriter writer, FakeReader source, int plane,
+    int outputIndex, String file)
+    throws FormatException, IOException
+  {
+    int width = source.getSizeX();
+    int height = source.getSizeY();
+    int bpp = FormatTools.getBytesPerPixel(source.getPixelType()) *
+      source.getRGBChannelCount();
+
+    IFormatWriter w = writer;
+    if (w instanceof ImageWriter) {
+      w = ((ImageWriter) w).getWriter(file);
+    }
+
+    boolean tiled = tileWidth > 0 || tileHeight > 0 ||
+      (long) width * height >= TILE_THRESHOLD;
+    if (!tiled || !(w instanceof TiffWriter)) {
+      if ((long) width * height * bpp > Integer.MAX_VALUE) {
+        throw new FormatException("Plane is too large to write to " +
+          w.getFormat() + " without tiles");
+      }
+      byte[] buf = source.openBytes(plane);
+      writer.saveBytes(outputIndex, buf);
+      return buf.length;
+    }
+
+    int w0 = tileWidth > 0 ? Math.min(tileWidth, width) :
+      Math.min(DEFAULT_TILE_SIZE, width);
+    int h0 = tileHeight > 0 ? Math.min(tileHeight, height) :
+      Math.min(DEFAULT_TILE_SIZE, height);
+
+    IFD ifd = new IFD();
+    ifd.put(IFD.TILE_WIDTH, w0);
+    ifd.put(IFD.TILE_LENGTH, h0);
+
+    byte[] tile = new byte[w0 * h0 * bpp];
+    long bytes = 0;
+    for (int y=0; y<height; y+=h0) {
+      for (int x=0; x<width; x+=w0) {
+        int tw = Math.min(w0, width - x);
+        int th = Math.min(h0, height - y);
+        byte[] buf = tw == w0 && th == h0 ? tile : new byte[tw * th * bpp];
+        source.openBytes(plane, buf, x, y, tw, th);
+        ((TiffWriter) w).saveBytes(outputIndex, buf, ifd, x, y, tw, th);
+        bytes += buf.length;
+      }
+    }
+    return bytes;
+  }
+
+  // -- Main method --
+
+  public static void main(String[] args) throws Exception {
+    if (!new ImageGenerator().generate(args)) {
+      System.exit(1);
+    }
+  }
+
+}
@@ -33,12 +33,30 @@
 package loci.formats.tools;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.ByteArrayHandle;
+import loci.common.Constants;
 import loci.common.DataTools;
 import loci.common.DebugTools;
 import loci.common.Location;
@@ -135,6 +153,9 @@ public class ImageInfo {
   private String format = null;
   private String cachedir = null;
   private int xmlSpaces = 3;
+  private String batch = null;
+  private String batchOutput = null;
+  private int threads = Runtime.getRuntime().availableProcessors();
 
   private IFormatReader reader;
   private IFormatReader baseReader;
@@ -188,6 +209,9 @@ public class ImageInfo {
     shuffleOrder = null;
     map = null;
     cachedir = null;
+    batch = null;
+    batchOutput = null;
+    threads = Runtime.getRuntime().availableProcessors();
     if (args == null) return false;
     for (int i=0; i<args.length; i++) {
       if (args[i].startsWith("-")) {
@@ -270,6 +294,21 @@ public class ImageInfo {
             cache = true;
             cachedir = args[++i];
         }
+        else if (args[i].equals("-batch")) batch = args[++i];
+        else if (args[i].equals("-batch-output")) batchOutput = args[++i];
+        else if (args[i].equals("-threads")) {
+          String value = args[++i];
+          try {
+            threads = Integer.parseInt(value);
+          }
+          catch (NumberFormatException exc) {
+            threads = 0;
+          }
+          if (threads < 1) {
+            LOGGER.error("Invalid thread count: {}; exiting.", value);
+            return false;
+          }
+        }
         else if (!args[i].equals(NO_UPGRADE_CHECK)) {
           LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
           return false;
@@ -298,6 +337,11 @@ public class ImageInfo {
       "    [-omexml-only] [-no-sas] [-no-upgrade] [-noflat] [-format Format]",
       "    [-cache] [-cache-dir dir]",
       "",
+      "To initialize many files and write one JSON line per file, run:",
+      "  showinf -batch list [-threads num] [-batch-output file] [-omexml]",
+      "    [-nometa] [-nocore] [-nogroup] [-format Format] [-cache]",
+      "    [-cache-dir dir]",
+      "",
       "    -version: print the library version and exit",
       "        file: the image file to read",
       "      -nopix: read metadata only, not pixels",
@@ -337,6 +381,12 @@ public class ImageInfo {
       "  -cache-dir: use the specified directory to store the cached",
       "              initialized reader. If unspecified, the cached reader",
       "              will be stored under the same folder as the image file",
+      "      -batch: initialize every file listed (one per line) in the given",
+      "              text file, or found under the given directory",
+      "    -threads: number of files to initialize at once in batch mode",
+      "              (default: number of processors)",
+      "-batch-output: write the batch results to the given file instead of",
+      "              standard output",
       "",
       "* = may result in loss of precision",
       ""
@@ -350,6 +400,16 @@ public class ImageInfo {
 
   public void createReader() {
     if (reader != null) return; // reader was set programmatically
+    reader = createBaseReader();
+    baseReader = reader;
+  }
+
+  /**
+   * Creates a reader for the format given with -format, or an ImageReader
+   * if no format was given.
+   */
+  private IFormatReader createBaseReader() {
+    IFormatReader reader = null;
     if (format != null) {
       // create reader of a specific format type
       try {
@@ -370,7 +430,7 @@ public class ImageInfo {
       }
     }
     if (reader == null) reader = new ImageReader();
-    baseReader = reader;
+    return reader;
   }
 
   public void mapLocation() throws IOException {
@@ -1012,6 +1072,7 @@ public class ImageInfo {
       LOGGER.info("Build date: {}", FormatTools.DATE);
       return true;
     }
+    if (batch != null) return readBatch();
 
     createReader();
 
@@ -1101,6 +1162,272 @@ public class ImageInfo {
     }
   }
 
+  // -- Batch mode --
+
+  /**
+   * Initializes every file named by the -batch argument on a pool of
+   * worker threads, each with its own reader, and writes one line of JSON
+   * per file with its core metadata (and OME-XML, with -omexml), the time
+   * taken and any error. Files already used by a dataset that was read
+   * earlier in the batch are skipped.
+   * @return true if every file was initialized successfully
+   */
+  public boolean readBatch() throws IOException {
+    List<String> files = getBatchFiles(batch);
+    LOGGER.info("Initializing {} files with {} threads", files.size(),
+      threads);
+
+    final PrintStream out = batchOutput == null ? System.out :
+      new PrintStream(new FileOutputStream(batchOutput), true,
+      Constants.ENCODING);
+    final Set<String> used =
+      Collections.synchronizedSet(new HashSet<String>());
+    final List<IFormatReader> readers =
+      Collections.synchronizedList(new ArrayList<IFormatReader>());
+    final ThreadLocal<IFormatReader> threadReader =
+      new ThreadLocal<IFormatReader>() {
+        @Override
+        protected IFormatReader initialValue() {
+          IFormatReader r = createBatchReader();
+          readers.add(r);
+          return r;
+        }
+      };
+    final AtomicInteger failed = new AtomicInteger();
+    final AtomicInteger skipped = new AtomicInteger();
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads,
+      new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "showinf-batch-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+    long start = System.currentTimeMillis();
+    List<Future<?>> results = new ArrayList<Future<?>>();
+    for (final String file : files) {
+      results.add(pool.submit(new Runnable() {
+        @Override
+        public void run() {
+          if (used.contains(new Location(file).getAbsolutePath())) {
+            LOGGER.debug("Skipping {}; already read as part of a dataset",
+              file);
+            skipped.incrementAndGet();
+            return;
+          }
+          String line =
+            readBatchFile(threadReader.get(), file, used, failed);
+          synchronized (out) {
+            out.println(line);
+          }
+        }
+      }));
+    }
+    try {
+      for (Future<?> result : results) {
+        result.get();
+      }
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    finally {
+      pool.shutdown();
+      for (IFormatReader r : readers) {
+        r.close();
+      }
+      if (out != System.out) out.close();
+    }
+
+    float sec = (System.currentTimeMillis() - start) / 1000f;
+    LOGGER.info("Initialized {} files in {}s ({} failed, {} skipped)",
+      new Object[] {files.size() - skipped.get(), sec, failed.get(),
+      skipped.get()});
+    return failed.get() == 0;
+  }
+
+  /**
+   * Returns the files listed in the given text file, one per line, or all
+   * files found under the given directory. In a list, blank lines and lines
+   * starting with '#' are ignored.
+   */
+  private List<String> getBatchFiles(String path) throws IOException {
+    List<String> files = new ArrayList<String>();
+    File f = new File(path);
+    if (f.isDirectory()) {
+      addBatchFiles(f, files);
+      return files;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+      new FileInputStream(f), Constants.ENCODING));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() > 0 && !line.startsWith("#")) files.add(line);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return files;
+  }
+
+  private void addBatchFiles(File dir, List<String> files) {
+    File[] list = dir.listFiles();
+    if (list == null) return;
+    Arrays.sort(list);
+    for (File f : list) {
+      if (f.isHidden()) continue;
+      if (f.isDirectory()) addBatchFiles(f, files);
+      else files.add(f.getPath());
+    }
+  }
+
+  /** Creates the reader used by one batch worker thread. */
+  private IFormatReader createBatchReader() {
+    IFormatReader r = createBaseReader();
+    if (cache) {
+      if (cachedir != null) {
+        r = new Memoizer(r, 0, new File(cachedir));
+      }
+      else {
+        r = new Memoizer(r, 0);
+      }
+    }
+    r.setOriginalMetadataPopulated(originalMetadata);
+    r.setMetadataFiltered(filter);
+    r.setGroupFiles(group);
+    r.setMetadataOptions(new DefaultMetadataOptions(doMeta ?
+      MetadataLevel.ALL : MetadataLevel.MINIMUM));
+    r.setFlattenedResolutions(flat);
+    return r;
+  }
+
+  /**
+   * Initializes a single file and returns its result as one line of JSON.
+   * The file's used files are added to the given set; failures, including
+   * errors such as running out of memory, are counted in the given counter
+   * so that one bad file does not stop the rest of the batch.
+   */
+  String readBatchFile(IFormatReader r, String file, Set<String> used,
+    AtomicInteger failed)
+  {
+    StringBuilder json = new StringBuilder("{\"file\":");
+    appendJSON(json, file);
+    long start = System.currentTimeMillis();
+    try {
+      OMEXMLService service = null;
+      if (omexml) {
+        service = new ServiceFactory().getInstance(OMEXMLService.class);
+        r.setMetadataStore(service.createOMEXMLMetadata(null, omexmlVersion));
+      }
+      r.setId(file);
+      long init = System.currentTimeMillis() - start;
+
+      String[] usedFiles = r.getUsedFiles();
+      for (String u : usedFiles) {
+        used.add(new Location(u).getAbsolutePath());
+      }
+      json.append(",\"format\":");
+      appendJSON(json, r.getFormat());
+      json.append(",\"initTime\":").append(init);
+      json.append(",\"usedFiles\":").append(usedFiles.length);
+      json.append(",\"seriesCount\":").append(r.getSeriesCount());
+      if (doCore) {
+        json.append(",\"series\":[");
+        for (int s=0; s<r.getSeriesCount(); s++) {
+          r.setSeries(s);
+          if (s > 0) json.append(',');
+          json.append("{\"sizeX\":").append(r.getSizeX());
+          json.append(",\"sizeY\":").append(r.getSizeY());
+          json.append(",\"sizeZ\":").append(r.getSizeZ());
+          json.append(",\"sizeC\":").append(r.getSizeC());
+          json.append(",\"sizeT\":").append(r.getSizeT());
+          json.append(",\"imageCount\":").append(r.getImageCount());
+          json.append(",\"pixelType\":");
+          appendJSON(json, FormatTools.getPixelTypeString(r.getPixelType()));
+          json.append(",\"bitsPerPixel\":").append(r.getBitsPerPixel());
+          json.append(",\"dimensionOrder\":");
+          appendJSON(json, r.getDimensionOrder());
+          json.append(",\"rgb\":").append(r.isRGB());
+          json.append(",\"interleaved\":").append(r.isInterleaved());
+          json.append(",\"indexed\":").append(r.isIndexed());
+          json.append(",\"littleEndian\":").append(r.isLittleEndian());
+          json.append(",\"resolutionCount\":")
+            .append(r.getResolutionCount());
+          json.append('}');
+        }
+        json.append(']');
+      }
+      if (service != null) {
+        MetadataStore store = r.getMetadataStore();
+        if (store instanceof MetadataRetrieve) {
+          json.append(",\"omexml\":");
+          appendJSON(json, service.getOMEXML((MetadataRetrieve) store));
+        }
+      }
+    }
+    catch (Throwable e) {
+      LOGGER.debug("Could not initialize {}", file, e);
+      failed.incrementAndGet();
+      json.append(",\"error\":");
+      appendJSON(json, String.valueOf(e));
+    }
+    finally {
+      try {
+        r.close();
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not close {}", file, e);
+      }
+    }
+    json.append(",\"time\":").append(System.currentTimeMillis() - start);
+    json.append('}');
+    return json.toString();
+  }
+
+  /** Appends the given value as a quoted JSON string. */
+  private static void appendJSON(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i=0; i<value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+          else sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+
   // -- Main method --
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Bio-Formats command line tools for reading and converting files
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tools;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import loci.common.Constants;
+import loci.formats.FormatException;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the JSON lines written by showinf's -batch mode.
+ */
+public class ImageInfoTest {
+
+  private static final String[] FILES = {
+    "a&sizeX=64&sizeY=32&sizeZ=2.fake",
+    "b&sizeX=16&sizeY=8&sizeC=3&pixelType=uint16.fake",
+    "c&series=2.fake"
+  };
+
+  private File dir;
+  private File list;
+  private File output;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = File.createTempFile("showinf-batch", "");
+    dir.delete();
+    dir.mkdir();
+    list = new File(dir, "files.txt");
+    output = new File(dir, "output.json");
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream(list), Constants.ENCODING));
+    try {
+      out.println("# fake files");
+      for (String file : FILES) {
+        File f = new File(dir, file);
+        f.createNewFile();
+        out.println(f.getAbsolutePath());
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) f.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testBatchOutput() throws Exception {
+    ImageInfo info = new ImageInfo();
+    assertTrue(info.testRead(new String[] {"-nopix", "-threads", "2",
+      "-batch", list.getAbsolutePath(),
+      "-batch-output", output.getAbsolutePath()}));
+
+    List<String> lines = readLines(output);
+    assertEquals(FILES.length, lines.size());
+    for (String file : FILES) {
+      String line = findLine(lines, file);
+      assertTrue(line, line.startsWith("{\"file\":\""));
+      assertTrue(line, line.endsWith("}"));
+      assertTrue(line, line.contains("\"format\":\"Simulated data\""));
+      assertFalse(line, line.contains("\"error\""));
+    }
+    String a = findLine(lines, FILES[0]);
+    assertTrue(a, a.contains("\"seriesCount\":1"));
+    assertTrue(a, a.contains("\"sizeX\":64,\"sizeY\":32,\"sizeZ\":2"));
+    String b = findLine(lines, FILES[1]);
+    assertTrue(b, b.contains("\"sizeC\":3"));
+    assertTrue(b, b.contains("\"pixelType\":\"uint16\""));
+    String c = findLine(lines, FILES[2]);
+    assertTrue(c, c.contains("\"seriesCount\":2"));
+  }
+
+  @Test
+  public void testBatchFileError() {
+    ImageInfo info = new ImageInfo();
+    AtomicInteger failed = new AtomicInteger();
+    FakeReader reader = new FakeReader() {
+      @Override
+      public void setId(String id) throws FormatException, IOException {
+        throw new StackOverflowError("bad file");
+      }
+    };
+    String line = info.readBatchFile(reader,
+      new File(dir, FILES[0]).getAbsolutePath(), new HashSet<String>(),
+      failed);
+    assertEquals(1, failed.get());
+    assertTrue(line, line.contains(
+      "\"error\":\"java.lang.StackOverflowError: bad file\""));
+    assertTrue(line, line.contains("\"time\":"));
+  }
+
+  @Test
+  public void testInvalidThreads() {
+    assertFalse(new ImageInfo().parseArgs(new String[] {
+      "-threads", "many", "-batch", list.getAbsolutePath()}));
+    assertFalse(new ImageInfo().parseArgs(new String[] {
+      "-threads", "0", "-batch", list.getAbsolutePath()}));
+    assertTrue(new ImageInfo().parseArgs(new String[] {
+      "-threads", "3", "-batch", list.getAbsolutePath()}));
+  }
+
+  // -- Helper methods --
+
+  private static List<String> readLines(File f) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+      new FileInputStream(f), Constants.ENCODING));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) lines.add(line);
+    }
+    finally {
+      in.close();
+    }
+    return lines;
+  }
+
+  private static String findLine(List<String> lines, String file) {
+    for (String line : lines) {
+      if (line.contains(file)) return line;
+    }
+    throw new AssertionError("No output for " + file);
+  }
+
+}
@@ -74,6 +74,8 @@
  * */
 package jj2000.j2k.entropy.decoder;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
 
 import jj2000.j2k.wavelet.synthesis.*;
 import jj2000.j2k.wavelet.*;
@@ -120,24 +122,9 @@ public class StdEntropyDecoder extends EntropyDecoder
      * component. */
     private long time[];
 
-    /** The bit based input for arithmetic coding bypass (i.e. raw) coding */
-    private ByteToBitInput bin;
-
-    /** The MQ decoder to use. It has in as the underlying source of coded
-     * data. */
-    private MQDecoder mq;
-
     /** The decoder spec */
     private DecoderSpecs decSpec;
 
-    /** The options that are turned on, as flag bits. The options are
-     * 'OPT_TERM_PASS', 'OPT_RESET_MQ', 'OPT_VERT_STR_CAUSAL', 'OPT_BYPASS' and
-     * 'OPT_SEG_SYMBOLS' as defined in the StdEntropyCoderOptions interface
-     *
-     * @see StdEntropyCoderOptions
-     **/
-    private int options;
-
     /** Flag to indicate if we should try to detect errors or just ignore any
      * error resilient information */
     private final boolean doer;
@@ -207,7 +194,10 @@ public class StdEntropyDecoder extends EntropyDecoder
     private static final int SEG_SYMBOL = 10;
 
     /**
-     * The state array for entropy coding. Each element of the state array
+     * The length of the state array for entropy coding. Each code-block that
+     * is being decoded has its own state array, see 'DecoderState'.
+     *
+     * <P>Each element of the state array
      * stores the state of two coefficients. The lower 16 bits store the state
      * of a coefficient in row 'i' and column 'j', while the upper 16 bits
      * store the state of a coefficient in row 'i+1' and column 'j'. The 'i'
@@ -239,7 +229,7 @@ public class StdEntropyDecoder extends EntropyDecoder
      * <P>The lower 16 bits are referred to as "row 1" ("R1") while the upper
      * 16 bits are referred to as "row 2" ("R2").
      * */
-    private final int state[];
+    private final int stateLength;
 
     /** The separation between the upper and lower bits in the state array: 16
      * */
@@ -409,9 +399,11 @@ public class StdEntropyDecoder extends EntropyDecoder
      * information. It is to be applied after the 'MR_SHIFT' */
     private static final int MR_MASK = (1<<9)-1;
 
-    /** The source code-block to entropy code (avoids reallocation for each
-        code-block). */
-    private DecLyrdCBlk srcblk;
+    /** The decoding states that are not in use. So that code-blocks can be
+     * decoded concurrently, each call to 'getCodeBlock()' takes one of them,
+     * or creates one if there is none, and gives it back when done. */
+    private final List<DecoderState> decoderStates =
+        new ArrayList<DecoderState>();
 
     /** The maximum number of bit planes to decode for any code-block */
     private int mQuit;
@@ -656,8 +648,8 @@ public class StdEntropyDecoder extends EntropyDecoder
         }
 
         // Initialize internal variables
-        state = new int[(decSpec.cblks.getMaxCBlkWidth()+2) *
-                       ((decSpec.cblks.getMaxCBlkHeight()+1)/2+2)];
+        stateLength = (decSpec.cblks.getMaxCBlkWidth()+2) *
+            ((decSpec.cblks.getMaxCBlkHeight()+1)/2+2);
     }
 
     /**
@@ -729,6 +721,48 @@ public class StdEntropyDecoder extends EntropyDecoder
      * */
     public DataBlk getCodeBlock(int c, int m, int n, SubbandSyn sb,
                                 DataBlk cblk) {
+        DecoderState ds = null;
+        synchronized (decoderStates) {
+            if (!decoderStates.isEmpty()) {
+                ds = decoderStates.remove(decoderStates.size()-1);
+            }
+        }
+        if (ds == null) {
+            ds = new DecoderState(stateLength);
+        }
+        try {
+            return getCodeBlock(c,m,n,sb,cblk,ds);
+        } finally {
+            synchronized (decoderStates) {
+                decoderStates.add(ds);
+            }
+        }
+    }
+
+    /**
+     * Returns the specified code-block in the current tile for the specified
+     * component, decoding it with the given decoding state. See
+     * 'getCodeBlock(int,int,int,SubbandSyn,DataBlk)'.
+     *
+     * @param c The component for which to return the next code-block.
+     *
+     * @param m The vertical index of the code-block to return, in the
+     * specified subband.
+     *
+     * @param n The horizontal index of the code-block to return, in the
+     * specified subband.
+     *
+     * @param sb The subband in which the code-block to return is.
+     *
+     * @param cblk If non-null this object will be used to return the new
+     * code-block.
+     *
+     * @param ds The decoding state to use, which no other call may be using.
+     *
+     * @return The decoded code-block.
+     * */
+    private DataBlk getCodeBlock(int c, int m, int n, SubbandSyn sb,
+                                 DataBlk cblk, DecoderState ds) {
         long stime = 0L;  // Start time for timed sections
         int zc_lut[];     // The ZC lookup table to use
         int out_data[];   // The outupt data buffer
@@ -741,13 +775,21 @@ public class StdEntropyDecoder extends EntropyDecoder
 
         boolean isterm;
 
-        // Get the code-block to decode
-        srcblk = src.getCodeBlock(c,m,n,sb,1,-1,srcblk);
+        int state[] = ds.state;
+        MQDecoder mq = ds.mq;
+        ByteToBitInput bin = ds.bin;
+        DecLyrdCBlk srcblk;
+
+        // Get the code-block to decode. The source reads from a shared
+        // stream, so code-blocks are read one at a time.
+        synchronized (src) {
+            srcblk = ds.srcblk = src.getCodeBlock(c,m,n,sb,1,-1,ds.srcblk);
+        }
         if (DO_TIMING) stime = System.currentTimeMillis();
 
         // Retrieve options from decSpec
-        options = ((Integer)decSpec.ecopts.
-                   getTileCompVal(tIdx,c)).intValue();
+        int options = ((Integer)decSpec.ecopts.
+                       getTileCompVal(tIdx,c)).intValue();
 
         // Reset state
         ArrayUtil.intArraySet(state,0);
@@ -785,7 +827,7 @@ public class StdEntropyDecoder extends EntropyDecoder
         npasses = srcblk.nTrunc;
         if (mq == null) {
             in = new ByteInputBuffer(srcblk.data,0,tslen);
-            mq = new MQDecoder(in ,NUM_CTXTS,MQ_INIT);
+            mq = ds.mq = new MQDecoder(in ,NUM_CTXTS,MQ_INIT);
         }
         else {
             // We always start by an MQ segment
@@ -797,7 +839,7 @@ public class StdEntropyDecoder extends EntropyDecoder
         if ((options & OPT_BYPASS) != 0) {
             if(bin==null){
                 if (in == null) in = mq.getByteInputBuffer();
-                bin = new ByteToBitInput(in);
+                bin = ds.bin = new ByteToBitInput(in);
             }
         }
 
@@ -840,7 +882,7 @@ public class StdEntropyDecoder extends EntropyDecoder
             isterm = (options & OPT_TERM_PASS) != 0 ||
                 ((options & OPT_BYPASS) != 0 &&
                  (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-            error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+            error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm,options);
             npasses--;
             if (!error || !doer) curbp--;
         }
@@ -857,7 +899,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     // Here starts a new raw segment
                     bin.setByteArray(null,-1,srcblk.tsLengths[++tsidx]);
                     isterm = (options & OPT_TERM_PASS) != 0;
-                    error = rawSigProgPass(cblk,bin,curbp,state,isterm);
+                    error = rawSigProgPass(cblk,bin,curbp,state,isterm,options);
                     npasses--;
                     if (npasses <= 0 || (error && doer)) break;
 
@@ -868,7 +910,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     isterm = (options & OPT_TERM_PASS) != 0 ||
                         ((options & OPT_BYPASS) != 0 &&
                          (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP>curbp));
-                    error = rawMagRefPass(cblk,bin,curbp,state,isterm);
+                    error = rawMagRefPass(cblk,bin,curbp,state,isterm,options);
                 }
                 else {// Do not use bypass decoding mode
                     if ((options & OPT_TERM_PASS) != 0) {
@@ -876,7 +918,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                         mq.nextSegment(null,-1,srcblk.tsLengths[++tsidx]);
                     }
                     isterm = (options & OPT_TERM_PASS) != 0;
-                    error = sigProgPass(cblk,mq,curbp,state,zc_lut,isterm);
+                    error = sigProgPass(cblk,mq,curbp,state,zc_lut,isterm,options);
                     npasses--;
                     if (npasses <= 0 || (error && doer)) break;
 
@@ -887,7 +929,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                     isterm = (options & OPT_TERM_PASS) != 0 ||
                         ((options & OPT_BYPASS) != 0 &&
                          (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP>curbp));
-                    error = magRefPass(cblk,mq,curbp,state,isterm);
+                    error = magRefPass(cblk,mq,curbp,state,isterm,options);
                 }
 
                 npasses--;
@@ -902,7 +944,7 @@ public class StdEntropyDecoder extends EntropyDecoder
                 isterm = (options & OPT_TERM_PASS) != 0 ||
                     ((options & OPT_BYPASS) != 0 &&
                      (31-NUM_NON_BYPASS_MS_BP-srcblk.skipMSBP)>=curbp);
-                error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm);
+                error = cleanuppass(cblk,mq,curbp,state,zc_lut,isterm,options);
                 npasses--;
                 if (error) break;
                 // Goto next bit-plane
@@ -1005,10 +1047,14 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options of the code-block's
+     * tile-component.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean sigProgPass(DataBlk cblk, MQDecoder mq, int bp,
-                                int state[], int zc_lut[], boolean isterm) {
+                                int state[], int zc_lut[], boolean isterm,
+                                int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1356,10 +1402,14 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options of the code-block's
+     * tile-component.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean rawSigProgPass(DataBlk cblk, ByteToBitInput bin, int bp,
-                                   int state[], boolean isterm) {
+                                   int state[], boolean isterm,
+                                   int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1686,10 +1736,14 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options of the code-block's
+     * tile-component.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean magRefPass(DataBlk cblk, MQDecoder mq, int bp,
-                               int state[], boolean isterm) {
+                               int state[], boolean isterm,
+                               int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1848,10 +1902,14 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options of the code-block's
+     * tile-component.
+     *
      * @return True if an error was detected in the bit stream, false otherwise.
      * */
     private boolean rawMagRefPass(DataBlk cblk, ByteToBitInput bin, int bp,
-                                  int state[], boolean isterm) {
+                                  int state[], boolean isterm,
+                                  int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -1995,11 +2053,15 @@ public class StdEntropyDecoder extends EntropyDecoder
      * @param isterm If this pass has been terminated. If the pass has been
      * terminated it can be used to check error resilience.
      *
+     * @param options The entropy coding options of the code-block's
+     * tile-component.
+     *
      * @return True if an error was detected in the bit stream, false
      * otherwise.
      * */
     private boolean cleanuppass(DataBlk cblk, MQDecoder mq, int bp,
-                                int state[], int zc_lut[], boolean isterm) {
+                                int state[], int zc_lut[], boolean isterm,
+                                int options) {
         int j,sj;        // The state index for line and stripe
         int k,sk;        // The data index for line and stripe
         int dscanw;      // The data scan-width
@@ -2522,4 +2584,30 @@ public class StdEntropyDecoder extends EntropyDecoder
         }
 
     }
+
+    /**
+     * The decoding state used for one code-block at a time: the state array, the MQ decoder
+     * and the bit based input for raw coding, and the source code-block
+     * (avoids reallocation for each code-block).
+     * */
+    private static class DecoderState {
+
+        /** The state array, see 'stateLength' */
+        final int state[];
+
+        /** The MQ decoder to use. It has in as the underlying source of
+         * coded data. */
+        MQDecoder mq;
+
+        /** The bit based input for arithmetic coding bypass (i.e. raw)
+         * coding */
+        ByteToBitInput bin;
+
+        /** The source code-block to entropy code */
+        DecLyrdCBlk srcblk;
+
+        DecoderState(int stateLength) {
+            state = new int[stateLength];
+        }
+    }
 }
@@ -88,6 +88,8 @@ import jj2000.j2k.image.*;
 import jj2000.j2k.io.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class implements a scalar dequantizer with deadzone. The output can be
@@ -127,15 +129,10 @@ public class StdDequantizer extends Dequantizer {
     /** The number of guard bits spec */
     private GuardBitsSpec gbs;
 
-    /** The decoding parameters of the dequantizer */
-    private StdDequantizerParams params;
-
-    /** The 'DataBlkInt' object used to request data, used when output data is
-     * not int */
-    private DataBlkInt inblk;
-
-    /** Type of the current output data */
-    private int outdtype;
+    /** The 'DataBlkInt' objects used to request data, used when output data
+     * is not int. As code-blocks may be dequantized concurrently, each call
+     * takes one of them and gives it back when done. */
+    private final List<DataBlkInt> inblks = new ArrayList<DataBlkInt>();
 
     /**
      * Initializes the source of compressed data. And sets the number of range
@@ -291,7 +288,9 @@ public class StdDequantizer extends Dequantizer {
 	    params = (StdDequantizerParams)qsss.getTileCompVal(tIdx,c);
         int G = ((Integer)gbs.getTileCompVal(tIdx,c)).intValue();
 
-        outdtype = cblk.getDataType();
+        // Type of the current output data
+        int outdtype = cblk.getDataType();
+        DataBlkInt inblk = null;
 
         if (reversible && outdtype!=DataBlk.TYPE_INT) {
             throw new IllegalArgumentException("Reversible quantizations "+
@@ -316,6 +315,11 @@ public class StdDequantizer extends Dequantizer {
         case DataBlk.TYPE_FLOAT:
             // With float data we must use a different DataBlk objects to get
             // the data from the source and to return the dequantized data.
+            synchronized (inblks) {
+                if (!inblks.isEmpty()) {
+                    inblk = inblks.remove(inblks.size()-1);
+                }
+            }
             inblk = (DataBlkInt) src.getInternCodeBlock(c,m,n,sb,inblk);
             inarr = inblk.getDataInt();
             if (cblk == null) {
@@ -399,6 +403,11 @@ public class StdDequantizer extends Dequantizer {
                 break;
             }
         }
+        if (inblk != null) {
+            synchronized (inblks) {
+                inblks.add(inblk);
+            }
+        }
         // Return the output code-block
         return cblk;
     }
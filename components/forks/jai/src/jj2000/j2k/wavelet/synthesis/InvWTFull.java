@@ -77,6 +77,15 @@
  * */
 package jj2000.j2k.wavelet.synthesis;
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jj2000.j2k.wavelet.*;
 import jj2000.j2k.decoder.*;
@@ -110,6 +119,27 @@ import jj2000.j2k.util.*;
  * */
 public class InvWTFull extends InverseWT {
 
+    /**
+     * The name of the system property giving the number of threads used to
+     * entropy decode code-blocks and to perform the inverse wavelet
+     * transform. By default there is one thread per available processor. If
+     * 1, all decoding is done by the calling thread. The property is read
+     * when the transform is created.
+     * */
+    public static final String THREADS_PROPERTY =
+        "jj2000.j2k.decoder.threads";
+
+    /** The minimum number of samples in a subband for its lines and columns
+     * to be filtered by several threads */
+    private static final int MIN_PARALLEL_SAMPLES = 1<<16;
+
+    /** The threads shared by all inverse wavelet transforms, created when
+     * first needed. Idle threads are discarded after a while. */
+    private static ExecutorService pool = null;
+
+    /** The number of threads used by this transform */
+    private final int nThreads;
+
     /** Reference to the ProgressWatch instance if any */
     private ProgressWatch pw = null;
 
@@ -159,6 +189,8 @@ public class InvWTFull extends InverseWT {
         reconstructedComps = new DataBlk[nc];
         ndl = new int[nc];
         pw = FacilityManager.getProgressWatch();
+        nThreads = Math.max(1, Integer.getInteger(THREADS_PROPERTY,
+                   Runtime.getRuntime().availableProcessors()).intValue());
     }
 
    /**
@@ -407,7 +439,9 @@ public class InvWTFull extends InverseWT {
     /**
      * Performs the 2D inverse wavelet transform on a subband of the image, on
      * the specified component. This method will successively perform 1D
-     * filtering steps on all columns and then all lines of the subband.
+     * filtering steps on all lines and then all columns of the subband. Large
+     * subbands are split in groups of lines or columns that are filtered
+     * concurrently.
      *
      * @param db the buffer for the image/wavelet data.
      *
@@ -415,71 +449,132 @@ public class InvWTFull extends InverseWT {
      *
      * @param c The index of the component to reconstruct 
      * */
-    private void wavelet2DReconstruction(DataBlk db,SubbandSyn sb,int c) {
-        Object data;
-        Object buf;
-        int ulx, uly, w, h;
-        int i,j,k;
-        int offset;
-
+    private void wavelet2DReconstruction(final DataBlk db,
+                                         final SubbandSyn sb,int c) {
         // If subband is empty (i.e. zero size) nothing to do
         if (sb.w==0 || sb.h==0) {
             return;
         }
 
-        data = db.getData();
+        int nchunks = Math.min(nThreads,
+                               (int)(((long)sb.w*sb.h)/MIN_PARALLEL_SAMPLES));
+        if (nchunks <= 1) {
+            horizontalReconstruction(db,sb,0,sb.h);
+            verticalReconstruction(db,sb,0,sb.w);
+            return;
+        }
 
-        ulx = sb.ulx;
-        uly = sb.uly;
-        w = sb.w;
-        h = sb.h;
+        //Perform the horizontal reconstruction
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i=0; i<nchunks; i++) {
+            final int start = (int)((long)sb.h*i/nchunks);
+            final int end = (int)((long)sb.h*(i+1)/nchunks);
+            tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        horizontalReconstruction(db,sb,start,end);
+                        return null;
+                    }
+                });
+        }
+        runTasks(tasks);
+
+        //Perform the vertical reconstruction
+        tasks.clear();
+        for (int i=0; i<nchunks; i++) {
+            final int start = (int)((long)sb.w*i/nchunks);
+            final int end = (int)((long)sb.w*(i+1)/nchunks);
+            tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        verticalReconstruction(db,sb,start,end);
+                        return null;
+                    }
+                });
+        }
+        runTasks(tasks);
+    }
 
-        buf = null;  // To keep compiler happy
+    /**
+     * Performs the 1D horizontal inverse wavelet transform on the lines
+     * 'start' (inclusive) to 'end' (exclusive) of a subband.
+     *
+     * @param db the buffer for the image/wavelet data.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param start The index of the first line, within the subband.
+     *
+     * @param end The index following the last line, within the subband.
+     * */
+    private void horizontalReconstruction(DataBlk db,SubbandSyn sb,
+                                          int start,int end) {
+        Object data = db.getData();
+        Object buf = null;  // To keep compiler happy
+        int w = sb.w;
+        int i;
 
         switch (sb.getHorWFilter().getDataType()) {
         case DataBlk.TYPE_INT:
-            buf = new int[(w>=h) ? w : h];
+            buf = new int[w];
             break;
         case DataBlk.TYPE_FLOAT:
-            buf = new float[(w>=h) ? w : h];
+            buf = new float[w];
             break;
         }
 
-        //Perform the horizontal reconstruction
-        offset = (uly-db.uly)*db.w + ulx-db.ulx;
+        int offset = (sb.uly+start-db.uly)*db.w + sb.ulx-db.ulx;
         if (sb.ulcx%2==0) { // start index is even => use LPF
-            for(i=0; i<h; i++, offset += db.w) {
+            for(i=start; i<end; i++, offset += db.w) {
                 System.arraycopy(data,offset,buf,0,w);
                 sb.hFilter.synthetize_lpf(buf,0,(w+1)/2,1,buf,(w+1)/2,w/2,1,
                                           data,offset,1);
             }
         } else { // start index is odd => use HPF
-            for(i=0; i<h; i++, offset += db.w) {
+            for(i=start; i<end; i++, offset += db.w) {
                 System.arraycopy(data,offset,buf,0,w);
                 sb.hFilter.synthetize_hpf(buf,0,w/2,1,buf,w/2,(w+1)/2,1,
                                           data,offset,1);
             }
         }
+    }
 
-        //Perform the vertical reconstruction 
-        offset = (uly-db.uly)*db.w+ulx-db.ulx;
+    /**
+     * Performs the 1D vertical inverse wavelet transform on the columns
+     * 'start' (inclusive) to 'end' (exclusive) of a subband.
+     *
+     * @param db the buffer for the image/wavelet data.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param start The index of the first column, within the subband.
+     *
+     * @param end The index following the last column, within the subband.
+     * */
+    private void verticalReconstruction(DataBlk db,SubbandSyn sb,
+                                        int start,int end) {
+        Object data = db.getData();
+        int h = sb.h;
+        int i,j,k;
+
+        int offset = (sb.uly-db.uly)*db.w + sb.ulx-db.ulx + start;
         switch (sb.getVerWFilter().getDataType()) {
         case DataBlk.TYPE_INT:
             int data_int[], buf_int[];
             data_int = (int[]) data;
-            buf_int = (int[]) buf;
+            buf_int = new int[h];
             if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
+                for(j=start; j<end; j++, offset++) {
                     for(i=h-1, k=offset+i*db.w; i>=0; i--, k-=db.w)
                         buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
+                    sb.vFilter.synthetize_lpf(buf_int,0,(h+1)/2,1,
+                                              buf_int,(h+1)/2,h/2,1,
+                                              data,offset,db.w);
                 }
             } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
+                for(j=start; j<end; j++, offset++) {
                     for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
                         buf_int[i] = data_int[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
+                    sb.vFilter.synthetize_hpf(buf_int,0,h/2,1,
+                                              buf_int,h/2,(h+1)/2,1,
                                               data,offset,db.w);
                 }
             }
@@ -487,19 +582,21 @@ public class InvWTFull extends InverseWT {
         case DataBlk.TYPE_FLOAT:
             float data_float[], buf_float[];
             data_float = (float[]) data;
-            buf_float = (float[]) buf;
+            buf_float = new float[h];
             if (sb.ulcy%2==0) { // start index is even => use LPF
-                for(j=0; j<w; j++, offset++) {
+                for(j=start; j<end; j++, offset++) {
                     for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
                         buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_lpf(buf,0,(h+1)/2,1,buf,(h+1)/2,
-                                              h/2,1,data,offset,db.w);
+                    sb.vFilter.synthetize_lpf(buf_float,0,(h+1)/2,1,
+                                              buf_float,(h+1)/2,h/2,1,
+                                              data,offset,db.w);
                 }
             } else { // start index is odd => use HPF
-                for(j=0; j<w; j++, offset++) {
+                for(j=start; j<end; j++, offset++) {
                     for(i=h-1, k=offset+i*db.w; i>=0; i--, k-= db.w)
                         buf_float[i] = data_float[k];
-                    sb.vFilter.synthetize_hpf(buf,0,h/2,1,buf,h/2,(h+1)/2,1,
+                    sb.vFilter.synthetize_hpf(buf_float,0,h/2,1,
+                                              buf_float,h/2,(h+1)/2,1,
                                               data,offset,db.w);
                 }
             }
@@ -508,75 +605,227 @@ public class InvWTFull extends InverseWT {
     }
 
     /**
-     * Performs the inverse wavelet transform on the whole component. It
-     * iteratively reconstructs the subbands from leaves up to the root
-     * node. This method is recursive, the first call to it the 'sb' must be
-     * the root of the subband tree. The method will then process the entire
-     * subband tree by calling itslef recursively.
+     * Performs the inverse wavelet transform on the whole component. All the
+     * code-blocks needed at the current resolution level are first entropy
+     * decoded, concurrently, into their subbands. The subbands are then
+     * reconstructed from the leaves up to the root node.
      *
      * @param img The buffer for the image/wavelet data.
      *
-     * @param sb The subband to reconstruct.
+     * @param sb The root of the subband tree.
      *
      * @param c The index of the component to reconstruct 
      * */
-    private void waveletTreeReconstruction(DataBlk img,SubbandSyn sb,int c) {
+    private void waveletTreeReconstruction(final DataBlk img,SubbandSyn sb,
+                                           final int c) {
+        final List<SubbandSyn> subbands = new ArrayList<SubbandSyn>();
+        addLeafSubbands(sb,c,subbands);
+        int ncblks = 0;
+        for (SubbandSyn leaf : subbands) {
+            ncblks += leaf.numCb.x*leaf.numCb.y;
+        }
 
-        DataBlk subbData;
+        // Each task decodes code-blocks, taken in turn from all the
+        // subbands, until there are none left
+        final int total = ncblks;
+        final AtomicInteger next = new AtomicInteger();
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int i=Math.min(nThreads,total); i>0; i--) {
+            tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        copyCodeBlocks(img,c,subbands,total,next);
+                        return null;
+                    }
+                });
+        }
+        runTasks(tasks);
+        if(pw!=null) {
+            nDecCblk += total;
+            pw.updateProgressWatch(nDecCblk,null);
+        }
+        waveletTreeSynthesis(img,sb,c);
+    }
 
-        // If the current subband is a leaf then get the data from the source
+    /**
+     * Adds the non-empty leaf subbands of the subband tree that are needed
+     * at the current resolution level to the given list. This method is
+     * recursive, the first call to it the 'sb' must be the root of the
+     * subband tree.
+     *
+     * @param sb The current subband.
+     *
+     * @param c The index of the component to reconstruct 
+     *
+     * @param subbands The list to which the subbands are added.
+     * */
+    private void addLeafSubbands(SubbandSyn sb,int c,
+                                 List<SubbandSyn> subbands) {
         if(!sb.isNode) {
-            int i,m,n;
-            Object src_data,dst_data;
-            Point ncblks;
+            if (sb.w!=0 && sb.h!=0) {
+                subbands.add(sb);
+            }
+        } else {
+            addLeafSubbands((SubbandSyn)sb.getLL(),c,subbands);
 
-            if (sb.w==0 || sb.h==0) {
-                return; // If empty subband do nothing
+            if(sb.resLvl<=reslvl-maxImgRes+ndl[c]){
+                addLeafSubbands((SubbandSyn)sb.getHL(),c,subbands);
+                addLeafSubbands((SubbandSyn)sb.getLH(),c,subbands);
+                addLeafSubbands((SubbandSyn)sb.getHH(),c,subbands);
             }
+        }
+    }
 
-            // Get all code-blocks in subband
-            if(dtype==DataBlk.TYPE_INT) {
-                subbData = new DataBlkInt();
-            } else {
-                subbData = new DataBlkFloat();
+    /**
+     * Gets code-blocks from the source and copies them, line by line, into
+     * the image buffer, until all the code-blocks of the given subbands have
+     * been taken. The code-blocks are numbered in raster order within each
+     * subband, and subband after subband. The same buffer is used for all
+     * the code-blocks taken by one call.
+     *
+     * @param img The buffer for the image/wavelet data.
+     *
+     * @param c The index of the component.
+     *
+     * @param subbands The subbands in which the code-blocks are.
+     *
+     * @param total The total number of code-blocks in the subbands.
+     *
+     * @param next The number of the next code-block to take, shared by all
+     * the calls working on the same subbands.
+     * */
+    private void copyCodeBlocks(DataBlk img,int c,List<SubbandSyn> subbands,
+                                int total,AtomicInteger next) {
+        DataBlk subbData;
+        if(img.getDataType()==DataBlk.TYPE_INT) {
+            subbData = new DataBlkInt();
+        } else {
+            subbData = new DataBlkFloat();
+        }
+        Object dst_data = img.getData();
+        int s = 0; // Index of the subband of code-block k
+        int first = 0; // Number of the first code-block in subband s
+        int k;
+        while ((k = next.getAndIncrement()) < total) {
+            SubbandSyn sb = subbands.get(s);
+            while (k >= first+sb.numCb.x*sb.numCb.y) {
+                first += sb.numCb.x*sb.numCb.y;
+                sb = subbands.get(++s);
             }
-            ncblks = sb.numCb;
-            dst_data = img.getData();
-            for (m=0; m<ncblks.y; m++) {
-                for (n=0; n<ncblks.x; n++) {
-                    subbData = src.getInternCodeBlock(c,m,n,sb,subbData);
-                    src_data = subbData.getData();
-                    if(pw!=null) {
-                        nDecCblk++;
-                        pw.updateProgressWatch(nDecCblk,null);
-                    }
-                    // Copy the data line by line
-                    for (i=subbData.h-1; i>=0; i--) {
-                        System.arraycopy(src_data,
-                                         subbData.offset+i*subbData.scanw,
-                                         dst_data,
-                                         (subbData.uly+i)*img.w+subbData.ulx,
-                                         subbData.w);
-                    }
-                }
+            int m = (k-first)/sb.numCb.x;
+            int n = (k-first)%sb.numCb.x;
+            subbData = src.getInternCodeBlock(c,m,n,sb,subbData);
+            Object src_data = subbData.getData();
+            for (int i=subbData.h-1; i>=0; i--) {
+                System.arraycopy(src_data,
+                                 subbData.offset+i*subbData.scanw,
+                                 dst_data,
+                                 (subbData.uly+i)*img.w+subbData.ulx,
+                                 subbData.w);
             }
-        } else if(sb.isNode) {
-            // Reconstruct the lower resolution levels if the current subbands
-            // is a node
+        }
+    }
 
+    /**
+     * Performs the 2D inverse wavelet transform of all the nodes of the
+     * subband tree that are needed at the current resolution level, from the
+     * leaves up to the root node. The data of the leaf subbands must already
+     * be in the image buffer. This method is recursive, the first call to it
+     * the 'sb' must be the root of the subband tree.
+     *
+     * @param img The buffer for the image/wavelet data.
+     *
+     * @param sb The subband to reconstruct.
+     *
+     * @param c The index of the component to reconstruct 
+     * */
+    private void waveletTreeSynthesis(DataBlk img,SubbandSyn sb,int c) {
+        if(sb.isNode) {
             //Perform the reconstruction of the LL subband
-            waveletTreeReconstruction(img,(SubbandSyn)sb.getLL(),c);
+            waveletTreeSynthesis(img,(SubbandSyn)sb.getLL(),c);
 
             if(sb.resLvl<=reslvl-maxImgRes+ndl[c]){
                 //Reconstruct the other subbands
-                waveletTreeReconstruction(img,(SubbandSyn)sb.getHL(),c);
-                waveletTreeReconstruction(img,(SubbandSyn)sb.getLH(),c);
-                waveletTreeReconstruction(img,(SubbandSyn)sb.getHH(),c);
+                waveletTreeSynthesis(img,(SubbandSyn)sb.getHL(),c);
+                waveletTreeSynthesis(img,(SubbandSyn)sb.getLH(),c);
+                waveletTreeSynthesis(img,(SubbandSyn)sb.getHH(),c);
 
                 //Perform the 2D wavelet decomposition of the current subband
-                wavelet2DReconstruction(img,(SubbandSyn)sb,c);
+                wavelet2DReconstruction(img,sb,c);
+            }
+        }
+    }
+
+    /**
+     * Runs the given tasks and waits for all of them to complete. The first
+     * task is run by the calling thread and the others, if more than one
+     * thread is allowed, by the shared threads. Any exception or error thrown
+     * by a task is thrown again in the calling thread.
+     *
+     * @param tasks The tasks to run.
+     * */
+    private void runTasks(List<Callable<Object>> tasks) {
+        try {
+            if (nThreads <= 1 || tasks.size() <= 1) {
+                for (Callable<Object> task : tasks) {
+                    task.call();
+                }
+                return;
             }
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            try {
+                for (int i=1; i<tasks.size(); i++) {
+                    results.add(getPool().submit(tasks.get(i)));
+                }
+                tasks.get(0).call();
+                for (Future<Object> result : results) {
+                    result.get();
+                }
+            } finally {
+                // Do not leave tasks running if one of them failed
+                for (Future<Object> result : results) {
+                    result.cancel(false);
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the threads shared by all inverse wavelet transforms, creating
+     * them if needed. The threads are daemon threads, so that they do not
+     * prevent the JVM from exiting, and are discarded when they have been
+     * idle for a minute.
+     *
+     * @return The shared threads.
+     * */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                    private int count = 0;
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "jj2000-decoder-"+(count++));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
         }
+        return pool;
     }
 
     /**
@@ -122,6 +122,17 @@ public abstract class FormatReader extends FormatHandler
   /** Default thumbnail width and height. */
   protected static final int THUMBNAIL_DIMENSION = 128;
 
+  /** Maximum length of filtered metadata keys and values. */
+  private static final int MAX_META_LENGTH = 8192;
+
+  /** Number of recently added metadata keys that are reused; a power of 2. */
+  private static final int KEY_CACHE_SIZE = 4096;
+
+  /** Sequences removed from filtered metadata keys and values. */
+  private static final String[] INVALID_META_SEQUENCES = new String[] {
+    "&lt;", "&gt;", "&amp;", "<", ">", "&"
+  };
+
   // -- Fields --
 
   /** Current file. */
@@ -130,6 +141,9 @@ public abstract class FormatReader extends FormatHandler
   /** Hashtable containing metadata key/value pairs. */
   protected Hashtable<String, Object> metadata;
 
+  /** Recently added metadata keys, indexed by hash code. */
+  private transient String[] metadataKeys;
+
   /** The number of the current series. */
   protected int coreIndex = 0;
 
@@ -236,7 +250,8 @@ public abstract class FormatReader extends FormatHandler
     series = 0;
     close();
     currentId = id;
-    metadata = new Hashtable<String, Object>();
+    metadata = new MetadataTable();
+    metadataKeys = null;
 
     core = new ArrayList<CoreMetadata>();
     CoreMetadata core0 = new CoreMetadata();
@@ -263,61 +278,131 @@ public abstract class FormatReader extends FormatHandler
   protected void addMeta(String key, Object value,
     Hashtable<String, Object> meta)
   {
-    if (key == null || value == null ||
+    if (value == null) return;
+    key = filterMetaKey(key);
+    if (key == null) return;
+    value = filterMetaValue(value);
+    if (value == null) return;
+
+    if (meta instanceof MetadataTable) {
+      ((MetadataTable) meta).append(key, value);
+    }
+    else {
+      meta.put(key, value);
+    }
+  }
+
+  /**
+   * Adds an entry with a primitive value, stored as raw bits, to the
+   * specified Hashtable. Primitive values are only boxed if the Hashtable
+   * is not a {@link MetadataTable}.
+   */
+  private void addMeta(String key, byte type, long value,
+    Hashtable<String, Object> meta)
+  {
+    key = filterMetaKey(key);
+    if (key == null) return;
+
+    if (meta instanceof MetadataTable) {
+      ((MetadataTable) meta).append(key, type, value);
+    }
+    else {
+      meta.put(key, MetadataTable.box(type, value));
+    }
+  }
+
+  /** Whether keys and values need to be filtered before being stored. */
+  private boolean filterMetaEntries() {
+    return filterMetadata ||
+      (saveOriginalMetadata && (getMetadataStore() instanceof OMEXMLMetadata));
+  }
+
+  /**
+   * Trims and, if necessary, filters the given metadata key.
+   * Returns the canonical instance of the resulting key, or null if the
+   * entry should not be stored.
+   */
+  private String filterMetaKey(String key) {
+    if (key == null ||
       getMetadataOptions().getMetadataLevel() == MetadataLevel.MINIMUM)
     {
-      return;
+      return null;
     }
 
     key = key.trim();
 
+    if (filterMetaEntries()) {
+      // verify key is a reasonable length
+      if (key.length() > MAX_META_LENGTH) return null;
+
+      // remove all non-printable characters
+      key = DataTools.sanitize(key);
+
+      // verify key contains at least one alphabetic character
+      if (!key.matches(".*[a-zA-Z].*")) return null;
+
+      // remove &lt;, &gt; and &amp; to prevent XML parsing errors
+      for (int i=0; i<INVALID_META_SEQUENCES.length; i++) {
+        if (key.indexOf(INVALID_META_SEQUENCES[i]) >= 0) {
+          key = key.replaceAll(INVALID_META_SEQUENCES[i], "");
+        }
+      }
+
+      // verify key is not empty
+      if (key.length() == 0) return null;
+    }
+
+    // reuse an identical key added recently, as the same keys are
+    // typically repeated for each series, plane or file
+    if (metadataKeys == null) {
+      metadataKeys = new String[KEY_CACHE_SIZE];
+    }
+    int slot = key.hashCode() & (KEY_CACHE_SIZE - 1);
+    String cached = metadataKeys[slot];
+    if (key.equals(cached)) {
+      return cached;
+    }
+    metadataKeys[slot] = key;
+    return key;
+  }
+
+  /**
+   * Converts and, if necessary, filters the given metadata value.
+   * Returns null if the entry should not be stored.
+   */
+  private Object filterMetaValue(Object value) {
     boolean string = value instanceof String || value instanceof Character;
 
     // string value, if passed in value is a string
     String val = string ? String.valueOf(value) : null;
 
-    if (filterMetadata ||
-      (saveOriginalMetadata && (getMetadataStore() instanceof OMEXMLMetadata)))
-    {
+    if (filterMetaEntries()) {
       // filter out complex data types
       boolean simple = string ||
         value instanceof Number ||
         value instanceof Boolean;
-      if (!simple) return;
-
-      // verify key & value are reasonable length
-      int maxLen = 8192;
-      if (key.length() > maxLen) return;
-      if (string && val.length() > maxLen) return;
+      if (!simple) return null;
 
-      // remove all non-printable characters
-      key = DataTools.sanitize(key);
-      if (string) val = DataTools.sanitize(val);
+      if (string) {
+        // verify value is a reasonable length
+        if (val.length() > MAX_META_LENGTH) return null;
 
-      // verify key contains at least one alphabetic character
-      if (!key.matches(".*[a-zA-Z].*")) return;
+        // remove all non-printable characters
+        val = DataTools.sanitize(val);
 
-      // remove &lt;, &gt; and &amp; to prevent XML parsing errors
-      String[] invalidSequences = new String[] {
-        "&lt;", "&gt;", "&amp;", "<", ">", "&"
-      };
-      for (int i=0; i<invalidSequences.length; i++) {
-        if (key.indexOf(invalidSequences[i]) >= 0) {
-          key = key.replaceAll(invalidSequences[i], "");
-        }
-        if (string && val.indexOf(invalidSequences[i]) >= 0) {
-          val = val.replaceAll(invalidSequences[i], "");
+        // remove &lt;, &gt; and &amp; to prevent XML parsing errors
+        for (int i=0; i<INVALID_META_SEQUENCES.length; i++) {
+          if (val.indexOf(INVALID_META_SEQUENCES[i]) >= 0) {
+            val = val.replaceAll(INVALID_META_SEQUENCES[i], "");
+          }
         }
-      }
 
-      // verify key & value are not empty
-      if (key.length() == 0) return;
-      if (string && val.trim().length() == 0) return;
-
-      if (string) value = val;
+        // verify value is not empty
+        if (val.trim().length() == 0) return null;
+      }
     }
 
-    meta.put(key, val == null ? value : val);
+    return val == null ? value : val;
   }
 
   /** Adds an entry to the global metadata table. */
@@ -327,37 +412,37 @@ public abstract class FormatReader extends FormatHandler
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, boolean value) {
-    addGlobalMeta(key, new Boolean(value));
+    addMeta(key, MetadataTable.BOOLEAN, value ? 1 : 0, metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, byte value) {
-    addGlobalMeta(key, new Byte(value));
+    addMeta(key, MetadataTable.BYTE, value, metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, short value) {
-    addGlobalMeta(key, new Short(value));
+    addMeta(key, MetadataTable.SHORT, value, metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, int value) {
-    addGlobalMeta(key, new Integer(value));
+    addMeta(key, MetadataTable.INT, value, metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, long value) {
-    addGlobalMeta(key, new Long(value));
+    addMeta(key, MetadataTable.LONG, value, metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, float value) {
-    addGlobalMeta(key, new Float(value));
+    addMeta(key, MetadataTable.FLOAT, Float.floatToIntBits(value), metadata);
   }
 
   /** Adds an entry to the global metadata table. */
   protected void addGlobalMeta(String key, double value) {
-    addGlobalMeta(key, new Double(value));
+    addMeta(key, MetadataTable.DOUBLE, Double.doubleToLongBits(value), metadata);
   }
 
   /** Adds an entry to the global metadata table. */
@@ -381,6 +466,23 @@ public abstract class FormatReader extends FormatHandler
   protected void addMetaList(String key, Object value,
     Hashtable<String, Object> meta)
   {
+    if (meta instanceof MetadataTable) {
+      if (value == null) return;
+      String filteredKey = filterMetaKey(key);
+      if (filteredKey == null) return;
+      value = filterMetaValue(value);
+      if (value == null) return;
+
+      // a key that was altered by filtering is stored as a single value
+      if (filteredKey.equals(key)) {
+        ((MetadataTable) meta).appendToList(filteredKey, value);
+      }
+      else {
+        ((MetadataTable) meta).append(filteredKey, value);
+      }
+      return;
+    }
+
     Vector list = (Vector) meta.get(key);
     meta.remove(key);
     addMeta(key, value, meta);
@@ -427,7 +529,7 @@ public abstract class FormatReader extends FormatHandler
     updateMetadataLists(metadata);
 
     for (int s=0; s<core.size(); s++) {
-      if (core.get(s).seriesMetadata.size() > 0) {
+      if (!core.get(s).seriesMetadata.isEmpty()) {
         updateMetadataLists(core.get(s).seriesMetadata);
       }
     }
@@ -440,24 +542,7 @@ public abstract class FormatReader extends FormatHandler
    * @param meta the hashtable from which to remove lists
    */
   private void updateMetadataLists(Hashtable<String, Object> meta) {
-    String[] keys = meta.keySet().toArray(new String[meta.size()]);
-    for (String key : keys) {
-      Object v = meta.get(key);
-      if (v instanceof Vector) {
-        Vector list = (Vector) v;
-        int digits = String.valueOf(list.size()).length();
-
-        for (int i=0; i<list.size(); i++) {
-          String index = String.valueOf(i + 1);
-          while (index.length() < digits) {
-            index = "0" + index;
-          }
-          meta.put(key + " #" + index, list.get(i));
-        }
-
-        meta.remove(key);
-      }
-    }
+    MetadataTable.flattenLists(meta);
   }
 
   /** Adds an entry to the metadata table for the current series. */
@@ -467,37 +552,37 @@ public abstract class FormatReader extends FormatHandler
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, boolean value) {
-    addSeriesMeta(key, new Boolean(value));
+    addMeta(key, MetadataTable.BOOLEAN, value ? 1 : 0, core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, byte value) {
-    addSeriesMeta(key, new Byte(value));
+    addMeta(key, MetadataTable.BYTE, value, core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, short value) {
-    addSeriesMeta(key, new Short(value));
+    addMeta(key, MetadataTable.SHORT, value, core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, int value) {
-    addSeriesMeta(key, new Integer(value));
+    addMeta(key, MetadataTable.INT, value, core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, long value) {
-    addSeriesMeta(key, new Long(value));
+    addMeta(key, MetadataTable.LONG, value, core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, float value) {
-    addSeriesMeta(key, new Float(value));
+    addMeta(key, MetadataTable.FLOAT, Float.floatToIntBits(value), core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
   protected void addSeriesMeta(String key, double value) {
-    addSeriesMeta(key, new Double(value));
+    addMeta(key, MetadataTable.DOUBLE, Double.doubleToLongBits(value), core.get(getCoreIndex()).seriesMetadata);
   }
 
   /** Adds an entry to the metadata table for the current series. */
@@ -913,7 +998,8 @@ public abstract class FormatReader extends FormatHandler
     catch (IllegalArgumentException e) {
       throw new FormatException("Image plane too large. Only 2GB of data can " +
         "be extracted at one time. You can workaround the problem by opening " +
-        "the plane in tiles; for further details, see: " +
+        "the plane in tiles or with openLargeBytes; for further details, " +
+        "see: " +
         "http://www.openmicroscopy.org/site/support/bio-formats/about/" +
         "bug-reporting.html#common-issues-to-check", e);
     }
@@ -925,6 +1011,97 @@ public abstract class FormatReader extends FormatHandler
   public abstract byte[] openBytes(int no, byte[] buf, int x, int y,
     int w, int h) throws FormatException, IOException;
 
+  /* @see IFormatReader#openLargeBytes(int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no)
+    throws FormatException, IOException
+  {
+    return openLargeBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openLargeBytes(int, int, int, int, int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openLargeBytes(no,
+      new LargeByteBuffer(FormatTools.getLargePlaneSize(this, w, h)),
+      x, y, w, h);
+  }
+
+  /* @see IFormatReader#openLargeBytes(int, LargeByteBuffer, int, int, int, int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, LargeByteBuffer buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openLargeBytes(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openShorts(int, short[], int, int, int, int) */
+  @Override
+  public short[] openShorts(int no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openShorts(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openShorts(int[], short[], int, int, int, int) */
+  @Override
+  public short[] openShorts(int[] no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openShorts(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openInts(int, int[], int, int, int, int) */
+  @Override
+  public int[] openInts(int no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openInts(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openInts(int[], int[], int, int, int, int) */
+  @Override
+  public int[] openInts(int[] no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openInts(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openFloats(int, float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openFloats(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openFloats(int[], float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int[] no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openFloats(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openDoubles(int, double[], int, int, int, int) */
+  @Override
+  public double[] openDoubles(int no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openDoubles(this, no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openDoubles(int[], double[], int, int, int, int) */
+  @Override
+  public double[] openDoubles(int[] no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openDoubles(this, no, buf, x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int int) */
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
@@ -950,6 +1127,7 @@ public abstract class FormatReader extends FormatHandler
       currentId = null;
       resolution = 0;
       core = null;
+      metadataKeys = null;
     }
   }
 
@@ -1153,6 +1331,9 @@ public abstract class FormatReader extends FormatHandler
   public Hashtable<String, Object> getGlobalMetadata() {
     FormatTools.assertId(currentId, true, 1);
     flattenHashtables();
+    if (metadata instanceof MetadataTable) {
+      ((MetadataTable) metadata).materialize();
+    }
     return metadata;
   }
 
@@ -1160,10 +1341,15 @@ public abstract class FormatReader extends FormatHandler
   @Override
   public Hashtable<String, Object> getSeriesMetadata() {
     FormatTools.assertId(currentId, true, 1);
-    if (core.get(getCoreIndex()).seriesMetadata.size() > 0) {
+    Hashtable<String, Object> seriesMetadata =
+      core.get(getCoreIndex()).seriesMetadata;
+    if (!seriesMetadata.isEmpty()) {
       flattenHashtables();
     }
-    return core.get(getCoreIndex()).seriesMetadata;
+    if (seriesMetadata instanceof MetadataTable) {
+      ((MetadataTable) seriesMetadata).materialize();
+    }
+    return seriesMetadata;
   }
 
   /* @see IFormatReader#getCoreMetadataList() */
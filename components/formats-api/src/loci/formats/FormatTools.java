@@ -34,14 +34,14 @@ package loci.formats;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Properties;
 import java.util.Vector;
 
 import loci.common.Constants;
 import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
-import loci.common.ReflectException;
-import loci.common.ReflectedUniverse;
 
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
@@ -196,6 +196,12 @@ public final class FormatTools {
   public static final String TILE_Y = "%y";
   public static final String TILE_NUM = "%m";
 
+  /**
+   * Maximum number of bytes read at once when filling a
+   * {@link LargeByteBuffer} (64 MB).
+   */
+  private static final int LARGE_PLANE_BLOCK_SIZE = 64 * 1024 * 1024;
+
   // -- Constants - versioning --
 
   public static final Properties VERSION_PROPERTIES = loadProperties();
@@ -980,6 +986,42 @@ public final class FormatTools {
     }
   }
 
+  /**
+   * Checks that a primitive array of the given length is large enough to
+   * hold the given number of w * h planes, as returned by the typed
+   * {@link IFormatReader#openShorts(int[], short[], int, int, int, int)}
+   * family of methods.
+   * @throws FormatException if the array is too small, or if the requested
+   *   planes cannot fit in a single Java array
+   */
+  public static void checkTypedBufferSize(IFormatReader r, int len,
+    int planes, int w, int h)
+    throws FormatException
+  {
+    int size = getTypedBufferSize(r, planes, w, h);
+    if (size > len) {
+      throw new FormatException("Buffer too small (got " + len +
+        ", expected " + size + ").");
+    }
+  }
+
+  /**
+   * Returns the number of samples in the given number of w * h planes.
+   * @throws FormatException if the samples cannot fit in a single Java array
+   */
+  public static int getTypedBufferSize(IFormatReader r, int planes,
+    int w, int h)
+    throws FormatException
+  {
+    long size = (long) w * h * r.getRGBChannelCount() * planes;
+    if (size > Integer.MAX_VALUE) {
+      throw new FormatException(planes + " plane(s) of " + w + "x" + h +
+        " pixels do not fit in a single array; read fewer planes or " +
+        "smaller tiles at a time.");
+    }
+    return (int) size;
+  }
+
   /**
    * Returns true if the given RandomAccessInputStream conatins at least
    * 'len' bytes.
@@ -1002,6 +1044,15 @@ public final class FormatTools {
     return w * h * r.getRGBChannelCount() * getBytesPerPixel(r.getPixelType());
   }
 
+  /**
+   * Returns the size in bytes of a w * h tile, without overflowing for
+   * tiles larger than 2 GB.
+   */
+  public static long getLargePlaneSize(IFormatReader r, int w, int h) {
+    return (long) w * h * r.getRGBChannelCount() *
+      getBytesPerPixel(r.getPixelType());
+  }
+
   // -- Utility methods -- export
 
   public static String getTileFilename(int tileX, int tileY,
@@ -1179,71 +1230,258 @@ public final class FormatTools {
   /**
    * Default implementation for {@link IFormatReader#openThumbBytes}.
    *
-   * At the moment, it uses {@link java.awt.image.BufferedImage} objects
-   * to resize thumbnails, so it is not safe for use in headless contexts.
-   * In the future, we may reimplement the image scaling logic purely with
-   * byte arrays, but handling every case would be substantial effort, so
-   * doing so is currently a low priority item.
+   * The thumbnail is scaled from the smallest resolution of the current
+   * series that is at least as large as the thumbnail, without using AWT.
+   * @see ThumbnailTools#openThumbBytes(IFormatReader, int)
    */
   public static byte[] openThumbBytes(IFormatReader reader, int no)
     throws FormatException, IOException
   {
-    // NB: Dependency on AWT here is unfortunate, but very difficult to
-    // eliminate in general. We use reflection to limit class loading
-    // problems with AWT on Mac OS X.
-    ReflectedUniverse r = new ReflectedUniverse();
-    byte[][] bytes = null;
-    try {
-      r.exec("import loci.formats.gui.AWTImageTools");
-
-      int planeSize = getPlaneSize(reader);
-      byte[] plane = null;
-      if (planeSize < 0) {
-        int width = reader.getThumbSizeX() * 4;
-        int height = reader.getThumbSizeY() * 4;
-        int x = (reader.getSizeX() - width) / 2;
-        int y = (reader.getSizeY() - height) / 2;
-        plane = reader.openBytes(no, x, y, width, height);
-      }
-      else {
-        plane = reader.openBytes(no);
-      }
+    return ThumbnailTools.openThumbBytes(reader, no);
+  }
 
-      r.setVar("plane", plane);
-      r.setVar("reader", reader);
-      r.setVar("sizeX", reader.getSizeX());
-      r.setVar("sizeY", reader.getSizeY());
-      r.setVar("thumbSizeX", reader.getThumbSizeX());
-      r.setVar("thumbSizeY", reader.getThumbSizeY());
-      r.setVar("little", reader.isLittleEndian());
-      r.exec("img = AWTImageTools.openImage(plane, reader, sizeX, sizeY)");
-      r.exec("img = AWTImageTools.makeUnsigned(img)");
-      r.exec("thumb = AWTImageTools.scale(img, thumbSizeX, thumbSizeY, false)");
-      bytes = (byte[][]) r.exec("AWTImageTools.getPixelBytes(thumb, little)");
-    }
-    catch (ReflectException exc) {
-      throw new FormatException(exc);
-    }
-
-    if (bytes.length == 1) return bytes[0];
-    int rgbChannelCount = reader.getRGBChannelCount();
-    byte[] rtn = new byte[rgbChannelCount * bytes[0].length];
-    
-    if (!reader.isInterleaved()) {
-      for (int i=0; i<rgbChannelCount; i++) {
-        System.arraycopy(bytes[i], 0, rtn, bytes[0].length * i, bytes[i].length);
+  /**
+   * Default implementation for {@link IFormatReader#openLargeBytes}.
+   *
+   * The requested region is read with
+   * {@link IFormatReader#openBytes(int, byte[], int, int, int, int)} in
+   * blocks of at most 64 MB, aligned to the reader's optimal tile size where
+   * possible, and each block is copied into the given buffer.  No single
+   * Java array larger than one block is allocated.
+   */
+  public static LargeByteBuffer openLargeBytes(IFormatReader reader, int no,
+    LargeByteBuffer buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    assertId(reader.getCurrentFile(), true, 2);
+    checkPlaneNumber(reader, no);
+    checkTileSize(reader, x, y, w, h);
+    long size = getLargePlaneSize(reader, w, h);
+    if (size > buf.capacity()) {
+      throw new FormatException("Buffer too small (got " + buf.capacity() +
+        ", expected " + size + ").");
+    }
+    if (size == 0) {
+      return buf;
+    }
+
+    int bpp = getBytesPerPixel(reader.getPixelType());
+    int channels = reader.getRGBChannelCount();
+    boolean interleaved = reader.isInterleaved() || channels == 1;
+
+    // with interleaved data each pixel holds all channels; otherwise
+    // each channel is stored as a separate w * h block
+    int pixelSize = interleaved ? bpp * channels : bpp;
+    int blocks = interleaved ? 1 : channels;
+    long rowSize = (long) w * bpp * channels;
+
+    int blockWidth = w;
+    int blockHeight;
+    if (rowSize <= LARGE_PLANE_BLOCK_SIZE) {
+      blockHeight = (int) Math.min(h, LARGE_PLANE_BLOCK_SIZE / rowSize);
+      int tileHeight = reader.getOptimalTileHeight();
+      if (tileHeight > 0 && blockHeight > tileHeight) {
+        blockHeight -= blockHeight % tileHeight;
       }
     }
     else {
-      int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+      blockHeight = 1;
+      blockWidth = LARGE_PLANE_BLOCK_SIZE / (bpp * channels);
+      int tileWidth = reader.getOptimalTileWidth();
+      if (tileWidth > 0 && blockWidth > tileWidth) {
+        blockWidth -= blockWidth % tileWidth;
+      }
+    }
 
-      for (int i=0; i<bytes[0].length/bpp; i+=bpp) {
-        for (int j=0; j<rgbChannelCount; j++) {
-          System.arraycopy(bytes[j], i, rtn, (i * rgbChannelCount) + j * bpp, bpp);
+    byte[] block = null;
+    for (int row=0; row<h; row+=blockHeight) {
+      int height = Math.min(blockHeight, h - row);
+      for (int col=0; col<w; col+=blockWidth) {
+        int width = Math.min(blockWidth, w - col);
+        int blockSize = width * height * bpp * channels;
+        if (block == null || block.length != blockSize) {
+          block = new byte[blockSize];
+        }
+        reader.openBytes(no, block, x + col, y + row, width, height);
+
+        int rowLength = width * pixelSize;
+        for (int b=0; b<blocks; b++) {
+          for (int r=0; r<height; r++) {
+            int src = (b * height + r) * rowLength;
+            long dest = (((long) b * h + row + r) * w + col) * pixelSize;
+            buf.put(dest, block, src, rowLength);
+          }
         }
       }
     }
-    return rtn;
+    return buf;
+  }
+
+  /**
+   * Default implementation for {@link IFormatReader#openShorts}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static short[] openShorts(IFormatReader reader, int no, short[] buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openShorts(reader, new int[] {no}, buf, x, y, w, h);
+  }
+
+  /**
+   * Default implementation for the batched {@link IFormatReader#openShorts}.
+   *
+   * Each plane is read with
+   * {@link IFormatReader#openBytes(int, byte[], int, int, int, int)} into a
+   * single reused byte array, and converted into <code>buf</code> with one
+   * bulk copy in the reader's byte order.
+   */
+  public static short[] openShorts(IFormatReader reader, int[] no,
+    short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkTypedAccess(reader, INT16);
+    if (buf == null) {
+      buf = new short[getTypedBufferSize(reader, no.length, w, h)];
+    }
+    openTyped(reader, no, buf, buf.length, x, y, w, h);
+    return buf;
+  }
+
+  /**
+   * Default implementation for {@link IFormatReader#openInts}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static int[] openInts(IFormatReader reader, int no, int[] buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openInts(reader, new int[] {no}, buf, x, y, w, h);
+  }
+
+  /**
+   * Default implementation for the batched {@link IFormatReader#openInts}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static int[] openInts(IFormatReader reader, int[] no, int[] buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkTypedAccess(reader, INT32);
+    if (buf == null) {
+      buf = new int[getTypedBufferSize(reader, no.length, w, h)];
+    }
+    openTyped(reader, no, buf, buf.length, x, y, w, h);
+    return buf;
+  }
+
+  /**
+   * Default implementation for {@link IFormatReader#openFloats}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static float[] openFloats(IFormatReader reader, int no, float[] buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openFloats(reader, new int[] {no}, buf, x, y, w, h);
+  }
+
+  /**
+   * Default implementation for the batched {@link IFormatReader#openFloats}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static float[] openFloats(IFormatReader reader, int[] no,
+    float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkTypedAccess(reader, FLOAT);
+    if (buf == null) {
+      buf = new float[getTypedBufferSize(reader, no.length, w, h)];
+    }
+    openTyped(reader, no, buf, buf.length, x, y, w, h);
+    return buf;
+  }
+
+  /**
+   * Default implementation for {@link IFormatReader#openDoubles}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static double[] openDoubles(IFormatReader reader, int no,
+    double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openDoubles(reader, new int[] {no}, buf, x, y, w, h);
+  }
+
+  /**
+   * Default implementation for the batched {@link IFormatReader#openDoubles}.
+   * @see #openShorts(IFormatReader, int[], short[], int, int, int, int)
+   */
+  public static double[] openDoubles(IFormatReader reader, int[] no,
+    double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkTypedAccess(reader, DOUBLE);
+    if (buf == null) {
+      buf = new double[getTypedBufferSize(reader, no.length, w, h)];
+    }
+    openTyped(reader, no, buf, buf.length, x, y, w, h);
+    return buf;
+  }
+
+  /**
+   * Checks that the reader's pixel type can be stored without conversion
+   * in an array of the given pixel type's width; signedness is ignored.
+   */
+  private static void checkTypedAccess(IFormatReader reader, int arrayType)
+    throws FormatException
+  {
+    assertId(reader.getCurrentFile(), true, 3);
+    int pixelType = reader.getPixelType();
+    if (getBytesPerPixel(pixelType) != getBytesPerPixel(arrayType) ||
+      isFloatingPoint(pixelType) != isFloatingPoint(arrayType))
+    {
+      throw new FormatException("Cannot read " +
+        getPixelTypeString(pixelType) + " pixels as " +
+        getPixelTypeString(arrayType) + " samples.");
+    }
+  }
+
+  /**
+   * Reads the given planes one after another into the primitive array
+   * <code>buf</code>, which must be a short[], int[], float[] or double[]
+   * matching the reader's pixel type.
+   */
+  private static void openTyped(IFormatReader reader, int[] no, Object buf,
+    int len, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkTileSize(reader, x, y, w, h);
+    checkTypedBufferSize(reader, len, no.length, w, h);
+    int samples = getTypedBufferSize(reader, 1, w, h);
+    ByteOrder order = reader.isLittleEndian() ?
+      ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+    byte[] plane = null;
+    for (int i=0; i<no.length; i++) {
+      checkPlaneNumber(reader, no[i]);
+      plane = plane == null ? reader.openBytes(no[i], x, y, w, h) :
+        reader.openBytes(no[i], plane, x, y, w, h);
+      ByteBuffer bytes = ByteBuffer.wrap(plane).order(order);
+      int offset = i * samples;
+      if (buf instanceof short[]) {
+        bytes.asShortBuffer().get((short[]) buf, offset, samples);
+      }
+      else if (buf instanceof int[]) {
+        bytes.asIntBuffer().get((int[]) buf, offset, samples);
+      }
+      else if (buf instanceof float[]) {
+        bytes.asFloatBuffer().get((float[]) buf, offset, samples);
+      }
+      else {
+        bytes.asDoubleBuffer().get((double[]) buf, offset, samples);
+      }
+    }
   }
 
   // -- Conversion convenience methods --
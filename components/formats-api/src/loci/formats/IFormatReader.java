@@ -272,6 +272,125 @@ public interface IFormatReader extends IFormatHandler, IMetadataConfigurable {
   byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
     throws FormatException, IOException;
 
+  /**
+   * Obtains the specified image plane from the current file into a newly
+   * allocated off-heap buffer.  Unlike {@link #openBytes(int)}, this works
+   * for planes larger than 2 GB.
+   * @see #openLargeBytes(int, LargeByteBuffer, int, int, int, int)
+   */
+  LargeByteBuffer openLargeBytes(int no) throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane into a newly allocated
+   * off-heap buffer.
+   * @see #openLargeBytes(int, LargeByteBuffer, int, int, int, int)
+   */
+  LargeByteBuffer openLargeBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane into a pre-allocated
+   * buffer, which may be larger than 2 GB.  The layout of the pixels is the
+   * same as for {@link #openBytes(int, byte[], int, int, int, int)}.
+   *
+   * @param no the image index within the file.
+   * @param buf a pre-allocated buffer of at least
+   *   (w * h * bytesPerPixel * RGB channel count) bytes.
+   * @param x X coordinate of the upper-left corner of the sub-image
+   * @param y Y coordinate of the upper-left corner of the sub-image
+   * @param w width of the sub-image
+   * @param h height of the sub-image
+   * @return the pre-allocated buffer <code>buf</code> for convenience.
+   * @throws FormatException if there was a problem parsing the metadata of the
+   *   file.
+   * @throws IOException if there was a problem reading the file.
+   */
+  LargeByteBuffer openLargeBytes(int no, LargeByteBuffer buf, int x, int y,
+    int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane as 16-bit samples,
+   * without an intermediate byte array where the reader supports it.
+   * Samples are ordered as in {@link #openBytes(int, byte[], int, int, int,
+   * int)}; unsigned values are returned with the same bits, as Java shorts.
+   *
+   * @param no the image index within the file.
+   * @param buf a pre-allocated array of at least
+   *   (w * h * RGB channel count) samples, or null to allocate a new one.
+   * @param x X coordinate of the upper-left corner of the sub-image
+   * @param y Y coordinate of the upper-left corner of the sub-image
+   * @param w width of the sub-image
+   * @param h height of the sub-image
+   * @return <code>buf</code>, or the newly allocated array.
+   * @throws FormatException if the pixel type is not INT16 or UINT16, or if
+   *   there was a problem parsing the metadata of the file.
+   * @throws IOException if there was a problem reading the file.
+   */
+  short[] openShorts(int no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains the same sub-image of each of the specified image planes as
+   * 16-bit samples, stored one plane after another in a single array.
+   *
+   * @param no the image indices within the file, in the order they are to
+   *   be stored.
+   * @param buf a pre-allocated array of at least
+   *   (no.length * w * h * RGB channel count) samples, or null.
+   * @see #openShorts(int, short[], int, int, int, int)
+   */
+  short[] openShorts(int[] no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane as 32-bit integer
+   * samples; the pixel type must be INT32 or UINT32.
+   * @see #openShorts(int, short[], int, int, int, int)
+   */
+  int[] openInts(int no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains the same sub-image of each of the specified image planes as
+   * 32-bit integer samples, stored one plane after another.
+   * @see #openShorts(int[], short[], int, int, int, int)
+   */
+  int[] openInts(int[] no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane as floating point
+   * samples; the pixel type must be FLOAT.
+   * @see #openShorts(int, short[], int, int, int, int)
+   */
+  float[] openFloats(int no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains the same sub-image of each of the specified image planes as
+   * floating point samples, stored one plane after another.
+   * @see #openShorts(int[], short[], int, int, int, int)
+   */
+  float[] openFloats(int[] no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane as double precision
+   * samples; the pixel type must be DOUBLE.
+   * @see #openShorts(int, short[], int, int, int, int)
+   */
+  double[] openDoubles(int no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains the same sub-image of each of the specified image planes as
+   * double precision samples, stored one plane after another.
+   * @see #openShorts(int[], short[], int, int, int, int)
+   */
+  double[] openDoubles(int[] no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
   /**
    * Obtains the specified image plane (or sub-image thereof) in the reader's
    * native data structure. For most readers this is a byte array; however,
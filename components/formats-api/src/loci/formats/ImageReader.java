@@ -453,6 +453,95 @@ public class ImageReader implements IFormatReader {
     return getReader().openBytes(no, buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openLargeBytes(int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no)
+    throws FormatException, IOException
+  {
+    return getReader().openLargeBytes(no);
+  }
+
+  /* @see IFormatReader#openLargeBytes(int, int, int, int, int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openLargeBytes(no, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openLargeBytes(int, LargeByteBuffer, int, int, int, int) */
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, LargeByteBuffer buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openLargeBytes(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openShorts(int, short[], int, int, int, int) */
+  @Override
+  public short[] openShorts(int no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openShorts(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openShorts(int[], short[], int, int, int, int) */
+  @Override
+  public short[] openShorts(int[] no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openShorts(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openInts(int, int[], int, int, int, int) */
+  @Override
+  public int[] openInts(int no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openInts(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openInts(int[], int[], int, int, int, int) */
+  @Override
+  public int[] openInts(int[] no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openInts(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openFloats(int, float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openFloats(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openFloats(int[], float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int[] no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openFloats(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openDoubles(int, double[], int, int, int, int) */
+  @Override
+  public double[] openDoubles(int no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openDoubles(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openDoubles(int[], double[], int, int, int, int) */
+  @Override
+  public double[] openDoubles(int[] no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return getReader().openDoubles(no, buf, x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int) */
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
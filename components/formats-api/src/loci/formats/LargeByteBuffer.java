@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-capacity byte buffer that may be larger than 2 GB.
+ *
+ * The buffer is backed by a list of direct (off-heap) {@link ByteBuffer}
+ * segments of equal size; only the last segment may be shorter.  Bytes can
+ * be accessed either through the segments directly, or through the
+ * long-indexed get/put methods, which transparently span segment boundaries.
+ *
+ * @see IFormatReader#openLargeBytes(int, LargeByteBuffer, int, int, int, int)
+ */
+public class LargeByteBuffer {
+
+  // -- Constants --
+
+  /** Default size in bytes of each segment (1 GB). */
+  public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+  // -- Fields --
+
+  private final long capacity;
+  private final int segmentShift;
+  private final ByteBuffer[] segments;
+
+  // -- Constructors --
+
+  /** Allocates a buffer of the given capacity, using the default segments. */
+  public LargeByteBuffer(long capacity) {
+    this(capacity, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Allocates a buffer of the given capacity, divided into segments of the
+   * given size.
+   *
+   * @param capacity the total number of bytes in the buffer
+   * @param segmentSize the number of bytes in each segment; must be a
+   *   positive power of two
+   */
+  public LargeByteBuffer(long capacity, int segmentSize) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+      throw new IllegalArgumentException(
+        "Segment size must be a power of two: " + segmentSize);
+    }
+    this.capacity = capacity;
+    segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+
+    long count = (capacity + segmentSize - 1) >> segmentShift;
+    if (count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(
+        "Too many segments for capacity " + capacity);
+    }
+    segments = new ByteBuffer[(int) count];
+    for (int i=0; i<segments.length; i++) {
+      long remaining = capacity - ((long) i << segmentShift);
+      segments[i] =
+        ByteBuffer.allocateDirect((int) Math.min(segmentSize, remaining));
+    }
+  }
+
+  // -- LargeByteBuffer API methods --
+
+  /** Returns the total number of bytes in this buffer. */
+  public long capacity() {
+    return capacity;
+  }
+
+  /** Returns the size in bytes of each segment except possibly the last. */
+  public int getSegmentSize() {
+    return 1 << segmentShift;
+  }
+
+  /** Returns the number of segments backing this buffer. */
+  public int getSegmentCount() {
+    return segments.length;
+  }
+
+  /**
+   * Returns a view of the given segment.  The view shares its content with
+   * this buffer, but has its own position and limit.
+   */
+  public ByteBuffer getSegment(int index) {
+    return segments[index].duplicate();
+  }
+
+  /** Returns the byte at the given index. */
+  public byte get(long index) {
+    checkRange(index, 1);
+    return segments[(int) (index >> segmentShift)].get(
+      (int) (index & (getSegmentSize() - 1)));
+  }
+
+  /** Sets the byte at the given index. */
+  public void put(long index, byte value) {
+    checkRange(index, 1);
+    segments[(int) (index >> segmentShift)].put(
+      (int) (index & (getSegmentSize() - 1)), value);
+  }
+
+  /**
+   * Copies bytes from this buffer, starting at the given index, into the
+   * given array.
+   */
+  public void get(long index, byte[] dst, int offset, int length) {
+    checkRange(index, length);
+    while (length > 0) {
+      ByteBuffer segment = segmentAt(index);
+      int n = Math.min(length, segment.remaining());
+      segment.get(dst, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Copies bytes from the given array into this buffer, starting at the
+   * given index.
+   */
+  public void put(long index, byte[] src, int offset, int length) {
+    checkRange(index, length);
+    while (length > 0) {
+      ByteBuffer segment = segmentAt(index);
+      int n = Math.min(length, segment.remaining());
+      segment.put(src, offset, n);
+      index += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /** Copies the whole of the given array into this buffer. */
+  public void put(long index, byte[] src) {
+    put(index, src, 0, src.length);
+  }
+
+  // -- Helper methods --
+
+  /** Returns a view of the segment containing the given index. */
+  private ByteBuffer segmentAt(long index) {
+    ByteBuffer segment = getSegment((int) (index >> segmentShift));
+    segment.position((int) (index & (getSegmentSize() - 1)));
+    return segment;
+  }
+
+  private void checkRange(long index, int length) {
+    if (index < 0 || length < 0 || index + length > capacity) {
+      throw new IndexOutOfBoundsException("index=" + index + ", length=" +
+        length + ", capacity=" + capacity);
+    }
+  }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Hashtable of original metadata that is populated without boxing or
+ * locking. Entries added by {@link FormatReader} are appended to primitive
+ * columns and only converted into regular Hashtable entries the first time
+ * the table is read through the Hashtable API, so that a table which is
+ * filled during initialization but never inspected stays compact.
+ *
+ * Population via the package-private append methods is not thread-safe;
+ * once materialized, the table behaves as an ordinary Hashtable.
+ */
+public class MetadataTable extends Hashtable<String, Object> {
+
+  // -- Constants --
+
+  private static final long serialVersionUID = 1L;
+
+  static final byte OBJECT = 0;
+  static final byte LIST = 1;
+  static final byte BOOLEAN = 2;
+  static final byte BYTE = 3;
+  static final byte SHORT = 4;
+  static final byte INT = 5;
+  static final byte LONG = 6;
+  static final byte FLOAT = 7;
+  static final byte DOUBLE = 8;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // -- Fields --
+
+  /** Keys of the entries that have not yet been materialized. */
+  private transient String[] keys;
+
+  /** Value type of each pending entry. */
+  private transient byte[] types;
+
+  /** Raw bits of each pending primitive value. */
+  private transient long[] bits;
+
+  /** Each pending String or other object value; null for primitives. */
+  private transient Object[] objects;
+
+  /** Number of pending entries. */
+  private transient int pending;
+
+  /** Whether the table may currently contain Vector values. */
+  private transient boolean lists;
+
+  // -- Constructors --
+
+  public MetadataTable() {
+    super();
+  }
+
+  // -- MetadataTable API methods --
+
+  /**
+   * Replaces every Vector value in the given table with one entry per
+   * element. The new keys are the original key followed by " #" and the
+   * one-based element index, zero-padded to the same width.
+   */
+  public static void flattenLists(Hashtable<String, Object> meta) {
+    if (meta instanceof MetadataTable) {
+      MetadataTable table = (MetadataTable) meta;
+      if (!table.lists) {
+        return;
+      }
+      table.materialize();
+    }
+
+    String[] keys = meta.keySet().toArray(new String[meta.size()]);
+    for (String key : keys) {
+      Object v = meta.get(key);
+      if (v instanceof Vector) {
+        Vector<?> list = (Vector<?>) v;
+        int digits = String.valueOf(list.size()).length();
+
+        for (int i=0; i<list.size(); i++) {
+          String index = String.valueOf(i + 1);
+          while (index.length() < digits) {
+            index = "0" + index;
+          }
+          meta.put(key + " #" + index, list.get(i));
+        }
+
+        meta.remove(key);
+      }
+    }
+
+    if (meta instanceof MetadataTable) {
+      ((MetadataTable) meta).lists = false;
+    }
+  }
+
+  // -- Package-private API methods --
+
+  /** Appends an entry with a String or other object value. */
+  void append(String key, Object value) {
+    if (value instanceof Vector) {
+      lists = true;
+    }
+    add(key, OBJECT, 0, value);
+  }
+
+  /** Appends an entry with a primitive value stored as raw bits. */
+  void append(String key, byte type, long value) {
+    add(key, type, value, null);
+  }
+
+  /** Appends a value to the list stored under the given key. */
+  void appendToList(String key, Object value) {
+    lists = true;
+    add(key, LIST, 0, value);
+  }
+
+  /** Returns the boxed form of a primitive value stored as raw bits. */
+  static Object box(byte type, long value) {
+    switch (type) {
+      case BOOLEAN:
+        return Boolean.valueOf(value != 0);
+      case BYTE:
+        return Byte.valueOf((byte) value);
+      case SHORT:
+        return Short.valueOf((short) value);
+      case INT:
+        return Integer.valueOf((int) value);
+      case LONG:
+        return Long.valueOf(value);
+      case FLOAT:
+        return Float.valueOf(Float.intBitsToFloat((int) value));
+      case DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(value));
+      default:
+        throw new IllegalArgumentException("Invalid type: " + type);
+    }
+  }
+
+  // -- Hashtable API methods --
+
+  @Override
+  public synchronized int size() {
+    materialize();
+    return super.size();
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return pending == 0 && super.isEmpty();
+  }
+
+  @Override
+  public synchronized Enumeration<String> keys() {
+    materialize();
+    return super.keys();
+  }
+
+  @Override
+  public synchronized Enumeration<Object> elements() {
+    materialize();
+    return super.elements();
+  }
+
+  @Override
+  public synchronized boolean contains(Object value) {
+    materialize();
+    return super.contains(value);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return contains(value);
+  }
+
+  @Override
+  public synchronized boolean containsKey(Object key) {
+    materialize();
+    return super.containsKey(key);
+  }
+
+  @Override
+  public synchronized Object get(Object key) {
+    materialize();
+    return super.get(key);
+  }
+
+  @Override
+  public synchronized Object put(String key, Object value) {
+    materialize();
+    if (value instanceof Vector) {
+      lists = true;
+    }
+    return super.put(key, value);
+  }
+
+  @Override
+  public synchronized Object remove(Object key) {
+    materialize();
+    return super.remove(key);
+  }
+
+  @Override
+  public synchronized void putAll(Map<? extends String, ? extends Object> t) {
+    materialize();
+    super.putAll(t);
+  }
+
+  @Override
+  public synchronized void clear() {
+    discardPending();
+    lists = false;
+    super.clear();
+  }
+
+  @Override
+  public synchronized Object clone() {
+    materialize();
+    return super.clone();
+  }
+
+  @Override
+  public synchronized String toString() {
+    materialize();
+    return super.toString();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    materialize();
+    return super.keySet();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet() {
+    materialize();
+    return super.entrySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    materialize();
+    return super.values();
+  }
+
+  @Override
+  public synchronized boolean equals(Object o) {
+    materialize();
+    return super.equals(o);
+  }
+
+  @Override
+  public synchronized int hashCode() {
+    materialize();
+    return super.hashCode();
+  }
+
+  // -- Serializable API methods --
+
+  protected Object writeReplace() {
+    materialize();
+    return this;
+  }
+
+  // -- Helper methods --
+
+  private void add(String key, byte type, long value, Object object) {
+    if (keys == null) {
+      keys = new String[INITIAL_CAPACITY];
+      types = new byte[INITIAL_CAPACITY];
+      bits = new long[INITIAL_CAPACITY];
+      objects = new Object[INITIAL_CAPACITY];
+    }
+    else if (pending == keys.length) {
+      int capacity = keys.length * 2;
+      String[] newKeys = new String[capacity];
+      byte[] newTypes = new byte[capacity];
+      long[] newBits = new long[capacity];
+      Object[] newObjects = new Object[capacity];
+      System.arraycopy(keys, 0, newKeys, 0, pending);
+      System.arraycopy(types, 0, newTypes, 0, pending);
+      System.arraycopy(bits, 0, newBits, 0, pending);
+      System.arraycopy(objects, 0, newObjects, 0, pending);
+      keys = newKeys;
+      types = newTypes;
+      bits = newBits;
+      objects = newObjects;
+    }
+    keys[pending] = key;
+    types[pending] = type;
+    bits[pending] = value;
+    objects[pending] = object;
+    pending++;
+  }
+
+  /**
+   * Moves all pending entries into the Hashtable, in the order in which
+   * they were added, so that later values replace earlier ones.
+   */
+  synchronized void materialize() {
+    if (pending == 0) {
+      return;
+    }
+    String[] k = keys;
+    byte[] t = types;
+    long[] b = bits;
+    Object[] o = objects;
+    int n = pending;
+    discardPending();
+
+    for (int i=0; i<n; i++) {
+      switch (t[i]) {
+        case OBJECT:
+          super.put(k[i], o[i]);
+          break;
+        case LIST:
+          Object current = super.get(k[i]);
+          if (current instanceof Vector) {
+            // lists in the table only ever hold values added here
+            @SuppressWarnings("unchecked")
+            Vector<Object> list = (Vector<Object>) current;
+            list.add(o[i]);
+          }
+          else {
+            Vector<Object> list = new Vector<Object>();
+            list.add(o[i]);
+            super.put(k[i], list);
+          }
+          break;
+        default:
+          super.put(k[i], box(t[i], b[i]));
+      }
+    }
+  }
+
+  private void discardPending() {
+    keys = null;
+    types = null;
+    bits = null;
+    objects = null;
+    pending = 0;
+  }
+
+}
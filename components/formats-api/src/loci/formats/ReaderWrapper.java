@@ -349,6 +349,89 @@ public abstract class ReaderWrapper implements IFormatReader {
     return reader.openBytes(no, buf, x, y, w, h);
   }
 
+  @Override
+  public LargeByteBuffer openLargeBytes(int no)
+    throws FormatException, IOException
+  {
+    return openLargeBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openLargeBytes(no,
+      new LargeByteBuffer(FormatTools.getLargePlaneSize(this, w, h)),
+      x, y, w, h);
+  }
+
+  @Override
+  public LargeByteBuffer openLargeBytes(int no, LargeByteBuffer buf,
+    int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    // NB: read through this wrapper's openBytes, so that any
+    // transformation applied by the wrapper is preserved
+    return FormatTools.openLargeBytes(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public short[] openShorts(int no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    // NB: as with openLargeBytes, read through this wrapper's openBytes
+    return FormatTools.openShorts(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public short[] openShorts(int[] no, short[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openShorts(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public int[] openInts(int no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openInts(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public int[] openInts(int[] no, int[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openInts(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public float[] openFloats(int no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openFloats(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public float[] openFloats(int[] no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openFloats(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public double[] openDoubles(int no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openDoubles(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public double[] openDoubles(int[] no, double[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return FormatTools.openDoubles(this, no, buf, x, y, w, h);
+  }
+
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
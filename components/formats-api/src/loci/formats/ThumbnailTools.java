@@ -0,0 +1,339 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+import java.util.List;
+
+import loci.common.DataTools;
+
+/**
+ * Utility methods for generating thumbnails without AWT.
+ *
+ * Thumbnails are computed from the smallest resolution level that is still
+ * at least as large as the thumbnail, by area averaging on the raw pixel
+ * values.  Pixels are read in row blocks, so the full plane never needs to
+ * be held in memory at once.
+ */
+public final class ThumbnailTools {
+
+  // -- Constants --
+
+  /** Maximum number of bytes read at once when scaling a plane (16 MB). */
+  private static final int BLOCK_SIZE = 16 * 1024 * 1024;
+
+  // -- Constructor --
+
+  private ThumbnailTools() { }
+
+  // -- Utility methods --
+
+  /**
+   * Obtains a thumbnail for the specified image plane of the given reader.
+   * The thumbnail has the dimensions given by
+   * {@link IFormatReader#getThumbSizeX()} and
+   * {@link IFormatReader#getThumbSizeY()}, and the same pixel type,
+   * endianness and channel interleaving as the reader.
+   */
+  public static byte[] openThumbBytes(IFormatReader reader, int no)
+    throws FormatException, IOException
+  {
+    return openThumbBytes(reader, new int[] {no})[0];
+  }
+
+  /**
+   * Obtains thumbnails for several image planes of the given reader.  The
+   * resolution level used for scaling is chosen once for all planes.
+   *
+   * @see #openThumbBytes(IFormatReader, int)
+   */
+  public static byte[][] openThumbBytes(IFormatReader reader, int[] planes)
+    throws FormatException, IOException
+  {
+    FormatTools.assertId(reader.getCurrentFile(), true, 2);
+    for (int no : planes) {
+      FormatTools.checkPlaneNumber(reader, no);
+    }
+
+    int thumbSizeX = reader.getThumbSizeX();
+    int thumbSizeY = reader.getThumbSizeY();
+    int pixelType = reader.getPixelType();
+    int channels = reader.getRGBChannelCount();
+    int imageCount = reader.getImageCount();
+
+    int coreIndex = reader.getCoreIndex();
+    int resolution = reader.getResolution();
+
+    byte[][] thumbs = new byte[planes.length][];
+    try {
+      // resolutions are stored in descending order, so stop at the first
+      // level that is too small or otherwise incompatible
+
+      int resolutionCount = getResolutionCount(reader);
+      int level = getResolution(reader);
+      while (level + 1 < resolutionCount) {
+        setResolution(reader, coreIndex, level + 1);
+        if (reader.getSizeX() < thumbSizeX ||
+          reader.getSizeY() < thumbSizeY ||
+          reader.getPixelType() != pixelType ||
+          reader.getRGBChannelCount() != channels ||
+          reader.getImageCount() != imageCount)
+        {
+          break;
+        }
+        level++;
+      }
+      setResolution(reader, coreIndex, level);
+
+      int x = 0;
+      int y = 0;
+      int w = reader.getSizeX();
+      int h = reader.getSizeY();
+      if (FormatTools.getLargePlaneSize(reader, w, h) > Integer.MAX_VALUE) {
+        // no suitable resolution, so use the center of the plane
+        w = Math.min(w, thumbSizeX * 4);
+        h = Math.min(h, thumbSizeY * 4);
+        x = (reader.getSizeX() - w) / 2;
+        y = (reader.getSizeY() - h) / 2;
+      }
+
+      for (int i=0; i<planes.length; i++) {
+        thumbs[i] =
+          scale(reader, planes[i], x, y, w, h, thumbSizeX, thumbSizeY);
+      }
+    }
+    finally {
+      if (reader.getCoreIndex() != coreIndex) {
+        reader.setCoreIndex(coreIndex);
+      }
+      if (reader.getResolution() != resolution) {
+        reader.setResolution(resolution);
+      }
+    }
+    return thumbs;
+  }
+
+  /**
+   * Scales the given sub-image of the specified plane to the given size,
+   * averaging all pixels that fall within each pixel of the result.
+   * The result has the same pixel type, endianness and channel
+   * interleaving as the reader.
+   */
+  public static byte[] scale(IFormatReader reader, int no, int x, int y,
+    int w, int h, int scaledWidth, int scaledHeight)
+    throws FormatException, IOException
+  {
+    int pixelType = reader.getPixelType();
+    int bpp = FormatTools.getBytesPerPixel(pixelType);
+    int channels = reader.getRGBChannelCount();
+    boolean little = reader.isLittleEndian();
+    boolean interleaved = reader.isInterleaved();
+
+    int[] xStart = getSourceStart(w, scaledWidth);
+    int[] xEnd = getSourceEnd(w, scaledWidth);
+    int[] yStart = getSourceStart(h, scaledHeight);
+    int[] yEnd = getSourceEnd(h, scaledHeight);
+
+    // number of scaled rows for which source rows are read at once
+    long rowSize = (long) w * channels * bpp;
+    int rowsPerBlock = (int) Math.max(1, BLOCK_SIZE / rowSize);
+
+    double[] sums = new double[scaledWidth * channels];
+    byte[] scaled = new byte[scaledWidth * scaledHeight * channels * bpp];
+    byte[] block = null;
+
+    int row = 0;
+    while (row < scaledHeight) {
+      int rowCount = 1;
+      while (row + rowCount < scaledHeight &&
+        yEnd[row + rowCount] - yStart[row] <= rowsPerBlock)
+      {
+        rowCount++;
+      }
+      int top = yStart[row];
+      int height = yEnd[row + rowCount - 1] - top;
+      int blockSize = w * height * channels * bpp;
+      if (block == null || block.length != blockSize) {
+        block = new byte[blockSize];
+      }
+      reader.openBytes(no, block, x, y + top, w, height);
+
+      for (int r=row; r<row+rowCount; r++) {
+        for (int i=0; i<sums.length; i++) {
+          sums[i] = 0;
+        }
+        for (int sy=yStart[r]; sy<yEnd[r]; sy++) {
+          int blockRow = sy - top;
+          for (int c=0; c<channels; c++) {
+            for (int dx=0; dx<scaledWidth; dx++) {
+              double sum = 0;
+              for (int sx=xStart[dx]; sx<xEnd[dx]; sx++) {
+                int index = interleaved ?
+                  (blockRow * w + sx) * channels + c :
+                  (c * height + blockRow) * w + sx;
+                sum += getSample(block, index * bpp, pixelType, little);
+              }
+              sums[c * scaledWidth + dx] += sum;
+            }
+          }
+        }
+
+        int rowPixels = yEnd[r] - yStart[r];
+        for (int c=0; c<channels; c++) {
+          for (int dx=0; dx<scaledWidth; dx++) {
+            double count = rowPixels * (xEnd[dx] - xStart[dx]);
+            double value = sums[c * scaledWidth + dx] / count;
+            int index = interleaved ?
+              (r * scaledWidth + dx) * channels + c :
+              (c * scaledHeight + r) * scaledWidth + dx;
+            setSample(scaled, index * bpp, value, pixelType, little);
+          }
+        }
+      }
+      row += rowCount;
+    }
+    return scaled;
+  }
+
+  // -- Helper methods --
+
+  /** Computes the first source index covered by each scaled index. */
+  private static int[] getSourceStart(int size, int scaledSize) {
+    int[] start = new int[scaledSize];
+    for (int i=0; i<scaledSize; i++) {
+      start[i] = (int) ((long) i * size / scaledSize);
+    }
+    return start;
+  }
+
+  /**
+   * Computes the end (exclusive) of the source range covered by each scaled
+   * index.  Every range contains at least one source index.
+   */
+  private static int[] getSourceEnd(int size, int scaledSize) {
+    int[] end = new int[scaledSize];
+    for (int i=0; i<scaledSize; i++) {
+      int start = (int) ((long) i * size / scaledSize);
+      end[i] = (int) Math.max(start + 1, (long) (i + 1) * size / scaledSize);
+    }
+    return end;
+  }
+
+  /** Reads the sample at the given byte offset as a double. */
+  private static double getSample(byte[] b, int off, int pixelType,
+    boolean little)
+  {
+    switch (pixelType) {
+      case FormatTools.INT8:
+        return b[off];
+      case FormatTools.INT16:
+        return DataTools.bytesToShort(b, off, 2, little);
+      case FormatTools.UINT16:
+        return DataTools.bytesToShort(b, off, 2, little) & 0xffff;
+      case FormatTools.INT32:
+        return DataTools.bytesToInt(b, off, 4, little);
+      case FormatTools.UINT32:
+        return DataTools.bytesToInt(b, off, 4, little) & 0xffffffffL;
+      case FormatTools.FLOAT:
+        return DataTools.bytesToFloat(b, off, 4, little);
+      case FormatTools.DOUBLE:
+        return DataTools.bytesToDouble(b, off, 8, little);
+      default:
+        return b[off] & 0xff;
+    }
+  }
+
+  /** Stores the given value at the given byte offset. */
+  private static void setSample(byte[] b, int off, double value,
+    int pixelType, boolean little)
+  {
+    switch (pixelType) {
+      case FormatTools.INT8:
+      case FormatTools.UINT8:
+      case FormatTools.BIT:
+        b[off] = (byte) Math.round(value);
+        break;
+      case FormatTools.INT16:
+      case FormatTools.UINT16:
+        DataTools.unpackBytes(Math.round(value), b, off, 2, little);
+        break;
+      case FormatTools.INT32:
+      case FormatTools.UINT32:
+        DataTools.unpackBytes(Math.round(value), b, off, 4, little);
+        break;
+      case FormatTools.FLOAT:
+        DataTools.unpackBytes(
+          Float.floatToIntBits((float) value), b, off, 4, little);
+        break;
+      case FormatTools.DOUBLE:
+        DataTools.unpackBytes(
+          Double.doubleToLongBits(value), b, off, 8, little);
+        break;
+    }
+  }
+
+  /**
+   * Gets the number of resolutions of the current series, including
+   * resolutions that have been flattened into separate series.
+   */
+  private static int getResolutionCount(IFormatReader reader) {
+    if (!reader.hasFlattenedResolutions()) {
+      return reader.getResolutionCount();
+    }
+    List<CoreMetadata> core = reader.getCoreMetadataList();
+    int coreIndex = reader.getCoreIndex();
+    return core.get(coreIndex).resolutionCount;
+  }
+
+  /** Gets the current resolution, as used by {@link #setResolution}. */
+  private static int getResolution(IFormatReader reader) {
+    return reader.hasFlattenedResolutions() ? 0 : reader.getResolution();
+  }
+
+  /**
+   * Switches to the given resolution of the current series.  With
+   * flattened resolutions, the levels of a pyramid are stored as
+   * consecutive series following the full resolution series.
+   */
+  private static void setResolution(IFormatReader reader, int coreIndex,
+    int resolution)
+  {
+    if (reader.hasFlattenedResolutions()) {
+      reader.setCoreIndex(coreIndex + resolution);
+    }
+    else {
+      reader.setResolution(resolution);
+    }
+  }
+
+}
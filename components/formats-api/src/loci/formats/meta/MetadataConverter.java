@@ -35,6 +35,9 @@ package loci.formats.meta;
 import java.util.List;
 import java.util.Map;
 
+import ome.xml.meta.MetadataRoot;
+import ome.xml.meta.OMEXMLMetadataImpl;
+import ome.xml.meta.OMEXMLMetadataRoot;
 import ome.xml.model.*;
 import ome.xml.model.enums.*;
 import ome.xml.model.primitives.*;
@@ -75,8 +78,14 @@ public final class MetadataConverter {
   /**
    * Copies information from a metadata retrieval object
    * (source) into a metadata store (destination).
+   * If both objects are OME-XML metadata and the destination is empty,
+   * the source's model objects are copied directly.
    */
   public static void convertMetadata(MetadataRetrieve src, MetadataStore dest) {
+    if (copyRoot(src, dest)) {
+      return;
+    }
+
     convertBooleanAnnotations(src, dest);
     convertCommentAnnotations(src, dest);
     convertDoubleAnnotations(src, dest);
@@ -105,6 +114,85 @@ public final class MetadataConverter {
 
   // -- Helper methods --
 
+  /**
+   * Copies the model object tree of an OME-XML source directly into an
+   * empty OME-XML destination, bypassing the per-property getters and
+   * setters.
+   * @param src the MetadataRetrieve from which to copy
+   * @param dest the MetadataStore to which to copy
+   * @return true if the copy was made, false if the source or destination
+   * do not support it and the properties must be converted one by one
+   */
+  private static boolean copyRoot(MetadataRetrieve src, MetadataStore dest) {
+    if (!(src instanceof OMEXMLMetadataImpl) ||
+      !(dest instanceof OMEXMLMetadataImpl))
+    {
+      return false;
+    }
+    MetadataRoot srcRoot = ((OMEXMLMetadataImpl) src).getRoot();
+    MetadataRoot destRoot = ((OMEXMLMetadataImpl) dest).getRoot();
+    if (!(srcRoot instanceof OME) || !(destRoot instanceof OME) ||
+      !isEmpty((OME) destRoot))
+    {
+      return false;
+    }
+
+    OMEModel model = new OMEModelImpl();
+    OMEXMLMetadataRoot root = new OMEXMLMetadataRoot((OME) srcRoot, model);
+    model.resolveReferences();
+    root.setCreator(((OME) destRoot).getCreator());
+
+    // NB: BinData and MetadataOnly describe how the source stored its
+    // pixels, so only the byte order is carried over
+    for (int i=0; i<root.sizeOfImageList(); i++) {
+      Pixels pixels = root.getImage(i).getPixels();
+      if (pixels == null) {
+        continue;
+      }
+      int binDataCount = pixels.sizeOfBinDataList();
+      if (pixels.getBigEndian() == null && binDataCount > 0) {
+        pixels.setBigEndian(
+          pixels.getBinData(binDataCount - 1).getBigEndian());
+      }
+      for (BinData binData : pixels.copyBinDataList()) {
+        pixels.removeBinData(binData);
+      }
+      pixels.setMetadataOnly(null);
+    }
+
+    // NB: plate and screen names are required in OMERO
+    for (int i=0; i<root.sizeOfPlateList(); i++) {
+      Plate plate = root.getPlate(i);
+      if (plate.getName() == null) {
+        plate.setName("");
+      }
+    }
+    for (int i=0; i<root.sizeOfScreenList(); i++) {
+      Screen screen = root.getScreen(i);
+      if (screen.getName() == null) {
+        screen.setName("");
+      }
+    }
+
+    ((OMEXMLMetadataImpl) dest).setRoot(root, model);
+    return true;
+  }
+
+  /**
+   * Checks whether an OME root has no properties other than its creator.
+   */
+  private static boolean isEmpty(OME root) {
+    return root.getUUID() == null && root.getRights() == null &&
+      root.getStructuredAnnotations() == null &&
+      root.getBinaryOnly() == null &&
+      root.sizeOfProjectList() == 0 && root.sizeOfDatasetList() == 0 &&
+      root.sizeOfExperimentList() == 0 && root.sizeOfPlateList() == 0 &&
+      root.sizeOfScreenList() == 0 && root.sizeOfExperimenterList() == 0 &&
+      root.sizeOfExperimenterGroupList() == 0 &&
+      root.sizeOfInstrumentList() == 0 && root.sizeOfImageList() == 0 &&
+      root.sizeOfROIList() == 0;
+  }
+
   /**
    * Convert all BooleanAnnotation attributes.
    * @param src the MetadataRetrieve from which to copy
@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import loci.formats.meta.MetadataConverter;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.ome.OMEXMLMetadataImpl;
+
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+import ome.xml.meta.OMEXMLMetadataRoot;
+import ome.xml.model.BinData;
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+import ome.xml.model.primitives.NonNegativeInteger;
+import ome.xml.model.primitives.PositiveInteger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.meta.MetadataConverter}.
+ */
+public class MetadataConverterTest {
+
+  private static OMEXMLMetadata makeMetadata() {
+    OMEXMLMetadata meta = new OMEXMLMetadataImpl();
+    meta.setInstrumentID("Instrument:0", 0);
+    meta.setLaserID("LightSource:0:0", 0, 0);
+    meta.setLaserWavelength(new Length(488, UNITS.NM), 0, 0);
+    meta.setRectangleID("Shape:0:0", 0, 0);
+    meta.setRectangleWidth(4.0, 0, 0);
+    meta.setROIID("ROI:0", 0);
+    meta.setCommentAnnotationID("Annotation:0", 0);
+    meta.setCommentAnnotationValue("comment", 0);
+    for (int i=0; i<2; i++) {
+      meta.setImageID("Image:" + i, i);
+      meta.setImageInstrumentRef("Instrument:0", i);
+      meta.setImageROIRef("ROI:0", i, 0);
+      meta.setImageAnnotationRef("Annotation:0", i, 0);
+      meta.setPixelsID("Pixels:" + i, i);
+      meta.setPixelsDimensionOrder(DimensionOrder.XYZCT, i);
+      meta.setPixelsType(PixelType.UINT8, i);
+      meta.setPixelsSizeX(new PositiveInteger(2), i);
+      meta.setPixelsSizeY(new PositiveInteger(2), i);
+      meta.setPixelsSizeZ(new PositiveInteger(1), i);
+      meta.setPixelsSizeC(new PositiveInteger(1), i);
+      meta.setPixelsSizeT(new PositiveInteger(1), i);
+      meta.setChannelID("Channel:" + i + ":0", i, 0);
+      meta.setChannelLightSourceSettingsID("LightSource:0:0", i, 0);
+      meta.setPlaneTheZ(new NonNegativeInteger(0), i, 0);
+      meta.setPlaneTheC(new NonNegativeInteger(0), i, 0);
+      meta.setPlaneTheT(new NonNegativeInteger(0), i, 0);
+      meta.setPlanePositionX(new Length(i, UNITS.MICROM), i, 0);
+    }
+    meta.setPlateID("Plate:0", 0);
+    meta.setPlateName("plate", 0);
+    meta.setWellID("Well:0", 0, 0);
+    meta.setWellColumn(new NonNegativeInteger(0), 0, 0);
+    meta.setWellRow(new NonNegativeInteger(0), 0, 0);
+    for (int i=0; i<2; i++) {
+      meta.setWellSampleID("WellSample:0:" + i, 0, 0, i);
+      meta.setWellSampleIndex(new NonNegativeInteger(i), 0, 0, i);
+      meta.setWellSampleImageRef("Image:" + i, 0, 0, i);
+    }
+    meta.resolveReferences();
+    return meta;
+  }
+
+  @Test
+  public void testCopy() {
+    OMEXMLMetadata src = makeMetadata();
+    OMEXMLMetadata dest = new OMEXMLMetadataImpl();
+    MetadataConverter.convertMetadata(src, dest);
+    assertEquals(src.dumpXML(), dest.dumpXML());
+    assertEquals("Instrument:0", dest.getImageInstrumentRef(1));
+    assertEquals("Image:1", dest.getWellSampleImageRef(0, 0, 1));
+    assertEquals("LightSource:0:0", dest.getChannelLightSourceSettingsID(1, 0));
+    assertEquals(new Length(488, UNITS.NM), dest.getLaserWavelength(0, 0));
+
+    // the copy must not share model objects with the source
+    dest.setImageName("copy", 0);
+    dest.setPlanePositionX(new Length(5, UNITS.MICROM), 0, 0);
+    assertNull(src.getImageName(0));
+    assertEquals(new Length(0, UNITS.MICROM), src.getPlanePositionX(0, 0));
+  }
+
+  @Test
+  public void testReferencesAfterCopy() {
+    OMEXMLMetadata src = makeMetadata();
+    src.setInstrumentID("Instrument:1", 1);
+    OMEXMLMetadata dest = new OMEXMLMetadataImpl();
+    MetadataConverter.convertMetadata(src, dest);
+
+    // references set on the copy must resolve against the copied objects
+    dest.setImageInstrumentRef("Instrument:1", 0);
+    assertEquals(0, dest.resolveReferences());
+    assertEquals("Instrument:1", dest.getImageInstrumentRef(0));
+    assertEquals("Instrument:0", dest.getImageInstrumentRef(1));
+  }
+
+  @Test
+  public void testCopyRequiredNames() {
+    OMEXMLMetadata src = makeMetadata();
+    src.setPlateName(null, 0);
+    src.setScreenID("Screen:0", 0);
+    OMEXMLMetadata dest = new OMEXMLMetadataImpl();
+    MetadataConverter.convertMetadata(src, dest);
+    assertEquals("", dest.getPlateName(0));
+    assertEquals("", dest.getScreenName(0));
+    assertNull(src.getPlateName(0));
+  }
+
+  @Test
+  public void testCopyBinData() {
+    OMEXMLMetadata src = makeMetadata();
+    BinData binData = new BinData();
+    binData.setBigEndian(true);
+    OMEXMLMetadataRoot root = (OMEXMLMetadataRoot) src.getRoot();
+    root.getImage(0).getPixels().addBinData(binData);
+    OMEXMLMetadata dest = new OMEXMLMetadataImpl();
+    MetadataConverter.convertMetadata(src, dest);
+    assertEquals(0, dest.getPixelsBinDataCount(0));
+    assertEquals(Boolean.TRUE, dest.getPixelsBigEndian(0));
+  }
+
+  @Test
+  public void testMerge() {
+    OMEXMLMetadata src = makeMetadata();
+    OMEXMLMetadata dest = new OMEXMLMetadataImpl();
+    for (int i=0; i<3; i++) {
+      dest.setImageID("Existing:" + i, i);
+    }
+    MetadataConverter.convertMetadata(src, dest);
+    assertEquals(3, dest.getImageCount());
+    assertEquals("Image:0", dest.getImageID(0));
+    assertEquals("Existing:2", dest.getImageID(2));
+    dest.resolveReferences();
+    assertEquals("Image:1", dest.getWellSampleImageRef(0, 0, 1));
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * Top-level reader and writer APIs
+ * %%
+ * Copyright (C) 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.MetadataTable;
+import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.MetadataTable} and the original
+ * metadata API of {@link loci.formats.FormatReader}.
+ */
+public class MetadataTableTest {
+
+  /** Reader that only populates original metadata. */
+  private static class MetaReader extends FormatReader {
+    MetaReader() {
+      super("Meta", "meta");
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h) {
+      return buf;
+    }
+
+    @Override
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      addGlobalMeta("boolean", true);
+      addGlobalMeta("byte", (byte) -3);
+      addGlobalMeta("short", (short) 300);
+      addGlobalMeta("int", 70000);
+      addGlobalMeta("long", 1L << 40);
+      addGlobalMeta("float", 1.5f);
+      addGlobalMeta("double", -2.25);
+      addGlobalMeta("char", 'c');
+      addGlobalMeta("  string  ", "value");
+      addGlobalMeta("replaced", 1);
+      addGlobalMeta("replaced", "two");
+      for (int i=0; i<10; i++) {
+        addGlobalMetaList("list", i);
+      }
+      addSeriesMeta("series", 4.0);
+      addSeriesMetaList("single", "only");
+    }
+  }
+
+  private MetaReader open(MetadataLevel level) throws Exception {
+    MetaReader reader = new MetaReader();
+    reader.setMetadataOptions(new DefaultMetadataOptions(level));
+    reader.setId("test.meta");
+    return reader;
+  }
+
+  @Test
+  public void testPrimitiveValues() throws Exception {
+    Hashtable<String, Object> meta = open(MetadataLevel.ALL).getGlobalMetadata();
+    assertEquals(Boolean.TRUE, meta.get("boolean"));
+    assertEquals(Byte.valueOf((byte) -3), meta.get("byte"));
+    assertEquals(Short.valueOf((short) 300), meta.get("short"));
+    assertEquals(Integer.valueOf(70000), meta.get("int"));
+    assertEquals(Long.valueOf(1L << 40), meta.get("long"));
+    assertEquals(Float.valueOf(1.5f), meta.get("float"));
+    assertEquals(Double.valueOf(-2.25), meta.get("double"));
+    assertEquals("c", meta.get("char"));
+    assertEquals("value", meta.get("string"));
+  }
+
+  @Test
+  public void testLaterValueReplacesEarlier() throws Exception {
+    Hashtable<String, Object> meta = open(MetadataLevel.ALL).getGlobalMetadata();
+    assertEquals("two", meta.get("replaced"));
+  }
+
+  @Test
+  public void testListsAreFlattened() throws Exception {
+    MetaReader reader = open(MetadataLevel.ALL);
+    Hashtable<String, Object> meta = reader.getGlobalMetadata();
+    assertNull(meta.get("list"));
+    for (int i=0; i<10; i++) {
+      String index = i < 9 ? "0" + (i + 1) : String.valueOf(i + 1);
+      assertEquals(Integer.valueOf(i), meta.get("list #" + index));
+    }
+    assertEquals(20, meta.size());
+
+    Hashtable<String, Object> series = reader.getSeriesMetadata();
+    assertEquals(Double.valueOf(4.0), series.get("series"));
+    assertEquals("only", series.get("single #1"));
+  }
+
+  @Test
+  public void testMinimumLevelStoresNothing() throws Exception {
+    MetaReader reader = open(MetadataLevel.MINIMUM);
+    assertTrue(reader.getGlobalMetadata().isEmpty());
+    assertTrue(reader.getSeriesMetadata().isEmpty());
+  }
+
+  @Test
+  public void testHashtableAPI() {
+    MetadataTable table = new MetadataTable();
+    assertTrue(table.isEmpty());
+    table.put("a", "1");
+    Vector<Object> list = new Vector<Object>();
+    list.add("x");
+    list.add("y");
+    table.put("b", list);
+    MetadataTable.flattenLists(table);
+    assertEquals(3, table.size());
+    assertEquals("x", table.get("b #1"));
+    assertEquals("y", table.get("b #2"));
+    assertFalse(table.containsKey("b"));
+
+    Hashtable<String, Object> copy = new Hashtable<String, Object>(table);
+    assertEquals(table, copy);
+    table.clear();
+    assertTrue(table.isEmpty());
+  }
+
+}
@@ -234,6 +234,45 @@ public class MinMaxCalculator extends ReaderWrapper {
     return minMaxDone != null && minMaxDone[getSeries()] == getImageCount();
   }
 
+  /**
+   * Adds the min/max values computed by another calculator to this one.
+   * The other calculator must have been initialized on the same dataset;
+   * this allows planes to be read by several calculators in parallel.
+   */
+  public void addMinMax(MinMaxCalculator calc)
+    throws FormatException, IOException
+  {
+    FormatTools.assertId(getCurrentFile(), true, 2);
+    if (calc.chanMin == null) return;
+    initMinMax();
+
+    for (int s=0; s<chanMin.length; s++) {
+      for (int c=0; c<chanMin[s].length; c++) {
+        chanMin[s][c] = Math.min(chanMin[s][c], calc.chanMin[s][c]);
+        chanMax[s][c] = Math.max(chanMax[s][c], calc.chanMax[s][c]);
+      }
+      for (int p=0; p<planeMin[s].length; p++) {
+        if (!Double.isNaN(calc.planeMin[s][p])) {
+          planeMin[s][p] = calc.planeMin[s][p];
+          planeMax[s][p] = calc.planeMax[s][p];
+        }
+      }
+      minMaxDone[s] = Math.max(minMaxDone[s], calc.minMaxDone[s]);
+    }
+
+    if (minMaxStore != null) {
+      int oldSeries = getSeries();
+      for (int s=0; s<minMaxDone.length; s++) {
+        setSeries(s);
+        if (minMaxDone[s] < getImageCount()) continue;
+        for (int c=0; c<getSizeC(); c++) {
+          minMaxStore.setChannelGlobalMinMax(c, chanMin[s][c], chanMax[s][c], s);
+        }
+      }
+      setSeries(oldSeries);
+    }
+  }
+
   // -- IFormatReader API methods --
 
   /* @see IFormatReader#openBytes(int) */
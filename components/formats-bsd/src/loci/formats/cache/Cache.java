@@ -32,10 +32,21 @@
 
 package loci.formats.cache;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import loci.formats.FormatTools;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Cache provides a means of managing subsets of large collections of image
  * planes in memory. Each cache has a source, which provides image planes or
@@ -46,9 +57,38 @@ import loci.formats.FormatTools;
  * across the multidimensional image series's dimensional axes, with the
  * strategy indicating which surrounding planes to load into the cache (i.e.,
  * planes within a certain range along each dimensional axis).
+ *
+ * By default, planes are loaded in the thread that changes the position.
+ * After {@link #setThreadCount(int)}, they are loaded in the background in
+ * order of the strategy's preference, and loads that are still queued when
+ * the position changes again are discarded. The total size of the objects
+ * held by all caches can be limited with {@link #setMaxBytes(long)}, and the
+ * size held by one cache with {@link #setByteLimit(long)}; caches that are
+ * no longer needed should be closed with {@link #close()} to give their share
+ * of the limit back. Background loads reserve the estimated size of their
+ * object before reading it, so that nothing is read once the limit is
+ * reached.
  */
 public class Cache implements CacheReporter {
 
+  // -- Constants --
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Cache.class);
+
+  /** Value of {@link #getMaxBytes()} indicating no memory limit. */
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  /** Time in seconds after which idle loader threads exit. */
+  private static final long KEEP_ALIVE = 30;
+
+  // -- Static fields --
+
+  /** Maximum number of bytes held by all caches together. */
+  private static long maxBytes = UNLIMITED;
+
+  /** Number of bytes currently held by all caches together. */
+  private static long usedBytes;
+
   // -- Fields --
 
   /** Current cache strategy. */
@@ -72,6 +112,29 @@ public class Cache implements CacheReporter {
   /** Whether the cache should automatically update when a parameter changes. */
   protected boolean autoUpdate;
 
+  /** Size in bytes of each cached object. */
+  private long[] sizes;
+
+  /** Whether each position is currently being read from the source. */
+  private boolean[] reading;
+
+  /** Incremented whenever the load list changes, to discard stale loads. */
+  private int generation;
+
+  /** Maximum number of bytes held by this cache. */
+  private long byteLimit = UNLIMITED;
+
+  /** Number of bytes currently held or reserved by this cache. */
+  private long cachedBytes;
+
+  /** Size in bytes of the most recently read object, or -1 if unknown. */
+  private long lastSize = -1;
+
+  /** Background loader threads, or null to load in the calling thread. */
+  private ThreadPoolExecutor executor;
+
+  private long hits, misses, loads, loadTime;
+
   // -- Constructors --
 
   /** Constructs an object cache with the given cache strategy and source. */
@@ -88,17 +151,80 @@ public class Cache implements CacheReporter {
     if (autoUpdate) recache();
   }
 
+  // -- Static Cache API methods --
+
+  /**
+   * Sets the maximum number of bytes held by all caches together. Objects
+   * beyond the limit are not cached; objects already cached are not dropped
+   * until their cache next updates.
+   */
+  public static synchronized void setMaxBytes(long bytes) {
+    maxBytes = bytes;
+  }
+
+  /** Gets the maximum number of bytes held by all caches together. */
+  public static synchronized long getMaxBytes() { return maxBytes; }
+
+  /** Gets the number of bytes currently held by all caches together. */
+  public static synchronized long getUsedBytes() { return usedBytes; }
+
+  /**
+   * Reserves space for an object in the limit shared by all caches;
+   * returns false if it does not fit.
+   */
+  private static synchronized boolean reserveShared(long bytes) {
+    if (bytes > maxBytes - usedBytes) return false;
+    usedBytes += bytes;
+    return true;
+  }
+
+  private static synchronized void releaseShared(long bytes) {
+    usedBytes -= bytes;
+  }
+
   // -- Cache API methods --
 
+  /**
+   * Sets the maximum number of bytes held by this cache, in addition to the
+   * limit shared by all caches. Objects beyond the limit are not cached;
+   * objects already cached are not dropped until the cache next updates.
+   */
+  public synchronized void setByteLimit(long bytes) {
+    byteLimit = bytes;
+  }
+
+  /** Gets the maximum number of bytes held by this cache. */
+  public synchronized long getByteLimit() { return byteLimit; }
+
+  /**
+   * Gets the number of bytes currently held by this cache, including space
+   * reserved for objects that are being read.
+   */
+  public synchronized long getCachedBytes() { return cachedBytes; }
+
   /** Gets the cached object at the given dimensional position. */
-  public Object getObject(int[] pos) throws CacheException {
-    if (pos.length != strategy.getLengths().length) {
-      throw new CacheException("Invalid number of axes; got " + pos.length +
-        "; expected " + strategy.getLengths().length);
-    }
+  public synchronized Object getObject(int[] pos) throws CacheException {
+    Object o = cache[getIndex(pos)];
+    if (o == null) misses++;
+    else hits++;
+    return o;
+  }
 
-    int ndx = FormatTools.positionToRaster(strategy.getLengths(), pos);
-    return cache[ndx];
+  /**
+   * Gets the object at the given dimensional position, reading it from the
+   * source in the calling thread if it is not cached. The object is kept in
+   * the cache if its position is on the current load list. If the object is
+   * already being loaded in the background, this waits for that load
+   * instead of reading it again.
+   */
+  public Object loadObject(int[] pos) throws CacheException {
+    int ndx;
+    synchronized (this) {
+      ndx = getIndex(pos);
+      if (cache[ndx] == null) misses++;
+      else hits++;
+    }
+    return load(ndx, -1);
   }
 
   /**
@@ -110,15 +236,43 @@ public class Cache implements CacheReporter {
   }
 
   /** Returns true if the object at the given index is in the cache. */
-  public boolean isInCache(int pos) throws CacheException {
+  public synchronized boolean isInCache(int pos) throws CacheException {
     return inCache[pos];
   }
 
   /** Reallocates the cache. */
-  public void reset() throws CacheException {
+  public synchronized void reset() throws CacheException {
+    if (sizes != null) {
+      for (long size : sizes) release(size);
+    }
+    generation++;
+    if (executor != null) executor.getQueue().clear();
     currentPos = new int[strategy.getLengths().length];
     cache = new Object[source.getObjectCount()];
     inCache = new boolean[source.getObjectCount()];
+    sizes = new long[cache.length];
+    reading = new boolean[cache.length];
+  }
+
+  /**
+   * Drops every cached object, releasing its share of the memory limit, and
+   * stops the background loader threads. Objects still being read are not
+   * cached. The cache should not be used after it is closed.
+   */
+  public synchronized void close() {
+    if (executor != null) {
+      executor.getQueue().clear();
+      executor.shutdown();
+      executor = null;
+    }
+    autoUpdate = false;
+    generation++;
+    for (int i=0; i<cache.length; i++) {
+      release(sizes[i]);
+      sizes[i] = 0;
+      cache[i] = null;
+      inCache[i] = false;
+    }
   }
 
   /** Gets the cache's caching strategy. */
@@ -158,55 +312,122 @@ public class Cache implements CacheReporter {
   /** Sets the current dimensional position. */
   public void setCurrentPos(int[] pos) throws CacheException {
     if (pos == null) throw new CacheException("pos is null");
-    if (pos.length != currentPos.length) {
-      throw new CacheException("pos length mismatch (is " +
-        pos.length + ", expected " + currentPos.length + ")");
-    }
-    int[] len = strategy.getLengths();
-    for (int i=0; i<pos.length; i++) {
-      if (pos[i] < 0 || pos[i] >= len[i]) {
-        throw new CacheException("invalid pos[" + i + "] (is " +
-          pos[i] + ", expected [0, " + (len[i] - 1) + "])");
+    int ndx;
+    synchronized (this) {
+      if (pos.length != currentPos.length) {
+        throw new CacheException("pos length mismatch (is " +
+          pos.length + ", expected " + currentPos.length + ")");
       }
+      int[] len = strategy.getLengths();
+      for (int i=0; i<pos.length; i++) {
+        if (pos[i] < 0 || pos[i] >= len[i]) {
+          throw new CacheException("invalid pos[" + i + "] (is " +
+            pos[i] + ", expected [0, " + (len[i] - 1) + "])");
+        }
+      }
+      System.arraycopy(pos, 0, currentPos, 0, pos.length);
+      ndx = FormatTools.positionToRaster(len, pos);
     }
-    System.arraycopy(pos, 0, currentPos, 0, pos.length);
-    int ndx = FormatTools.positionToRaster(len, pos);
     notifyListeners(new CacheEvent(this, CacheEvent.POSITION_CHANGED, ndx));
     if (autoUpdate) recache();
   }
 
+  /**
+   * Sets the number of background threads used to load objects.
+   * With zero threads (the default), objects are loaded in the thread that
+   * calls {@link #recache()}.
+   *
+   * Reads from the source are serialized on the source object unless
+   * {@link #readObject(int)} is overridden, since the sources in this
+   * package share a single, non thread-safe reader.
+   */
+  public synchronized void setThreadCount(int threads) {
+    if (executor != null) {
+      executor.getQueue().clear();
+      executor.shutdown();
+      executor = null;
+    }
+    if (threads > 0) {
+      executor = new ThreadPoolExecutor(threads, threads,
+        KEEP_ALIVE, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          private int count = 0;
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Bio-Formats-Cache-Loader-" + count++);
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+          }
+        });
+      executor.allowCoreThreadTimeOut(true);
+    }
+  }
+
+  /** Gets the number of background threads used to load objects. */
+  public synchronized int getThreadCount() {
+    return executor == null ? 0 : executor.getCorePoolSize();
+  }
+
+  /** Gets the number of requests that found their object in the cache. */
+  public synchronized long getHitCount() { return hits; }
+
+  /** Gets the number of requests that did not find their object. */
+  public synchronized long getMissCount() { return misses; }
+
+  /**
+   * Gets the fraction of {@link #getObject(int[])} and
+   * {@link #loadObject(int[])} requests that found their object in the
+   * cache, or NaN if there have been no requests.
+   */
+  public synchronized double getHitRatio() {
+    long requests = hits + misses;
+    return requests == 0 ? Double.NaN : (double) hits / requests;
+  }
+
+  /** Gets the number of objects read from the source. */
+  public synchronized long getLoadCount() { return loads; }
+
+  /**
+   * Gets the average time in milliseconds taken to read an object from the
+   * source, or NaN if nothing has been read.
+   */
+  public synchronized double getAverageLoadTime() {
+    return loads == 0 ? Double.NaN : loadTime / (loads * 1000000.0);
+  }
+
+  /** Resets the hit, miss and load statistics. */
+  public synchronized void resetStatistics() {
+    hits = misses = loads = loadTime = 0;
+  }
+
   /** Updates the given plane. */
   public void recache(int n) throws CacheException {
-    int[][] indices = strategy.getLoadList(currentPos);
-    int[] len = strategy.getLengths();
-
-    for (int i=0; i<inCache.length; i++) {
-      boolean found = false;
-      for (int j=0; j<indices.length; j++) {
-        if (i == FormatTools.positionToRaster(len, indices[j])) {
-          found = true;
-          break;
-        }
+    int ndx;
+    int gen;
+    List<Integer> dropped;
+    synchronized (this) {
+      int[] load = getLoadOrder();
+      dropped = drop(load);
+      if (n >= load.length) {
+        // not enough memory to hold this entry of the load list
+        ndx = -1;
       }
-      if (!found) {
-        inCache[i] = false;
-        if (cache[i] != null) {
-          cache[i] = null;
-          notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, i));
-        }
+      else {
+        ndx = load[n];
+        inCache[ndx] = true;
       }
+      gen = generation;
     }
-
-    int ndx = FormatTools.positionToRaster(len, indices[n]);
-    if (ndx >= 0) inCache[ndx] = true;
-
-    if (cache[ndx] == null) {
-      cache[ndx] = source.getObject(ndx);
-      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx));
-    }
+    notifyDropped(dropped);
+    if (ndx >= 0) load(ndx, gen);
   }
 
-  /** Updates all planes on the load list. */
+  /**
+   * Updates all planes on the load list, either in this thread or, if
+   * background threads are enabled, by queueing them for loading.
+   */
   public void recache() throws CacheException {
     // what happens if cache source and cache strategy lengths do not match?
     // throw exception in that case
@@ -220,8 +441,38 @@ public class Cache implements CacheReporter {
     // each time through the loop only (i.e., only when a recache call occurs)
     //
     // /lo
-    for (int i=0; i<strategy.getLoadList(currentPos).length; i++) {
-      recache(i);
+    int[] load;
+    int gen;
+    List<Integer> dropped;
+    synchronized (this) {
+      generation++;
+      gen = generation;
+      load = getLoadOrder();
+      dropped = drop(load);
+      if (executor != null) {
+        // anything still queued belongs to an older position
+        executor.getQueue().clear();
+        long available = Math.min(byteLimit - cachedBytes,
+          getMaxBytes() - getUsedBytes());
+        for (int i=0; i<load.length; i++) {
+          if (cache[load[i]] == null) {
+            long size = estimateSize(load[i]);
+            if (size > available) {
+              LOGGER.debug("Memory limit reached; queued {} of {} objects",
+                i, load.length);
+              break;
+            }
+            available -= size;
+          }
+          executor.execute(new LoadTask(gen, i, load[i]));
+        }
+      }
+    }
+    notifyDropped(dropped);
+    if (executor == null) {
+      for (int ndx : load) {
+        if (load(ndx, gen) == null) break;
+      }
     }
   }
 
@@ -256,8 +507,212 @@ public class Cache implements CacheReporter {
     return l;
   }
 
+  // -- Internal Cache API methods --
+
+  /**
+   * Gets the raster indices of the objects to cache around the current
+   * position, in loading order. The default implementation uses the
+   * strategy's load list. Called while holding this cache's lock.
+   */
+  protected int[] getLoadOrder() throws CacheException {
+    int[][] indices = strategy.getLoadList(currentPos);
+    int[] len = strategy.getLengths();
+    int[] load = new int[indices.length];
+    for (int i=0; i<indices.length; i++) {
+      load[i] = FormatTools.positionToRaster(len, indices[i]);
+    }
+    return load;
+  }
+
+  /**
+   * Estimates the size in bytes of the object with the given raster index
+   * before it is read, so that background loads can reserve their share of
+   * the memory limit up front. The default implementation returns the size
+   * of the most recently read object, or 0 before anything has been read.
+   * Called while holding this cache's lock.
+   */
+  protected long estimateSize(int ndx) {
+    return Math.max(lastSize, 0);
+  }
+
+  /**
+   * Reads the object with the given raster index from the source. The
+   * default implementation synchronizes on the source.
+   */
+  protected Object readObject(int ndx) throws CacheException {
+    synchronized (source) {
+      return source.getObject(ndx);
+    }
+  }
+
+  /**
+   * Estimates the memory used by the given object, in bytes. Primitive
+   * arrays, arrays of primitive arrays and BufferedImages are measured;
+   * other objects are counted as zero.
+   */
+  protected long sizeOf(Object o) {
+    if (o instanceof byte[]) return ((byte[]) o).length;
+    if (o instanceof short[]) return 2L * ((short[]) o).length;
+    if (o instanceof char[]) return 2L * ((char[]) o).length;
+    if (o instanceof int[]) return 4L * ((int[]) o).length;
+    if (o instanceof float[]) return 4L * ((float[]) o).length;
+    if (o instanceof long[]) return 8L * ((long[]) o).length;
+    if (o instanceof double[]) return 8L * ((double[]) o).length;
+    if (o instanceof Object[]) {
+      long size = 0;
+      for (Object element : (Object[]) o) {
+        if (element != null && element.getClass().isArray()) {
+          size += sizeOf(element);
+        }
+      }
+      return size;
+    }
+    if (o instanceof BufferedImage) {
+      DataBuffer buffer = ((BufferedImage) o).getRaster().getDataBuffer();
+      return (long) buffer.getSize() * buffer.getNumBanks() *
+        DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+    return 0;
+  }
+
   // -- Helper methods --
 
+  private int getIndex(int[] pos) throws CacheException {
+    if (pos.length != strategy.getLengths().length) {
+      throw new CacheException("Invalid number of axes; got " + pos.length +
+        "; expected " + strategy.getLengths().length);
+    }
+    return FormatTools.positionToRaster(strategy.getLengths(), pos);
+  }
+
+  /**
+   * Marks the given indices as wanted and drops every other cached object.
+   * Called while holding this cache's lock.
+   * @return the indices of the dropped objects
+   */
+  private List<Integer> drop(int[] load) {
+    boolean[] keep = new boolean[cache.length];
+    for (int ndx : load) {
+      keep[ndx] = true;
+    }
+    List<Integer> dropped = new ArrayList<Integer>();
+    for (int i=0; i<cache.length; i++) {
+      inCache[i] = keep[i];
+      if (!keep[i] && cache[i] != null) {
+        cache[i] = null;
+        release(sizes[i]);
+        sizes[i] = 0;
+        dropped.add(i);
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Reserves space for an object in this cache's limit and in the limit
+   * shared by all caches; returns false if it does not fit. A negative
+   * number of bytes shrinks an earlier reservation. Called while holding
+   * this cache's lock.
+   */
+  private boolean reserve(long bytes) {
+    if (bytes > byteLimit - cachedBytes || !reserveShared(bytes)) {
+      return false;
+    }
+    cachedBytes += bytes;
+    return true;
+  }
+
+  /** Called while holding this cache's lock. */
+  private void release(long bytes) {
+    cachedBytes -= bytes;
+    releaseShared(bytes);
+  }
+
+  private void notifyDropped(List<Integer> dropped) {
+    for (Integer ndx : dropped) {
+      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, ndx));
+    }
+  }
+
+  /**
+   * Returns the object with the given index, reading it from the source if
+   * it is not cached. With a generation other than -1, this is a background
+   * or recache load, which is skipped if the load list has changed since it
+   * was requested or the object is no longer wanted, and which reserves
+   * the object's estimated size before reading it.
+   * @return the object, or null if the load was skipped or the memory limit
+   *   was reached
+   */
+  private Object load(int ndx, int gen) throws CacheException {
+    boolean[] flags;
+    long reserved = 0;
+    synchronized (this) {
+      flags = reading;
+      while (ndx < flags.length && flags[ndx]) {
+        try {
+          wait();
+        }
+        catch (InterruptedException e) {
+          throw new CacheException(e);
+        }
+      }
+      if (flags != reading) {
+        // the cache was reset while waiting
+        if (gen != -1) return null;
+        flags = reading;
+      }
+      if (ndx >= cache.length) {
+        throw new CacheException("Invalid index: " + ndx);
+      }
+      if (cache[ndx] != null) return cache[ndx];
+      if (gen != -1 && (gen != generation || !inCache[ndx])) return null;
+      if (gen != -1) {
+        reserved = estimateSize(ndx);
+        if (!reserve(reserved)) {
+          LOGGER.debug("Memory limit reached; not loading object {}", ndx);
+          inCache[ndx] = false;
+          return null;
+        }
+      }
+      flags[ndx] = true;
+    }
+
+    Object o = null;
+    CacheEvent event = null;
+    try {
+      long start = System.nanoTime();
+      o = readObject(ndx);
+      long time = System.nanoTime() - start;
+      long size = sizeOf(o);
+      synchronized (this) {
+        loads++;
+        loadTime += time;
+        lastSize = size;
+        if (flags == reading && inCache[ndx]) {
+          if (!reserve(size - reserved)) {
+            LOGGER.debug("Memory limit reached; not caching object {}", ndx);
+            inCache[ndx] = false;
+            return gen == -1 ? o : null;
+          }
+          reserved = 0;
+          cache[ndx] = o;
+          sizes[ndx] = size;
+          event = new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx,
+            time, getHitRatio());
+        }
+      }
+    }
+    finally {
+      synchronized (this) {
+        release(reserved);
+        flags[ndx] = false;
+        notifyAll();
+      }
+    }
+    if (event != null) notifyListeners(event);
+    return o;
+  }
+
   /** Informs listeners of a cache update. */
   protected void notifyListeners(CacheEvent e) {
     synchronized (listeners) {
@@ -268,4 +723,36 @@ public class Cache implements CacheReporter {
     }
   }
 
+  // -- Helper classes --
+
+  /**
+   * Background load of one object. Loads for newer positions run first,
+   * then in the order of the load list.
+   */
+  private class LoadTask implements Runnable, Comparable<LoadTask> {
+    private final int gen, rank, ndx;
+
+    LoadTask(int gen, int rank, int ndx) {
+      this.gen = gen;
+      this.rank = rank;
+      this.ndx = ndx;
+    }
+
+    @Override
+    public void run() {
+      try {
+        load(ndx, gen);
+      }
+      catch (CacheException e) {
+        LOGGER.debug("Could not load object {}", ndx, e);
+      }
+    }
+
+    @Override
+    public int compareTo(LoadTask t) {
+      if (gen != t.gen) return gen > t.gen ? -1 : 1;
+      return rank < t.rank ? -1 : rank == t.rank ? 0 : 1;
+    }
+  }
+
 }
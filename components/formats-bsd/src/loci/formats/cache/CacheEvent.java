@@ -76,6 +76,12 @@ public class CacheEvent {
   /** Relevant index to the event, if any. */
   protected int index;
 
+  /** Time taken to load the object, in nanoseconds, if any. */
+  protected long loadTime;
+
+  /** Cache hit ratio at the time of the event, if known. */
+  protected double hitRatio;
+
   // -- Constructor --
 
   /** Constructs a cache event. */
@@ -83,9 +89,18 @@ public class CacheEvent {
 
   /** Constructs a cache event. */
   public CacheEvent(Object source, int type, int index) {
+    this(source, type, index, -1, Double.NaN);
+  }
+
+  /** Constructs a cache event with load statistics. */
+  public CacheEvent(Object source, int type, int index, long loadTime,
+    double hitRatio)
+  {
     this.source = source;
     this.type = type;
     this.index = index;
+    this.loadTime = loadTime;
+    this.hitRatio = hitRatio;
   }
 
   // -- CacheEvent API methods --
@@ -103,6 +118,20 @@ public class CacheEvent {
    */
   public int getIndex() { return index; }
 
+  /**
+   * Gets the time taken to read the object from the cache source, in
+   * nanoseconds, or -1 if not applicable.
+   * This parameter is only set for events OBJECT_LOADED.
+   */
+  public long getLoadTime() { return loadTime; }
+
+  /**
+   * Gets the fraction of requests that were served from the cache, or NaN
+   * if not known.
+   * This parameter is only set for events OBJECT_LOADED.
+   */
+  public double getHitRatio() { return hitRatio; }
+
   // -- Object API methods --
 
   @Override
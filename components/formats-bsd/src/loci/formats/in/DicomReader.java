@@ -37,8 +37,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -114,6 +121,33 @@ public class DicomReader extends FormatReader {
 
   private static final int IMPLICIT_VR = 0x2d2d;
 
+  /** Buffer size used when reading the leading tags of other files. */
+  private static final int HEADER_BUFFER_SIZE = 8192;
+
+  /**
+   * Number of threads used to read headers during a directory scan.
+   * Scanning is I/O bound, so use a few threads even on a single core.
+   */
+  private static final int NUM_THREADS =
+    Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  /** Maximum number of directories whose file headers are cached. */
+  private static final int MAX_CACHED_DIRECTORIES = 16;
+
+  /** Grouping information for recently scanned directories. */
+  private static final Map<String, Map<String, FileHeader>> HEADER_CACHE =
+    new LinkedHashMap<String, Map<String, FileHeader>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, Map<String, FileHeader>> eldest)
+      {
+        return size() > MAX_CACHED_DIRECTORIES;
+      }
+    };
+
+  /** Thread pool used to read file headers. */
+  private static ExecutorService pool;
+
   // -- Fields --
 
   /** Bits per pixel. */
@@ -1170,59 +1204,190 @@ public class DicomReader extends FormatReader {
     String[] files = dir.list(true);
     if (files == null) return;
     Arrays.sort(files);
+    List<String> candidates = new ArrayList<String>();
     for (String f : files) {
       String file = new Location(dir, f).getAbsolutePath();
-      LOGGER.debug("Checking file {}", file);
       if (!f.equals(currentId) && !file.equals(currentId) &&
-        isThisType(file) && Arrays.binarySearch(patternFiles, file) >= 0)
+        Arrays.binarySearch(patternFiles, file) >= 0)
       {
-        addFileToList(file, checkSeries);
+        candidates.add(file);
+      }
+    }
+
+    Map<String, FileHeader> headers = readHeaders(dir, candidates);
+    for (String file : candidates) {
+      FileHeader header = headers.get(file);
+      if (header.isDicom) {
+        addFileToList(file, header, checkSeries);
       }
     }
   }
 
   /**
-   * Determine if the given file belongs in the same dataset as this file.
+   * Read the grouping tags of each of the given files in parallel.
+   * Results are cached per directory, and a cached result is reused
+   * for as long as the file's size and modification time are unchanged.
    */
-  private void addFileToList(String file, boolean checkSeries)
+  private Map<String, FileHeader> readHeaders(Location dir, List<String> files)
     throws FormatException, IOException
   {
-    RandomAccessInputStream stream = new RandomAccessInputStream(file);
-    if (!isThisType(stream)) {
-      stream.close();
-      return;
+    String key = dir.getAbsolutePath();
+    final Map<String, FileHeader> cached = new HashMap<String, FileHeader>();
+    synchronized (HEADER_CACHE) {
+      Map<String, FileHeader> entry = HEADER_CACHE.get(key);
+      if (entry != null) {
+        cached.putAll(entry);
+      }
     }
-    stream.order(true);
-
-    stream.seek(128);
-    if (!stream.readString(4).equals("DICM")) stream.seek(0);
 
-    int fileSeries = -1;
+    List<Callable<FileHeader>> tasks = new ArrayList<Callable<FileHeader>>();
+    for (final String file : files) {
+      tasks.add(new Callable<FileHeader>() {
+        @Override
+        public FileHeader call() throws FormatException, IOException {
+          Location location = new Location(file);
+          long length = location.length();
+          long lastModified = location.lastModified();
+          FileHeader header = cached.get(file);
+          if (header != null && header.length == length &&
+            header.lastModified == lastModified)
+          {
+            return header;
+          }
+          LOGGER.debug("Checking file {}", file);
+          header = new DicomReader().readHeader(file);
+          header.length = length;
+          header.lastModified = lastModified;
+          return header;
+        }
+      });
+    }
 
-    String date = null, time = null, instance = null;
-    while (date == null || time == null || instance == null ||
-      (checkSeries && fileSeries < 0))
-    {
-      long fp = stream.getFilePointer();
-      if (fp + 4 >= stream.length() || fp < 0) break;
-      int tag = getNextTag(stream);
-      final String key = TYPES.get(tag);
-      if ("Instance Number".equals(key)) {
-        instance = stream.readString(elementLength).trim();
-        if (instance.length() == 0) instance = null;
+    List<FileHeader> results = new ArrayList<FileHeader>();
+    try {
+      for (Future<FileHeader> result : getPool().invokeAll(tasks)) {
+        results.add(result.get());
       }
-      else if ("Acquisition Time".equals(key)) {
-        time = stream.readString(elementLength);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IOException ioe = new IOException("Interrupted while scanning " + key);
+      ioe.initCause(e);
+      throw ioe;
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) {
+        throw (FormatException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new FormatException(cause);
+    }
+
+    Map<String, FileHeader> headers = new HashMap<String, FileHeader>();
+    for (int i=0; i<files.size(); i++) {
+      headers.put(files.get(i), results.get(i));
+    }
+    synchronized (HEADER_CACHE) {
+      Map<String, FileHeader> entry = HEADER_CACHE.get(key);
+      if (entry == null) {
+        entry = new HashMap<String, FileHeader>();
+        HEADER_CACHE.put(key, entry);
       }
-      else if ("Acquisition Date".equals(key)) {
-        date = stream.readString(elementLength);
+      entry.putAll(headers);
+    }
+    return headers;
+  }
+
+  /**
+   * Read the tags used to group the given file with other files.
+   * Only the tags that precede the pixel data are read.  Tag parsing state
+   * is stored in fields, so this must be called on a separate reader.
+   */
+  private FileHeader readHeader(String file)
+    throws FormatException, IOException
+  {
+    FileHeader header = new FileHeader();
+    core = new ArrayList<CoreMetadata>();
+    core.add(new CoreMetadata());
+
+    RandomAccessInputStream stream =
+      new RandomAccessInputStream(file, HEADER_BUFFER_SIZE);
+    try {
+      header.isDicom = isThisType(stream);
+      if (!header.isDicom) {
+        return header;
       }
-      else if ("Series Number".equals(key)) {
-        fileSeries = Integer.parseInt(stream.readString(elementLength).trim());
+      stream.order(true);
+
+      stream.seek(128);
+      if (!stream.readString(4).equals("DICM")) stream.seek(0);
+
+      while (header.date == null || header.time == null ||
+        header.instance == null || header.series < 0)
+      {
+        long fp = stream.getFilePointer();
+        if (fp + 4 >= stream.length() || fp < 0) break;
+        int tag = getNextTag(stream);
+        if (tag == PIXEL_DATA) break;
+        final String key = TYPES.get(tag);
+        if ("Instance Number".equals(key)) {
+          header.instance = stream.readString(elementLength).trim();
+          if (header.instance.length() == 0) header.instance = null;
+        }
+        else if ("Acquisition Time".equals(key)) {
+          header.time = stream.readString(elementLength);
+        }
+        else if ("Acquisition Date".equals(key)) {
+          header.date = stream.readString(elementLength);
+        }
+        else if ("Series Number".equals(key)) {
+          header.series =
+            Integer.parseInt(stream.readString(elementLength).trim());
+        }
+        else stream.skipBytes(elementLength);
       }
-      else stream.skipBytes(elementLength);
     }
-    stream.close();
+    finally {
+      stream.close();
+    }
+    return header;
+  }
+
+  /** Get the thread pool used to read file headers, creating it if needed. */
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "dicom-scan-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+
+  /**
+   * Determine if the given file belongs in the same dataset as this file.
+   */
+  private void addFileToList(String file, FileHeader header,
+    boolean checkSeries)
+  {
+    int fileSeries = checkSeries ? header.series : -1;
+    String date = header.date, time = header.time;
+    String instance = header.instance;
 
     if (date == null || time == null || instance == null ||
       (checkSeries && fileSeries == originalSeries))
@@ -1301,6 +1466,17 @@ public class DicomReader extends FormatReader {
     }
   }
 
+  // -- Helper classes --
+
+  /** Tags used to group a file with the other files in its dataset. */
+  private static class FileHeader {
+    public boolean isDicom;
+    public long length;
+    public long lastModified;
+    public int series = -1;
+    public String date, time, instance;
+  }
+
   /**
    * Assemble the data dictionary.
    * This is incomplete at best, since there are literally thousands of
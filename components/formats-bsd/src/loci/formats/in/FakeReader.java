@@ -93,7 +93,15 @@ import ome.units.UNITS;
  *  <li>showinf '32bit-floating&amp;pixelType=float&amp;sizeZ=3&amp;sizeC=5&amp;sizeT=7&amp;sizeY=50.fake'</li>
  *  <li>showinf '64bit-floating&amp;pixelType=double&amp;sizeZ=3&amp;sizeC=5&amp;sizeT=7&amp;sizeY=50.fake'</li>
  *  <li>showinf 'SPW&amp;plates=2&amp;plateRows=3&amp;plateCols=3&amp;fields=8&amp;plateAcqs=5.fake'</li>
+ *  <li>showinf 'huge&amp;sizeX=200000&amp;sizeY=200000&amp;sizeZ=1000000.fake' -nopix</li>
+ *  <li>showinf 'slow&amp;sleepOpenBytes=20&amp;sleepInitFile=500&amp;codecCost=2.5.fake'</li>
  * </ul></p>
+ * <p>Pixel data is generated without any I/O, so very large virtual sizes
+ * can be used to test code that wraps readers.  The
+ * <code>sleepOpenBytes</code> and <code>sleepInitFile</code> keys add a
+ * latency in milliseconds to each openBytes call and to initialization,
+ * and <code>codecCost</code> keeps the calling thread busy for the given
+ * number of nanoseconds per byte returned, simulating decompression.</p>
  */
 public class FakeReader extends FormatReader {
 
@@ -147,6 +155,18 @@ public class FakeReader extends FormatReader {
   /** Channel of last opened image plane. */
   private int ac = 0;
 
+  /** Milliseconds to sleep on each openBytes call, to simulate slow I/O. */
+  private long sleepOpenBytes = 0;
+
+  /** Milliseconds to sleep during initialization, to simulate slow I/O. */
+  private long sleepInitFile = 0;
+
+  /**
+   * Nanoseconds of busy CPU time per byte returned by openBytes, to
+   * simulate the cost of decompression.
+   */
+  private double codecCost = 0;
+
   /** Properties companion file which can be associated with this fake file */
   private String iniFile;
 
@@ -189,7 +209,6 @@ public class FakeReader extends FormatReader {
     final boolean signed = FormatTools.isSigned(pixelType);
     final boolean floating = FormatTools.isFloatingPoint(pixelType);
     final int rgb = getRGBChannelCount();
-    final boolean indexed = isIndexed();
     final boolean little = isLittleEndian();
     final boolean interleaved = isInterleaved();
 
@@ -197,80 +216,52 @@ public class FakeReader extends FormatReader {
     final int zIndex = zct[0], cIndex = zct[1], tIndex = zct[2];
     ac = cIndex;
 
+    simulateLatency(sleepOpenBytes);
+
     // integer types start gradient at the smallest value
     long min = signed ? (long) -Math.pow(2, 8 * bpp - 1) : 0;
     if (floating) min = 0; // floating point types always start at 0
 
-    for (int cOffset=0; cOffset<rgb; cOffset++) {
-      int channel = rgb * cIndex + cOffset;
+    // a pixel's value depends only on its column and on whether or not it
+    // is in the first BOX_SIZE rows, so each kind of row is computed once
+    // per channel block and then copied
+    final int blocks = interleaved ? 1 : rgb;
+    final int rowSize = (interleaved ? w * rgb : w) * bpp;
+    for (int block=0; block<blocks; block++) {
+      final int blockOffset = block * h * rowSize;
+      int boxRow = -1, gradientRow = -1;
       for (int row=0; row<h; row++) {
-        int yy = y + row;
-        for (int col=0; col<w; col++) {
-          int xx = x + col;
-          long pixel = min + xx;
-
-          // encode various information into the image plane
-          boolean specialPixel = false;
-          if (yy < BOX_SIZE) {
-            int grid = xx / BOX_SIZE;
-            specialPixel = true;
-            switch (grid) {
-              case 0:
-                pixel = s;
-                break;
-              case 1:
-                pixel = no;
-                break;
-              case 2:
-                pixel = zIndex;
-                break;
-              case 3:
-                pixel = channel;
-                break;
-              case 4:
-                pixel = tIndex;
-                break;
-              default:
-                // just a normal pixel in the gradient
-                specialPixel = false;
-            }
-          }
-
-          // if indexed color with non-null LUT, convert value to index
-          if (indexed) {
-            if (lut8 != null) pixel = valueToIndex[ac][(int) (pixel % 256)];
-            if (lut16 != null) pixel = valueToIndex[ac][(int) (pixel % 65536)];
-          }
+        final int yy = y + row;
+        final boolean box = yy < BOX_SIZE;
+        final int rowOffset = blockOffset + row * rowSize;
+        final int sourceRow = box ? boxRow : gradientRow;
+        if (sourceRow >= 0) {
+          System.arraycopy(buf, blockOffset + sourceRow * rowSize,
+            buf, rowOffset, rowSize);
+          continue;
+        }
+        if (box) boxRow = row;
+        else gradientRow = row;
 
-          // scale pixel value by the scale factor
-          // if floating point, convert value to raw IEEE floating point bits
-          switch (pixelType) {
-            case FormatTools.FLOAT:
-              float floatPixel;
-              if (specialPixel) floatPixel = pixel;
-              else floatPixel = (float) (scaleFactor * pixel);
-              pixel = Float.floatToIntBits(floatPixel);
-              break;
-            case FormatTools.DOUBLE:
-              double doublePixel;
-              if (specialPixel) doublePixel = pixel;
-              else doublePixel = scaleFactor * pixel;
-              pixel = Double.doubleToLongBits(doublePixel);
-              break;
-            default:
-              if (!specialPixel) pixel = (long) (scaleFactor * pixel);
+        for (int col=0; col<w; col++) {
+          final int xx = x + col;
+          for (int cOffset=0; cOffset<rgb; cOffset++) {
+            if (!interleaved && cOffset != block) continue;
+            final int channel = rgb * cIndex + cOffset;
+            long pixel = getPixel(xx, yy, min, s, no, zIndex, channel, tIndex);
+
+            // unpack pixel into byte buffer
+            int index;
+            if (interleaved) index = rowOffset + (rgb * col + cOffset) * bpp;
+            else index = rowOffset + col * bpp;
+            DataTools.unpackBytes(pixel, buf, index, bpp, little);
           }
-
-          // unpack pixel into byte buffer
-          int index;
-          if (interleaved) index = w * rgb * row + rgb * col + cOffset; // CXY
-          else index = h * w * cOffset + w * row + col; // XYC
-          index *= bpp;
-          DataTools.unpackBytes(pixel, buf, index, bpp, little);
         }
       }
     }
 
+    simulateCodecCost((long) rowSize * h * blocks);
+
     return buf;
   }
 
@@ -322,6 +313,11 @@ public class FakeReader extends FormatReader {
   @Override
   public void close(boolean fileOnly) throws IOException {
     iniFile = null;
+    if (!fileOnly) {
+      sleepOpenBytes = 0;
+      sleepInitFile = 0;
+      codecCost = 0;
+    }
     super.close(fileOnly);
   }
 
@@ -532,6 +528,9 @@ public class FakeReader extends FormatReader {
       else if (key.equals("scaleFactor")) scaleFactor = doubleValue;
       else if (key.equals("exposureTime")) exposureTime = new Time((float) doubleValue, UNITS.S);
       else if (key.equals("acquisitionDate")) acquisitionDate = value;
+      else if (key.equals("sleepOpenBytes")) sleepOpenBytes = intValue;
+      else if (key.equals("sleepInitFile")) sleepInitFile = intValue;
+      else if (key.equals("codecCost")) codecCost = doubleValue;
       else if (key.equals("plates")) plates = intValue;
       else if (key.equals("plateRows")) plateRows = intValue;
       else if (key.equals("plateCols")) plateCols = intValue;
@@ -592,6 +591,8 @@ public class FakeReader extends FormatReader {
       throw new FormatException("Invalid lutLength: " + lutLength);
     }
 
+    simulateLatency(sleepInitFile);
+
     // populate SPW metadata
     MetadataStore store = makeFilterMetadata();
     boolean hasSPW = plates > 0 && plateRows > 0 &&
@@ -811,6 +812,93 @@ public class FakeReader extends FormatReader {
     }
   }
 
+  /**
+   * Computes the raw value of the pixel at the given position, encoding
+   * the series and plane coordinates into the first BOX_SIZE rows.
+   */
+  private long getPixel(int xx, int yy, long min, int s, int no, int zIndex,
+    int channel, int tIndex)
+  {
+    long pixel = min + xx;
+
+    // encode various information into the image plane
+    boolean specialPixel = false;
+    if (yy < BOX_SIZE) {
+      int grid = xx / BOX_SIZE;
+      specialPixel = true;
+      switch (grid) {
+        case 0:
+          pixel = s;
+          break;
+        case 1:
+          pixel = no;
+          break;
+        case 2:
+          pixel = zIndex;
+          break;
+        case 3:
+          pixel = channel;
+          break;
+        case 4:
+          pixel = tIndex;
+          break;
+        default:
+          // just a normal pixel in the gradient
+          specialPixel = false;
+      }
+    }
+
+    // if indexed color with non-null LUT, convert value to index
+    if (isIndexed()) {
+      if (lut8 != null) pixel = valueToIndex[ac][(int) (pixel % 256)];
+      if (lut16 != null) pixel = valueToIndex[ac][(int) (pixel % 65536)];
+    }
+
+    // scale pixel value by the scale factor
+    // if floating point, convert value to raw IEEE floating point bits
+    switch (getPixelType()) {
+      case FormatTools.FLOAT:
+        float floatPixel;
+        if (specialPixel) floatPixel = pixel;
+        else floatPixel = (float) (scaleFactor * pixel);
+        pixel = Float.floatToIntBits(floatPixel);
+        break;
+      case FormatTools.DOUBLE:
+        double doublePixel;
+        if (specialPixel) doublePixel = pixel;
+        else doublePixel = scaleFactor * pixel;
+        pixel = Double.doubleToLongBits(doublePixel);
+        break;
+      default:
+        if (!specialPixel) pixel = (long) (scaleFactor * pixel);
+    }
+    return pixel;
+  }
+
+  /** Sleeps for the given number of milliseconds, to simulate slow I/O. */
+  private void simulateLatency(long millis) throws IOException {
+    if (millis <= 0) return;
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while simulating latency");
+    }
+  }
+
+  /**
+   * Keeps the current thread busy for the configured time per byte, to
+   * simulate the CPU cost of decompressing the given number of bytes.
+   */
+  private void simulateCodecCost(long bytes) {
+    if (codecCost <= 0) return;
+    long end = System.nanoTime() + (long) (codecCost * bytes);
+    while (System.nanoTime() < end) {
+      // spin rather than sleep, so that the simulated codec uses a core
+    }
+  }
+
   private void fillPhysicalSizes(MetadataStore store) {
     if (physicalSizeX == null && physicalSizeY == null && physicalSizeZ == null) return;
     for (int s=0; s<getSeriesCount(); s++) {
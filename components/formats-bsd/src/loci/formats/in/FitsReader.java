@@ -38,7 +38,6 @@ import loci.common.DataTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -49,7 +48,7 @@ import loci.formats.meta.MetadataStore;
  *
  * Much of this code was adapted from ImageJ (http://rsb.info.nih.gov/ij).
  */
-public class FitsReader extends FormatReader {
+public class FitsReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -68,22 +67,16 @@ public class FitsReader extends FormatReader {
       new String[] {FormatTools.ASTRONOMY_DOMAIN, FormatTools.UNKNOWN_DOMAIN};
   }
 
-  // -- IFormatReader API methods --
+  // -- RawPlaneReader API methods --
 
-  /**
-   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
-   */
+  /* @see RawPlaneReader#getPlaneOffset(int) */
   @Override
-  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-
-    in.seek(pixelOffset + no * FormatTools.getPlaneSize(this));
-    readPlane(in, x, y, w, h, buf);
-    return buf;
+  protected long getPlaneOffset(int no) {
+    return pixelOffset + (long) no * FormatTools.getPlaneSize(this);
   }
 
+  // -- IFormatReader API methods --
+
   /* @see loci.formats.IFormatReader#close(boolean) */
   @Override
   public void close(boolean fileOnly) throws IOException {
@@ -40,7 +40,6 @@ import loci.common.RandomAccessInputStream;
 import loci.formats.ClassList;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
@@ -56,7 +55,7 @@ import ome.units.UNITS;
 /**
  * File format reader for NRRD files; see http://teem.sourceforge.net/nrrd.
  */
-public class NRRDReader extends FormatReader {
+public class NRRDReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -92,6 +91,20 @@ public class NRRDReader extends FormatReader {
       "other file containing the pixels";
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    return offset + (long) no * FormatTools.getPlaneSize(this);
+  }
+
+  /* @see RawPlaneReader#getPixelsFile(int) */
+  @Override
+  protected String getPixelsFile(int no) {
+    return dataFile == null ? currentId : dataFile;
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#getOptimalTileHeight() */
@@ -167,25 +180,12 @@ public class NRRDReader extends FormatReader {
     }
 
     // TODO : add support for additional encoding types
-    if (dataFile == null) {
-      if (encoding.equals("raw")) {
-        long planeSize = FormatTools.getPlaneSize(this);
-        in.seek(offset + no * planeSize);
-
-        readPlane(in, x, y, w, h, buf);
-        return buf;
-      }
-      else {
-        throw new UnsupportedCompressionException(
-          "Unsupported encoding: " + encoding);
-      }
+    if (encoding.equals("raw")) {
+      return readRawPlane(no, buf, x, y, w, h);
     }
-    else if (encoding.equals("raw")) {
-      RandomAccessInputStream s = new RandomAccessInputStream(dataFile);
-      s.seek(offset + no * FormatTools.getPlaneSize(this));
-      readPlane(s, x, y, w, h, buf);
-      s.close();
-      return buf;
+    else if (dataFile == null) {
+      throw new UnsupportedCompressionException(
+        "Unsupported encoding: " + encoding);
     }
 
     return helper.openBytes(no, buf, x, y, w, h);
@@ -0,0 +1,312 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.in;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import loci.common.BZip2Handle;
+import loci.common.GZipHandle;
+import loci.common.Location;
+import loci.common.RandomAccessInputStream;
+import loci.common.ZipHandle;
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.FormatTools;
+
+/**
+ * Superclass of readers for formats that store each plane as uncompressed
+ * pixels at a known offset. Subclasses describe the layout (the offset of
+ * each plane, plus optional row padding and bottom-up row order); pixel type,
+ * byte order, channel count and interleaving come from the core metadata.
+ *
+ * Planes in local files are read with positioned, scattering reads on a
+ * {@link FileChannel}, so that a tile is read with one system call per run of
+ * nearby rows and copied straight into the caller's buffer, and a whole
+ * plane with a single read. Files that are mapped in memory, are not local,
+ * or are compressed (gzip, bzip2 or Zip) are read through a
+ * {@link RandomAccessInputStream} instead.
+ */
+public abstract class RawPlaneReader extends FormatReader {
+
+  // -- Constants --
+
+  /**
+   * Largest gap between two rows that is read through (and discarded)
+   * rather than starting a new read at the next row.
+   */
+  private static final int MAX_GAP = 64 * 1024;
+
+  /** Maximum number of buffers passed to a single scattering read. */
+  private static final int MAX_BUFFERS = 1024;
+
+  // -- Fields --
+
+  /** Channel open on the file holding the most recently read plane. */
+  private transient FileChannel channel;
+
+  /**
+   * Name of the file on which the channel is open, or for which no channel
+   * can be opened if the channel is null.
+   */
+  private transient String channelFile;
+
+  /** Scratch space receiving the bytes between rows. */
+  private transient ByteBuffer gapBuffer;
+
+  // -- Constructors --
+
+  /** Constructs a new raw plane reader with the given name and suffix. */
+  public RawPlaneReader(String format, String suffix) {
+    super(format, suffix);
+  }
+
+  /** Constructs a new raw plane reader with the given name and suffixes. */
+  public RawPlaneReader(String format, String[] suffixes) {
+    super(format, suffixes);
+  }
+
+  // -- RawPlaneReader API methods --
+
+  /**
+   * Returns the offset in bytes of the first pixel of the given plane,
+   * within the file returned by {@link #getPixelsFile(int)}.
+   */
+  protected abstract long getPlaneOffset(int no)
+    throws FormatException, IOException;
+
+  /**
+   * Returns the name of the file holding the given plane's pixels.
+   * Defaults to the current file.
+   */
+  protected String getPixelsFile(int no) {
+    return currentId;
+  }
+
+  /**
+   * Returns an open stream on the file holding the given plane's pixels,
+   * used when the file cannot be read through a channel, or null to open a
+   * temporary stream. Defaults to the current file's stream.
+   */
+  protected RandomAccessInputStream getPixelsStream(int no) {
+    return getPixelsFile(no).equals(currentId) ? in : null;
+  }
+
+  /** Returns the number of padding pixels stored at the end of each row. */
+  protected int getScanlinePad() {
+    return 0;
+  }
+
+  /** Returns true if rows are stored from the bottom of the plane up. */
+  protected boolean isBottomUp() {
+    return false;
+  }
+
+  /**
+   * Reads the given region of a plane, as laid out by
+   * {@link #getPlaneOffset(int)}, {@link #getScanlinePad()} and
+   * {@link #isBottomUp()}. Bytes past the end of the file are left
+   * untouched.
+   */
+  protected byte[] readRawPlane(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    long offset = getPlaneOffset(no);
+    String file = getPixelsFile(no);
+    boolean flip = isBottomUp();
+    int storedY = flip ? getSizeY() - h - y : y;
+
+    FileChannel ch = getChannel(file);
+    if (ch == null) {
+      RandomAccessInputStream s = getPixelsStream(no);
+      boolean temporary = s == null;
+      if (temporary) s = new RandomAccessInputStream(file);
+      try {
+        s.seek(offset);
+        readPlane(s, x, storedY, w, h, getScanlinePad(), buf);
+      }
+      finally {
+        if (temporary) s.close();
+      }
+      if (flip) flipRows(buf, w, h);
+      return buf;
+    }
+
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    int c = getRGBChannelCount();
+    boolean interleaved = isInterleaved() || c == 1;
+    int pixelSize = interleaved ? bpp * c : bpp;
+    int blocks = interleaved ? 1 : c;
+    int rowLength = w * pixelSize;
+    long rowStride = (long) (getSizeX() + getScanlinePad()) * pixelSize;
+    long blockStride = rowStride * getSizeY();
+
+    // collect one buffer per run of rows that are adjacent both in the file
+    // and in the output, with scratch buffers for short gaps in between
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    long start = -1, next = -1;
+    int runStart = -1, runEnd = -1;
+    for (int b=0; b<blocks; b++) {
+      for (int row=0; row<h; row++) {
+        long pos = offset + b * blockStride + (storedY + row) * rowStride +
+          (long) x * pixelSize;
+        int dest = (b * h + (flip ? h - row - 1 : row)) * rowLength;
+        if (runStart >= 0 && pos == next && dest == runEnd) {
+          runEnd += rowLength;
+          next += rowLength;
+          continue;
+        }
+        if (runStart >= 0) {
+          buffers.add(ByteBuffer.wrap(buf, runStart, runEnd - runStart));
+          long gap = pos - next;
+          if (gap < 0 || gap > MAX_GAP) {
+            read(ch, start, buffers);
+            buffers.clear();
+          }
+          else if (gap > 0) {
+            buffers.add(getGapBuffer((int) gap));
+          }
+        }
+        if (buffers.isEmpty()) start = pos;
+        runStart = dest;
+        runEnd = dest + rowLength;
+        next = pos + rowLength;
+      }
+    }
+    if (runStart >= 0) {
+      buffers.add(ByteBuffer.wrap(buf, runStart, runEnd - runStart));
+      read(ch, start, buffers);
+    }
+    return buf;
+  }
+
+  // -- IFormatReader API methods --
+
+  /**
+   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
+   */
+  @Override
+  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+    return readRawPlane(no, buf, x, y, w, h);
+  }
+
+  /* @see loci.formats.IFormatReader#close(boolean) */
+  @Override
+  public void close(boolean fileOnly) throws IOException {
+    super.close(fileOnly);
+    closeChannel();
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Returns a channel on the given file, or null if the file is mapped in
+   * memory, is not a local file, or is compressed.
+   */
+  private FileChannel getChannel(String file) throws IOException {
+    if (file.equals(channelFile)) return channel;
+    closeChannel();
+    channelFile = file;
+    if (Location.getMappedFile(file) != null) return null;
+    String id = Location.getMappedId(file);
+    File f = new File(id);
+    if (!f.isFile() || ZipHandle.isZipFile(id) || GZipHandle.isGZipFile(id) ||
+      BZip2Handle.isBZip2File(id))
+    {
+      return null;
+    }
+    channel = new RandomAccessFile(f, "r").getChannel();
+    return channel;
+  }
+
+  private void closeChannel() throws IOException {
+    if (channel != null) channel.close();
+    channel = null;
+    channelFile = null;
+  }
+
+  /** Returns a scratch buffer with the given number of bytes remaining. */
+  private ByteBuffer getGapBuffer(int length) {
+    if (gapBuffer == null) gapBuffer = ByteBuffer.allocateDirect(MAX_GAP);
+    ByteBuffer gap = gapBuffer.duplicate();
+    gap.clear();
+    gap.limit(length);
+    return gap;
+  }
+
+  /**
+   * Fills the given buffers from consecutive bytes of the channel, starting
+   * at the given position, until they are full or the file ends.
+   */
+  private void read(FileChannel ch, long pos, List<ByteBuffer> buffers)
+    throws IOException
+  {
+    ByteBuffer[] dsts = buffers.toArray(new ByteBuffer[buffers.size()]);
+    ch.position(pos);
+    int first = 0;
+    while (first < dsts.length) {
+      long n = ch.read(dsts, first, Math.min(dsts.length - first, MAX_BUFFERS));
+      if (n < 0) break;
+      while (first < dsts.length && !dsts[first].hasRemaining()) first++;
+    }
+  }
+
+  /** Reverses the order of the rows in each channel of the given region. */
+  private void flipRows(byte[] buf, int w, int h) {
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    int c = getRGBChannelCount();
+    boolean interleaved = isInterleaved() || c == 1;
+    int rowLength = w * bpp * (interleaved ? c : 1);
+    int blocks = interleaved ? 1 : c;
+    byte[] tmp = new byte[rowLength];
+    for (int b=0; b<blocks; b++) {
+      int base = b * h * rowLength;
+      for (int row=0; row<h/2; row++) {
+        int src = base + row * rowLength;
+        int dest = base + (h - row - 1) * rowLength;
+        System.arraycopy(buf, src, tmp, 0, rowLength);
+        System.arraycopy(buf, dest, buf, src, rowLength);
+        System.arraycopy(tmp, 0, buf, dest, rowLength);
+      }
+    }
+  }
+
+}
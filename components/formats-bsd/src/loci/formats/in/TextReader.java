@@ -36,6 +36,9 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -57,6 +60,11 @@ import loci.formats.meta.MetadataStore;
  * are stored in memory as 32-bit floats until the file is closed,
  * so very large text documents will require commensurate available RAM.
  *
+ * The exception is a file larger than the streaming threshold whose rows
+ * are stored in raster order (X varying fastest).  Such a file is only
+ * indexed during initialization, and each plane is parsed from the file
+ * as it is requested.
+ *
  * Text format is flexible, but assumed to be in tabular form with a consistent
  * number of columns, and a labeled header line immediately preceding the data.
  *
@@ -73,6 +81,18 @@ public class TextReader extends FormatReader {
   /** How often to report progress during initialization, in milliseconds. */
   private static final long TIME_OFFSET = 2000;
 
+  /** Default minimum file size for which planes are read on demand. */
+  public static final long DEFAULT_STREAMING_THRESHOLD = 64 * 1024 * 1024;
+
+  /** Size of the memory-mapped window used to scan the file. */
+  private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+  /** Exactly representable powers of ten, used when parsing numbers. */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
   // -- Fields --
 
   /**
@@ -102,6 +122,21 @@ public class TextReader extends FormatReader {
   /** Image height. */
   private int sizeY;
 
+  /**
+   * File offset of the first line of each image row, if planes are read
+   * on demand; null if the data is stored in memory.
+   */
+  private long[] rowOffsets;
+
+  /** File offset of the end of the last data line. */
+  private long dataEnd;
+
+  /** Reusable buffer holding the lines of one image row. */
+  private transient byte[] rowBuffer;
+
+  /** Minimum file size for which planes are read on demand. */
+  private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
   // -- Constructor --
 
   /** Constructs a new text reader. */
@@ -118,6 +153,20 @@ public class TextReader extends FormatReader {
     return channels[c];
   }
 
+  /**
+   * Sets the minimum file size, in bytes, for which planes are parsed
+   * from the file as they are requested instead of being held in memory.
+   */
+  public void setStreamingThreshold(long threshold) {
+    FormatTools.assertId(currentId, false, 1);
+    streamingThreshold = threshold;
+  }
+
+  /** Gets the minimum file size for which planes are read on demand. */
+  public long getStreamingThreshold() {
+    return streamingThreshold;
+  }
+
   // -- IFormatReader methods --
 
   /* @see IFormatReader#isThisType(RandomAccessInputStream) */
@@ -145,6 +194,16 @@ public class TextReader extends FormatReader {
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
 
+    if (data == null) {
+      final float[] region = new float[w * h];
+      readRegion(no, region, 0, x, y, w, h);
+      for (int i=0; i<region.length; i++) {
+        final int bits = Float.floatToIntBits(region[i]);
+        DataTools.unpackBytes(bits, buf, i * 4, 4, LITTLE_ENDIAN);
+      }
+      return buf;
+    }
+
     // copy floating point data into byte buffer
     final float[] plane = data[no];
     int q = 0;
@@ -162,12 +221,53 @@ public class TextReader extends FormatReader {
     return buf;
   }
 
+  /* @see IFormatReader#openFloats(int, float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    return openFloats(new int[] {no}, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openFloats(int[], float[], int, int, int, int) */
+  @Override
+  public float[] openFloats(int[] no, float[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    FormatTools.assertId(currentId, true, 1);
+    FormatTools.checkTileSize(this, x, y, w, h);
+    if (buf == null) {
+      buf = new float[FormatTools.getTypedBufferSize(this, no.length, w, h)];
+    }
+    FormatTools.checkTypedBufferSize(this, buf.length, no.length, w, h);
+
+    // copy the parsed values directly, with no byte[] round trip
+    for (int i=0; i<no.length; i++) {
+      FormatTools.checkPlaneNumber(this, no[i]);
+      int offset = i * w * h;
+      if (data == null) {
+        readRegion(no[i], buf, offset, x, y, w, h);
+        continue;
+      }
+      for (int row=0; row<h; row++) {
+        System.arraycopy(data[no[i]], (y + row) * sizeX + x,
+          buf, offset + row * w, w);
+      }
+    }
+    return buf;
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int int) */
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
   {
     FormatTools.assertId(currentId, true, 1);
+    if (data == null) {
+      float[] region = new float[w * h];
+      readRegion(no, region, 0, x, y, w, h);
+      return region;
+    }
     return data[no];
   }
 
@@ -182,6 +282,9 @@ public class TextReader extends FormatReader {
       channels = null;
       sizeX = sizeY = 0;
       row = 0;
+      rowOffsets = null;
+      dataEnd = 0;
+      rowBuffer = null;
     }
   }
 
@@ -200,28 +303,31 @@ public class TextReader extends FormatReader {
   protected void initFile(String id) throws FormatException, IOException {
     super.initFile(id);
 
-    // read file into memory
-    LOGGER.info("Reading file");
-    List<String> lines = readFile(id);
+    final int sizeZ = 1, sizeT = 1; // no Z or T for now
 
-    // parse file header
-    LOGGER.info("Parsing file header");
-    final int headerRows = parseFileHeader(lines);
+    if (!indexFile(id)) {
+      // read file into memory
+      LOGGER.info("Reading file");
+      List<String> lines = readFile(id);
 
-    LOGGER.info("Creating images");
+      // parse file header
+      LOGGER.info("Parsing file header");
+      final int headerRows = parseFileHeader(lines);
 
-    // allocate memory for image data
-    final int sizeZ = 1, sizeT = 1; // no Z or T for now
-    final int sizeC = channels.length;
-    final int imageCount = sizeZ * sizeC * sizeT;
-    final int planeSize = sizeX * sizeY;
-    data = new float[imageCount][planeSize];
+      LOGGER.info("Creating images");
 
-    // flag all values as missing by default
-    for (int i=0; i<imageCount; i++) Arrays.fill(data[i], Float.NaN);
+      // allocate memory for image data
+      final int imageCount = sizeZ * channels.length * sizeT;
+      final int planeSize = sizeX * sizeY;
+      data = new float[imageCount][planeSize];
 
-    // read data into float array
-    parseTableData(lines, headerRows);
+      // flag all values as missing by default
+      for (int i=0; i<imageCount; i++) Arrays.fill(data[i], Float.NaN);
+
+      // read data into float array
+      parseTableData(lines, headerRows);
+    }
+    final int sizeC = channels.length;
 
     LOGGER.info("Populating metadata");
 
@@ -235,6 +341,155 @@ public class TextReader extends FormatReader {
 
   // -- Helper methods --
 
+  /**
+   * Builds an index of the image rows in the given file, so that planes
+   * can be read on demand.  Only files larger than the streaming threshold
+   * whose rows are in raster order, with no missing or malformed rows,
+   * can be indexed.
+   *
+   * @return true if the file was indexed
+   */
+  private boolean indexFile(String id) throws FormatException, IOException {
+    if (Location.getMappedFile(id) != null) return false;
+    String mapId = Location.getMappedId(id);
+    if (new Location(mapId).length() < streamingThreshold) return false;
+
+    LOGGER.info("Indexing file");
+    List<Long> offsets = new ArrayList<Long>();
+    LineScanner scanner = new LineScanner(mapId);
+    try {
+      // find the header row, as in parseFileHeader
+      String[] lastTokens = null;
+      double[] rowData = null;
+      while (rowData == null) {
+        if (!scanner.next()) {
+          throw new FormatException("No tabular data found");
+        }
+        String line = scanner.getLine().trim();
+        if (line.equals("")) continue; // skip blank lines
+        String[] tokens = line.split("[\\s,]");
+        if (tokens.length >= 3 && // need at least 3 columns of data
+          lastTokens != null && lastTokens.length == tokens.length)
+        {
+          double[] values = new double[tokens.length];
+          if (getRowData(tokens, values)) {
+            parseHeaderRow(lastTokens);
+            rowData = values;
+            break;
+          }
+        }
+        lastTokens = tokens;
+      }
+      if (xIndex < 0) throw new FormatException("No X coordinate column found");
+      if (yIndex < 0) throw new FormatException("No Y coordinate column found");
+
+      // check that each row follows the previous one in raster order
+      long time = System.currentTimeMillis();
+      int lastX = -1, lastY = 0, width = -1;
+      int no = 0;
+      boolean indexed = true;
+      do {
+        no++;
+        if (scanner.getLineLength() > 0) {
+          int tokens = parseRow(scanner.getBuffer(), 0,
+            scanner.getLineLength(), rowData);
+          if (tokens == 0) continue; // skip blank lines
+          if (tokens != rowLength) {
+            indexed = false;
+            break;
+          }
+          int x = getX(rowData);
+          int y = getY(rowData);
+          if (x == lastX + 1 && y == lastY && (width < 0 || x < width) &&
+            (x > 0 || y == 0))
+          {
+            if (x == 0) offsets.add(scanner.getLineStart());
+          }
+          else if (x == 0 && y == lastY + 1 && lastX >= 0 &&
+            (width < 0 || lastX == width - 1))
+          {
+            width = lastX + 1;
+            offsets.add(scanner.getLineStart());
+          }
+          else {
+            indexed = false;
+            break;
+          }
+          lastX = x;
+          lastY = y;
+          dataEnd = scanner.getPosition();
+          time = checkTime(time, no, dataEnd, scanner.getLength());
+        }
+      }
+      while (scanner.next());
+
+      if (indexed && lastX >= 0 && (width < 0 || lastX == width - 1)) {
+        sizeX = lastX + 1;
+        sizeY = lastY + 1;
+        rowOffsets = new long[offsets.size()];
+        for (int i=0; i<rowOffsets.length; i++) {
+          rowOffsets[i] = offsets.get(i);
+        }
+        in = new RandomAccessInputStream(id);
+        return true;
+      }
+    }
+    finally {
+      scanner.close();
+    }
+
+    // fall back to reading the whole file
+    LOGGER.debug("Rows are not in raster order; reading whole file");
+    xIndex = yIndex = -1;
+    channels = null;
+    rowLength = 0;
+    dataEnd = 0;
+    return false;
+  }
+
+  /**
+   * Parses the requested region of a plane from the file into
+   * <code>region</code>, starting at the given offset.
+   */
+  private void readRegion(int no, float[] region, int offset,
+    int x, int y, int w, int h)
+    throws IOException
+  {
+    // find the column that holds this channel
+    int column = -1;
+    for (int i=0, c=0; i<rowLength && column < 0; i++) {
+      if (i == xIndex || i == yIndex) continue;
+      if (c++ == no) column = i;
+    }
+
+    double[] rowData = new double[rowLength];
+    for (int row=0; row<h; row++) {
+      long start = rowOffsets[y + row];
+      long end = y + row + 1 < rowOffsets.length ?
+        rowOffsets[y + row + 1] : dataEnd;
+      int length = (int) (end - start);
+      if (rowBuffer == null || rowBuffer.length < length) {
+        rowBuffer = new byte[length];
+      }
+      in.seek(start);
+      in.readFully(rowBuffer, 0, length);
+
+      int pixel = 0;
+      int lineStart = 0;
+      for (int i=0; i<=length && pixel < x + w; i++) {
+        if (i == length || rowBuffer[i] == '\n' || rowBuffer[i] == '\r') {
+          if (parseRow(rowBuffer, lineStart, i, rowData) > 0) {
+            if (pixel >= x) {
+              region[offset + row * w + pixel - x] = (float) rowData[column];
+            }
+            pixel++;
+          }
+          lineStart = i + 1;
+        }
+      }
+    }
+  }
+
   private List<String> readFile(String id) throws IOException {
     List<String> lines = new ArrayList<String>();
     long time = System.currentTimeMillis();
@@ -441,6 +696,111 @@ public class TextReader extends FormatReader {
     return time;
   }
 
+  /**
+   * Parses one line of numerical row data without creating a String for
+   * each token.  Tokens are split in the same way as {@link #getNextLine}.
+   *
+   * @return the number of tokens, 0 for a blank line, or -1 if the line
+   *   is not numeric or has more tokens than rowData
+   */
+  private static int parseRow(byte[] b, int start, int end, double[] rowData)
+  {
+    while (start < end && (b[start] & 0xff) <= ' ') start++;
+    while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+    if (start == end) return 0;
+
+    int tokens = 0;
+    boolean emptyToken = false;
+    int tokenStart = start;
+    for (int i=start; i<=end; i++) {
+      if (i < end && !isDelimiter(b[i])) continue;
+      if (i == tokenStart) {
+        // empty tokens are only allowed at the end of the line
+        emptyToken = true;
+      }
+      else {
+        if (emptyToken || tokens == rowData.length) return -1;
+        try {
+          rowData[tokens++] = parseNumber(b, tokenStart, i);
+        }
+        catch (NumberFormatException e) {
+          return -1;
+        }
+      }
+      tokenStart = i + 1;
+    }
+    return tokens;
+  }
+
+  private static boolean isDelimiter(byte b) {
+    return b == ' ' || b == ',' || b == '\t' || b == '\n' || b == '\r' ||
+      b == 0x0b || b == '\f';
+  }
+
+  /**
+   * Parses a decimal number.  Numbers with at most 15 significant digits
+   * and a small exponent are converted exactly; anything else is passed
+   * to {@link Double#parseDouble(String)}.
+   */
+  private static double parseNumber(byte[] b, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (b[i] == '-' || b[i] == '+') {
+      negative = b[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int significant = 0, exponent = 0;
+    boolean digits = false;
+    for (; i<end && b[i] >= '0' && b[i] <= '9'; i++) {
+      digits = true;
+      if (significant < 16) {
+        mantissa = mantissa * 10 + (b[i] - '0');
+        if (mantissa != 0) significant++;
+      }
+      else {
+        significant++;
+        exponent++;
+      }
+    }
+    if (i < end && b[i] == '.') {
+      for (i++; i<end && b[i] >= '0' && b[i] <= '9'; i++) {
+        digits = true;
+        if (significant < 16) {
+          mantissa = mantissa * 10 + (b[i] - '0');
+          if (mantissa != 0) significant++;
+          exponent--;
+        }
+      }
+    }
+    if (digits && i < end && (b[i] == 'e' || b[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (b[i] == '-' || b[i] == '+')) {
+        negativeExponent = b[i] == '-';
+        i++;
+      }
+      int value = 0;
+      int exponentStart = i;
+      for (; i<end && b[i] >= '0' && b[i] <= '9' && value < 1000; i++) {
+        value = value * 10 + (b[i] - '0');
+      }
+      if (i == exponentStart) digits = false;
+      exponent += negativeExponent ? -value : value;
+    }
+
+    if (!digits || i != end || significant > 15 ||
+      (mantissa != 0 && (exponent < -22 || exponent > 22)))
+    {
+      String s = new String(b, start, end - start);
+      return Double.parseDouble(s);
+    }
+    double value = mantissa;
+    if (exponent < 0) value /= POWERS_OF_TEN[-exponent];
+    else value *= POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
   private int getX(double[] rowData) { return (int) rowData[xIndex]; }
   private int getY(double[] rowData) { return (int) rowData[yIndex]; }
 
@@ -454,4 +814,66 @@ public class TextReader extends FormatReader {
     }
   }
 
+  // -- Helper classes --
+
+  /** Reads the lines of a file through a memory-mapped window. */
+  private static class LineScanner {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long lineStart;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    public LineScanner(String path) throws IOException {
+      file = new RandomAccessFile(path, "r");
+      channel = file.getChannel();
+      length = channel.size();
+    }
+
+    /**
+     * Reads the next line, which ends at a line feed or carriage return.
+     * @return false if the end of the file has been reached
+     */
+    public boolean next() throws IOException {
+      if (position >= length) return false;
+      lineStart = position;
+      lineLength = 0;
+      while (position < length) {
+        if (window == null || position - windowStart >= window.limit()) {
+          windowStart = position;
+          window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+            Math.min(WINDOW_SIZE, length - windowStart));
+        }
+        byte b = window.get((int) (position - windowStart));
+        position++;
+        if (b == '\n' || b == '\r') break;
+        if (lineLength == line.length) {
+          line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+      }
+      return true;
+    }
+
+    public String getLine() throws IOException {
+      return new String(line, 0, lineLength, Constants.ENCODING);
+    }
+
+    public byte[] getBuffer() { return line; }
+    public int getLineLength() { return lineLength; }
+    public long getLineStart() { return lineStart; }
+    public long getPosition() { return position; }
+    public long getLength() { return length; }
+
+    public void close() throws IOException {
+      window = null;
+      channel.close();
+      file.close();
+    }
+  }
+
 }
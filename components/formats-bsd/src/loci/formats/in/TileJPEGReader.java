@@ -61,7 +61,14 @@ public class TileJPEGReader extends FormatReader {
   // -- Fields --
 
   private JPEGTileDecoder decoder;
-  private JPEGTurboService service;
+  private transient JPEGTurboService service;
+
+  /**
+   * Restart marker offsets, if the file is read using a JPEGTurboService.
+   * These are kept with the reader so that a memoized reader does not need
+   * to scan the file again.
+   */
+  private long[] restartMarkers;
 
   // -- Constructor --
 
@@ -81,7 +88,11 @@ public class TileJPEGReader extends FormatReader {
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
 
-    if (service != null) {
+    if (restartMarkers != null) {
+      if (service == null) {
+        in.seek(0);
+        initializeService();
+      }
       service.getTile(buf, x, y, w, h);
     }
     else {
@@ -113,6 +124,7 @@ public class TileJPEGReader extends FormatReader {
         service.close();
       }
       service = null;
+      restartMarkers = null;
     }
   }
 
@@ -143,13 +155,8 @@ public class TileJPEGReader extends FormatReader {
       decoder.close();
       in = new RandomAccessInputStream(id);
       in.seek(0);
-      service = new JPEGTurboServiceImpl();
-      try {
-        service.initialize(in, m.sizeX, m.sizeY);
-      }
-      catch (ServiceException se) {
-        throw new FormatException("Could not initialize JPEG service", se);
-      }
+      initializeService();
+      restartMarkers = service.getRestartMarkers();
       m.sizeC = 3;
     }
     m.rgb = getSizeC() > 1;
@@ -163,4 +170,21 @@ public class TileJPEGReader extends FormatReader {
     MetadataTools.populatePixels(store, this);
   }
 
+  // -- Helper methods --
+
+  /**
+   * Set up the JPEGTurboService using the JPEG stream at the current position
+   * of the input stream, and any previously recorded restart markers.
+   */
+  private void initializeService() throws FormatException, IOException {
+    service = new JPEGTurboServiceImpl();
+    service.setRestartMarkers(restartMarkers);
+    try {
+      service.initialize(currentId, in, getSizeX(), getSizeY());
+    }
+    catch (ServiceException se) {
+      throw new FormatException("Could not initialize JPEG service", se);
+    }
+  }
+
 }
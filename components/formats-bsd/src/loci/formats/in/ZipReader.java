@@ -36,11 +36,11 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import loci.common.IRandomAccess;
 import loci.common.Location;
 import loci.common.RandomAccessInputStream;
+import loci.common.ZipCentralDirectory;
 import loci.common.ZipHandle;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
@@ -147,14 +147,12 @@ public class ZipReader extends FormatReader {
     IRandomAccess rawHandle = Location.getHandle(id, false, false);
     in = new RandomAccessInputStream(rawHandle, id);
 
-    ZipInputStream zip = new ZipInputStream(in);
-    ZipEntry ze = null;
+    // the central directory lists every entry, so no entry data
+    // needs to be decompressed until it is actually read
+    ZipCentralDirectory directory = new ZipCentralDirectory(in);
     entryName = null;
     boolean matchFound = false;
-    while (true) {
-      ze = zip.getNextEntry();
-      if (ze == null) break;
-
+    for (ZipEntry ze : directory.getEntries()) {
       if (entryName == null) {
         entryName = ze.getName();
       }
@@ -164,7 +162,15 @@ public class ZipReader extends FormatReader {
         matchFound = true;
       }
 
-      ZipHandle handle = new ZipHandle(id, ze);
+      if (ze.getMethod() != ZipEntry.STORED &&
+        ze.getMethod() != ZipEntry.DEFLATED)
+      {
+        LOGGER.debug("Skipping {}: unsupported compression method",
+          ze.getName());
+        continue;
+      }
+
+      ZipHandle handle = new ZipHandle(id, directory, ze.getName());
       Location.mapFile(ze.getName(), handle);
       mappedFiles.add(ze.getName());
     }
@@ -52,6 +52,16 @@ public interface JPEGTurboService extends Service {
   void initialize(RandomAccessInputStream jpeg, int width, int height)
     throws ServiceException, IOException;
 
+  /**
+   * Initialize using the JPEG stream at the current position of the named
+   * file.  Restart markers found by scanning the stream are cached, so that
+   * other services initialized on the same file and offset do not need to
+   * scan it again.
+   */
+  void initialize(String id, RandomAccessInputStream jpeg, int width,
+    int height)
+    throws ServiceException, IOException;
+
   byte[] getTile(byte[] buf, int xCoordinate, int yCoordinate, int width,
     int height)
     throws IOException;
@@ -34,11 +34,22 @@ package loci.formats.services;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import loci.common.ByteArrayHandle;
 import loci.common.DataTools;
+import loci.common.Location;
 import loci.common.RandomAccessInputStream;
 import loci.common.Region;
 import loci.common.services.DependencyException;
@@ -74,8 +85,36 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
 
   private static final int EOI = 0xffd9;
 
+  /** Number of bytes in each decoded RGB pixel. */
+  private static final int PIXEL_SIZE = 3;
+
+  /** Number of threads used to decode the tiles of a single region. */
+  private static final int NUM_THREADS =
+    Runtime.getRuntime().availableProcessors();
+
+  /** Maximum number of JPEG streams whose restart markers are cached. */
+  private static final int MAX_CACHED_STREAMS = 32;
+
+  /** Maximum number of restart marker offsets cached, for all streams. */
+  private static final int MAX_CACHED_MARKERS = 1024 * 1024;
+
   // -- Fields --
 
+  /**
+   * Restart marker offsets of the streams recently scanned by this service,
+   * in access order, so that initializing it again on one of them does not
+   * scan the stream again.  Unlike the other fields, it is kept by close().
+   */
+  private final LinkedHashMap<String, long[]> markerCache =
+    new LinkedHashMap<String, long[]>(16, 0.75f, true);
+  private int cachedMarkers = 0;
+
+  /** Idle tile decoders, released by close(). */
+  private final List<TileDecoder> decoders = new ArrayList<TileDecoder>();
+
+  /** Threads used to decode tiles concurrently, shut down by close(). */
+  private ExecutorService pool;
+
   private transient Logger logger;
   private int imageWidth;
   private int imageHeight;
@@ -131,12 +170,25 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
   @Override
   public void initialize(RandomAccessInputStream jpeg, int width, int height)
     throws ServiceException, IOException
+  {
+    initialize(null, jpeg, width, height);
+  }
+
+  @Override
+  public void initialize(String id, RandomAccessInputStream jpeg, int width,
+    int height)
+    throws ServiceException, IOException
   {
     in = jpeg;
     imageWidth = width;
     imageHeight = height;
     offset = jpeg.getFilePointer();
 
+    String key = id == null ? null : getCacheKey(id);
+    if (key != null && restartMarkers.size() == 0) {
+      setRestartMarkers(markerCache.get(key));
+    }
+
     in.skipBytes(2);
     int marker = in.readShort() & 0xffff;
 
@@ -197,6 +249,10 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
 
         System.arraycopy(buf, n - 4, buf, 0, 4);
       }
+
+      if (key != null) {
+        cacheMarkers(key, getRestartMarkers());
+      }
     }
 
     tileDim = restartInterval * 8;
@@ -210,58 +266,78 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
     if (yTiles * tileDim != imageHeight) {
       yTiles++;
     }
+
+    header = getFixedHeader();
   }
 
   @Override
-  public byte[] getTile(byte[] buf, int xCoordinate, int yCoordinate,
+  public byte[] getTile(final byte[] buf, int xCoordinate, int yCoordinate,
     int width, int height)
     throws IOException
   {
-    Region image = new Region(xCoordinate, yCoordinate, width, height);
+    final Region image = new Region(xCoordinate, yCoordinate, width, height);
 
-    int bufX = 0;
-    int bufY = 0;
+    // each tile covers a distinct area of the output buffer,
+    // so the tiles can be decoded independently of each other
 
-    int outputRowLen = width * 3;
-
-    Region intersection = null;
-    Region tileBoundary = new Region(0, 0, 0, 0);
-    byte[] tile = null;
+    final List<Region> tiles = new ArrayList<Region>();
     for (int row=0; row<yTiles; row++) {
-      tileBoundary.height = row < yTiles - 1 ? tileDim : imageHeight - (tileDim*row);
-      tileBoundary.y = row * tileDim;
       for (int col=0; col<xTiles; col++) {
-        tileBoundary.x = col * tileDim;
-        tileBoundary.width = col < xTiles - 1 ? tileDim : imageWidth - (tileDim*col);
+        Region tileBoundary = getTileBoundary(col, row);
         if (tileBoundary.intersects(image)) {
-          intersection = image.intersection(tileBoundary);
-          tile = getTile(col, row);
+          tiles.add(tileBoundary);
+        }
+      }
+    }
 
-          int rowLen =
-            3 * (int) Math.min(tileBoundary.width, intersection.width);
-          int outputOffset = bufY * outputRowLen + bufX;
-          int intersectionX = 0;
+    if (tiles.size() == 0) {
+      return buf;
+    }
 
-          if (tileBoundary.x < image.x) {
-            intersectionX = image.x - tileBoundary.x;
-          }
+    final AtomicInteger next = new AtomicInteger();
+    Callable<Object> task = new Callable<Object>() {
+      @Override
+      public Object call() throws IOException {
+        decodeTiles(buf, image, tiles, next);
+        return null;
+      }
+    };
 
-          for (int trow=0; trow<intersection.height; trow++) {
-            int realRow = trow + intersection.y - tileBoundary.y;
-            int inputOffset =
-              3 * (realRow * tileBoundary.width + intersectionX);
-            System.arraycopy(tile, inputOffset, buf, outputOffset, rowLen);
-            outputOffset += outputRowLen;
-          }
-          bufX += rowLen;
-        }
+    // the calling thread decodes tiles too, alongside the pool threads
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    try {
+      for (int i=1; i<Math.min(NUM_THREADS, tiles.size()); i++) {
+        results.add(getPool().submit(task));
+      }
+      decodeTiles(buf, image, tiles, next);
+      for (Future<Object> result : results) {
+        result.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      IOException ioe = new IOException("Interrupted while decoding tiles");
+      ioe.initCause(e);
+      throw ioe;
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
       }
-      if (intersection != null) {
-        bufX = 0;
-        bufY += intersection.height;
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
       }
-      if (bufY >= height) {
-        break;
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    finally {
+      // stop the remaining tiles if one of them failed
+      next.set(tiles.size());
+      for (Future<Object> result : results) {
+        result.cancel(false);
       }
     }
 
@@ -270,10 +346,151 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
 
   @Override
   public byte[] getTile(int tileX, int tileY) throws IOException {
-    if (header == null) {
-      header = getFixedHeader();
+    byte[] tile = new byte[tileDim * tileDim * PIXEL_SIZE];
+    TileDecoder decoder = acquireDecoder();
+    try {
+      decodeTile(decoder, tileX, tileY, tile, tileDim * PIXEL_SIZE);
+    }
+    finally {
+      releaseDecoder(decoder);
+    }
+    return tile;
+  }
+
+  @Override
+  public void close() throws IOException {
+    logger = null;
+    imageWidth = 0;
+    imageHeight = 0;
+    if (in != null) {
+      in.close();
+    }
+    in = null;
+    offset = 0;
+    restartMarkers.clear();
+    restartInterval = 1;
+    sos = 0;
+    imageDimensions = 0;
+    tileDim = 0;
+    xTiles = 0;
+    yTiles = 0;
+    header = null;
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+    for (TileDecoder decoder : decoders) {
+      decoder.close();
+    }
+    decoders.clear();
+  }
+
+  // -- Helper methods --
+
+  /** Get the area of the image covered by the given tile. */
+  private Region getTileBoundary(int col, int row) {
+    Region tileBoundary = new Region(col * tileDim, row * tileDim, 0, 0);
+    tileBoundary.width =
+      col < xTiles - 1 ? tileDim : imageWidth - (tileDim * col);
+    tileBoundary.height =
+      row < yTiles - 1 ? tileDim : imageHeight - (tileDim * row);
+    return tileBoundary;
+  }
+
+  /**
+   * Build the key under which the restart markers of the JPEG stream
+   * starting at the current offset of the given file are cached.
+   */
+  private String getCacheKey(String id) throws IOException {
+    Location file = new Location(id);
+    if (!file.exists()) {
+      return null;
     }
+    return file.getAbsolutePath() + ":" + offset + ":" + in.length() + ":" +
+      file.lastModified();
+  }
 
+  /**
+   * Cache the restart markers of the given stream, forgetting the least
+   * recently used streams if there are too many markers.
+   */
+  private void cacheMarkers(String key, long[] markers) {
+    if (markers.length > MAX_CACHED_MARKERS) {
+      return;
+    }
+    long[] previous = markerCache.put(key, markers);
+    if (previous != null) {
+      cachedMarkers -= previous.length;
+    }
+    cachedMarkers += markers.length;
+    Iterator<long[]> cached = markerCache.values().iterator();
+    while (markerCache.size() > MAX_CACHED_STREAMS ||
+      cachedMarkers > MAX_CACHED_MARKERS)
+    {
+      cachedMarkers -= cached.next().length;
+      cached.remove();
+    }
+  }
+
+  /**
+   * Decode tiles from the given list into the output buffer, taking them in
+   * turn until the list is exhausted.  Several threads may decode tiles from
+   * the same list, sharing the same counter.
+   */
+  private void decodeTiles(byte[] buf, Region image, List<Region> tiles,
+    AtomicInteger next)
+    throws IOException
+  {
+    int outputRowLen = image.width * PIXEL_SIZE;
+    TileDecoder decoder = acquireDecoder();
+    try {
+      int index;
+      while ((index = next.getAndIncrement()) < tiles.size()) {
+        Region tileBoundary = tiles.get(index);
+        int tileX = tileBoundary.x / tileDim;
+        int tileY = tileBoundary.y / tileDim;
+        Region intersection = image.intersection(tileBoundary);
+        int outputOffset = (intersection.y - image.y) * outputRowLen +
+          PIXEL_SIZE * (intersection.x - image.x);
+
+        // a whole tile at the start of the buffer can be decoded in place
+        if (outputOffset == 0 && tileBoundary.x == image.x &&
+          tileBoundary.y == image.y && image.width >= tileDim &&
+          image.height >= tileDim)
+        {
+          decodeTile(decoder, tileX, tileY, buf, outputRowLen);
+          continue;
+        }
+
+        if (decoder.pixels.length < tileDim * tileDim * PIXEL_SIZE) {
+          decoder.pixels = new byte[tileDim * tileDim * PIXEL_SIZE];
+        }
+        decodeTile(decoder, tileX, tileY, decoder.pixels,
+          tileDim * PIXEL_SIZE);
+        int rowLen = PIXEL_SIZE * intersection.width;
+        int inputOffset = PIXEL_SIZE * ((intersection.y - tileBoundary.y) *
+          tileDim + intersection.x - tileBoundary.x);
+        for (int trow=0; trow<intersection.height; trow++) {
+          System.arraycopy(decoder.pixels, inputOffset, buf, outputOffset,
+            rowLen);
+          inputOffset += PIXEL_SIZE * tileDim;
+          outputOffset += outputRowLen;
+        }
+      }
+    }
+    finally {
+      releaseDecoder(decoder);
+    }
+  }
+
+  /**
+   * Decode a whole tile into the given buffer, which must hold tileDim rows
+   * of the given length.
+   */
+  private void decodeTile(TileDecoder decoder, int tileX, int tileY,
+    byte[] dest, int pitch)
+    throws IOException
+  {
     long dataLength = header.length + 2;
 
     int start = tileX + (tileY * xTiles * restartInterval);
@@ -289,7 +506,10 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
       start += xTiles;
     }
 
-    byte[] data = new byte[(int) dataLength];
+    if (decoder.data.length < dataLength) {
+      decoder.data = new byte[(int) dataLength];
+    }
+    byte[] data = decoder.data;
 
     int offset = 0;
     System.arraycopy(header, 0, data, offset, header.length);
@@ -303,8 +523,10 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
         long startOffset = restartMarkers.get(start);
         long endOffset = restartMarkers.get(end);
 
-        in.seek(startOffset);
-        in.read(data, offset, (int) (endOffset - startOffset - 2));
+        synchronized (in) {
+          in.seek(startOffset);
+          in.readFully(data, offset, (int) (endOffset - startOffset - 2));
+        }
         offset += (int) (endOffset - startOffset - 2);
 
         DataTools.unpackBytes(0xffd0 + (row % 8), data, offset, 2, false);
@@ -314,19 +536,31 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
     }
 
     DataTools.unpackBytes(EOI, data, offset, 2, false);
+    offset += 2;
 
     // and here we actually decompress it...
 
     try {
-      int pixelType = TJ.PF_RGB;
-      int pixelSize = TJ.getPixelSize(pixelType);
+      decoder.decompressor.setJPEGImage(data, offset);
+      decoder.decompressor.decompress(dest, tileDim, pitch, tileDim,
+        TJ.PF_RGB, 0);
+    }
+    catch (Exception e) {
+      IOException ioe = new IOException(e.getMessage());
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
 
-      TJDecompressor decoder = new TJDecompressor(data);
-      byte[] decompressed = decoder.decompress(tileDim, tileDim * pixelSize,
-        tileDim, pixelType, pixelType);
-      data = null;
-      decoder.close();
-      return decompressed;
+  /** Take an idle tile decoder, or create a new one. */
+  private TileDecoder acquireDecoder() throws IOException {
+    synchronized (decoders) {
+      if (decoders.size() > 0) {
+        return decoders.remove(decoders.size() - 1);
+      }
+    }
+    try {
+      return new TileDecoder();
     }
     catch (Exception e) {
       IOException ioe = new IOException(e.getMessage());
@@ -335,27 +569,29 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
     }
   }
 
-  @Override
-  public void close() throws IOException {
-    logger = null;
-    imageWidth = 0;
-    imageHeight = 0;
-    if (in != null) {
-      in.close();
+  /** Return a tile decoder, so that it can be used for the next tiles. */
+  private void releaseDecoder(TileDecoder decoder) {
+    synchronized (decoders) {
+      decoders.add(decoder);
     }
-    in = null;
-    offset = 0;
-    restartMarkers.clear();
-    restartInterval = 1;
-    sos = 0;
-    imageDimensions = 0;
-    tileDim = 0;
-    xTiles = 0;
-    yTiles = 0;
-    header = null;
   }
 
-  // -- Helper methods --
+  /** Get the threads used to decode tiles, creating them if necessary. */
+  private synchronized ExecutorService getPool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "jpeg-turbo-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
 
   private byte[] getFixedHeader() throws IOException {
     in.seek(offset);
@@ -370,4 +606,29 @@ public class JPEGTurboServiceImpl implements JPEGTurboService {
     return header;
   }
 
+  // -- Helper classes --
+
+  /**
+   * A decompressor, with buffers for the compressed and decompressed data of
+   * one tile, used by one thread at a time.
+   */
+  private static class TileDecoder {
+    private final TJDecompressor decompressor;
+    private byte[] data = new byte[0];
+    private byte[] pixels = new byte[0];
+
+    TileDecoder() throws Exception {
+      decompressor = new TJDecompressor();
+    }
+
+    void close() {
+      try {
+        decompressor.close();
+      }
+      catch (Exception e) {
+        // the decompressor is discarded either way
+      }
+    }
+  }
+
 }
@@ -111,7 +111,7 @@ public final class CacheConsole {
           case CacheEvent.OBJECT_LOADED:
             len = cache.getStrategy().getLengths();
             pos = FormatTools.rasterToPosition(len, ndx);
-            printArray("loaded:", pos);
+            printArray("loaded in " + e.getLoadTime() / 1000000 + " ms:", pos);
             break;
           case CacheEvent.OBJECT_DROPPED:
             len = cache.getStrategy().getLengths();
@@ -173,6 +173,13 @@ public final class CacheConsole {
         printOrder("order =", cache);
         printArray("range =", strategy.getRange());
         printArray("lengths =", strategy.getLengths());
+        // output load statistics
+        System.out.println("threads = " + cache.getThreadCount());
+        System.out.println("hit ratio = " + cache.getHitRatio());
+        System.out.println("average load time = " +
+          cache.getAverageLoadTime() + " ms");
+        System.out.println("bytes used by all caches = " +
+          Cache.getUsedBytes());
       }
       else if (cmd.startsWith("o")) { // order
         System.out.println(ICacheStrategy.CENTERED_ORDER + " => centered");
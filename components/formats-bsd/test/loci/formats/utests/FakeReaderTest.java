@@ -239,6 +239,65 @@ public class FakeReaderTest {
     assertEquals(reader.getGlobalMetadata().get("foo"), "bar");
   }
 
+  @Test
+  public void testPixelValues() throws Exception {
+    addToFileName("sizeX", "64");
+    addToFileName("sizeY", "32");
+    addToFileName("sizeZ", "3");
+    reader.setId(fake.getAbsolutePath());
+    byte[] plane = reader.openBytes(2);
+    // plane number is encoded in the second box of the first rows
+    assertEquals(plane[15], 2);
+    assertEquals(plane[5 * 64 + 15], 2);
+    // the remaining rows are a gradient along X
+    for (int row=FakeReader.BOX_SIZE; row<32; row++) {
+      for (int col=0; col<64; col++) {
+        assertEquals(plane[row * 64 + col], (byte) col);
+      }
+    }
+  }
+
+  @Test
+  public void testTileMatchesPlane() throws Exception {
+    addToFileName("sizeX", "97");
+    addToFileName("sizeY", "53");
+    addToFileName("sizeC", "3");
+    addToFileName("rgb", "3");
+    addToFileName("interleaved", "true");
+    addToFileName("pixelType", "uint16");
+    reader.setId(fake.getAbsolutePath());
+    byte[] plane = reader.openBytes(0);
+    int x = 5, y = 3, w = 40, h = 20;
+    byte[] tile = reader.openBytes(0, x, y, w, h);
+    int pixel = 3 * 2;
+    for (int row=0; row<h; row++) {
+      for (int i=0; i<w * pixel; i++) {
+        assertEquals(tile[row * w * pixel + i],
+          plane[((y + row) * 97 + x) * pixel + i]);
+      }
+    }
+  }
+
+  @Test
+  public void testHugeVirtualSize() throws Exception {
+    addToFileName("sizeX", "200000");
+    addToFileName("sizeY", "200000");
+    addToFileName("sizeZ", "1000000");
+    reader.setId(fake.getAbsolutePath());
+    assertEquals(reader.getImageCount(), 1000000);
+    byte[] tile = reader.openBytes(999999, 150000, 150000, 64, 64);
+    assertEquals(tile[63 * 64 + 1], (byte) 150001);
+  }
+
+  @Test
+  public void testSimulatedLatency() throws Exception {
+    addToFileName("sleepOpenBytes", "50");
+    reader.setId(fake.getAbsolutePath());
+    long start = System.currentTimeMillis();
+    reader.openBytes(0, 0, 0, 1, 1);
+    assertTrue(System.currentTimeMillis() - start >= 50);
+  }
+
   //
   // HELPERS
   //
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import jj2000.j2k.wavelet.synthesis.InvWTFull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.media.imageio.plugins.jpeg2000.J2KImageWriteParam;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageReader;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageReaderSpi;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriter;
+import com.sun.media.imageioimpl.plugins.jpeg2000.J2KImageWriterSpi;
+
+/**
+ * Checks that JPEG-2000 images decoded by several threads are the same as
+ * when decoded by the calling thread alone.
+ */
+public class JPEG2000DecoderThreadsTest {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(JPEG2000DecoderThreadsTest.class);
+
+  private static final int SIZE = 512;
+
+  /** Small code-blocks, so that there are many of them to share out. */
+  private static final int[] CODE_BLOCK = new int[] {32, 32};
+
+  private static final int THREADS = 4;
+
+  private static final int TIMED_RUNS = 5;
+
+  private BufferedImage image;
+
+  @BeforeMethod
+  public void setUp() {
+    image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_BYTE_GRAY);
+    byte[] pixels =
+      ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    Random random = new Random(SIZE);
+    for (int y=0; y<SIZE; y++) {
+      for (int x=0; x<SIZE; x++) {
+        double v = 128 + 60 * Math.sin(x / 37.0) * Math.cos(y / 23.0);
+        pixels[y * SIZE + x] = (byte) (v + random.nextGaussian() * 10);
+      }
+    }
+  }
+
+  @Test
+  public void testLossy() throws IOException {
+    assertSameDecoding(encode(false));
+  }
+
+  @Test
+  public void testLossless() throws IOException {
+    byte[] compressed = encode(true);
+    byte[] expected =
+      ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    assertTrue(Arrays.equals(expected, decode(compressed, THREADS)));
+    assertSameDecoding(compressed);
+  }
+
+  // -- Helper methods --
+
+  private void assertSameDecoding(byte[] compressed) throws IOException {
+    byte[] sequential = decode(compressed, 1);
+    byte[] parallel = decode(compressed, THREADS);
+    assertEquals(sequential.length, parallel.length);
+    assertTrue(Arrays.equals(sequential, parallel));
+
+    LOGGER.info("Decoded {}x{} image in {} ms with 1 thread, {} ms with {}",
+      new Object[] {SIZE, SIZE, time(compressed, 1),
+      time(compressed, THREADS), THREADS});
+  }
+
+  private long time(byte[] compressed, int threads) throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int i=0; i<TIMED_RUNS; i++) {
+      long start = System.currentTimeMillis();
+      decode(compressed, threads);
+      best = Math.min(best, System.currentTimeMillis() - start);
+    }
+    return best;
+  }
+
+  private byte[] encode(boolean lossless) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageOutputStream stream = new MemoryCacheImageOutputStream(out);
+    J2KImageWriter writer = new J2KImageWriter(new J2KImageWriterSpi());
+    try {
+      writer.setOutput(stream);
+      J2KImageWriteParam param =
+        (J2KImageWriteParam) writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionType("JPEG2000");
+      param.setLossless(lossless);
+      if (!lossless) {
+        param.setEncodingRate(2);
+      }
+      param.setFilter(lossless ?
+        J2KImageWriteParam.FILTER_53 : J2KImageWriteParam.FILTER_97);
+      param.setCodeBlockSize(CODE_BLOCK);
+      param.setComponentTransformation(false);
+      writer.write(null, new IIOImage(image, null, null), param);
+    }
+    finally {
+      writer.dispose();
+      stream.close();
+    }
+    return out.toByteArray();
+  }
+
+  private byte[] decode(byte[] compressed, int threads) throws IOException {
+    String previous = System.getProperty(InvWTFull.THREADS_PROPERTY);
+    System.setProperty(InvWTFull.THREADS_PROPERTY, String.valueOf(threads));
+    J2KImageReader reader = new J2KImageReader(new J2KImageReaderSpi());
+    try {
+      reader.setInput(new MemoryCacheImageInputStream(
+        new ByteArrayInputStream(compressed)), false, true);
+      BufferedImage b = reader.read(0, reader.getDefaultReadParam());
+      return ((DataBufferByte) b.getRaster().getDataBuffer()).getData();
+    }
+    finally {
+      reader.dispose();
+      if (previous == null) {
+        System.clearProperty(InvWTFull.THREADS_PROPERTY);
+      }
+      else {
+        System.setProperty(InvWTFull.THREADS_PROPERTY, previous);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.services.JPEGTurboService;
+import loci.formats.services.JPEGTurboServiceImpl;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that regions decoded by {@link JPEGTurboServiceImpl}, whose tiles
+ * may be decoded concurrently, match the tiles decoded one by one.
+ */
+public class JPEGTurboServiceTest {
+
+  private static final String FORMAT = "javax_imageio_jpeg_image_1.0";
+
+  /** Number of 8x8 blocks between restart markers, i.e. 64 pixel tiles. */
+  private static final int RESTART_INTERVAL = 8;
+
+  private static final int TILE = RESTART_INTERVAL * 8;
+
+  private static final int WIDTH = 8 * TILE;
+
+  private static final int HEIGHT = 6 * TILE;
+
+  private File file;
+  private BufferedImage image;
+  private JPEGTurboService service;
+  private RandomAccessInputStream stream;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+    byte[] row = new byte[WIDTH * 3];
+    for (int y=0; y<HEIGHT; y++) {
+      for (int x=0; x<WIDTH; x++) {
+        row[x * 3] = (byte) (x + y);
+        row[x * 3 + 1] = (byte) (2 * x);
+        row[x * 3 + 2] = (byte) (3 * y);
+      }
+      image.getRaster().setDataElements(0, y, WIDTH, 1, row);
+    }
+    file = File.createTempFile("JPEGTurboServiceTest", ".jpg");
+    writeJPEG(image, file);
+
+    service = new JPEGTurboServiceImpl();
+    stream = new RandomAccessInputStream(file.getAbsolutePath());
+    service.initialize(file.getAbsolutePath(), stream, WIDTH, HEIGHT);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    service.close();
+    file.delete();
+  }
+
+  @Test
+  public void testRestartMarkers() {
+    // one marker for the start of the scan, then one per tile row
+    assertEquals(WIDTH / TILE * HEIGHT / 8,
+      service.getRestartMarkers().length);
+  }
+
+  @Test
+  public void testWholeImage() throws IOException {
+    byte[] buf = assertRegion(0, 0, WIDTH, HEIGHT);
+
+    // the decoded image must be close to the original
+    BufferedImage rgb = new BufferedImage(WIDTH, HEIGHT,
+      BufferedImage.TYPE_3BYTE_BGR);
+    rgb.getGraphics().drawImage(image, 0, 0, null);
+    byte[] bgr = ((DataBufferByte) rgb.getRaster().getDataBuffer()).getData();
+    long difference = 0;
+    for (int i=0; i<buf.length; i+=3) {
+      for (int c=0; c<3; c++) {
+        difference += Math.abs((buf[i + c] & 0xff) - (bgr[i + 2 - c] & 0xff));
+      }
+    }
+    assertTrue(difference / buf.length < 4);
+  }
+
+  @Test
+  public void testAlignedRegions() throws IOException {
+    assertRegion(0, 0, TILE, TILE);
+    assertRegion(TILE, 2 * TILE, TILE, TILE);
+    assertRegion(2 * TILE, TILE, 3 * TILE, 2 * TILE);
+  }
+
+  @Test
+  public void testUnalignedRegions() throws IOException {
+    assertRegion(TILE / 2, TILE / 3, 2 * TILE, TILE);
+    assertRegion(5, 7, 3, 4);
+    assertRegion(TILE - 1, 0, 2, HEIGHT);
+    assertRegion(WIDTH - 100, HEIGHT - 70, 100, 70);
+  }
+
+  @Test
+  public void testReinitialize() throws Exception {
+    long[] markers = service.getRestartMarkers();
+    byte[] tile = service.getTile(1, 1);
+    service.close();
+    stream = new RandomAccessInputStream(file.getAbsolutePath());
+    service.initialize(file.getAbsolutePath(), stream, WIDTH, HEIGHT);
+    assertTrue(Arrays.equals(markers, service.getRestartMarkers()));
+    assertTrue(Arrays.equals(tile, service.getTile(1, 1)));
+    assertRegion(TILE / 2, TILE / 2, 2 * TILE, 2 * TILE);
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Checks that the given region is the same as when copied from each tile
+   * decoded separately, and returns it.
+   */
+  private byte[] assertRegion(int x, int y, int w, int h) throws IOException {
+    byte[] expected = new byte[w * h * 3];
+    for (int row=y/TILE; row<=(y + h - 1)/TILE; row++) {
+      for (int col=x/TILE; col<=(x + w - 1)/TILE; col++) {
+        byte[] tile = service.getTile(col, row);
+        for (int ty=0; ty<TILE; ty++) {
+          for (int tx=0; tx<TILE; tx++) {
+            int px = col * TILE + tx - x;
+            int py = row * TILE + ty - y;
+            if (px >= 0 && px < w && py >= 0 && py < h) {
+              System.arraycopy(tile, (ty * TILE + tx) * 3,
+                expected, (py * w + px) * 3, 3);
+            }
+          }
+        }
+      }
+    }
+    byte[] buf = service.getTile(new byte[w * h * 3], x, y, w, h);
+    assertTrue(Arrays.equals(expected, buf));
+    return buf;
+  }
+
+  /** Writes a 4:4:4 JPEG with a restart marker every RESTART_INTERVAL. */
+  private static void writeJPEG(BufferedImage image, File file)
+    throws IOException
+  {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(0.95f);
+    IIOMetadata metadata = writer.getDefaultImageMetadata(
+      new ImageTypeSpecifier(image), param);
+    Element root = (Element) metadata.getAsTree(FORMAT);
+    NodeList components = root.getElementsByTagName("componentSpec");
+    for (int i=0; i<components.getLength(); i++) {
+      Element component = (Element) components.item(i);
+      component.setAttribute("HsamplingFactor", "1");
+      component.setAttribute("VsamplingFactor", "1");
+    }
+    Element markers =
+      (Element) root.getElementsByTagName("markerSequence").item(0);
+    IIOMetadataNode dri = new IIOMetadataNode("dri");
+    dri.setAttribute("interval", String.valueOf(RESTART_INTERVAL));
+    markers.insertBefore(dri, markers.getFirstChild());
+    metadata.setFromTree(FORMAT, root);
+
+    ImageOutputStream out = ImageIO.createImageOutputStream(file);
+    try {
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(image, null, metadata), param);
+    }
+    finally {
+      out.close();
+      writer.dispose();
+    }
+  }
+
+}
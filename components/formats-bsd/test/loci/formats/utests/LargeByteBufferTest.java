@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+
+import loci.formats.LargeByteBuffer;
+
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.LargeByteBuffer}.
+ */
+public class LargeByteBufferTest {
+
+  @Test
+  public void testSegments() {
+    LargeByteBuffer buf = new LargeByteBuffer(100, 16);
+    assertEquals(100, buf.capacity());
+    assertEquals(16, buf.getSegmentSize());
+    assertEquals(7, buf.getSegmentCount());
+    assertEquals(16, buf.getSegment(0).capacity());
+    assertEquals(4, buf.getSegment(6).capacity());
+  }
+
+  @Test
+  public void testSpanningCopy() {
+    LargeByteBuffer buf = new LargeByteBuffer(100, 16);
+    byte[] src = new byte[50];
+    for (int i=0; i<src.length; i++) {
+      src[i] = (byte) (i + 1);
+    }
+    buf.put(10, src);
+    assertEquals(0, buf.get(9));
+    assertEquals(1, buf.get(10));
+    assertEquals(50, buf.get(59));
+    assertEquals(0, buf.get(60));
+    assertEquals(7, buf.getSegment(1).get(0));
+
+    byte[] dest = new byte[src.length];
+    buf.get(10, dest, 0, dest.length);
+    assertTrue(Arrays.equals(src, dest));
+  }
+
+  @Test(expectedExceptions = IndexOutOfBoundsException.class)
+  public void testOutOfRange() {
+    LargeByteBuffer buf = new LargeByteBuffer(100, 16);
+    buf.put(90, new byte[11]);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testInvalidSegmentSize() {
+    new LargeByteBuffer(100, 24);
+  }
+
+}
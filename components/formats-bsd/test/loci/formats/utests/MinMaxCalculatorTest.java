@@ -198,6 +198,56 @@ public class MinMaxCalculatorTest {
     assertMinMax(-2.0, 2.0);
   }
 
+  @Test
+  public void testAddMinMax() throws Exception {
+    String file = "merge&pixelType=uint8&sizeX=50&sizeY=20&sizeZ=4.fake";
+    MinMaxCalculator all = new MinMaxCalculator(new FakeReader());
+    MinMaxCalculator first = new MinMaxCalculator(new FakeReader());
+    MinMaxCalculator second = new MinMaxCalculator(new FakeReader());
+    MinMaxCalculator merged = new MinMaxCalculator(new FakeReader());
+    TestMinMaxStore store = new TestMinMaxStore();
+    merged.setMinMaxStore(store);
+    try {
+      all.setId(file);
+      first.setId(file);
+      second.setId(file);
+      merged.setId(file);
+
+      // read half of the planes with each calculator
+      for (int no=0; no<all.getImageCount(); no++) {
+        all.openBytes(no);
+        if (no < all.getImageCount() / 2) first.openBytes(no);
+        else second.openBytes(no);
+      }
+
+      merged.addMinMax(first);
+      assertFalse(merged.isMinMaxPopulated());
+      assertNotNull(merged.getPlaneMinimum(0));
+      assertNull(merged.getPlaneMinimum(all.getImageCount() - 1));
+      assertTrue(store.seriesGlobalMinimaMaxima.isEmpty());
+
+      merged.addMinMax(second);
+      assertTrue(merged.isMinMaxPopulated());
+      for (int no=0; no<all.getImageCount(); no++) {
+        assertEquals(all.getPlaneMinimum(no)[0], merged.getPlaneMinimum(no)[0]);
+        assertEquals(all.getPlaneMaximum(no)[0], merged.getPlaneMaximum(no)[0]);
+      }
+      assertEquals(all.getChannelGlobalMinimum(0),
+        merged.getChannelGlobalMinimum(0));
+      assertEquals(all.getChannelGlobalMaximum(0),
+        merged.getChannelGlobalMaximum(0));
+      double[] minMax = store.seriesGlobalMinimaMaxima.get(0).get(0);
+      assertEquals(all.getChannelGlobalMinimum(0), minMax[0]);
+      assertEquals(all.getChannelGlobalMaximum(0), minMax[1]);
+    }
+    finally {
+      all.close();
+      first.close();
+      second.close();
+      merged.close();
+    }
+  }
+
   /**
    * A testing implementation of {@link loci.formats.meta.IMinMaxStore} that
    * we'll use to ensure that the various methods are called with the correct
@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import loci.common.Constants;
+import loci.formats.FormatException;
+import loci.formats.in.FitsReader;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.in.RawPlaneReader}, comparing planes
+ * read from a plain file with those read from compressed copies of it.
+ */
+public class RawPlaneReaderTest {
+
+  private static final int SIZE_X = 8;
+  private static final int SIZE_Y = 6;
+  private static final int SIZE_Z = 2;
+
+  /** FITS header records are 80 characters, padded to 2880 byte blocks. */
+  private static final int LINE_LENGTH = 80;
+  private static final int BLOCK_LENGTH = 2880;
+
+  private File dir;
+  private File plain;
+  private File gzip;
+  private File zip;
+
+  @BeforeClass
+  public void setUp() throws IOException {
+    dir = File.createTempFile("raw-plane", "");
+    dir.delete();
+    dir.mkdir();
+
+    byte[] fits = makeFits();
+    plain = new File(dir, "t.fits");
+    write(new FileOutputStream(plain), fits);
+    gzip = new File(dir, "t.fits.gz");
+    write(new GZIPOutputStream(new FileOutputStream(gzip)), fits);
+    zip = new File(dir, "t.fits.zip");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+    out.putNextEntry(new ZipEntry("t.fits"));
+    write(out, fits);
+  }
+
+  @AfterClass
+  public void tearDown() {
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testPlainFile() throws FormatException, IOException {
+    checkPixels(plain);
+  }
+
+  @Test
+  public void testGZipFile() throws FormatException, IOException {
+    checkPixels(gzip);
+  }
+
+  @Test
+  public void testZipFile() throws FormatException, IOException {
+    checkPixels(zip);
+  }
+
+  // -- Helper methods --
+
+  /** Checks whole planes and a tile of each plane against the written data. */
+  private void checkPixels(File file) throws FormatException, IOException {
+    FitsReader reader = new FitsReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      assertEquals(SIZE_X, reader.getSizeX());
+      assertEquals(SIZE_Y, reader.getSizeY());
+      assertEquals(SIZE_Z, reader.getImageCount());
+      for (int no=0; no<SIZE_Z; no++) {
+        byte[] plane = reader.openBytes(no);
+        assertTrue(Arrays.equals(getPixels(no, 0, 0, SIZE_X, SIZE_Y), plane));
+        byte[] tile = reader.openBytes(no, 3, 2, 4, 3);
+        assertTrue(Arrays.equals(getPixels(no, 3, 2, 4, 3), tile));
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  /** Returns the expected pixels of the given region of a plane. */
+  private static byte[] getPixels(int no, int x, int y, int w, int h) {
+    byte[] pixels = new byte[w * h];
+    for (int row=0; row<h; row++) {
+      for (int col=0; col<w; col++) {
+        pixels[row * w + col] =
+          (byte) (no * SIZE_X * SIZE_Y + (y + row) * SIZE_X + x + col);
+      }
+    }
+    return pixels;
+  }
+
+  /** Builds an 8-bit FITS file whose pixel values count up from zero. */
+  private static byte[] makeFits() throws IOException {
+    String[] cards = {"SIMPLE  = T", "BITPIX  = 8", "NAXIS   = 3",
+      "NAXIS1  = " + SIZE_X, "NAXIS2  = " + SIZE_Y, "NAXIS3  = " + SIZE_Z,
+      "END"};
+    StringBuilder header = new StringBuilder();
+    for (String card : cards) {
+      header.append(card);
+      while (header.length() % LINE_LENGTH != 0) header.append(' ');
+    }
+    while (header.length() % BLOCK_LENGTH != 0) header.append(' ');
+    byte[] head = header.toString().getBytes(Constants.ENCODING);
+
+    int planeSize = SIZE_X * SIZE_Y;
+    byte[] fits = new byte[head.length + SIZE_Z * planeSize];
+    System.arraycopy(head, 0, fits, 0, head.length);
+    for (int no=0; no<SIZE_Z; no++) {
+      byte[] plane = getPixels(no, 0, 0, SIZE_X, SIZE_Y);
+      System.arraycopy(plane, 0, fits, head.length + no * planeSize,
+        planeSize);
+    }
+    return fits;
+  }
+
+  private static void write(OutputStream out, byte[] data) throws IOException {
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import loci.common.DataTools;
+import loci.formats.FormatTools;
+import loci.formats.ThumbnailTools;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.ThumbnailTools}.
+ */
+public class ThumbnailToolsTest {
+
+  private FakeReader reader;
+
+  @BeforeMethod
+  public void setUp() {
+    reader = new FakeReader();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+  }
+
+  @Test
+  public void testAreaAveraging() throws Exception {
+    reader.setId("test&pixelType=uint16&sizeX=256&sizeY=256.fake");
+    assertEquals(128, reader.getThumbSizeX());
+    assertEquals(128, reader.getThumbSizeY());
+    byte[] thumb = ThumbnailTools.openThumbBytes(reader, 0);
+    assertEquals(128 * 128 * 2, thumb.length);
+
+    // pixel values are a gradient in X, so each thumbnail pixel is the
+    // average of two consecutive values
+    int offset = 127 * 128 * 2;
+    for (int x=0; x<128; x++) {
+      int value = DataTools.bytesToShort(thumb, offset + x * 2, 2,
+        reader.isLittleEndian()) & 0xffff;
+      assertEquals(2 * x + 1, value);
+    }
+  }
+
+  @Test
+  public void testSignedValues() throws Exception {
+    reader.setId("test&pixelType=int8&sizeX=256&sizeY=256.fake");
+    byte[] thumb = ThumbnailTools.openThumbBytes(reader, 0);
+    int offset = 127 * 128;
+    assertEquals(-127, thumb[offset]);
+    assertEquals(127, thumb[offset + 127]);
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    reader.setId("test&pixelType=uint8&sizeX=512&sizeY=300&sizeZ=3" +
+      "&sizeC=3&rgb=3.fake");
+    byte[][] thumbs = ThumbnailTools.openThumbBytes(reader, new int[] {0, 2});
+    assertEquals(2, thumbs.length);
+    int expected = FormatTools.getPlaneSize(reader,
+      reader.getThumbSizeX(), reader.getThumbSizeY());
+    for (byte[] thumb : thumbs) {
+      assertEquals(expected, thumb.length);
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import loci.common.DataTools;
+import loci.formats.ChannelSeparator;
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the typed plane reading methods in
+ * {@link loci.formats.IFormatReader}.
+ */
+public class TypedPlaneTest {
+
+  private IFormatReader reader;
+
+  @BeforeMethod
+  public void setUp() {
+    reader = new FakeReader();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+  }
+
+  @Test
+  public void testShorts() throws Exception {
+    reader.setId("test&pixelType=uint16&sizeX=64&sizeY=32.fake");
+    byte[] bytes = reader.openBytes(0, 8, 4, 40, 20);
+    short[] shorts = reader.openShorts(0, null, 8, 4, 40, 20);
+    assertEquals(40 * 20, shorts.length);
+    for (int i=0; i<shorts.length; i++) {
+      assertEquals(DataTools.bytesToShort(bytes, i * 2,
+        reader.isLittleEndian()), shorts[i]);
+    }
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    reader.setId("test&pixelType=float&sizeX=16&sizeY=16&sizeZ=4.fake");
+    int[] planes = {3, 1};
+    float[] block = reader.openFloats(planes, null, 0, 0, 16, 16);
+    assertEquals(2 * 16 * 16, block.length);
+    for (int p=0; p<planes.length; p++) {
+      float[] plane = reader.openFloats(planes[p], null, 0, 0, 16, 16);
+      for (int i=0; i<plane.length; i++) {
+        assertEquals(plane[i], block[p * plane.length + i], 0f);
+      }
+    }
+  }
+
+  @Test
+  public void testWrapper() throws Exception {
+    reader = new ChannelSeparator(reader);
+    reader.setId("test&pixelType=int32&sizeX=8&sizeY=8&sizeC=3&rgb=3.fake");
+    byte[] bytes = reader.openBytes(2);
+    int[] ints = reader.openInts(2, new int[64], 0, 0, 8, 8);
+    for (int i=0; i<ints.length; i++) {
+      assertEquals(DataTools.bytesToInt(bytes, i * 4,
+        reader.isLittleEndian()), ints[i]);
+    }
+  }
+
+  @Test(expectedExceptions = FormatException.class)
+  public void testWrongType() throws Exception {
+    reader.setId("test&pixelType=uint16.fake");
+    reader.openFloats(0, null, 0, 0, 8, 8);
+  }
+
+  @Test(expectedExceptions = FormatException.class)
+  public void testBufferTooSmall() throws Exception {
+    reader.setId("test&pixelType=double&sizeZ=2.fake");
+    reader.openDoubles(new int[] {0, 1}, new double[8 * 8], 0, 0, 8, 8);
+  }
+
+}
@@ -34,8 +34,10 @@ package loci.formats.utests;
 
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import loci.common.Location;
@@ -48,6 +50,7 @@ import loci.formats.FileStitcher;
 import loci.formats.FormatException;
 import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
+import loci.formats.LargeByteBuffer;
 import loci.formats.Memoizer;
 import loci.formats.MinMaxCalculator;
 
@@ -107,4 +110,19 @@ public class WrapperTest {
       assertEquals(core.indexed, reader.isIndexed());
     }
   }
+
+  @Test(dataProvider = "wrappers")
+  public void testOpenLargeBytes(IFormatReader reader) throws Exception {
+    for (int i=0; i<reader.getSeriesCount(); i++) {
+      reader.setSeries(i);
+      int w = reader.getSizeX() / 2;
+      int h = reader.getSizeY() / 2;
+      byte[] expected = reader.openBytes(0, 3, 5, w, h);
+      LargeByteBuffer large = reader.openLargeBytes(0, 3, 5, w, h);
+      assertEquals(expected.length, large.capacity());
+      byte[] actual = new byte[expected.length];
+      large.get(0, actual, 0, actual.length);
+      assertTrue(Arrays.equals(expected, actual));
+    }
+  }
 }
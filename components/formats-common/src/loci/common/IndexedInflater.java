@@ -0,0 +1,641 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * InputStream that decompresses a raw Deflate stream (RFC 1951) read from a
+ * RandomAccessInputStream, and supports seeking within the decompressed
+ * data.
+ *
+ * Unlike {@link java.util.zip.Inflater}, the decoder state is visible, so
+ * restart points are recorded at block boundaries as the stream is read.
+ * A restart point is the compressed bit offset of a block plus the 32 KB of
+ * output that precedes it.  Seeking backwards, or forwards past an indexed
+ * region, resumes decoding from the nearest restart point instead of from
+ * the beginning of the stream.
+ */
+class IndexedInflater extends InputStream {
+
+  // -- Constants --
+
+  /** Minimum number of decompressed bytes between two restart points. */
+  private static final long CHECKPOINT_SPACING = 4 * 1024 * 1024;
+
+  private static final int WINDOW_SIZE = 32768;
+  private static final int RING_SIZE = 2 * WINDOW_SIZE;
+  private static final int RING_MASK = RING_SIZE - 1;
+  private static final int BUFFER_SIZE = 65536;
+
+  private static final int STATE_HEADER = 0;
+  private static final int STATE_STORED = 1;
+  private static final int STATE_HUFFMAN = 2;
+  private static final int STATE_DONE = 3;
+
+  private static final int[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59,
+    67, 83, 99, 115, 131, 163, 195, 227, 258
+  };
+  private static final int[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4,
+    5, 5, 5, 5, 0
+  };
+  private static final int[] DISTANCE_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513,
+    769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+  };
+  private static final int[] DISTANCE_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10,
+    11, 11, 12, 12, 13, 13
+  };
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  private static final HuffmanTable FIXED_LITERALS;
+  private static final HuffmanTable FIXED_DISTANCES;
+
+  static {
+    int[] lengths = new int[288 + 30];
+    for (int i=0; i<288; i++) {
+      if (i < 144) lengths[i] = 8;
+      else if (i < 256) lengths[i] = 9;
+      else if (i < 280) lengths[i] = 7;
+      else lengths[i] = 8;
+    }
+    for (int i=288; i<lengths.length; i++) {
+      lengths[i] = 5;
+    }
+    try {
+      FIXED_LITERALS = new HuffmanTable(lengths, 0, 288);
+      FIXED_DISTANCES = new HuffmanTable(lengths, 288, 30);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // -- Fields --
+
+  /** Stream containing the compressed data. */
+  private RandomAccessInputStream in;
+
+  /** Offset of the compressed data within the stream. */
+  private long start;
+
+  /** Length of the compressed data. */
+  private long compressedLength;
+
+  /** Buffered compressed data, and its offset relative to start. */
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private long bufferOffset;
+  private int bufferPosition;
+  private int bufferLength;
+
+  /** Number of zero bytes appended past the end of the compressed data. */
+  private int overrun;
+
+  /** Bits read from the buffer but not yet consumed, LSB first. */
+  private long bits;
+  private int bitCount;
+
+  /**
+   * Recently decompressed data.  Holds both the 32 KB history needed
+   * to resolve back-references and the data that has not yet been read.
+   */
+  private byte[] ring = new byte[RING_SIZE];
+
+  /** Number of bytes decompressed so far. */
+  private long outPosition;
+
+  /** Number of bytes returned to the caller so far. */
+  private long readPosition;
+
+  private int state;
+  private boolean lastBlock;
+  private int storedRemaining;
+  private HuffmanTable literals;
+  private HuffmanTable distances;
+
+  private ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+  private long nextCheckpoint = CHECKPOINT_SPACING;
+
+  // -- Constructor --
+
+  /**
+   * Constructs a new IndexedInflater for the Deflate stream of the given
+   * length, starting at the given offset.
+   */
+  public IndexedInflater(RandomAccessInputStream in, long start,
+    long compressedLength)
+  {
+    this.in = in;
+    this.start = start;
+    this.compressedLength = compressedLength;
+  }
+
+  // -- IndexedInflater API methods --
+
+  /** Returns the offset within the decompressed data. */
+  public long getPosition() {
+    return readPosition;
+  }
+
+  /** Returns the number of restart points recorded so far. */
+  public int getCheckpointCount() {
+    return checkpoints.size();
+  }
+
+  /**
+   * Moves to the given offset within the decompressed data.
+   *
+   * @throws EOFException if the offset is past the end of the data.
+   */
+  public void seek(long pos) throws IOException {
+    if (pos == readPosition) return;
+    if (pos < readPosition && pos >= outPosition - RING_SIZE && pos >= 0) {
+      // the requested data is still in the ring buffer
+      readPosition = pos;
+      return;
+    }
+
+    Checkpoint checkpoint = findCheckpoint(pos);
+    long checkpointPosition = checkpoint == null ? 0 : checkpoint.position;
+    if (pos < readPosition || checkpointPosition > outPosition) {
+      restore(checkpoint);
+    }
+
+    while (readPosition < pos) {
+      if (outPosition == readPosition) {
+        fill();
+        if (outPosition == readPosition) {
+          throw new EOFException("Seek past end of Deflate stream");
+        }
+      }
+      readPosition += Math.min(pos - readPosition, outPosition - readPosition);
+    }
+  }
+
+  // -- InputStream API methods --
+
+  /* @see java.io.InputStream#read() */
+  @Override
+  public int read() throws IOException {
+    if (outPosition == readPosition) {
+      fill();
+      if (outPosition == readPosition) return -1;
+    }
+    return ring[(int) (readPosition++ & RING_MASK)] & 0xff;
+  }
+
+  /* @see java.io.InputStream#read(byte[], int, int) */
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    if (outPosition == readPosition) {
+      fill();
+      if (outPosition == readPosition) return -1;
+    }
+    int n = (int) Math.min(len, outPosition - readPosition);
+    int ringPosition = (int) (readPosition & RING_MASK);
+    int first = Math.min(n, RING_SIZE - ringPosition);
+    System.arraycopy(ring, ringPosition, b, off, first);
+    if (first < n) {
+      System.arraycopy(ring, 0, b, off + first, n - first);
+    }
+    readPosition += n;
+    return n;
+  }
+
+  /* @see java.io.InputStream#skip(long) */
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) return 0;
+    long skipped = 0;
+    while (skipped < n) {
+      if (outPosition == readPosition) {
+        fill();
+        if (outPosition == readPosition) break;
+      }
+      long step = Math.min(n - skipped, outPosition - readPosition);
+      readPosition += step;
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  /* @see java.io.InputStream#available() */
+  @Override
+  public int available() {
+    return (int) (outPosition - readPosition);
+  }
+
+  /**
+   * Releases the decoder's buffers.  The underlying stream is not closed,
+   * as it is owned by the caller.
+   */
+  @Override
+  public void close() {
+    in = null;
+    buffer = null;
+    ring = null;
+    checkpoints.clear();
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Decompresses data until at least 32 KB is waiting to be read, or the
+   * end of the stream is reached.
+   */
+  private void fill() throws IOException {
+    while (outPosition - readPosition < WINDOW_SIZE && state != STATE_DONE) {
+      switch (state) {
+        case STATE_HEADER:
+          readBlockHeader();
+          break;
+        case STATE_STORED:
+          copyStored();
+          break;
+        case STATE_HUFFMAN:
+          inflateBlock();
+          break;
+      }
+    }
+  }
+
+  private void readBlockHeader() throws IOException {
+    if (lastBlock) {
+      state = STATE_DONE;
+      return;
+    }
+    if (outPosition >= nextCheckpoint) {
+      checkpoints.add(new Checkpoint());
+      nextCheckpoint = outPosition + CHECKPOINT_SPACING;
+    }
+
+    lastBlock = getBits(1) == 1;
+    int type = getBits(2);
+    switch (type) {
+      case 0:
+        // skip to the next byte boundary
+        int drop = bitCount & 7;
+        bits >>>= drop;
+        bitCount -= drop;
+        int length = getBits(16);
+        int complement = getBits(16);
+        if ((length ^ 0xffff) != complement) {
+          throw new IOException("Invalid stored block length");
+        }
+        storedRemaining = length;
+        state = STATE_STORED;
+        break;
+      case 1:
+        literals = FIXED_LITERALS;
+        distances = FIXED_DISTANCES;
+        state = STATE_HUFFMAN;
+        break;
+      case 2:
+        readDynamicTables();
+        state = STATE_HUFFMAN;
+        break;
+      default:
+        throw new IOException("Invalid Deflate block type");
+    }
+  }
+
+  private void readDynamicTables() throws IOException {
+    int literalCount = getBits(5) + 257;
+    int distanceCount = getBits(5) + 1;
+    int codeLengthCount = getBits(4) + 4;
+
+    int[] codeLengthLengths = new int[CODE_LENGTH_ORDER.length];
+    for (int i=0; i<codeLengthCount; i++) {
+      codeLengthLengths[CODE_LENGTH_ORDER[i]] = getBits(3);
+    }
+    HuffmanTable codeLengths =
+      new HuffmanTable(codeLengthLengths, 0, codeLengthLengths.length);
+
+    int total = literalCount + distanceCount;
+    int[] lengths = new int[total];
+    int index = 0;
+    while (index < total) {
+      int symbol = decode(codeLengths);
+      if (symbol < 16) {
+        lengths[index++] = symbol;
+        continue;
+      }
+      int value = 0;
+      int repeat;
+      if (symbol == 16) {
+        if (index == 0) {
+          throw new IOException("Invalid code length repeat");
+        }
+        value = lengths[index - 1];
+        repeat = 3 + getBits(2);
+      }
+      else if (symbol == 17) {
+        repeat = 3 + getBits(3);
+      }
+      else {
+        repeat = 11 + getBits(7);
+      }
+      if (index + repeat > total) {
+        throw new IOException("Invalid code length repeat");
+      }
+      while (repeat-- > 0) {
+        lengths[index++] = value;
+      }
+    }
+
+    if (lengths[256] == 0) {
+      throw new IOException("Missing end-of-block code");
+    }
+    literals = new HuffmanTable(lengths, 0, literalCount);
+    distances = new HuffmanTable(lengths, literalCount, distanceCount);
+  }
+
+  private void copyStored() throws IOException {
+    int room = (int) (WINDOW_SIZE - (outPosition - readPosition));
+    int n = Math.min(room, storedRemaining);
+
+    // drain whole bytes left in the bit buffer first
+    while (n > 0 && bitCount >= 8) {
+      ring[(int) (outPosition++ & RING_MASK)] = (byte) bits;
+      bits >>>= 8;
+      bitCount -= 8;
+      storedRemaining--;
+      n--;
+    }
+
+    while (n > 0) {
+      if (bufferPosition == bufferLength && !fillBuffer()) {
+        throw new EOFException("Unexpected end of Deflate stream");
+      }
+      int ringPosition = (int) (outPosition & RING_MASK);
+      int count = Math.min(n, bufferLength - bufferPosition);
+      count = Math.min(count, RING_SIZE - ringPosition);
+      System.arraycopy(buffer, bufferPosition, ring, ringPosition, count);
+      bufferPosition += count;
+      outPosition += count;
+      storedRemaining -= count;
+      n -= count;
+    }
+
+    if (storedRemaining == 0) {
+      state = STATE_HEADER;
+    }
+  }
+
+  private void inflateBlock() throws IOException {
+    while (outPosition - readPosition < WINDOW_SIZE) {
+      int symbol = decode(literals);
+      if (symbol < 256) {
+        ring[(int) (outPosition++ & RING_MASK)] = (byte) symbol;
+      }
+      else if (symbol == 256) {
+        state = STATE_HEADER;
+        return;
+      }
+      else {
+        symbol -= 257;
+        if (symbol >= LENGTH_BASE.length) {
+          throw new IOException("Invalid Deflate length code");
+        }
+        int length = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+        int code = decode(distances);
+        if (code >= DISTANCE_BASE.length) {
+          throw new IOException("Invalid Deflate distance code");
+        }
+        int distance = DISTANCE_BASE[code] + getBits(DISTANCE_EXTRA[code]);
+        if (distance > outPosition) {
+          throw new IOException("Invalid Deflate distance");
+        }
+        // a match may overlap its own output, so copy one byte at a time
+        for (int i=0; i<length; i++) {
+          ring[(int) (outPosition & RING_MASK)] =
+            ring[(int) ((outPosition - distance) & RING_MASK)];
+          outPosition++;
+        }
+      }
+    }
+  }
+
+  private int decode(HuffmanTable table) throws IOException {
+    if (bitCount < table.bits) refillBits();
+    int entry = table.table[(int) bits & table.mask];
+    int length = entry & 15;
+    if (length == 0) {
+      throw new IOException("Invalid Huffman code");
+    }
+    bits >>>= length;
+    bitCount -= length;
+    return entry >>> 4;
+  }
+
+  private int getBits(int count) throws IOException {
+    if (count == 0) return 0;
+    if (bitCount < count) refillBits();
+    int value = (int) bits & ((1 << count) - 1);
+    bits >>>= count;
+    bitCount -= count;
+    return value;
+  }
+
+  private void refillBits() throws IOException {
+    while (bitCount <= 56) {
+      if (bufferPosition == bufferLength && !fillBuffer()) {
+        // pad with zeros; a valid stream never consumes more than
+        // a few bytes of padding before its final block ends
+        if (++overrun > 16) {
+          throw new EOFException("Unexpected end of Deflate stream");
+        }
+        bitCount += 8;
+        continue;
+      }
+      bits |= (long) (buffer[bufferPosition++] & 0xff) << bitCount;
+      bitCount += 8;
+    }
+  }
+
+  private boolean fillBuffer() throws IOException {
+    long next = bufferOffset + bufferLength;
+    if (next >= compressedLength) return false;
+    int n = (int) Math.min(buffer.length, compressedLength - next);
+    in.seek(start + next);
+    in.readFully(buffer, 0, n);
+    bufferOffset = next;
+    bufferPosition = 0;
+    bufferLength = n;
+    return true;
+  }
+
+  /** Returns the number of compressed bits consumed so far. */
+  private long getBitPosition() {
+    return ((bufferOffset + bufferPosition + overrun) << 3) - bitCount;
+  }
+
+  /** Returns the last restart point at or before the given position. */
+  private Checkpoint findCheckpoint(long pos) {
+    int low = 0;
+    int high = checkpoints.size() - 1;
+    Checkpoint found = null;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      Checkpoint checkpoint = checkpoints.get(mid);
+      if (checkpoint.position <= pos) {
+        found = checkpoint;
+        low = mid + 1;
+      }
+      else high = mid - 1;
+    }
+    return found;
+  }
+
+  /**
+   * Resets the decoder to the given restart point, or to the beginning of
+   * the stream if the restart point is null.
+   */
+  private void restore(Checkpoint checkpoint) throws IOException {
+    long bitPosition = 0;
+    outPosition = 0;
+    if (checkpoint != null) {
+      bitPosition = checkpoint.bitPosition;
+      outPosition = checkpoint.position;
+      byte[] window = checkpoint.window;
+      long windowStart = outPosition - window.length;
+      for (int i=0; i<window.length; i++) {
+        ring[(int) ((windowStart + i) & RING_MASK)] = window[i];
+      }
+    }
+    readPosition = outPosition;
+
+    bufferOffset = bitPosition >>> 3;
+    bufferPosition = 0;
+    bufferLength = 0;
+    overrun = 0;
+    bits = 0;
+    bitCount = 0;
+    state = STATE_HEADER;
+    lastBlock = false;
+    storedRemaining = 0;
+    literals = null;
+    distances = null;
+    getBits((int) (bitPosition & 7));
+  }
+
+  // -- Helper classes --
+
+  /** Decoder state at the start of a block. */
+  private class Checkpoint {
+    private long bitPosition;
+    private long position;
+    private byte[] window;
+
+    Checkpoint() {
+      bitPosition = getBitPosition();
+      position = outPosition;
+      window = new byte[(int) Math.min(WINDOW_SIZE, outPosition)];
+      long windowStart = outPosition - window.length;
+      for (int i=0; i<window.length; i++) {
+        window[i] = ring[(int) ((windowStart + i) & RING_MASK)];
+      }
+    }
+  }
+
+  /**
+   * Single-level lookup table for a canonical Huffman code.  Each entry
+   * holds the symbol in the upper bits and the code length in the lower
+   * four bits, indexed by the bit-reversed code.
+   */
+  private static class HuffmanTable {
+    private int bits;
+    private int mask;
+    private int[] table;
+
+    HuffmanTable(int[] lengths, int offset, int count) throws IOException {
+      int[] counts = new int[16];
+      for (int i=0; i<count; i++) {
+        int length = lengths[offset + i];
+        counts[length]++;
+        if (length > bits) bits = length;
+      }
+      counts[0] = 0;
+
+      int left = 1;
+      for (int length=1; length<16; length++) {
+        left <<= 1;
+        left -= counts[length];
+        if (left < 0) {
+          throw new IOException("Over-subscribed Huffman code");
+        }
+      }
+
+      int[] next = new int[16];
+      int code = 0;
+      for (int length=1; length<16; length++) {
+        code = (code + counts[length - 1]) << 1;
+        next[length] = code;
+      }
+
+      // a code with no symbols (e.g. unused distances) is permitted,
+      // as long as it is never used
+      if (bits == 0) bits = 1;
+      table = new int[1 << bits];
+      mask = table.length - 1;
+      for (int symbol=0; symbol<count; symbol++) {
+        int length = lengths[offset + symbol];
+        if (length == 0) continue;
+        int reversed = reverse(next[length]++, length);
+        int entry = (symbol << 4) | length;
+        for (int i=reversed; i<table.length; i+=1<<length) {
+          table[i] = entry;
+        }
+      }
+    }
+
+    private static int reverse(int code, int length) {
+      int reversed = 0;
+      for (int i=0; i<length; i++) {
+        reversed = (reversed << 1) | (code & 1);
+        code >>>= 1;
+      }
+      return reversed;
+    }
+  }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Index of the entries in a Zip file, built from the file's central
+ * directory.  Reading the central directory only requires a few reads near
+ * the end of the file, so any entry can be located without decompressing
+ * the entries that precede it.  Zip64 archives are supported.
+ *
+ * @see ZipHandle
+ */
+public class ZipCentralDirectory {
+
+  // -- Constants --
+
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int FILE_HEADER_SIGNATURE = 0x02014b50;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  private static final int END_LENGTH = 22;
+  private static final int ZIP64_LOCATOR_LENGTH = 20;
+  private static final int MAX_COMMENT_LENGTH = 65535;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xffffffffL;
+
+  // -- Fields --
+
+  private List<ZipEntry> entries = new ArrayList<ZipEntry>();
+  private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+  /** Compression method of each entry, including unsupported methods. */
+  private int[] methods;
+
+  /** Compressed size of each entry. */
+  private long[] compressedSizes;
+
+  /** Uncompressed size of each entry. */
+  private long[] sizes;
+
+  /** Offset of each entry's local file header. */
+  private long[] headerOffsets;
+
+  // -- Constructors --
+
+  /**
+   * Reads the central directory of the given Zip file.
+   *
+   * @throws HandleException if the file does not contain a valid
+   *   central directory.
+   */
+  public ZipCentralDirectory(String file) throws IOException {
+    RandomAccessInputStream in = new RandomAccessInputStream(
+      Location.getHandle(file, false, false), file);
+    try {
+      parse(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads the central directory from the given stream.  The stream's
+   * byte order and file pointer are not preserved.
+   *
+   * @throws HandleException if the stream does not contain a valid
+   *   central directory.
+   */
+  public ZipCentralDirectory(RandomAccessInputStream in) throws IOException {
+    parse(in);
+  }
+
+  // -- ZipCentralDirectory API methods --
+
+  /** Returns the number of entries in the Zip file. */
+  public int getEntryCount() {
+    return entries.size();
+  }
+
+  /** Returns all entries, in the order of the central directory. */
+  public List<ZipEntry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /** Returns the entry with the given name, or null if there is none. */
+  public ZipEntry getEntry(String name) {
+    Integer index = indices.get(name);
+    return index == null ? null : entries.get(index);
+  }
+
+  /**
+   * Returns the compression method of the named entry; this may be a
+   * method other than {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+   */
+  public int getMethod(String name) throws HandleException {
+    return methods[getIndex(name)];
+  }
+
+  /** Returns the uncompressed size of the named entry. */
+  public long getSize(String name) throws HandleException {
+    return sizes[getIndex(name)];
+  }
+
+  /** Returns the compressed size of the named entry. */
+  public long getCompressedSize(String name) throws HandleException {
+    return compressedSizes[getIndex(name)];
+  }
+
+  /**
+   * Returns the offset of the first byte of the named entry's data,
+   * as read from the entry's local file header.
+   */
+  public long getDataOffset(RandomAccessInputStream in, String name)
+    throws IOException
+  {
+    long header = headerOffsets[getIndex(name)];
+    in.order(true);
+    in.seek(header);
+    if (in.readInt() != LOCAL_HEADER_SIGNATURE) {
+      throw new HandleException("Invalid local header for Zip entry " + name);
+    }
+    in.seek(header + 26);
+    int nameLength = in.readUnsignedShort();
+    int extraLength = in.readUnsignedShort();
+    return header + LOCAL_HEADER_LENGTH + nameLength + extraLength;
+  }
+
+  // -- Helper methods --
+
+  private int getIndex(String name) throws HandleException {
+    Integer index = indices.get(name);
+    if (index == null) {
+      throw new HandleException("No such Zip entry: " + name);
+    }
+    return index;
+  }
+
+  private void parse(RandomAccessInputStream in) throws IOException {
+    in.order(true);
+    long fileLength = in.length();
+    long end = findEnd(in, fileLength);
+    if (end < 0) {
+      throw new HandleException("Could not find Zip central directory");
+    }
+
+    in.seek(end + 10);
+    long count = in.readUnsignedShort();
+    long directoryLength = in.readInt() & ZIP64_MAGIC;
+    long directoryOffset = in.readInt() & ZIP64_MAGIC;
+
+    long locator = end - ZIP64_LOCATOR_LENGTH;
+    if (locator >= 0) {
+      in.seek(locator);
+      if (in.readInt() == ZIP64_LOCATOR_SIGNATURE) {
+        in.skipBytes(4);
+        long zip64End = in.readLong();
+        in.seek(zip64End);
+        if (in.readInt() != ZIP64_END_SIGNATURE) {
+          throw new HandleException("Invalid Zip64 end of central directory");
+        }
+        in.seek(zip64End + 32);
+        count = in.readLong();
+        directoryLength = in.readLong();
+        directoryOffset = in.readLong();
+      }
+    }
+
+    if (count < 0 || count > Integer.MAX_VALUE ||
+      directoryOffset + directoryLength > fileLength)
+    {
+      throw new HandleException("Invalid Zip central directory");
+    }
+
+    int n = (int) count;
+    methods = new int[n];
+    compressedSizes = new long[n];
+    sizes = new long[n];
+    headerOffsets = new long[n];
+
+    in.seek(directoryOffset);
+    for (int i=0; i<n; i++) {
+      if (in.readInt() != FILE_HEADER_SIGNATURE) {
+        throw new HandleException("Invalid Zip central directory entry " + i);
+      }
+      in.skipBytes(6);
+      int method = in.readUnsignedShort();
+      in.skipBytes(4);
+      long crc = in.readInt() & ZIP64_MAGIC;
+      long compressedSize = in.readInt() & ZIP64_MAGIC;
+      long size = in.readInt() & ZIP64_MAGIC;
+      int nameLength = in.readUnsignedShort();
+      int extraLength = in.readUnsignedShort();
+      int commentLength = in.readUnsignedShort();
+      in.skipBytes(8);
+      long headerOffset = in.readInt() & ZIP64_MAGIC;
+
+      byte[] nameBytes = new byte[nameLength];
+      in.readFully(nameBytes);
+      String name = new String(nameBytes, Constants.ENCODING);
+
+      // sizes and offsets that overflow 32 bits are stored in the
+      // Zip64 extra field, in a fixed order
+      long extraEnd = in.getFilePointer() + extraLength;
+      while (in.getFilePointer() + 4 <= extraEnd) {
+        int id = in.readUnsignedShort();
+        int length = in.readUnsignedShort();
+        long next = in.getFilePointer() + length;
+        if (id == ZIP64_EXTRA_ID) {
+          if (size == ZIP64_MAGIC) size = in.readLong();
+          if (compressedSize == ZIP64_MAGIC) compressedSize = in.readLong();
+          if (headerOffset == ZIP64_MAGIC) headerOffset = in.readLong();
+        }
+        in.seek(next);
+      }
+      in.seek(extraEnd + commentLength);
+
+      ZipEntry entry = new ZipEntry(name);
+      if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+        entry.setMethod(method);
+      }
+      entry.setCrc(crc);
+      entry.setSize(size);
+      entry.setCompressedSize(compressedSize);
+
+      methods[i] = method;
+      compressedSizes[i] = compressedSize;
+      sizes[i] = size;
+      headerOffsets[i] = headerOffset;
+      if (!indices.containsKey(name)) {
+        indices.put(name, i);
+      }
+      entries.add(entry);
+    }
+  }
+
+  /**
+   * Returns the offset of the end of central directory record, or -1 if
+   * the record could not be found.  The record is followed only by a
+   * variable-length comment, so only the tail of the file is searched.
+   */
+  private static long findEnd(RandomAccessInputStream in, long fileLength)
+    throws IOException
+  {
+    if (fileLength < END_LENGTH) return -1;
+    int tailLength =
+      (int) Math.min(fileLength, END_LENGTH + MAX_COMMENT_LENGTH);
+    long tailStart = fileLength - tailLength;
+    byte[] tail = new byte[tailLength];
+    in.seek(tailStart);
+    in.readFully(tail);
+
+    for (int i=tailLength-END_LENGTH; i>=0; i--) {
+      if (DataTools.bytesToInt(tail, i, true) == END_SIGNATURE) {
+        int commentLength = DataTools.bytesToShort(tail, i + 20, true) & 0xffff;
+        if (i + END_LENGTH + commentLength <= tailLength) {
+          return tailStart + i;
+        }
+      }
+    }
+    return -1;
+  }
+
+}
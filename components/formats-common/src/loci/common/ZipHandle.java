@@ -32,18 +32,26 @@
 
 package loci.common;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * StreamHandle implementation for reading from Zip-compressed files
  * or byte arrays.  Instances of ZipHandle are read-only.
  *
+ * Entries are located using the Zip file's central directory, so opening an
+ * entry does not require decompressing the entries that precede it.
+ * Stored (uncompressed) entries are read directly from the underlying file.
+ * Deflated entries record restart points as they are decompressed, so
+ * seeking backwards does not restart decompression from the beginning
+ * of the entry.
+ *
  * @see StreamHandle
+ * @see ZipCentralDirectory
  *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
@@ -52,10 +60,22 @@ public class ZipHandle extends StreamHandle {
   // -- Fields --
 
   private RandomAccessInputStream in;
-  private ZipInputStream zip;
+  private ZipCentralDirectory directory;
   private String entryName;
   private int entryCount;
 
+  /** Compression method of the backing Zip entry. */
+  private int method;
+
+  /** Offset of the backing entry's data, or -1 if not yet known. */
+  private long dataOffset = -1;
+
+  /** Decompressor for the backing entry, if it is deflated. */
+  private IndexedInflater inflater;
+
+  /** Stream of the backing entry's uncompressed data. */
+  private EntryStream entryStream;
+
   // -- Constructor --
 
   public ZipHandle(String file) throws IOException {
@@ -63,9 +83,9 @@ public class ZipHandle extends StreamHandle {
     this.file = file;
 
     in = openStream(file);
-    zip = new ZipInputStream(in);
+    directory = new ZipCentralDirectory(in);
     entryName = null;
-    entryCount = 0;
+    entryCount = directory.getEntryCount();
 
     // strip off .zip extension and directory prefix
     String innerFile = file.substring(0, file.length() - 4);
@@ -74,25 +94,19 @@ public class ZipHandle extends StreamHandle {
     if (slash >= 0) innerFile = innerFile.substring(slash + 1);
 
     // look for Zip entry with same prefix as the Zip file itself
-    boolean matchFound = false;
-    length = 0;
-    while (true) {
-      ZipEntry ze = zip.getNextEntry();
-      if (ze == null) break;
+    for (ZipEntry ze : directory.getEntries()) {
       if (entryName == null) entryName = ze.getName();
-      if (!matchFound && ze.getName().startsWith(innerFile)) {
+      if (ze.getName().startsWith(innerFile)) {
         // found entry with matching name
         entryName = ze.getName();
-        matchFound = true;
+        break;
       }
-      entryCount++;
-      length += ze.getSize();
     }
-    resetStream();
-
-    if (length <= 0) {
-      populateLength();
+    if (entryName == null) {
+      throw new HandleException(file + " does not contain any entries.");
     }
+
+    initEntry();
   }
 
   /**
@@ -102,20 +116,36 @@ public class ZipHandle extends StreamHandle {
    * @throws HandleException if the given file is not a Zip file.
    */
   public ZipHandle(String file, ZipEntry entry) throws IOException {
+    this(file, null, entry.getName());
+  }
+
+  /**
+   * Constructs a new ZipHandle corresponding to the named entry of the
+   * specified Zip file, using an already parsed central directory.
+   * This avoids re-reading the central directory when many entries of
+   * the same Zip file are opened.  The Zip file itself is not opened until
+   * the entry is first read.
+   *
+   * @param directory the central directory of the Zip file, or null if
+   *   it should be read from the file
+   * @throws HandleException if the given file is not a Zip file, or
+   *   does not contain the named entry.
+   */
+  public ZipHandle(String file, ZipCentralDirectory directory,
+    String entryName) throws IOException
+  {
     super();
     this.file = file;
 
-    in = openStream(file);
-    zip = new ZipInputStream(in);
-    entryName = entry.getName();
+    if (directory == null) {
+      in = openStream(file);
+      directory = new ZipCentralDirectory(in);
+    }
+    this.directory = directory;
+    this.entryName = entryName;
     entryCount = 1;
 
-    seekToEntry();
-    resetStream();
-    length = entry.getSize();
-    if (length <= 0) {
-      populateLength();
-    }
+    initEntry();
   }
 
   // -- ZipHandle API methods --
@@ -154,11 +184,33 @@ public class ZipHandle extends StreamHandle {
   @Override
   public void close() throws IOException {
     super.close();
-    zip = null;
+    if (inflater != null) inflater.close();
+    inflater = null;
+    entryStream = null;
+    directory = null;
     entryName = null;
     if (in != null) in.close();
     in = null;
     entryCount = 0;
+    dataOffset = -1;
+  }
+
+  /* @see IRandomAccess#seek(long) */
+  @Override
+  public void seek(long pos) throws IOException {
+    // the entry is positioned lazily, so repeated seeks are free
+    fp = pos;
+    entryStream.position = pos;
+  }
+
+  // -- DataInput API methods --
+
+  /* @see java.io.DataInput#skipBytes(int) */
+  @Override
+  public int skipBytes(int n) throws IOException {
+    int skipped = (int) Math.max(0, Math.min(n, length - fp));
+    seek(fp + skipped);
+    return skipped;
   }
 
   // -- StreamHandle API methods --
@@ -167,31 +219,35 @@ public class ZipHandle extends StreamHandle {
   @Override
   protected void resetStream() throws IOException {
     if (stream != null) stream.close();
-    if (in != null) {
-      in.close();
-      in = openStream(file);
-    }
-    if (zip != null) zip.close();
-    zip = new ZipInputStream(in);
-    if (entryName != null) seekToEntry();
-    stream = new DataInputStream(new BufferedInputStream(
-      zip, RandomAccessInputStream.MAX_OVERHEAD));
-    stream.mark(RandomAccessInputStream.MAX_OVERHEAD);
+    entryStream = new EntryStream();
+    stream = new DataInputStream(entryStream);
+    fp = 0;
   }
 
   // -- Helper methods --
 
-  private void seekToEntry() throws IOException {
-    while (!entryName.equals(zip.getNextEntry().getName()));
+  private void initEntry() throws IOException {
+    if (directory.getEntry(entryName) == null) {
+      throw new HandleException("No such Zip entry: " + entryName);
+    }
+    method = directory.getMethod(entryName);
+    if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+      throw new HandleException("Unsupported compression method " + method +
+        " for Zip entry " + entryName);
+    }
+    length = directory.getSize(entryName);
+    resetStream();
   }
 
-  private void populateLength() throws IOException {
-    length = -1;
-    while (stream.available() > 0) {
-      stream.skip(1);
-      length++;
+  /** Returns the stream containing the raw Zip data, opening it if needed. */
+  private RandomAccessInputStream getRawStream() throws IOException {
+    if (in == null) {
+      in = openStream(file);
     }
-    resetStream();
+    if (dataOffset < 0) {
+      dataOffset = directory.getDataOffset(in, entryName);
+    }
+    return in;
   }
 
   private static IRandomAccess getHandle(String file) throws IOException {
@@ -204,4 +260,63 @@ public class ZipHandle extends StreamHandle {
     return new RandomAccessInputStream(getHandle(file), file);
   }
 
+  // -- Helper classes --
+
+  /**
+   * Uncompressed view of the backing Zip entry.  The position is applied
+   * only when data is next read.
+   */
+  private class EntryStream extends InputStream {
+    private long position;
+    private byte[] single = new byte[1];
+
+    /* @see java.io.InputStream#read() */
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+    }
+
+    /* @see java.io.InputStream#read(byte[], int, int) */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (position >= length) return -1;
+      len = (int) Math.min(len, length - position);
+
+      RandomAccessInputStream raw = getRawStream();
+      int n;
+      if (method == ZipEntry.STORED) {
+        raw.seek(dataOffset + position);
+        n = raw.read(b, off, len);
+      }
+      else {
+        if (inflater == null) {
+          inflater = new IndexedInflater(raw, dataOffset,
+            directory.getCompressedSize(entryName));
+        }
+        inflater.seek(position);
+        n = inflater.read(b, off, len);
+      }
+      if (n <= 0) {
+        throw new EOFException("Unexpected end of Zip entry " + entryName);
+      }
+      position += n;
+      return n;
+    }
+
+    /* @see java.io.InputStream#skip(long) */
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, length - position));
+      position += skipped;
+      return skipped;
+    }
+
+    /* @see java.io.InputStream#available() */
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+  }
+
 }
@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import loci.common.ZipCentralDirectory;
+import loci.common.ZipHandle;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for random access to Zip entries through
+ * loci.common.ZipHandle and loci.common.ZipCentralDirectory.
+ *
+ * @see loci.common.ZipHandle
+ * @see loci.common.ZipCentralDirectory
+ */
+public class ZipHandleTest {
+
+  private static final int LARGE_SIZE = 12 * 1024 * 1024;
+  private static final int SMALL_SIZE = 100000;
+
+  private File zipFile;
+  private byte[] large;
+  private byte[] small;
+
+  @BeforeClass
+  public void setup() throws IOException {
+    // compressible, but not trivially so, to produce many Deflate blocks
+    Random random = new Random(42);
+    large = new byte[LARGE_SIZE];
+    for (int i=0; i<large.length; i++) {
+      large[i] = (byte) (random.nextInt(16) + (i >> 16));
+    }
+    small = new byte[SMALL_SIZE];
+    random.nextBytes(small);
+
+    zipFile = File.createTempFile("ZipHandleTest", ".zip");
+    zipFile.deleteOnExit();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+    out.putNextEntry(new ZipEntry("first.bin"));
+    out.write(small);
+    out.putNextEntry(new ZipEntry("large.bin"));
+    out.write(large);
+
+    ZipEntry stored = new ZipEntry("stored.bin");
+    CRC32 crc = new CRC32();
+    crc.update(small);
+    stored.setMethod(ZipEntry.STORED);
+    stored.setSize(small.length);
+    stored.setCompressedSize(small.length);
+    stored.setCrc(crc.getValue());
+    out.putNextEntry(stored);
+    out.write(small);
+    out.close();
+  }
+
+  @AfterClass
+  public void tearDown() {
+    zipFile.delete();
+  }
+
+  @Test
+  public void testCentralDirectory() throws IOException {
+    ZipCentralDirectory directory =
+      new ZipCentralDirectory(zipFile.getAbsolutePath());
+    assertEquals(3, directory.getEntryCount());
+    assertEquals("first.bin", directory.getEntries().get(0).getName());
+    assertNotNull(directory.getEntry("stored.bin"));
+    assertEquals(LARGE_SIZE, directory.getSize("large.bin"));
+    assertEquals(ZipEntry.DEFLATED, directory.getMethod("large.bin"));
+    assertEquals(ZipEntry.STORED, directory.getMethod("stored.bin"));
+    assertEquals(SMALL_SIZE, directory.getCompressedSize("stored.bin"));
+  }
+
+  @Test
+  public void testDeflatedRandomAccess() throws IOException {
+    ZipHandle handle = new ZipHandle(zipFile.getAbsolutePath(),
+      new ZipCentralDirectory(zipFile.getAbsolutePath()), "large.bin");
+    assertEquals(LARGE_SIZE, handle.length());
+    assertEquals(1, handle.getEntryCount());
+
+    // read the whole entry once, then seek backwards and forwards
+    byte[] all = new byte[LARGE_SIZE];
+    handle.seek(0);
+    handle.readFully(all);
+    assertTrue(Arrays.equals(large, all));
+
+    long[] offsets = {
+      LARGE_SIZE - 1000, 17, 9 * 1024 * 1024 + 5, 4 * 1024 * 1024 - 3,
+      LARGE_SIZE / 2, 70000, 65000
+    };
+    for (long offset : offsets) {
+      checkRegion(handle, large, offset, 1000);
+    }
+    handle.close();
+  }
+
+  @Test
+  public void testDeflatedSeekBeforeRead() throws IOException {
+    ZipHandle handle =
+      new ZipHandle(zipFile.getAbsolutePath(), new ZipEntry("large.bin"));
+    checkRegion(handle, large, LARGE_SIZE - 4096, 4096);
+    checkRegion(handle, large, 123456, 4096);
+    handle.close();
+  }
+
+  @Test
+  public void testStoredRandomAccess() throws IOException {
+    ZipHandle handle =
+      new ZipHandle(zipFile.getAbsolutePath(), new ZipEntry("stored.bin"));
+    assertEquals(SMALL_SIZE, handle.length());
+    checkRegion(handle, small, SMALL_SIZE - 10, 10);
+    checkRegion(handle, small, 0, 512);
+    checkRegion(handle, small, 50000, 20000);
+    handle.close();
+  }
+
+  @Test
+  public void testSkipBytes() throws IOException {
+    ZipHandle handle =
+      new ZipHandle(zipFile.getAbsolutePath(), new ZipEntry("first.bin"));
+    assertEquals(1000, handle.skipBytes(1000));
+    assertEquals(small[1000], handle.readByte());
+    handle.seek(SMALL_SIZE - 5);
+    assertEquals(5, handle.skipBytes(100));
+    assertEquals(SMALL_SIZE, handle.getFilePointer());
+    handle.close();
+  }
+
+  @Test
+  public void testDefaultEntry() throws IOException {
+    ZipHandle handle = new ZipHandle(zipFile.getAbsolutePath());
+    assertEquals(3, handle.getEntryCount());
+    assertEquals("first.bin", handle.getEntryName());
+    assertEquals(SMALL_SIZE, handle.length());
+    checkRegion(handle, small, 100, 100);
+    handle.close();
+  }
+
+  private void checkRegion(ZipHandle handle, byte[] expected, long offset,
+    int length) throws IOException
+  {
+    byte[] actual = new byte[length];
+    handle.seek(offset);
+    handle.readFully(actual);
+    assertEquals(offset + length, handle.getFilePointer());
+    byte[] region = new byte[length];
+    System.arraycopy(expected, (int) offset, region, 0, length);
+    assertTrue("Mismatch at offset " + offset, Arrays.equals(region, actual));
+  }
+
+}
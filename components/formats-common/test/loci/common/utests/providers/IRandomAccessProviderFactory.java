@@ -55,6 +55,7 @@ public class IRandomAccessProviderFactory {
     providers.put("NIOFileHandle", new NIOFileHandleProvider());
     providers.put("URLHandle", new URLHandleProvider());
     providers.put("ZipHandle", new ZipHandleProvider());
+    providers.put("StoredZipHandle", new StoredZipHandleProvider());
   }
 
   public IRandomAccessProvider getInstance(String provider) {
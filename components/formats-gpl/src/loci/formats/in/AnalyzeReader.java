@@ -31,7 +31,6 @@ import loci.common.Location;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -47,7 +46,7 @@ import ome.units.UNITS;
  *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
-public class AnalyzeReader extends FormatReader {
+public class AnalyzeReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -73,6 +72,26 @@ public class AnalyzeReader extends FormatReader {
     datasetDescription = "One .img file and one similarly-named .hdr file";
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    return pixelOffset + (long) no * FormatTools.getPlaneSize(this);
+  }
+
+  /* @see RawPlaneReader#getPixelsFile(int) */
+  @Override
+  protected String getPixelsFile(int no) {
+    return pixelsFilename;
+  }
+
+  /* @see RawPlaneReader#getPixelsStream(int) */
+  @Override
+  protected RandomAccessInputStream getPixelsStream(int no) {
+    return pixelFile;
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isThisType(String, boolean) */
@@ -123,22 +142,6 @@ public class AnalyzeReader extends FormatReader {
     return false;
   }
 
-  /**
-   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
-   */
-  @Override
-  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-
-    int planeSize = FormatTools.getPlaneSize(this);
-    pixelFile.seek(pixelOffset + no * planeSize);
-    readPlane(pixelFile, x, y, w, h, buf);
-
-    return buf;
-  }
-
   /* @see loci.formats.IFormatReader#getSeriesUsedFiles(boolean) */
   @Override
   public String[] getSeriesUsedFiles(boolean noPixels) {
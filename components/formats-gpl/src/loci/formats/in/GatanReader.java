@@ -36,7 +36,6 @@ import loci.common.Constants;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -50,7 +49,7 @@ import ome.units.UNITS;
  *
  * @author Melissa Linkert melissa at glencoesoftware.com
  */
-public class GatanReader extends FormatReader {
+public class GatanReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -109,6 +108,14 @@ public class GatanReader extends FormatReader {
     suffixNecessary = false;
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    return pixelOffset;
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isThisType(RandomAccessInputStream) */
@@ -120,20 +127,6 @@ public class GatanReader extends FormatReader {
     return check == DM3_MAGIC_BYTES || check == DM4_MAGIC_BYTES;
   }
 
-  /**
-   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
-   */
-  @Override
-  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-
-    in.seek(pixelOffset);
-    readPlane(in, x, y, w, h, buf);
-    return buf;
-  }
-
   /* @see loci.formats.IFormatReader#close(boolean) */
   @Override
   public void close(boolean fileOnly) throws IOException {
@@ -73,7 +73,7 @@ public class HamamatsuVMSReader extends FormatReader {
   private String[][][] tileFiles;
   private String[] jpeg;
 
-  private JPEGTurboService service;
+  private transient JPEGTurboService service;
   private HashMap<String, long[]> restartMarkers =
     new HashMap<String, long[]>();
 
@@ -152,7 +152,7 @@ public class HamamatsuVMSReader extends FormatReader {
         }
         // closing the service will close this file
         RandomAccessInputStream s = new RandomAccessInputStream(file);
-        service.initialize(s, getSizeX(), getSizeY());
+        service.initialize(file, s, getSizeX(), getSizeY());
         restartMarkers.put(file, service.getRestartMarkers());
 
         initializedSeries = getCoreIndex();
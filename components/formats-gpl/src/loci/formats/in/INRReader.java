@@ -30,7 +30,6 @@ import java.io.IOException;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -41,7 +40,7 @@ import ome.units.quantity.Length;
 /**
  * INRReader is the file format reader for INR files.
  */
-public class INRReader extends FormatReader {
+public class INRReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -56,6 +55,14 @@ public class INRReader extends FormatReader {
     domains = new String[] {FormatTools.UNKNOWN_DOMAIN};
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    return HEADER_SIZE + (long) no * FormatTools.getPlaneSize(this);
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isThisType(RandomAccessInputStream) */
@@ -66,21 +73,6 @@ public class INRReader extends FormatReader {
     return (stream.readString(blockLen)).indexOf(INR_MAGIC) == 0;
   }
 
-  /**
-   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
-   */
-  @Override
-  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-
-    long planeSize = (long) FormatTools.getPlaneSize(this);
-    in.seek(HEADER_SIZE + no * planeSize);
-    readPlane(in, x, y, w, h, buf);
-    return buf;
-  }
-
   // -- Internal FormatReader API methods --
 
   /* @see loci.formats.FormatReader#initFile(String) */
@@ -25,8 +25,8 @@
 
 package loci.formats.in;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.ArrayList;
@@ -38,7 +38,6 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.StringTokenizer;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -68,13 +67,17 @@ import ome.units.quantity.Length;
 import ome.units.quantity.Time;
 import ome.units.UNITS;
 
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -418,8 +421,11 @@ public class LIFReader extends FormatReader {
     }
 
     // number of Unicode characters in the XML block
-    int nc = in.readInt();
-    String xml = DataTools.stripString(in.readString(nc * 2));
+    // the XML is parsed directly from the file once the blocks are found
+    long nc = in.readInt();
+    long xmlOffset = in.getFilePointer();
+    long xmlLength = Math.min(nc * 2, in.length() - xmlOffset);
+    in.seek(xmlOffset + xmlLength);
 
     LOGGER.info("Finding image offsets");
 
@@ -463,8 +469,7 @@ public class LIFReader extends FormatReader {
 
       in.seek(in.getFilePointer() + descrLength + blockLength);
     }
-    initMetadata(xml);
-    xml = null;
+    initMetadata(xmlOffset, xmlLength);
 
     if (endPointer == 0) {
       endPointer = in.length();
@@ -496,8 +501,10 @@ public class LIFReader extends FormatReader {
 
   // -- Helper methods --
 
-  /** Parses a string of XML and puts the values in a Hashtable. */
-  private void initMetadata(String xml) throws FormatException, IOException {
+  /** Parses the XML description stored at the given offset. */
+  private void initMetadata(long xmlOffset, long xmlLength)
+    throws FormatException, IOException
+  {
     try {
       ServiceFactory factory = new ServiceFactory();
       OMEXMLService service = factory.getInstance(OMEXMLService.class);
@@ -511,15 +518,7 @@ public class LIFReader extends FormatReader {
     }
     MetadataStore store = makeFilterMetadata();
 
-    // the XML blocks stored in a LIF file are invalid,
-    // because they don't have a root node
-
-    xml = "<?xml version=\"1.0\" encoding=\""+ENCODING+"\"?><LEICA>" + xml +
-      "</LEICA>";
-
-    xml = XMLTools.sanitizeXML(xml);
-
-    translateMetadata(getMetadataRoot(xml));
+    translateMetadata(xmlOffset, xmlLength);
 
     for (int i=0; i<imageNames.length; i++) {
       setSeries(i);
@@ -976,141 +975,103 @@ public class LIFReader extends FormatReader {
     }
   }
 
-  private Element getMetadataRoot(String xml)
+  /**
+   * Parses the XML description with the given handler.  The description
+   * is streamed from the file, so it is never held in memory as a whole.
+   */
+  private void parseDescription(long xmlOffset, long xmlLength,
+    DefaultHandler handler)
     throws FormatException, IOException
   {
-    ByteArrayInputStream s = null;
+    InputStream s = new DescriptionStream(in, xmlOffset, xmlLength);
     try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder parser = factory.newDocumentBuilder();
-      s = new ByteArrayInputStream(xml.getBytes(ENCODING));
-      return parser.parse(s).getDocumentElement();
-    }
-    catch (ParserConfigurationException e) {
-      throw new FormatException(e);
+      XMLTools.parseXML(s, handler);
     }
-    catch (SAXException e) {
-      throw new FormatException(e);
-    } finally {
-        if (s != null) s.close();
+    catch (IOException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SAXException) {
+        Exception wrapped = ((SAXException) cause).getException();
+        if (wrapped instanceof FormatException) {
+          throw (FormatException) wrapped;
+        }
+        throw new FormatException(cause);
+      }
+      throw e;
     }
   }
 
-  private void translateMetadata(Element root) throws FormatException {
-    Element realRoot = (Element) root.getChildNodes().item(0);
+  private void translateMetadata(long xmlOffset, long xmlLength)
+    throws FormatException, IOException
+  {
+    // the first pass only counts the images and finds their memory blocks
 
-    NodeList toPrune = getNodes(realRoot, "LDM_Block_Sequential_Master");
-    if (toPrune != null) {
-      for (int i=0; i<toPrune.getLength(); i++) {
-        Element prune = (Element) toPrune.item(i);
-        Element parent = (Element) prune.getParentNode();
-        parent.removeChild(prune);
-      }
-    }
+    ImageHandler counter = new ImageHandler(null);
+    parseDescription(xmlOffset, xmlLength, counter);
 
-    NodeList images = getNodes(realRoot, "Image");
-    List<Element> imageNodes = new ArrayList<Element>();
-    Long[] oldOffsets = null;
-    if (images.getLength() > offsets.size()) {
-      oldOffsets = offsets.toArray(new Long[offsets.size()]);
+    List<Integer> imageBlocks = counter.getImageBlocks();
+    if (counter.getImageCount() > offsets.size()) {
+      Long[] oldOffsets = offsets.toArray(new Long[offsets.size()]);
       offsets.clear();
-    }
-
-    int nextOffset = 0;
-    for (int i=0; i<images.getLength(); i++) {
-      Element image = (Element) images.item(i);
-      Element grandparent = (Element) image.getParentNode();
-      if (grandparent == null) {
-        continue;
-      }
-      grandparent = (Element) grandparent.getParentNode();
-      if (grandparent == null) {
-        continue;
-      }
-      if (!"ProcessingHistory".equals(grandparent.getNodeName())) {
-        // image is being referenced from an event list
-        imageNodes.add(image);
-        if (oldOffsets != null && nextOffset < oldOffsets.length) {
-          offsets.add(oldOffsets[nextOffset]);
-        }
-      }
-      grandparent = (Element) grandparent.getParentNode();
-      if (grandparent == null) {
-        continue;
-      }
-      grandparent = (Element) grandparent.getParentNode();
-      if (grandparent != null) {
-        if (!"Image".equals(grandparent.getNodeName())) {
-          nextOffset++;
+      for (Integer block : imageBlocks) {
+        if (block < oldOffsets.length) {
+          offsets.add(oldOffsets[block]);
         }
       }
     }
 
-    tileCount = new int[imageNodes.size()];
+    int imageCount = imageBlocks.size();
+    tileCount = new int[imageCount];
     Arrays.fill(tileCount, 1);
-    core = new ArrayList<CoreMetadata>(imageNodes.size());
-    acquiredDate = new double[imageNodes.size()];
-    descriptions = new String[imageNodes.size()];
-    laserWavelength = new List[imageNodes.size()];
-    laserIntensity = new List[imageNodes.size()];
-    laserActive = new List[imageNodes.size()];
-    laserFrap = new List[imageNodes.size()];
-    timestamps = new double[imageNodes.size()][];
-    activeDetector = new List[imageNodes.size()];
-    serialNumber = new String[imageNodes.size()];
-    lensNA = new Double[imageNodes.size()];
-    magnification = new Double[imageNodes.size()];
-    immersions = new String[imageNodes.size()];
-    corrections = new String[imageNodes.size()];
-    objectiveModels = new String[imageNodes.size()];
-    posX = new Length[imageNodes.size()];
-    posY = new Length[imageNodes.size()];
-    posZ = new Length[imageNodes.size()];
-    refractiveIndex = new Double[imageNodes.size()];
-    cutIns = new List[imageNodes.size()];
-    cutOuts = new List[imageNodes.size()];
-    filterModels = new List[imageNodes.size()];
-    microscopeModels = new String[imageNodes.size()];
-    detectorModels = new List[imageNodes.size()];
-    detectorIndexes = new HashMap[imageNodes.size()];
-    zSteps = new Double[imageNodes.size()];
-    tSteps = new Double[imageNodes.size()];
-    pinholes = new Double[imageNodes.size()];
-    zooms = new Double[imageNodes.size()];
-
-    expTimes = new Double[imageNodes.size()][];
-    gains = new Double[imageNodes.size()][];
-    detectorOffsets = new Double[imageNodes.size()][];
-    channelNames = new String[imageNodes.size()][];
-    exWaves = new Double[imageNodes.size()][];
-    imageROIs = new ROI[imageNodes.size()][];
-    imageNames = new String[imageNodes.size()];
-
-    core.clear();
-    for (int i=0; i<imageNodes.size(); i++) {
-      Element image = imageNodes.get(i);
-
-      CoreMetadata ms = new CoreMetadata();
-      core.add(ms);
-
-      int index = core.size() - 1;
-      setSeries(index);
-
-      translateImageNames(image, index);
-      translateImageNodes(image, index);
-      translateAttachmentNodes(image, index);
-      translateScannerSettings(image, index);
-      translateFilterSettings(image, index);
-      translateTimestamps(image, index);
-      translateLaserLines(image, index);
-      translateROIs(image, index);
-      translateSingleROIs(image, index);
-      translateDetectors(image, index);
-
-      final Deque<String> nameStack = new ArrayDeque<String>();
-      populateOriginalMetadata(image, nameStack);
-      addUserCommentMeta(image, i);
+    core = new ArrayList<CoreMetadata>(imageCount);
+    acquiredDate = new double[imageCount];
+    descriptions = new String[imageCount];
+    laserWavelength = new List[imageCount];
+    laserIntensity = new List[imageCount];
+    laserActive = new List[imageCount];
+    laserFrap = new List[imageCount];
+    timestamps = new double[imageCount][];
+    activeDetector = new List[imageCount];
+    serialNumber = new String[imageCount];
+    lensNA = new Double[imageCount];
+    magnification = new Double[imageCount];
+    immersions = new String[imageCount];
+    corrections = new String[imageCount];
+    objectiveModels = new String[imageCount];
+    posX = new Length[imageCount];
+    posY = new Length[imageCount];
+    posZ = new Length[imageCount];
+    refractiveIndex = new Double[imageCount];
+    cutIns = new List[imageCount];
+    cutOuts = new List[imageCount];
+    filterModels = new List[imageCount];
+    microscopeModels = new String[imageCount];
+    detectorModels = new List[imageCount];
+    detectorIndexes = new HashMap[imageCount];
+    zSteps = new Double[imageCount];
+    tSteps = new Double[imageCount];
+    pinholes = new Double[imageCount];
+    zooms = new Double[imageCount];
+
+    expTimes = new Double[imageCount][];
+    gains = new Double[imageCount][];
+    detectorOffsets = new Double[imageCount][];
+    channelNames = new String[imageCount][];
+    exWaves = new Double[imageCount][];
+    imageROIs = new ROI[imageCount][];
+    imageNames = new String[imageCount];
+
+    // the second pass builds and translates one image subtree at a time
+
+    Document document = null;
+    try {
+      document =
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+    catch (ParserConfigurationException e) {
+      throw new FormatException(e);
     }
+    core.clear();
+    parseDescription(xmlOffset, xmlLength, new ImageHandler(document));
     setSeries(0);
 
     int totalSeries = 0;
@@ -1126,6 +1087,31 @@ public class LIFReader extends FormatReader {
     core = newCore;
   }
 
+  private void translateImage(Element image) throws FormatException {
+    CoreMetadata ms = new CoreMetadata();
+    core.add(ms);
+
+    int index = core.size() - 1;
+    setSeries(index);
+
+    translateImageNames(image, index);
+    translateImageNodes(image, index);
+    translateAttachmentNodes(image, index);
+    translateScannerSettings(image, index);
+    translateFilterSettings(image, index);
+    translateTimestamps(image, index);
+    translateLaserLines(image, index);
+    translateROIs(image, index);
+    translateSingleROIs(image, index);
+    translateDetectors(image, index);
+
+    if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
+      final Deque<String> nameStack = new ArrayDeque<String>();
+      populateOriginalMetadata(image, nameStack);
+    }
+    addUserCommentMeta(image, index);
+  }
+
   private void populateOriginalMetadata(Element root, Deque<String> nameStack) {
     String name = root.getNodeName();
     if (root.hasAttributes() && !name.equals("Element") &&
@@ -2090,7 +2076,237 @@ public class LIFReader extends FormatReader {
     return channel - 1;
   }
 
-  // -- Helper class --
+  // -- Helper classes --
+
+  /**
+   * SAX handler for the XML description.  Without a document, it only
+   * counts the Image nodes and records which memory block each series
+   * uses.  With a document, it builds each series' Image subtree, passes
+   * it to {@link #translateImage(Element)}, and then discards it; only the
+   * ancestors of the current element are kept otherwise.
+   */
+  class ImageHandler extends DefaultHandler {
+    private final Document document;
+
+    /** Names of the open elements, starting with the root node. */
+    private final List<String> names = new ArrayList<String>();
+
+    /** Whether each open element is a series' Image node. */
+    private final List<Boolean> seriesImages = new ArrayList<Boolean>();
+
+    private Element current;
+    private final List<Element> pendingImages = new ArrayList<Element>();
+    private int openImages = 0;
+    private int pruneDepth = 0;
+    private int topLevelCount = 0;
+
+    private int imageCount = 0;
+    private int nextBlock = 0;
+    private final List<Integer> imageBlocks = new ArrayList<Integer>();
+
+    public ImageHandler(Document document) {
+      this.document = document;
+    }
+
+    /** Get the total number of Image nodes, including processed images. */
+    public int getImageCount() {
+      return imageCount;
+    }
+
+    /** Get the index of the memory block used by each series. */
+    public List<Integer> getImageBlocks() {
+      return imageBlocks;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+      Attributes attributes)
+    {
+      if (pruneDepth > 0) {
+        pruneDepth++;
+        return;
+      }
+      int depth = names.size();
+      if (depth == 1 && ++topLevelCount > 1) {
+        // only the first child of the root node is used
+        pruneDepth = 1;
+        return;
+      }
+      if (qName.equals("LDM_Block_Sequential_Master")) {
+        pruneDepth = 1;
+        return;
+      }
+
+      boolean seriesImage = false;
+      if (qName.equals("Image") && depth >= 2) {
+        // images under a ProcessingHistory node do not have pixel data
+        imageCount++;
+        if (!"ProcessingHistory".equals(names.get(depth - 2))) {
+          seriesImage = true;
+          imageBlocks.add(nextBlock);
+        }
+        if (depth >= 4 && !"Image".equals(names.get(depth - 4))) {
+          nextBlock++;
+        }
+      }
+      names.add(qName);
+      seriesImages.add(seriesImage);
+
+      if (document != null) {
+        Element element = document.createElement(qName);
+        for (int i=0; i<attributes.getLength(); i++) {
+          element.setAttribute(attributes.getQName(i), attributes.getValue(i));
+        }
+        if (current == null) {
+          document.appendChild(element);
+        }
+        else {
+          current.appendChild(element);
+        }
+        current = element;
+        if (seriesImage) {
+          pendingImages.add(element);
+          openImages++;
+        }
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+      throws SAXException
+    {
+      if (pruneDepth > 0) {
+        pruneDepth--;
+        return;
+      }
+      names.remove(names.size() - 1);
+      boolean seriesImage = seriesImages.remove(seriesImages.size() - 1);
+
+      if (document != null) {
+        Element element = current;
+        Node parent = element.getParentNode();
+        current = parent instanceof Element ? (Element) parent : null;
+
+        if (seriesImage && --openImages == 0) {
+          // translate every series in this subtree, in document order
+          try {
+            for (Element image : pendingImages) {
+              translateImage(image);
+            }
+          }
+          catch (FormatException e) {
+            throw new SAXException(e);
+          }
+          pendingImages.clear();
+        }
+        if (openImages == 0 && current != null) {
+          current.removeChild(element);
+        }
+      }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (document == null || pruneDepth > 0 || openImages == 0) {
+        return;
+      }
+      Node last = current.getLastChild();
+      if (last instanceof Text) {
+        ((Text) last).appendData(new String(ch, start, length));
+      }
+      else {
+        current.appendChild(document.createTextNode(
+          new String(ch, start, length)));
+      }
+    }
+  }
+
+  /**
+   * Streams the XML description as ISO-8859-1 bytes.  The description is
+   * stored as UTF-16 and has no root node, so null bytes are dropped and
+   * a root node is added.  Invalid characters are replaced in the same
+   * way as {@link XMLTools#sanitizeXML(String)}.
+   */
+  static class DescriptionStream extends InputStream {
+    private static final byte[] PREFIX = ("<?xml version=\"1.0\" encoding=\"" +
+      ENCODING + "\"?><LEICA>").getBytes();
+    private static final byte[] SUFFIX = "</LEICA>".getBytes();
+
+    private final RandomAccessInputStream stream;
+    private long remaining;
+    private final byte[] buffer = new byte[8192];
+    private int bufferLength = 0, bufferPos = 0;
+    private int prefixPos = 0, suffixPos = 0;
+    private boolean started = false;
+    private int pending = -1;
+
+    public DescriptionStream(RandomAccessInputStream stream, long offset,
+      long length)
+      throws IOException
+    {
+      this.stream = stream;
+      stream.seek(offset);
+      remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (prefixPos < PREFIX.length) {
+        return PREFIX[prefixPos++] & 0xff;
+      }
+      if (!started) {
+        pending = nextChar();
+        started = true;
+      }
+      if (pending >= 0) {
+        int next = nextChar();
+        // eliminate invalid &# sequences
+        if (pending == '&' && next == '#') {
+          pending = ' ';
+        }
+        int c = pending;
+        pending = next;
+        return c;
+      }
+      if (suffixPos < SUFFIX.length) {
+        return SUFFIX[suffixPos++] & 0xff;
+      }
+      return -1;
+    }
+
+    /** The underlying stream is owned by the reader, so is not closed. */
+    @Override
+    public void close() {
+    }
+
+    private int nextChar() throws IOException {
+      while (true) {
+        if (bufferPos == bufferLength) {
+          if (remaining <= 0) {
+            return -1;
+          }
+          int n = stream.read(buffer, 0, (int) Math.min(buffer.length,
+            remaining));
+          if (n <= 0) {
+            return -1;
+          }
+          remaining -= n;
+          bufferLength = n;
+          bufferPos = 0;
+        }
+        int c = buffer[bufferPos++] & 0xff;
+        if (c == 0) {
+          continue;
+        }
+        if ((c < 0x20 && c != '\n' && c != '\t' && c != '\r') ||
+          (c >= 0x7f && c <= 0x9f))
+        {
+          c = ' ';
+        }
+        return c;
+      }
+    }
+  }
 
   class ROI {
     // -- Constants --
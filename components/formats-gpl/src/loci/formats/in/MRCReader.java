@@ -32,7 +32,6 @@ import loci.common.Constants;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -44,7 +43,7 @@ import ome.units.quantity.Length;
  * Specifications available at
  * http://bio3d.colorado.edu/imod/doc/mrc_format.txt
  */
-public class MRCReader extends FormatReader {
+public class MRCReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -77,6 +76,24 @@ public class MRCReader extends FormatReader {
     suffixSufficient = false;
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    long planeSize = FormatTools.getPlaneSize(this);
+    return HEADER_SIZE + extHeaderSize + no * planeSize;
+  }
+
+  /**
+   * Planes are stored with the origin in the lower-left corner.
+   * @see RawPlaneReader#isBottomUp()
+   */
+  @Override
+  protected boolean isBottomUp() {
+    return true;
+  }
+
   // -- IFormatReader API methods --
 
   /** @see loci.formats.IFormatReader#isThisType(RandomAccessInputStream) */
@@ -94,23 +111,10 @@ public class MRCReader extends FormatReader {
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
 
+    long offset = getPlaneOffset(no);
     long planeSize = FormatTools.getPlaneSize(this);
-    long offset = HEADER_SIZE + extHeaderSize + no * planeSize;
-
     if (offset + planeSize <= in.length() && offset >= 0) {
-      in.seek(offset);
-      readPlane(in, x, getSizeY() - h - y, w, h, buf);
-
-      // reverse the order of the rows
-      // planes are stored with the origin in the lower-left corner
-      byte[] tmp = new byte[w * FormatTools.getBytesPerPixel(getPixelType())];
-      for (int row=0; row<h/2; row++) {
-        int src = row * tmp.length;
-        int dest = (h - row - 1) * tmp.length;
-        System.arraycopy(buf, src, tmp, 0, tmp.length);
-        System.arraycopy(buf, dest, buf, src, tmp.length);
-        System.arraycopy(tmp, 0, buf, dest, tmp.length);
-      }
+      readRawPlane(no, buf, x, y, w, h);
     }
 
     return buf;
@@ -68,7 +68,7 @@ public class NDPIReader extends BaseTiffReader {
   private int sizeZ = 1;
   private int pyramidHeight = 1;
 
-  private JPEGTurboService service = new JPEGTurboServiceImpl();
+  private transient JPEGTurboService service;
 
   private Double magnification;
   private String serialNumber;
@@ -171,6 +171,9 @@ public class NDPIReader extends BaseTiffReader {
       in.setLength(offset + byteCount);
 
       try {
+        if (service == null) {
+          service = new JPEGTurboServiceImpl();
+        }
         service.close();
         long[] markers = ifd.getIFDLongArray(MARKER_TAG);
         if (!use64Bit) {
@@ -181,7 +184,7 @@ public class NDPIReader extends BaseTiffReader {
         if (markers != null) {
           service.setRestartMarkers(markers);
         }
-        service.initialize(in, getSizeX(), getSizeY());
+        service.initialize(currentId, in, getSizeX(), getSizeY());
       }
       catch (ServiceException e) {
         throw new FormatException(e);
@@ -247,7 +250,9 @@ public class NDPIReader extends BaseTiffReader {
   @Override
   public void close(boolean fileOnly) throws IOException {
     if (!fileOnly) {
-      service.close();
+      if (service != null) {
+        service.close();
+      }
       initializedSeries = -1;
       initializedPlane = -1;
       sizeZ = 1;
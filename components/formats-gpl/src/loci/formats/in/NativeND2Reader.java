@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.TreeSet;
 
 import loci.common.ByteArrayHandle;
 import loci.common.Constants;
@@ -78,6 +79,17 @@ public class NativeND2Reader extends FormatReader {
   public static final long ND2_MAGIC_BYTES_2 = 0x6a502020L;
   private static final int BUFFER_SIZE = 32 * 1024;
 
+  /** Little-endian value of the signature that precedes each block. */
+  private static final int CHUNK_MAGIC = 0x0abeceda;
+
+  /** Name of the final entry in the chunk map, also stored at end of file. */
+  private static final String CHUNK_MAP_SIGNATURE =
+    "ND2 CHUNK MAP SIGNATURE 0000001!";
+
+  /** Name of the block that holds the chunk map. */
+  private static final String FILEMAP_SIGNATURE =
+    "ND2 FILEMAP SIGNATURE NAME 0001!";
+
   // -- Fields --
 
   /** Array of image offsets. */
@@ -274,9 +286,12 @@ public class NativeND2Reader extends FormatReader {
       t = null;
     }
     else if (split && (getSizeC() <= 4 || scanlinePad == 0) && nXFields == 1) {
-      byte[] pix = new byte[(getSizeX() + scanlinePad) * getSizeY() * pixel];
+      // only read the rows that intersect the requested region
+      int rowLength = (getSizeX() + scanlinePad) * pixel;
+      in.skipBytes(rowLength * y);
+      byte[] pix = new byte[rowLength * h];
       in.read(pix);
-      copyPixels(x, y, w, h, bpp, scanlinePad, pix, buf, split);
+      copyPixels(x, 0, w, h, bpp, scanlinePad, pix, buf, split);
       pix = null;
     }
     else if (split) {
@@ -351,12 +366,22 @@ public class NativeND2Reader extends FormatReader {
 
     if (in.read() == -38 && in.read() == -50) {
       // newer version of ND2 - doesn't use JPEG2000
-      LOGGER.info("Searching for blocks");
-
       isJPEG = false;
       in.seek(0);
       in.order(true);
 
+      // the chunk map at the end of the file lists every block, so there
+      // is no need to scan the pixel data for block signatures
+      long[] chunkOffsets = readChunkMap();
+      int nextChunk = 0;
+      if (chunkOffsets == null) {
+        LOGGER.info("Searching for blocks");
+      }
+      else {
+        LOGGER.info("Reading {} blocks from chunk map", chunkOffsets.length);
+      }
+      in.seek(0);
+
       // assemble offsets to each block
 
       ArrayList<String> imageNames = new ArrayList<String>();
@@ -381,11 +406,30 @@ public class NativeND2Reader extends FormatReader {
       // search for blocks
       byte[] sigBytes = {-38, -50, -66, 10}; // 0xDACEBE0A
       byte[] buf = new byte[BUFFER_SIZE];
-      while (in.getFilePointer() < in.length() - 1 && in.getFilePointer() >= 0)
+      while (chunkOffsets != null ? nextChunk < chunkOffsets.length :
+        in.getFilePointer() < in.length() - 1 && in.getFilePointer() >= 0)
       {
         int foundIndex = -1;
-        in.read(buf, 0, sigBytes.length);
-        while (foundIndex == -1 && in.getFilePointer() < in.length()) {
+        if (chunkOffsets != null) {
+          long chunkOffset = chunkOffsets[nextChunk++];
+          in.seek(chunkOffset);
+          if (in.readInt() == CHUNK_MAGIC) {
+            foundIndex = 0;
+          }
+          else {
+            // the chunk map is damaged, so scan the rest of the file
+            LOGGER.debug("Invalid chunk map entry at {}", chunkOffset);
+            LOGGER.info("Searching for blocks");
+            chunkOffsets = null;
+            in.seek(chunkOffset);
+          }
+        }
+        if (chunkOffsets == null) {
+          in.read(buf, 0, sigBytes.length);
+        }
+        while (chunkOffsets == null && foundIndex == -1 &&
+          in.getFilePointer() < in.length())
+        {
           int n = in.read(buf, sigBytes.length, buf.length - sigBytes.length);
           for (int i=0; i<buf.length-sigBytes.length; i++) {
             for (int j=0; j<sigBytes.length; j++) {
@@ -736,7 +780,9 @@ public class NativeND2Reader extends FormatReader {
             }
           }
         }
-        if (skip > 0 && skip + in.getFilePointer() <= in.length()) {
+        if (chunkOffsets == null && skip > 0 &&
+          skip + in.getFilePointer() <= in.length())
+        {
           in.skipBytes(skip);
         }
       }
@@ -2085,6 +2131,75 @@ public class NativeND2Reader extends FormatReader {
     handler.populateROIs(store);
   }
 
+  /**
+   * Reads the chunk map stored at the end of newer ND2 files.
+   *
+   * @return the sorted offsets of every block listed in the chunk map,
+   *   or null if the chunk map is missing or damaged
+   */
+  private long[] readChunkMap() throws IOException {
+    long length = in.length();
+    if (length < 56) {
+      return null;
+    }
+    in.seek(length - 40);
+    if (!CHUNK_MAP_SIGNATURE.equals(in.readString(32))) {
+      return null;
+    }
+    long mapOffset = in.readLong();
+    if (mapOffset <= 0 || mapOffset > length - 56) {
+      return null;
+    }
+    in.seek(mapOffset);
+    if (in.readInt() != CHUNK_MAGIC) {
+      return null;
+    }
+    int nameLength = in.readInt();
+    long dataLength = in.readLong();
+    if (nameLength < FILEMAP_SIGNATURE.length() || dataLength < 0 ||
+      mapOffset + 16 + nameLength + dataLength > length)
+    {
+      return null;
+    }
+    if (!in.readString(nameLength).startsWith(FILEMAP_SIGNATURE)) {
+      return null;
+    }
+
+    // the file header block is not listed, but is counted by the scan
+    TreeSet<Long> chunkOffsets = new TreeSet<Long>();
+    chunkOffsets.add(0L);
+
+    long end = in.getFilePointer() + dataLength;
+    StringBuilder name = new StringBuilder();
+    while (in.getFilePointer() < end) {
+      name.setLength(0);
+      char c = (char) in.readByte();
+      while (c != '!' && name.length() < 256) {
+        name.append(c);
+        c = (char) in.readByte();
+      }
+      if (c != '!') {
+        return null;
+      }
+      name.append(c);
+      if (name.toString().equals(CHUNK_MAP_SIGNATURE)) {
+        long[] offsets = new long[chunkOffsets.size()];
+        int index = 0;
+        for (Long offset : chunkOffsets) {
+          offsets[index++] = offset;
+        }
+        return offsets;
+      }
+      long offset = in.readLong();
+      in.skipBytes(8);
+      if (offset < 0 || offset > length - 16) {
+        return null;
+      }
+      chunkOffsets.add(offset);
+    }
+    return null;
+  }
+
   private Codec createCodec(boolean isJPEG) {
     return isJPEG ? new JPEG2000Codec() : new ZlibCodec();
   }
@@ -31,7 +31,6 @@ import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
-import loci.formats.FormatReader;
 import loci.formats.FormatTools;
 import loci.formats.MetadataTools;
 import loci.formats.meta.MetadataStore;
@@ -42,7 +41,7 @@ import ome.units.quantity.Length;
 /**
  * SpiderReader is the file format reader for SPIDER files.
  */
-public class SpiderReader extends FormatReader {
+public class SpiderReader extends RawPlaneReader {
 
   // -- Constants --
 
@@ -63,6 +62,18 @@ public class SpiderReader extends FormatReader {
     suffixNecessary = false;
   }
 
+  // -- RawPlaneReader API methods --
+
+  /* @see RawPlaneReader#getPlaneOffset(int) */
+  @Override
+  protected long getPlaneOffset(int no) {
+    long header = headerSize;
+    if (oneHeaderPerSlice) {
+      header += (long) (no + 1) * headerSize;
+    }
+    return header + (long) no * FormatTools.getPlaneSize(this);
+  }
+
   // -- IFormatReader API methods --
 
   /**
@@ -87,26 +98,6 @@ public class SpiderReader extends FormatReader {
     return size + headerSize == stream.length();
   }
 
-  /**
-   * @see loci.formats.IFormatReader#openBytes(int, byte[], int, int, int, int)
-   */
-  @Override
-  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
-    throws FormatException, IOException
-  {
-    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-
-    long header = headerSize;
-    if (oneHeaderPerSlice) {
-      header += (no + 1) * headerSize;
-    }
-
-    in.seek(header + no * FormatTools.getPlaneSize(this));
-    readPlane(in, x, y, w, h, buf);
-
-    return buf;
-  }
-
   /* @see loci.formats.IFormatReader#close(boolean) */
   @Override
   public void close(boolean fileOnly) throws IOException {
@@ -31,9 +31,16 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.parsers.DocumentBuilder;
 
 import loci.common.ByteArrayHandle;
@@ -91,6 +98,12 @@ public class ZeissCZIReader extends FormatReader {
   private static final String CZI_MAGIC_STRING = "ZISRAWFILE";
   private static final int BUFFER_SIZE = 512;
 
+  /**
+   * Default maximum number of bytes of decoded SubBlock pixel data retained
+   * by all readers together.
+   */
+  public static final long DEFAULT_DECODED_CACHE_LIMIT = 64 * 1024 * 1024;
+
   /** Compression constants. */
   private static final int UNCOMPRESSED = 0;
   private static final int JPEG = 1;
@@ -110,6 +123,14 @@ public class ZeissCZIReader extends FormatReader {
   private static final int GRAY32 = 12;
   private static final int GRAY_DOUBLE = 13;
 
+  // -- Static fields --
+
+  /** Maximum number of bytes of decoded pixel data shared by all readers. */
+  private static long decodedCacheLimit = DEFAULT_DECODED_CACHE_LIMIT;
+
+  /** Number of bytes of decoded pixel data held by all readers. */
+  private static long decodedCacheBytes = 0;
+
   // -- Fields --
 
   private MetadataStore store;
@@ -118,8 +139,13 @@ public class ZeissCZIReader extends FormatReader {
 
   private ArrayList<Segment> segments;
   private ArrayList<SubBlock> planes;
-  private HashMap<Coordinate, ArrayList<Integer>> indexIntoPlanes =
-    new HashMap<Coordinate, ArrayList<Integer>>();
+  private SubBlockIndex blockIndex;
+
+  /**
+   * Recently decoded compressed SubBlocks, in access order, so that
+   * adjacent tile requests do not decompress the same block again.
+   */
+  private transient LinkedHashMap<SubBlock, byte[]> decodedBlocks;
   private int rotations = 1;
   private int positions = 1;
   private int illuminations = 1;
@@ -171,6 +197,36 @@ public class ZeissCZIReader extends FormatReader {
     suffixNecessary = false;
   }
 
+  // -- ZeissCZIReader API methods --
+
+  /**
+   * Sets the maximum number of bytes of decoded SubBlock pixel data that all
+   * readers together may retain. A limit of 0 disables caching. A lower
+   * limit is enforced as readers next decode a SubBlock.
+   */
+  public static synchronized void setDecodedCacheLimit(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Invalid cache limit: " + bytes);
+    }
+    decodedCacheLimit = bytes;
+  }
+
+  /**
+   * Returns the maximum number of bytes of decoded SubBlock pixel data that
+   * all readers together may retain.
+   */
+  public static synchronized long getDecodedCacheLimit() {
+    return decodedCacheLimit;
+  }
+
+  /**
+   * Returns the number of bytes of decoded SubBlock pixel data currently
+   * retained by all readers.
+   */
+  public static synchronized long getDecodedCacheBytes() {
+    return decodedCacheBytes;
+  }
+
   // -- IFormatReader API methods --
 
   /**
@@ -311,14 +367,25 @@ public class ZeissCZIReader extends FormatReader {
       validScanDim = false;
     }
 
+    boolean stitched = prestitched != null && prestitched;
+
+    // line scans may pull rows from any series, so must check every block;
+    // otherwise only the blocks recorded for this plane need to be visited
+    int[] blocks = null;
+    if (!validScanDim) {
+      blocks = blockIndex.getBlocks(currentSeries, no, stitched ? image : null);
+    }
+    int blockCount = blocks == null ? planes.size() : blocks.length;
+
     Arrays.fill(buf, (byte) 0);
     RandomAccessInputStream stream = new RandomAccessInputStream(currentId);
     try {
-      for (SubBlock plane : planes) {
+      for (int block=0; block<blockCount; block++) {
+        SubBlock plane = planes.get(blocks == null ? block : blocks[block]);
         if ((plane.seriesIndex == currentSeries && plane.planeIndex == no) ||
           (plane.planeIndex == previousChannel && validScanDim))
         {
-          if ((prestitched != null && prestitched) || validScanDim) {
+          if (stitched || validScanDim) {
             int realX = plane.x;
             int realY = plane.y;
 
@@ -327,13 +394,12 @@ public class ZeissCZIReader extends FormatReader {
               tile.y += (no / getSizeC());
               image.height = scanDim;
             }
-            if (prestitched != null && prestitched && realX == getSizeX() && realY == getSizeY()) {
+            if (stitched && realX == getSizeX() && realY == getSizeY()) {
               tile.x = 0;
               tile.y = 0;
             }
 
             if (tile.intersects(image)) {
-              byte[] rawData = new SubBlock(plane).readPixelData();
               Region intersection = tile.intersection(image);
               int intersectionX = 0;
 
@@ -349,26 +415,65 @@ public class ZeissCZIReader extends FormatReader {
 
               int rowLen = pixel * (int) Math.min(intersection.width, realX);
               int outputOffset = outputRow * outputRowLen + outputCol;
-              for (int trow=0; trow<intersection.height; trow++) {
-                int realRow = trow + intersection.y - tile.y;
-                if (validScanDim) {
-                  realRow += tile.y;
+              int firstRow = intersection.y - tile.y;
+              if (validScanDim) {
+                firstRow += tile.y;
+              }
+              long inputOffset = (long) pixel * (firstRow * realX + intersectionX);
+
+              if (plane.directoryEntry.compression == UNCOMPRESSED) {
+                // copy only the overlapping rows, straight from the file
+                RandomAccessInputStream s = plane.filename.equals(currentId) ?
+                  stream : new RandomAccessInputStream(plane.filename);
+                try {
+                  readRows(s, plane.dataOffset + inputOffset, realX * pixel,
+                    rowLen, intersection.height, buf, outputOffset,
+                    outputRowLen);
+                }
+                finally {
+                  if (s != stream) {
+                    s.close();
+                  }
+                }
+              }
+              else {
+                byte[] rawData = readDecodedBlock(plane, stream);
+                if (!isDecodedSizeValid(plane, rawData, bpp)) {
+                  continue;
+                }
+                for (int trow=0; trow<intersection.height; trow++) {
+                  System.arraycopy(rawData, (int) inputOffset,
+                    buf, outputOffset, rowLen);
+                  inputOffset += realX * pixel;
+                  outputOffset += outputRowLen;
                 }
-                int inputOffset = pixel * (realRow * realX + intersectionX);
-                System.arraycopy(
-                  rawData, inputOffset, buf, outputOffset, rowLen);
-                outputOffset += outputRowLen;
               }
             }
           }
           else {
-            byte[] rawData = new SubBlock(plane).readPixelData();
-            RandomAccessInputStream s = new RandomAccessInputStream(rawData);
+            RandomAccessInputStream s;
+            if (plane.directoryEntry.compression != UNCOMPRESSED) {
+              byte[] rawData = readDecodedBlock(plane, stream);
+              if (!isDecodedSizeValid(plane, rawData, bpp)) {
+                continue;
+              }
+              s = new RandomAccessInputStream(rawData);
+            }
+            else if (plane.filename.equals(currentId)) {
+              s = stream;
+              s.seek(plane.dataOffset);
+            }
+            else {
+              s = new RandomAccessInputStream(plane.filename);
+              s.seek(plane.dataOffset);
+            }
             try {
               readPlane(s, x, y, w, h, buf);
             }
             finally {
-              s.close();
+              if (s != stream) {
+                s.close();
+              }
             }
             break;
           }
@@ -447,8 +552,9 @@ public class ZeissCZIReader extends FormatReader {
       rotationLabels = null;
       illuminationLabels = null;
       phaseLabels = null;
-      indexIntoPlanes.clear();
+      blockIndex = null;
       parser = null;
+      clearDecodedBlocks();
     }
   }
 
@@ -488,8 +594,6 @@ public class ZeissCZIReader extends FormatReader {
     segments = new ArrayList<Segment>();
     planes = new ArrayList<SubBlock>();
 
-    readSegments(id);
-
     // check if we have the master file in a multi-file dataset
     // file names are not stored in the files; we have to rely on a
     // specific naming convention:
@@ -522,9 +626,12 @@ public class ZeissCZIReader extends FormatReader {
 
     Integer[] keys = pixels.keySet().toArray(new Integer[pixels.size()]);
     Arrays.sort(keys);
-    for (Integer key : keys) {
-      readSegments(pixels.get(key));
+    String[] files = new String[keys.length + 1];
+    files[0] = id;
+    for (int i=0; i<keys.length; i++) {
+      files[i + 1] = pixels.get(keys[i]);
     }
+    readSegments(files);
 
     calculateDimensions();
 
@@ -546,35 +653,68 @@ public class ZeissCZIReader extends FormatReader {
     // remove any invalid SubBlocks
 
     int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    ArrayList<SubBlock> validPlanes = new ArrayList<SubBlock>(planes.size());
+    int compressedScanDim = 0;
     for (int i=0; i<planes.size(); i++) {
-      long planeSize = (long) planes.get(i).x * planes.get(i).y * bpp;
-      if (planes.get(i).directoryEntry.compression == UNCOMPRESSED) {
-        long size = planes.get(i).dataSize;
+      SubBlock plane = planes.get(i);
+      if (plane.directoryEntry.compression == JPEGXR) {
+        // no JPEG-XR decoder yet, so the pixel data could not be read
+        throw new UnsupportedCompressionException("JPEG-XR not yet supported");
+      }
+      long planeSize = (long) plane.x * plane.y * bpp;
+      if (plane.directoryEntry.compression == UNCOMPRESSED) {
+        long size = plane.dataSize;
         if (size < planeSize || planeSize >= Integer.MAX_VALUE || size < 0) {
           LOGGER.trace(
             "removing block #{}; calculated size = {}, recorded size = {}",
             i, planeSize, size);
-          planes.remove(i);
-          i--;
+          continue;
         }
-        else {
-          scanDim = (int) (size / planeSize);
+        scanDim = (int) (size / planeSize);
+      }
+      else if (!plane.hasData || planeSize >= Integer.MAX_VALUE) {
+        LOGGER.trace(
+          "removing block #{}; calculated size = {}, recorded size = {}",
+          i, planeSize, plane.dataSize);
+        continue;
+      }
+      else if (compressedScanDim == 0) {
+        // decoding every compressed block would read the whole dataset, so
+        // only the first is decoded, to find the number of scans per block;
+        // the others are checked when they are read.  The number of scans
+        // is not known yet, so the decoded size is only limited by the size
+        // of the whole image, or of the block itself if the whole image is
+        // too large to be decoded at once.
+        long maxBytes =
+          (long) getSizeX() * getSizeY() * getRGBChannelCount() * bpp;
+        if (maxBytes > Integer.MAX_VALUE) {
+          maxBytes = Math.min(planeSize * getRGBChannelCount(),
+            Integer.MAX_VALUE);
+        }
+        long decodedSize;
+        RandomAccessInputStream s =
+          new RandomAccessInputStream(plane.filename);
+        try {
+          decodedSize = plane.readPixelData(s, (int) maxBytes).length;
         }
-      }
-      else {
-        byte[] pixels = planes.get(i).readPixelData();
-        if (pixels.length < planeSize || planeSize >= Integer.MAX_VALUE) {
+        finally {
+          s.close();
+        }
+        if (decodedSize < planeSize) {
           LOGGER.trace(
             "removing block #{}; calculated size = {}, decoded size = {}",
-            i, planeSize, pixels.length);
-          planes.remove(i);
-          i--;
-        }
-        else {
-          scanDim = (int) (pixels.length / planeSize);
+            i, planeSize, decodedSize);
+          continue;
         }
+        compressedScanDim = (int) (decodedSize / planeSize);
+        scanDim = compressedScanDim;
       }
+      else {
+        scanDim = compressedScanDim;
+      }
+      validPlanes.add(plane);
     }
+    planes = validPlanes;
 
     if (getSizeZ() == 0) {
       ms0.sizeZ = 1;
@@ -750,16 +890,7 @@ public class ZeissCZIReader extends FormatReader {
 
     assignPlaneIndices();
 
-    for (int i=0; i<planes.size(); i++) {
-      SubBlock p = planes.get(i);
-      Coordinate c = new Coordinate(p.seriesIndex, p.planeIndex, getImageCount());
-      ArrayList<Integer> indices = new ArrayList<Integer>();
-      if (indexIntoPlanes.containsKey(c)) {
-        indices = indexIntoPlanes.get(c);
-      }
-      indices.add(i);
-      indexIntoPlanes.put(c, indices);
-    }
+    blockIndex = new SubBlockIndex();
 
     if (channels.size() > 0 && channels.get(0).color != null && !isRGB()) {
       for (int i=0; i<seriesCount; i++) {
@@ -781,6 +912,9 @@ public class ZeissCZIReader extends FormatReader {
       name = imageName;
     }
 
+    // SubBlock metadata is parsed on demand, as most blocks never need it
+    planes.get(0).readMetadata();
+
     int indexLength = String.valueOf(getSeriesCount()).length();
     for (int i=0; i<getSeriesCount(); i++) {
       store.setImageInstrumentRef(MetadataTools.createLSID("Instrument", 0), i);
@@ -846,13 +980,13 @@ public class ZeissCZIReader extends FormatReader {
       }
 
       for (int plane=0; plane<getImageCount(); plane++) {
-        Coordinate coordinate = new Coordinate(i, plane, getImageCount());
-        ArrayList<Integer> index = indexIntoPlanes.get(coordinate);
-        if (index == null) {
+        int index = blockIndex.getFirstBlock(i, plane);
+        if (index < 0) {
           continue;
         }
 
-        SubBlock p = planes.get(index.get(0));
+        SubBlock p = planes.get(index);
+        p.readMetadata();
         if (startTime == null) {
           startTime = p.timestamp;
         }
@@ -993,24 +1127,266 @@ public class ZeissCZIReader extends FormatReader {
 
   // -- Helper methods --
 
-  private void readSegments(String id) throws IOException {
+  /**
+   * Copies rows of uncompressed pixel data from the given stream into the
+   * output buffer. Rows that are contiguous in both the file and the buffer
+   * are read with a single call.
+   */
+  private void readRows(RandomAccessInputStream s, long offset,
+    int inputRowLen, int rowLen, int rows, byte[] buf, int outputOffset,
+    int outputRowLen)
+    throws IOException
+  {
+    s.seek(offset);
+    if (rowLen == inputRowLen && rowLen == outputRowLen) {
+      s.readFully(buf, outputOffset, rows * rowLen);
+      return;
+    }
+    for (int row=0; row<rows; row++) {
+      s.seek(offset + (long) row * inputRowLen);
+      s.readFully(buf, outputOffset, rowLen);
+      outputOffset += outputRowLen;
+    }
+  }
+
+  /**
+   * Checks that a compressed SubBlock decoded to at least one plane of its
+   * recorded dimensions. Only the first compressed block is decoded during
+   * setId, so invalid blocks are skipped here instead of being removed.
+   */
+  private boolean isDecodedSizeValid(SubBlock plane, byte[] data, int bpp) {
+    long planeSize = (long) plane.x * plane.y * bpp;
+    if (data.length < planeSize) {
+      LOGGER.debug("skipping block; calculated size = {}, decoded size = {}",
+        planeSize, data.length);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the decompressed pixel data for the given SubBlock, decoding it
+   * only if it is not already cached.
+   */
+  private byte[] readDecodedBlock(SubBlock plane, RandomAccessInputStream s)
+    throws FormatException, IOException
+  {
+    if (decodedBlocks == null) {
+      decodedBlocks = new LinkedHashMap<SubBlock, byte[]>(16, 0.75f, true);
+    }
+    byte[] data = decodedBlocks.get(plane);
+    if (data != null) {
+      return data;
+    }
+    if (plane.filename.equals(currentId)) {
+      data = plane.readPixelData(s);
+    }
+    else {
+      data = plane.readPixelData();
+    }
+
+    // the limit is shared with the other readers, but only this reader's
+    // own blocks can be dropped to make room
+    synchronized (ZeissCZIReader.class) {
+      if (data.length <= decodedCacheLimit) {
+        Iterator<byte[]> cached = decodedBlocks.values().iterator();
+        while (decodedCacheBytes + data.length > decodedCacheLimit &&
+          cached.hasNext())
+        {
+          decodedCacheBytes -= cached.next().length;
+          cached.remove();
+        }
+        if (decodedCacheBytes + data.length <= decodedCacheLimit) {
+          decodedBlocks.put(plane, data);
+          decodedCacheBytes += data.length;
+        }
+      }
+    }
+    return data;
+  }
+
+  /** Drops all cached decoded SubBlocks, returning their bytes to the limit. */
+  private void clearDecodedBlocks() {
+    if (decodedBlocks == null) {
+      return;
+    }
+    synchronized (ZeissCZIReader.class) {
+      for (byte[] data : decodedBlocks.values()) {
+        decodedCacheBytes -= data.length;
+      }
+    }
+    decodedBlocks = null;
+  }
+
+  /**
+   * Read the segments from each file in the dataset.  The files are
+   * scanned concurrently, but segments are always added in file order.
+   */
+  private void readSegments(String[] files) throws FormatException, IOException
+  {
     if (in != null) {
       in.close();
     }
-    in = new RandomAccessInputStream(id, BUFFER_SIZE);
+    in = new RandomAccessInputStream(files[0], BUFFER_SIZE);
     in.order(isLittleEndian());
-    while (in.getFilePointer() < in.length()) {
-      Segment segment = readSegment(id);
-      if (segment == null) {
-        break;
+
+    ArrayList<ArrayList<Segment>> fileSegments =
+      new ArrayList<ArrayList<Segment>>();
+    if (files.length == 1) {
+      fileSegments.add(readSegments(files[0]));
+    }
+    else {
+      int threads =
+        Math.min(files.length, Runtime.getRuntime().availableProcessors());
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        ArrayList<Future<ArrayList<Segment>>> results =
+          new ArrayList<Future<ArrayList<Segment>>>();
+        for (final String file : files) {
+          results.add(pool.submit(new Callable<ArrayList<Segment>>() {
+            @Override
+            public ArrayList<Segment> call() throws IOException {
+              return readSegments(file);
+            }
+          }));
+        }
+        for (Future<ArrayList<Segment>> result : results) {
+          fileSegments.add(result.get());
+        }
+      }
+      catch (InterruptedException e) {
+        throw new FormatException(e);
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new FormatException(cause);
+      }
+      finally {
+        pool.shutdownNow();
+      }
+    }
+
+    for (ArrayList<Segment> list : fileSegments) {
+      for (Segment segment : list) {
+        segments.add(segment);
+        if (segment instanceof SubBlock) {
+          planes.add((SubBlock) segment);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the segments from a single file, using a stream that is
+   * private to the calling thread.
+   */
+  private ArrayList<Segment> readSegments(String id) throws IOException {
+    RandomAccessInputStream s = new RandomAccessInputStream(id, BUFFER_SIZE);
+    try {
+      s.order(isLittleEndian());
+      ArrayList<Segment> list = readDirectorySegments(s, id);
+      if (list != null) {
+        return list;
       }
-      segments.add(segment);
 
-      if (segment instanceof SubBlock) {
-        planes.add((SubBlock) segment);
+      LOGGER.debug("Scanning all segments in {}", id);
+      list = new ArrayList<Segment>();
+      s.seek(0);
+      while (s.getFilePointer() < s.length()) {
+        Segment segment = readSegment(s, id);
+        if (segment == null) {
+          break;
+        }
+        list.add(segment);
+        segment.close();
       }
-      segment.close();
+      return list;
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  /**
+   * Use the file header and the SubBlock directory to find the segments
+   * in the given file, instead of visiting every segment in the file.
+   *
+   * @return the segments in file order, or null if the header or directory
+   *         are missing or invalid
+   */
+  private ArrayList<Segment> readDirectorySegments(
+    RandomAccessInputStream s, String id)
+    throws IOException
+  {
+    Segment segment = readSegment(s, id, 0);
+    if (!(segment instanceof FileHeader)) {
+      return null;
+    }
+    FileHeader header = (FileHeader) segment;
+    if (header.updatePending) {
+      return null;
+    }
+    segment = readSegment(s, id, header.directoryPosition);
+    if (!(segment instanceof Directory)) {
+      return null;
+    }
+    Directory directory = (Directory) segment;
+
+    ArrayList<Segment> list = new ArrayList<Segment>();
+    list.add(header);
+
+    segment = readSegment(s, id, header.metadataPosition);
+    if (segment instanceof Metadata) {
+      list.add(segment);
+    }
+
+    segment = readSegment(s, id, header.attachmentDirectoryPosition);
+    if (segment instanceof AttachmentDirectory) {
+      list.add(segment);
+      for (AttachmentEntry entry : ((AttachmentDirectory) segment).entries) {
+        Segment attachment = readSegment(s, id, entry.filePosition);
+        if (attachment instanceof Attachment) {
+          list.add(attachment);
+        }
+      }
+    }
+    list.add(directory);
+
+    // visit the SubBlocks in file order, to match the order in which
+    // a full scan of the file would have found them
+    DirectoryEntry[] entries = directory.entries.clone();
+    Arrays.sort(entries, new Comparator<DirectoryEntry>() {
+      @Override
+      public int compare(DirectoryEntry a, DirectoryEntry b) {
+        return a.filePosition < b.filePosition ? -1 :
+          (a.filePosition == b.filePosition ? 0 : 1);
+      }
+    });
+    for (DirectoryEntry entry : entries) {
+      SubBlock block = new SubBlock();
+      block.filename = id;
+      block.id = "ZISRAWSUBBLOCK";
+      block.startingPosition = entry.filePosition;
+      block.stream = s;
+      boolean valid = block.fillInData(entry);
+      block.close();
+      if (!valid) {
+        LOGGER.debug("Invalid SubBlock directory entry at {}",
+          entry.filePosition);
+        return null;
+      }
+      list.add(block);
     }
+    for (Segment seg : list) {
+      seg.close();
+    }
+    return list;
   }
 
   private void calculateDimensions() {
@@ -2507,15 +2883,34 @@ public class ZeissCZIReader extends FormatReader {
     nameStack.pop();
   }
 
-  private Segment readSegment(String filename) throws IOException {
+  /**
+   * Read the segment at the given position, if the position lies within
+   * the stream.
+   */
+  private Segment readSegment(RandomAccessInputStream s, String filename,
+    long position)
+    throws IOException
+  {
+    if (position < 0 || position % ALIGNMENT != 0 ||
+      position + HEADER_SIZE > s.length())
+    {
+      return null;
+    }
+    s.seek(position);
+    return readSegment(s, filename);
+  }
+
+  private Segment readSegment(RandomAccessInputStream s, String filename)
+    throws IOException
+  {
     // align the stream to a multiple of 32 bytes
     int skip =
-      (ALIGNMENT - (int) (in.getFilePointer() % ALIGNMENT)) % ALIGNMENT;
-    in.skipBytes(skip);
-    long startingPosition = in.getFilePointer();
+      (ALIGNMENT - (int) (s.getFilePointer() % ALIGNMENT)) % ALIGNMENT;
+    s.skipBytes(skip);
+    long startingPosition = s.getFilePointer();
 
     // instantiate a Segment subclass based upon the segment ID
-    String segmentID = in.readString(16).trim();
+    String segmentID = s.readString(16).trim();
     Segment segment = null;
     boolean skipData = false;
 
@@ -2553,7 +2948,7 @@ public class ZeissCZIReader extends FormatReader {
     segment.startingPosition = startingPosition;
     segment.id = segmentID;
     segment.filename = filename;
-    segment.stream = in;
+    segment.stream = s;
 
     if (!(segment instanceof Metadata)) {
       if (!skipData) {
@@ -2565,11 +2960,11 @@ public class ZeissCZIReader extends FormatReader {
     }
 
     long pos = segment.startingPosition + segment.allocatedSize + HEADER_SIZE;
-    if (pos < in.length()) {
-      in.seek(pos);
+    if (pos < s.length()) {
+      s.seek(pos);
     }
     else {
-      in.seek(in.length());
+      s.seek(s.length());
     }
 
     if (skipData && !(segment instanceof Attachment)) {
@@ -2764,8 +3159,8 @@ public class ZeissCZIReader extends FormatReader {
   class FileHeader extends Segment {
     public int majorVersion;
     public int minorVersion;
-    public long primaryFileGUID;
-    public long fileGUID;
+    public String primaryFileGUID;
+    public String fileGUID;
     public int filePart;
     public long directoryPosition;
     public long metadataPosition;
@@ -2784,8 +3179,8 @@ public class ZeissCZIReader extends FormatReader {
         minorVersion = s.readInt();
         s.skipBytes(4); // reserved 1
         s.skipBytes(4); // reserved 2
-        primaryFileGUID = s.readLong(); // 16
-        fileGUID = s.readLong(); // 16
+        primaryFileGUID = s.readString(16);
+        fileGUID = s.readString(16);
         filePart = s.readInt();
 
         directoryPosition = s.readLong();
@@ -2851,6 +3246,10 @@ public class ZeissCZIReader extends FormatReader {
     public int planeIndex;
 
     private long dataOffset;
+    private long metadataOffset;
+    private boolean hasMetadata;
+    private boolean hasData;
+    private boolean metadataRead;
 
     private Length stageX, stageY, stageZ;
     private Double timestamp, exposureTime;
@@ -2872,6 +3271,10 @@ public class ZeissCZIReader extends FormatReader {
       this.seriesIndex = model.seriesIndex;
       this.planeIndex = model.planeIndex;
       this.dataOffset = model.dataOffset;
+      this.metadataOffset = model.metadataOffset;
+      this.hasMetadata = model.hasMetadata;
+      this.hasData = model.hasData;
+      this.metadataRead = model.metadataRead;
       this.stageX = model.stageX;
       this.stageY = model.stageY;
       this.timestamp = model.timestamp;
@@ -2896,13 +3299,47 @@ public class ZeissCZIReader extends FormatReader {
         directoryEntry = new DirectoryEntry(s);
         s.skipBytes((int) Math.max(256 - (s.getFilePointer() - fp), 0));
 
-        metadata = s.readString(metadataSize).trim();
-        dataOffset = s.getFilePointer();
+        setOffsets(s);
+      }
+      finally {
+        if (stream == null) {
+          s.close();
+        }
+      }
+    }
 
-        if (s.getFilePointer() + dataSize + attachmentSize < s.length()) {
-          s.seek(s.getFilePointer() + dataSize + attachmentSize);
-          parseMetadata();
+    /**
+     * Fill in the SubBlock header using an entry from the SubBlock directory.
+     * The copy of the directory entry in the SubBlock header is not
+     * parsed again.
+     *
+     * @return false if there is no SubBlock at the entry's file position
+     */
+    public boolean fillInData(DirectoryEntry entry) throws IOException {
+      RandomAccessInputStream s = getStream();
+      try {
+        s.order(isLittleEndian());
+        s.seek(startingPosition);
+        if (!s.readString(16).trim().equals("ZISRAWSUBBLOCK")) {
+          return false;
+        }
+        allocatedSize = s.readLong();
+        usedSize = s.readLong();
+        if (usedSize == 0) {
+          usedSize = allocatedSize;
         }
+
+        long fp = s.getFilePointer();
+        metadataSize = s.readInt();
+        attachmentSize = s.readInt();
+        dataSize = s.readLong();
+        s.skipBytes(28);
+        int entrySize = 32 + 20 * s.readInt();
+        s.seek(fp + Math.max(256, 16 + entrySize));
+        directoryEntry = entry;
+
+        setOffsets(s);
+        return true;
       }
       finally {
         if (stream == null) {
@@ -2913,6 +3350,32 @@ public class ZeissCZIReader extends FormatReader {
 
     // -- SubBlock API methods --
 
+    /**
+     * Parse the SubBlock's XML metadata, if it has not already been parsed.
+     * The metadata is only needed for a few SubBlocks, so it is not read
+     * along with the rest of the header.
+     */
+    public void readMetadata() throws IOException {
+      if (metadataRead) {
+        return;
+      }
+      metadataRead = true;
+      if (!hasMetadata) {
+        return;
+      }
+      RandomAccessInputStream s = getStream();
+      try {
+        s.seek(metadataOffset);
+        metadata = s.readString(metadataSize).trim();
+      }
+      finally {
+        if (stream == null) {
+          s.close();
+        }
+      }
+      parseMetadata();
+    }
+
     public byte[] readPixelData() throws FormatException, IOException {
       RandomAccessInputStream s = new RandomAccessInputStream(filename);
       try {
@@ -2923,16 +3386,39 @@ public class ZeissCZIReader extends FormatReader {
     }
 
     public byte[] readPixelData(RandomAccessInputStream s) throws FormatException, IOException {
+      // decoded data never exceeds this block's dimensions, times the
+      // number of scans stored in each block
+      int pixel = getRGBChannelCount() *
+        FormatTools.getBytesPerPixel(getPixelType());
+      long maxBytes = (long) x * y * scanDim * pixel;
+      if (maxBytes > Integer.MAX_VALUE) {
+        throw new FormatException("SubBlock is too large: " + x + "x" + y +
+          ", " + scanDim + " scans, " + pixel + " bytes per pixel");
+      }
+      return readPixelData(s, (int) maxBytes);
+    }
+
+    /**
+     * Reads this SubBlock's pixel data, decoding at most the given number
+     * of bytes.
+     */
+    public byte[] readPixelData(RandomAccessInputStream s, int maxBytes)
+      throws FormatException, IOException
+    {
+      if (dataSize > Integer.MAX_VALUE) {
+        throw new FormatException("SubBlock data is too large: " + dataSize);
+      }
       byte[] data = new byte[(int) dataSize];
       s.order(isLittleEndian());
       s.seek(dataOffset);
-        s.read(data);
+      s.readFully(data);
 
+      int pixel = getRGBChannelCount() *
+        FormatTools.getBytesPerPixel(getPixelType());
       CodecOptions options = new CodecOptions();
       options.interleaved = isInterleaved();
       options.littleEndian = isLittleEndian();
-      options.maxBytes = getSizeX() * getSizeY() * getRGBChannelCount() *
-        FormatTools.getBytesPerPixel(getPixelType());
+      options.maxBytes = maxBytes;
 
       switch (directoryEntry.compression) {
         case UNCOMPRESSED:
@@ -2947,24 +3433,26 @@ public class ZeissCZIReader extends FormatReader {
           throw new UnsupportedCompressionException(
             "JPEG-XR not yet supported");
         case 104: // camera-specific packed pixels
-          data = decode12BitCamera(data, options.maxBytes);
+          data = decode12BitCamera(data, getSizeX() * getSizeY() * pixel);
           // reverse column ordering
+          int rowLen = getSizeX() * 2;
           for (int row=0; row<getSizeY(); row++) {
-            for (int col=0; col<getSizeX()/2; col++) {
-              int left = row * getSizeX() * 2 + col * 2;
-              int right = row * getSizeX() * 2 + (getSizeX() - col - 1) * 2;
+            int left = row * rowLen;
+            int right = left + rowLen - 2;
+            while (left < right) {
               byte left1 = data[left];
               byte left2 = data[left + 1];
               data[left] = data[right];
               data[left + 1] = data[right + 1];
               data[right] = left1;
               data[right + 1] = left2;
+              left += 2;
+              right -= 2;
             }
           }
-
           break;
         case 504: // camera-specific packed pixels
-          data = decode12BitCamera(data, options.maxBytes);
+          data = decode12BitCamera(data, getSizeX() * getSizeY() * pixel);
           break;
       }
       return data;
@@ -2972,6 +3460,16 @@ public class ZeissCZIReader extends FormatReader {
 
     // -- Helper methods --
 
+    /** Record where the metadata and pixel data start. */
+    private void setOffsets(RandomAccessInputStream s) throws IOException {
+      metadataOffset = s.getFilePointer();
+      dataOffset = metadataOffset + metadataSize;
+
+      // metadata is only used if the whole SubBlock was written
+      hasMetadata = dataOffset + dataSize + attachmentSize < s.length();
+      hasData = dataSize > 0 && dataOffset + dataSize <= s.length();
+    }
+
     private void parseMetadata() throws IOException {
       if (metadata.length() <= 16) {
         return;
@@ -3275,34 +3773,165 @@ public class ZeissCZIReader extends FormatReader {
     public String filterSetRef;
   }
 
-  static class Coordinate {
-    public int series;
-    public int plane;
+  /**
+   * Lookup table from (series, plane) to the indices of the SubBlocks
+   * that contain pixels for that plane.  Indices are stored in flat
+   * primitive arrays, grouped by plane and sorted by tile row, so that
+   * a tile request only visits SubBlocks near the requested region.
+   */
+  class SubBlockIndex {
     private int imageCount;
 
-    public Coordinate(int series, int plane, int imageCount) {
-      this.series = series;
-      this.plane = plane;
-      this.imageCount = imageCount;
+    /** Start of each plane's entries; plane p uses [offsets[p], offsets[p+1]). */
+    private int[] offsets;
+
+    /** Index of the first SubBlock (in file order) for each plane. */
+    private int[] firstBlocks;
+
+    /** Tallest tile in each plane. */
+    private int[] maxHeights;
+
+    /** SubBlock indices, and the region covered by each SubBlock. */
+    private int[] blocks;
+    private int[] tileX, tileY, tileWidth, tileHeight;
+
+    public SubBlockIndex() {
+      imageCount = getImageCount();
+      int planeCount = getSeriesCount() * imageCount;
+      boolean stitched = prestitched != null && prestitched;
+
+      int[] keys = new int[planes.size()];
+      offsets = new int[planeCount + 1];
+      firstBlocks = new int[planeCount];
+      maxHeights = new int[planeCount];
+      Arrays.fill(firstBlocks, -1);
+      for (int i=0; i<planes.size(); i++) {
+        SubBlock p = planes.get(i);
+        keys[i] = -1;
+        if (p.seriesIndex < 0 || p.seriesIndex >= getSeriesCount() ||
+          p.planeIndex < 0 || p.planeIndex >= imageCount)
+        {
+          continue;
+        }
+        keys[i] = p.seriesIndex * imageCount + p.planeIndex;
+        offsets[keys[i] + 1]++;
+        if (firstBlocks[keys[i]] < 0) {
+          firstBlocks[keys[i]] = i;
+        }
+      }
+      for (int i=0; i<planeCount; i++) {
+        offsets[i + 1] += offsets[i];
+      }
+
+      // sort each plane's SubBlocks by row, then by file order
+      long[] order = new long[offsets[planeCount]];
+      int[] next = Arrays.copyOf(offsets, planeCount);
+      for (int i=0; i<keys.length; i++) {
+        if (keys[i] >= 0) {
+          int row = isFullImage(i, stitched) ? 0 : planes.get(i).row;
+          order[next[keys[i]]++] = ((long) row << 32) | i;
+        }
+      }
+      for (int i=0; i<planeCount; i++) {
+        Arrays.sort(order, offsets[i], offsets[i + 1]);
+      }
+
+      blocks = new int[order.length];
+      tileX = new int[order.length];
+      tileY = new int[order.length];
+      tileWidth = new int[order.length];
+      tileHeight = new int[order.length];
+      for (int i=0; i<order.length; i++) {
+        int block = (int) (order[i] & 0xffffffffL);
+        SubBlock p = planes.get(block);
+        blocks[i] = block;
+        tileY[i] = (int) (order[i] >> 32);
+        tileX[i] = isFullImage(block, stitched) ? 0 : p.col;
+        tileWidth[i] = p.x;
+        tileHeight[i] = p.y;
+        int key = keys[block];
+        maxHeights[key] = Math.max(maxHeights[key], p.y);
+      }
     }
 
-    @Override
-    public boolean equals(Object o) {
-      if (o == null || !(o instanceof Coordinate)) {
-        return false;
+    /**
+     * Get the index of the first SubBlock for the given plane,
+     * or -1 if there is no such SubBlock.
+     */
+    public int getFirstBlock(int series, int plane) {
+      if (series < 0 || series >= getSeriesCount() ||
+        plane < 0 || plane >= imageCount)
+      {
+        return -1;
       }
-      return ((Coordinate) o).series == this.series &&
-        ((Coordinate) o).plane == this.plane;
+      return firstBlocks[series * imageCount + plane];
     }
 
-    @Override
-    public int hashCode() {
-      return series * imageCount + plane;
+    /**
+     * Get the indices of the SubBlocks for the given plane that intersect
+     * the given region, in file order.  If the region is null, all
+     * SubBlocks for the plane are returned.
+     */
+    public int[] getBlocks(int series, int plane, Region region) {
+      if (series < 0 || series >= getSeriesCount() ||
+        plane < 0 || plane >= imageCount)
+      {
+        return new int[0];
+      }
+      int key = series * imageCount + plane;
+      int start = offsets[key];
+      int end = offsets[key + 1];
+      if (region != null) {
+        // only tiles that start above the bottom edge of the region and
+        // less than one tile height above its top edge can intersect
+        end = findRow(start, end, (long) region.y + region.height);
+        start = findRow(start, end, (long) region.y - maxHeights[key] + 1);
+      }
+
+      int[] result = new int[end - start];
+      int count = 0;
+      Region tile = new Region();
+      for (int i=start; i<end; i++) {
+        if (region != null) {
+          tile.x = tileX[i];
+          tile.y = tileY[i];
+          tile.width = tileWidth[i];
+          tile.height = tileHeight[i];
+          if (!tile.intersects(region)) {
+            continue;
+          }
+        }
+        result[count++] = blocks[i];
+      }
+      result = Arrays.copyOf(result, count);
+      Arrays.sort(result);
+      return result;
+    }
+
+    /** Find the first entry in [start, end) whose row is at least 'row'. */
+    private int findRow(int start, int end, long row) {
+      int low = start;
+      int high = end;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (tileY[mid] < row) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      return low;
     }
 
-    @Override
-    public String toString() {
-      return "[series = " + series + ", plane = " + plane + "]";
+    /**
+     * Pre-stitched SubBlocks that cover the whole image are drawn at the
+     * origin, regardless of the recorded row and column.
+     */
+    private boolean isFullImage(int block, boolean stitched) {
+      SubBlock p = planes.get(block);
+      CoreMetadata m = core.get(p.seriesIndex);
+      return stitched && p.x == m.sizeX && p.y == m.sizeY;
     }
   }
 
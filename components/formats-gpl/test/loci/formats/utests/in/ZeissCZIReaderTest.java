@@ -0,0 +1,404 @@
+/*
+ * #%L
+ * OME Bio-Formats package for reading and converting biological file formats.
+ * %%
+ * Copyright (C) 2005 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.formats.utests.in;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.codec.LZWCodec;
+import loci.formats.in.ZeissCZIReader;
+import loci.formats.meta.IMetadata;
+import loci.formats.services.OMEXMLService;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ZeissCZIReader}, using small generated files of
+ * stitched tiles.
+ */
+public class ZeissCZIReaderTest {
+
+  private static final int TILE = 32;
+
+  /**
+   * A block covering the whole image, which sets its size, and four
+   * overlapping tiles of a different size.
+   */
+  private static final int[][] TILES = new int[][] {
+    {0, 0, 2 * TILE, 2 * TILE}, {0, 0, TILE + 4, TILE + 4},
+    {TILE, 0, TILE, TILE + 4}, {0, TILE, TILE + 4, TILE}, {TILE, TILE, TILE, TILE}
+  };
+
+  private List<File> files = new ArrayList<File>();
+
+  private long cacheLimit = ZeissCZIReader.getDecodedCacheLimit();
+
+  @AfterMethod
+  public void tearDown() {
+    ZeissCZIReader.setDecodedCacheLimit(cacheLimit);
+    for (File file : files) {
+      file.delete();
+    }
+    files.clear();
+  }
+
+  @Test
+  public void testUncompressedRegions() throws Exception {
+    assertRegions(writeCZI(3, false, TILES));
+  }
+
+  @Test
+  public void testCompressedRegions() throws Exception {
+    assertRegions(writeCZI(3, true, TILES));
+  }
+
+  @Test
+  public void testSharedCacheLimit() throws Exception {
+    File file = writeCZI(3, true, TILES);
+    long before = ZeissCZIReader.getDecodedCacheBytes();
+    long limit = 6 * TILE * TILE;
+    ZeissCZIReader.setDecodedCacheLimit(limit);
+
+    ZeissCZIReader first = new ZeissCZIReader();
+    ZeissCZIReader second = new ZeissCZIReader();
+    try {
+      first.setId(file.getAbsolutePath());
+      second.setId(file.getAbsolutePath());
+      for (int no=0; no<first.getImageCount(); no++) {
+        assertPlane(first, no, 0, 0, first.getSizeX(), first.getSizeY());
+        assertPlane(second, no, 0, 0, second.getSizeX(), second.getSizeY());
+        assertTrue(ZeissCZIReader.getDecodedCacheBytes() - before <= limit);
+      }
+      assertTrue(ZeissCZIReader.getDecodedCacheBytes() > before);
+    }
+    finally {
+      first.close();
+      second.close();
+    }
+    assertEquals(before, ZeissCZIReader.getDecodedCacheBytes());
+  }
+
+  @Test
+  public void testNoCache() throws Exception {
+    long before = ZeissCZIReader.getDecodedCacheBytes();
+    ZeissCZIReader.setDecodedCacheLimit(0);
+    ZeissCZIReader reader = new ZeissCZIReader();
+    try {
+      reader.setId(writeCZI(1, true, TILES).getAbsolutePath());
+      assertPlane(reader, 0, 0, 0, reader.getSizeX(), reader.getSizeY());
+      assertEquals(before, ZeissCZIReader.getDecodedCacheBytes());
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testNegativeCacheLimit() {
+    ZeissCZIReader.setDecodedCacheLimit(-1);
+  }
+
+  @Test
+  public void testLargeCompressedImage() throws Exception {
+    // the first block sets the image size, to more than 2 GB, but has no
+    // usable pixel data; only the small tiles can be read
+    int size = 50000;
+    ZeissCZIReader reader = new ZeissCZIReader();
+    try {
+      reader.setId(writeCZI(1, true, new int[][] {{0, 0, size, size},
+        {0, 0, TILE, TILE}, {size - TILE, size - TILE, TILE, TILE}})
+        .getAbsolutePath());
+      assertEquals(size, reader.getSizeX());
+      assertEquals(size, reader.getSizeY());
+      assertPlane(reader, 0, 0, 0, TILE, TILE);
+      assertPlane(reader, 0, size - TILE, size - TILE, TILE, TILE);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testDirectoryMatchesScan() throws Exception {
+    for (boolean lzw : new boolean[] {false, true}) {
+      String indexed =
+        writeCZI(2, 3, lzw, true, TILES).getAbsolutePath();
+      String scanned =
+        writeCZI(2, 3, lzw, false, TILES).getAbsolutePath();
+      assertSameReaders(indexed, scanned);
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Checks that two files, which differ only in how the SubBlocks are found,
+   * give the same metadata and pixels.
+   */
+  private void assertSameReaders(String indexed, String scanned)
+    throws Exception
+  {
+    OMEXMLService service =
+      new ServiceFactory().getInstance(OMEXMLService.class);
+    IMetadata indexedStore = service.createOMEXMLMetadata();
+    IMetadata scannedStore = service.createOMEXMLMetadata();
+    ZeissCZIReader indexedReader = new ZeissCZIReader();
+    ZeissCZIReader scannedReader = new ZeissCZIReader();
+    try {
+      indexedReader.setMetadataStore(indexedStore);
+      scannedReader.setMetadataStore(scannedStore);
+      indexedReader.setId(indexed);
+      scannedReader.setId(scanned);
+
+      // the image names are taken from the file names
+      assertEquals(
+        service.getOMEXML(scannedStore).replace(
+          new File(scanned).getName(), "test.czi"),
+        service.getOMEXML(indexedStore).replace(
+          new File(indexed).getName(), "test.czi"));
+      assertEquals(scannedReader.getGlobalMetadata(),
+        indexedReader.getGlobalMetadata());
+      assertEquals(scannedReader.getSeriesCount(),
+        indexedReader.getSeriesCount());
+      for (int s=0; s<scannedReader.getSeriesCount(); s++) {
+        scannedReader.setSeries(s);
+        indexedReader.setSeries(s);
+        assertEquals(scannedReader.getSeriesMetadata(),
+          indexedReader.getSeriesMetadata());
+        assertEquals(scannedReader.getDimensionOrder(),
+          indexedReader.getDimensionOrder());
+        assertEquals(scannedReader.getImageCount(),
+          indexedReader.getImageCount());
+        assertEquals(2 * 3, indexedReader.getImageCount());
+        int w = scannedReader.getSizeX();
+        int h = scannedReader.getSizeY();
+        assertEquals(w, indexedReader.getSizeX());
+        assertEquals(h, indexedReader.getSizeY());
+        for (int no=0; no<scannedReader.getImageCount(); no++) {
+          assertTrue(Arrays.equals(scannedReader.openBytes(no),
+            indexedReader.openBytes(no)));
+          assertTrue(Arrays.equals(
+            scannedReader.openBytes(no, w / 3, h / 5, w / 2, h / 3),
+            indexedReader.openBytes(no, w / 3, h / 5, w / 2, h / 3)));
+        }
+      }
+    }
+    finally {
+      indexedReader.close();
+      scannedReader.close();
+    }
+  }
+
+  /** Checks whole planes, and regions that overlap several tiles. */
+  private void assertRegions(File file) throws FormatException, IOException {
+    ZeissCZIReader reader = new ZeissCZIReader();
+    try {
+      reader.setId(file.getAbsolutePath());
+      assertEquals(2 * TILE, reader.getSizeX());
+      assertEquals(2 * TILE, reader.getSizeY());
+      assertEquals(3, reader.getImageCount());
+      for (int no=0; no<reader.getImageCount(); no++) {
+        assertPlane(reader, no, 0, 0, 2 * TILE, 2 * TILE);
+        assertPlane(reader, no, TILE / 2, TILE / 3, TILE, TILE);
+        assertPlane(reader, no, TILE - 1, 0, 2, 2 * TILE);
+        assertPlane(reader, no, 5, 7, 3, 4);
+      }
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  private void assertPlane(ZeissCZIReader reader, int no, int x, int y,
+    int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] plane = reader.openBytes(no, x, y, w, h);
+    assertEquals(w * h, plane.length);
+    for (int row=0; row<h; row++) {
+      for (int col=0; col<w; col++) {
+        assertEquals(expected(no, x + col, y + row), plane[row * w + col]);
+      }
+    }
+  }
+
+  /** Returns the value of a pixel, the same in all blocks covering it. */
+  private static byte expected(int c, int x, int y) {
+    return (byte) (c * 31 + x * 7 + y * 13);
+  }
+
+  private File writeCZI(int channels, boolean lzw, int[][] blocks)
+    throws FormatException, IOException
+  {
+    return writeCZI(1, channels, lzw, true, blocks);
+  }
+
+  /**
+   * Writes a file of 8-bit pixels with the given blocks, given as
+   * {x, y, width, height}, in each Z section and channel. Blocks of more
+   * than 1 MB get a few bytes of meaningless pixel data. If 'directory' is
+   * false, the header does not point to the SubBlock directory, so readers
+   * must scan the whole file.
+   */
+  private File writeCZI(int sizeZ, int channels, boolean lzw,
+    boolean directory, int[][] blocks)
+    throws FormatException, IOException
+  {
+    ByteBuffer out = allocate(1024 * 1024);
+    writeSegment(out, "ZISRAWFILE", new byte[512 - 32]);
+
+    String xml = "<ImageDocument><Metadata><Information><Image>" +
+      "</Image></Information></Metadata></ImageDocument>";
+    ByteBuffer metadata = allocate(256 + xml.length());
+    metadata.putInt(xml.length());
+    metadata.position(256);
+    metadata.put(xml.getBytes("UTF-8"));
+    long metadataPosition = writeSegment(out, "ZISRAWMETADATA",
+      metadata.array());
+
+    List<byte[]> entries = new ArrayList<byte[]>();
+    for (int index=0; index<sizeZ * channels; index++) {
+      int z = index / channels;
+      int c = index % channels;
+      for (int[] b : blocks) {
+        byte[] pixels = new byte[16];
+        if ((long) b[2] * b[3] <= 1024 * 1024) {
+          pixels = new byte[b[2] * b[3]];
+          for (int y=0; y<b[3]; y++) {
+            for (int x=0; x<b[2]; x++) {
+              pixels[y * b[2] + x] = expected(index, b[0] + x, b[1] + y);
+            }
+          }
+        }
+        if (lzw) {
+          pixels = new LZWCodec().compress(pixels, null);
+        }
+        pad(out);
+        byte[] entry = directoryEntry(out.position(), lzw,
+          new String[] {"X", "Y", "C", "Z"}, new int[] {b[0], b[1], c, z},
+          new int[] {b[2], b[3], 1, 1});
+        ByteBuffer block = allocate(256 + pixels.length);
+        block.putInt(0);
+        block.putInt(0);
+        block.putLong(pixels.length);
+        block.put(entry);
+        block.position(256);
+        block.put(pixels);
+        writeSegment(out, "ZISRAWSUBBLOCK", block.array());
+        entries.add(entry);
+      }
+    }
+
+    // the directory need not be in file order
+    ByteBuffer entryList =
+      allocate(128 + entries.size() * entries.get(0).length);
+    entryList.putInt(entries.size());
+    entryList.position(128);
+    for (int i=entries.size()-1; i>=0; i--) {
+      entryList.put(entries.get(i));
+    }
+    long directoryPosition = writeSegment(out, "ZISRAWDIRECTORY",
+      entryList.array());
+    pad(out);
+    int length = out.position();
+
+    // file header: version, then the positions of the other segments
+    out.position(32);
+    out.putInt(1);
+    out.position(80);
+    out.putInt(0);
+    out.putLong(directory ? directoryPosition : 0);
+    out.putLong(metadataPosition);
+
+    File file = File.createTempFile("ZeissCZIReaderTest", ".czi");
+    files.add(file);
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(out.array(), 0, length);
+    }
+    finally {
+      stream.close();
+    }
+    return file;
+  }
+
+  private static ByteBuffer allocate(int length) {
+    return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** Pads the file to the 32 byte alignment of segments. */
+  private static void pad(ByteBuffer out) {
+    while (out.position() % 32 != 0) {
+      out.put((byte) 0);
+    }
+  }
+
+  private static long writeSegment(ByteBuffer out, String id, byte[] data) {
+    pad(out);
+    long position = out.position();
+    out.put(Arrays.copyOf(id.getBytes(), 16));
+    out.putLong(data.length);
+    out.putLong(data.length);
+    out.put(data);
+    return position;
+  }
+
+  private static byte[] directoryEntry(long position, boolean lzw,
+    String[] names, int[] starts, int[] sizes)
+  {
+    ByteBuffer entry = allocate(32 + 20 * names.length);
+    entry.put((byte) 'D');
+    entry.put((byte) 'V');
+    entry.putInt(0); // GRAY8
+    entry.putLong(position);
+    entry.putInt(0);
+    entry.putInt(lzw ? 2 : 0);
+    entry.position(28);
+    entry.putInt(names.length);
+    for (int i=0; i<names.length; i++) {
+      entry.put(Arrays.copyOf(names[i].getBytes(), 4));
+      entry.putInt(starts[i]);
+      entry.putInt(sizes[i]);
+      entry.putFloat(0);
+      entry.putInt(sizes[i]);
+    }
+    return entry.array();
+  }
+
+}
@@ -78,4 +78,16 @@ public class OMEXMLMetadataRoot extends OME implements MetadataRoot {
     super(ome);
   }
 
+  /**
+   * Construct a deep copy of an existing OME instance.
+   *
+   * @param ome the OME instance to copy.
+   * @param model Handler for the OME model which keeps track of instances
+   * and references seen during object population.
+   */
+  public OMEXMLMetadataRoot(OME ome, OMEModel model)
+  {
+    super(ome, model);
+  }
+
 }
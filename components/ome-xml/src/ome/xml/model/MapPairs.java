@@ -117,6 +117,18 @@ public class MapPairs implements OMEModelObject {
         this(orig.pairs);
     }
 
+    /**
+     * Deep copy constructor. {@link MapPair} entries are immutable and so
+     * are shared with <code>orig</code>.
+     * @param orig MapPairs to copy.
+     * @param model Handler for the OME model which keeps track of instances
+     * and references seen during object population.
+     */
+    public MapPairs(MapPairs orig, OMEModel model)
+    {
+        this(orig.pairs);
+    }
+
     /**
      * Constructs MapPairs recursively from an XML DOM tree.
      * @param element Root of the XML DOM tree to construct a model object
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * OME-XML Java library for working with OME-XML metadata structures.
+ * %%
+ * Copyright (C) 2006 - 2015 Open Microscopy Environment:
+ *   - Massachusetts Institute of Technology
+ *   - National Institutes of Health
+ *   - University of Dundee
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package ome.xml.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import ome.units.UNITS;
+import ome.units.quantity.Length;
+import ome.units.quantity.Time;
+import ome.xml.meta.ColumnarOMEXMLMetadataImpl;
+import ome.xml.meta.OMEXMLMetadata;
+import ome.xml.meta.OMEXMLMetadataImpl;
+import ome.xml.meta.OMEXMLMetadataRoot;
+import ome.xml.model.primitives.NonNegativeInteger;
+import ome.xml.model.primitives.PositiveInteger;
+import ome.xml.model.primitives.Timestamp;
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ColumnarOMEXMLMetadataImpl} stores and retrieves the same
+ * metadata as {@link OMEXMLMetadataImpl}.
+ */
+public class ColumnarOMEXMLMetadataImplTest {
+
+  private static final int IMAGES = 3;
+
+  private static final int PLANES = 12;
+
+  private OMEXMLMetadata expected;
+
+  private ColumnarOMEXMLMetadataImpl columnar;
+
+  @BeforeMethod
+  public void setUp() {
+    expected = new OMEXMLMetadataImpl();
+    columnar = new ColumnarOMEXMLMetadataImpl();
+    populate(expected);
+    populate(columnar);
+  }
+
+  private void populate(OMEXMLMetadata store) {
+    store.setPlateID("Plate:0", 0);
+    for (int i=0; i<IMAGES; i++) {
+      store.setImageID("Image:" + i, i);
+      store.setPixelsID("Pixels:" + i, i);
+      store.setPixelsDimensionOrder(DimensionOrder.XYZCT, i);
+      store.setPixelsType(PixelType.UINT8, i);
+      store.setPixelsSizeX(new PositiveInteger(4), i);
+      store.setPixelsSizeY(new PositiveInteger(4), i);
+      store.setPixelsSizeZ(new PositiveInteger(PLANES), i);
+      store.setPixelsSizeC(new PositiveInteger(1), i);
+      store.setPixelsSizeT(new PositiveInteger(1), i);
+      store.setChannelID("Channel:" + i + ":0", i, 0);
+      store.setChannelSamplesPerPixel(new PositiveInteger(1), i, 0);
+      for (int p=0; p<PLANES; p++) {
+        store.setPlaneTheZ(new NonNegativeInteger(p), i, p);
+        store.setPlaneTheC(new NonNegativeInteger(0), i, p);
+        store.setPlaneTheT(new NonNegativeInteger(0), i, p);
+        store.setPlaneDeltaT(new Time(p * 0.5, UNITS.S), i, p);
+        if (p % 2 == 0) {
+          store.setPlanePositionX(new Length(p, UNITS.MICROM), i, p);
+        }
+        else {
+          store.setPlanePositionX(new Length(p * 1000.0, UNITS.NM), i, p);
+        }
+      }
+      store.setTiffDataIFD(new NonNegativeInteger(i), i, 0);
+      store.setTiffDataPlaneCount(new NonNegativeInteger(PLANES), i, 0);
+      store.setUUIDFileName("image" + i + ".ome.tif", i, 0);
+      store.setUUIDValue("urn:uuid:" + i, i, 0);
+
+      store.setWellID("Well:" + i, 0, i);
+      store.setWellColumn(new NonNegativeInteger(i), 0, i);
+      store.setWellRow(new NonNegativeInteger(0), 0, i);
+      store.setWellSampleID("WellSample:" + i, 0, i, 0);
+      store.setWellSampleIndex(new NonNegativeInteger(i), 0, i, 0);
+      store.setWellSampleImageRef("Image:" + i, 0, i, 0);
+      store.setWellSampleTimepoint(new Timestamp("2015-01-01T00:00:00"), 0, i, 0);
+    }
+    store.setPlateAcquisitionID("PlateAcquisition:0", 0, 0);
+    store.setPlateAcquisitionWellSampleRef("WellSample:1", 0, 0, 0);
+    store.setCommentAnnotationID("Annotation:0", 0);
+    store.setCommentAnnotationValue("comment", 0);
+    store.setPlaneAnnotationRef("Annotation:0", 1, 3, 0);
+  }
+
+  @Test
+  public void testCounts() {
+    assertEquals(IMAGES, columnar.getImageCount());
+    for (int i=0; i<IMAGES; i++) {
+      assertEquals(PLANES, columnar.getPlaneCount(i));
+      assertEquals(1, columnar.getTiffDataCount(i));
+      assertEquals(1, columnar.getWellSampleCount(0, i));
+    }
+    assertEquals(1, columnar.getPlaneAnnotationRefCount(1, 3));
+    assertEquals(0, columnar.getPlaneAnnotationRefCount(1, 4));
+  }
+
+  @Test
+  public void testValues() {
+    for (int i=0; i<IMAGES; i++) {
+      for (int p=0; p<PLANES; p++) {
+        assertEquals(expected.getPlaneTheZ(i, p), columnar.getPlaneTheZ(i, p));
+        assertEquals(expected.getPlaneDeltaT(i, p), columnar.getPlaneDeltaT(i, p));
+        assertEquals(expected.getPlanePositionX(i, p).value(),
+          columnar.getPlanePositionX(i, p).value());
+        assertEquals(expected.getPlanePositionX(i, p).unit(),
+          columnar.getPlanePositionX(i, p).unit());
+        assertNull(columnar.getPlanePositionY(i, p));
+      }
+      assertEquals(expected.getTiffDataIFD(i, 0), columnar.getTiffDataIFD(i, 0));
+      assertNull(columnar.getTiffDataFirstZ(i, 0));
+      assertEquals(expected.getUUIDFileName(i, 0), columnar.getUUIDFileName(i, 0));
+      assertEquals(expected.getUUIDValue(i, 0), columnar.getUUIDValue(i, 0));
+      assertEquals(expected.getWellSampleID(0, i, 0), columnar.getWellSampleID(0, i, 0));
+      assertEquals(expected.getWellSampleTimepoint(0, i, 0),
+        columnar.getWellSampleTimepoint(0, i, 0));
+      assertEquals("Image:" + i, columnar.getWellSampleImageRef(0, i, 0));
+    }
+    assertEquals("Annotation:0", columnar.getPlaneAnnotationRef(1, 3, 0));
+  }
+
+  @Test
+  public void testValuesReplaced() {
+    columnar.setPlaneTheZ(null, 0, 0);
+    columnar.setPlanePositionX(new Length(1.5, UNITS.MICROM), 0, 1);
+    assertNull(columnar.getPlaneTheZ(0, 0));
+    assertEquals(1.5, columnar.getPlanePositionX(0, 1).value());
+  }
+
+  @Test(expectedExceptions={IndexOutOfBoundsException.class})
+  public void testPlaneOutOfBounds() {
+    columnar.getPlaneTheZ(0, PLANES);
+  }
+
+  @Test(expectedExceptions={IndexOutOfBoundsException.class})
+  public void testSetPlaneOutOfSequence() {
+    columnar.setPlaneTheZ(new NonNegativeInteger(0), 0, PLANES + 1);
+  }
+
+  @Test
+  public void testDumpXML() {
+    assertEquals(expected.dumpXML(), columnar.dumpXML());
+  }
+
+  @Test
+  public void testMaterializedRoot() {
+    OMEXMLMetadataRoot root = (OMEXMLMetadataRoot) columnar.getRoot();
+    assertEquals(PLANES, root.getImage(0).getPixels().sizeOfPlaneList());
+    assertEquals(1, root.getImage(2).getPixels().sizeOfTiffDataList());
+    assertEquals(1, root.getPlate(0).getWell(1).sizeOfWellSampleList());
+
+    // values written after materialization are stored in the model
+    columnar.setPlaneTheZ(new NonNegativeInteger(PLANES), 0, PLANES);
+    assertEquals(PLANES + 1, root.getImage(0).getPixels().sizeOfPlaneList());
+    assertEquals(PLANES + 1, columnar.getPlaneCount(0));
+  }
+
+}
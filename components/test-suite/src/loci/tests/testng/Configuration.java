@@ -63,6 +63,10 @@ public class Configuration {
 
   private static final String ACCESS_TIME = "access_ms";
   private static final String MEMORY = "mem_mb";
+  private static final String SETID_TIME = "setId_ms";
+  private static final String MEMO_LOAD_TIME = "memo_load_ms";
+  private static final String READ_THROUGHPUT = "read_MB_per_s";
+  private static final String PEAK_MEMORY = "peak_mem_mb";
   private static final String TEST = "test";
   private static final String READER = "reader";
   private static final String SERIES = " series_";
@@ -154,6 +158,63 @@ public class Configuration {
     return Integer.parseInt(memory);
   }
 
+  /**
+   * Returns the baseline time taken by setId, in milliseconds, or -1 if no
+   * baseline was recorded.
+   * @see PerformanceMeasurement#getSetIdMillis()
+   */
+  public long getSetIdMillis() {
+    return getLong(SETID_TIME);
+  }
+
+  /**
+   * Returns the baseline time taken to initialize from a memo file, in
+   * milliseconds, or -1 if no baseline was recorded.
+   */
+  public long getMemoLoadMillis() {
+    return getLong(MEMO_LOAD_TIME);
+  }
+
+  /**
+   * Returns the baseline plane read throughput, in MB/s, or -1 if no
+   * baseline was recorded.
+   */
+  public double getReadThroughput() {
+    String throughput = globalTable.get(READ_THROUGHPUT);
+    if (throughput == null) return -1;
+    return Double.parseDouble(throughput);
+  }
+
+  /**
+   * Returns the baseline peak heap usage, in MB, or -1 if no baseline was
+   * recorded.
+   */
+  public int getPeakMemory() {
+    String memory = globalTable.get(PEAK_MEMORY);
+    if (memory == null) return -1;
+    return Integer.parseInt(memory);
+  }
+
+  /** Returns true if any performance baseline was recorded. */
+  public boolean hasPerformanceBaseline() {
+    return getSetIdMillis() >= 0 || getMemoLoadMillis() >= 0 ||
+      getReadThroughput() >= 0 || getPeakMemory() >= 0;
+  }
+
+  /**
+   * Stores the given measurements as this file's performance baseline.
+   * Values that could not be measured are not stored.
+   */
+  public void setPerformanceBaseline(PerformanceMeasurement m) {
+    putIfMeasured(SETID_TIME, m.getSetIdMillis());
+    putIfMeasured(MEMO_LOAD_TIME, m.getMemoLoadMillis());
+    if (m.getReadThroughput() >= 0) {
+      globalTable.put(READ_THROUGHPUT,
+        String.valueOf(Math.round(m.getReadThroughput() * 100) / 100.0));
+    }
+    putIfMeasured(PEAK_MEMORY, m.getPeakMemory());
+  }
+
   public boolean doTest() {
     return new Boolean(globalTable.get(TEST)).booleanValue();
   }
@@ -382,7 +443,7 @@ public class Configuration {
 
     ini = new IniList();
 
-    IniTable globalTable = new IniTable();
+    globalTable = new IniTable();
     putTableName(globalTable, reader, " global");
 
     int seriesCount = reader.getSeriesCount();
@@ -576,6 +637,18 @@ public class Configuration {
 
   }
 
+  private long getLong(String key) {
+    String value = globalTable.get(key);
+    if (value == null) return -1;
+    return Long.parseLong(value);
+  }
+
+  private void putIfMeasured(String key, long value) {
+    if (value >= 0) {
+      globalTable.put(key, String.valueOf(value));
+    }
+  }
+
   private void putTableName(IniTable table, IFormatReader reader, String suffix)
   {
     Location file = new Location(reader.getCurrentFile());
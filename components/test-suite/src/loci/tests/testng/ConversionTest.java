@@ -111,6 +111,7 @@ public class ConversionTest {
     boolean littleEndian)
     throws Exception
   {
+    long start = System.currentTimeMillis();
     File tmp = File.createTempFile("conversionTest", ext);
     tmp.deleteOnExit();
     ImageWriter writer = new ImageWriter();
@@ -153,6 +154,34 @@ public class ConversionTest {
     }
 
     reader.close();
+
+    String key = "ConversionTest" + ext + "-" + compression + "-" +
+      pixelType + "-" + rgbChannels + "c-" + seriesCount + "s-" +
+      (littleEndian ? "le" : "be");
+    String msg = checkTime(key, System.currentTimeMillis() - start);
+    assertTrue(msg == null, msg);
+  }
+
+  /**
+   * Records the time taken by a single conversion and compares it against
+   * the configured performance baseline, if any.
+   * @return a description of the regression, or null if there is none
+   */
+  private String checkTime(String key, long millis) {
+    PerformanceBaseline baseline = PerformanceBaseline.getInstance();
+    if (!baseline.isEnabled()) {
+      return null;
+    }
+    float multiplier = 1f;
+    String value = System.getProperty("testng.multiplier");
+    if (value != null && !value.startsWith("${")) {
+      try {
+        multiplier = Float.parseFloat(value);
+      }
+      catch (NumberFormatException e) { }
+    }
+    return baseline.checkTime(
+      key, PerformanceBaseline.TEST_TIME, millis, multiplier);
   }
 
   @Test
@@ -32,6 +32,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -100,7 +101,8 @@ public class FormatReaderTest {
   public static ConfigurationTree configTree;
 
   /** List of files to skip. */
-  private static List<String> skipFiles = new LinkedList<String>();
+  private static List<String> skipFiles =
+    Collections.synchronizedList(new LinkedList<String>());
 
   /** Global shared jeader for use in all tests. */
   private BufferedImageReader reader;
@@ -1482,6 +1484,124 @@ public class FormatReaderTest {
     result(testName, success, msg);
   }
 
+  @Test(groups = {"all", "automated", "timing"})
+  public void testTimings() {
+    PerformanceBaseline baseline = PerformanceBaseline.getInstance();
+    if (!baseline.isEnabled()) {
+      throw new SkipException("No timing baseline");
+    }
+    String testName = "testTimings";
+    if (!initFile()) result(testName, false, "initFile");
+    String rootDir = configTree == null ? null : configTree.getRootDirectory();
+    String key = PerformanceBaseline.getKey(id, rootDir);
+    List<String> regressions = new LinkedList<String>();
+    IFormatReader timingReader =
+      new FileStitcher(TestTools.getTestImageReader());
+    timingReader.setMetadataOptions(
+      new DefaultMetadataOptions(MetadataLevel.NO_OVERLAYS));
+    timingReader.setNormalized(true);
+    timingReader.setOriginalMetadataPopulated(false);
+    timingReader.setMetadataFiltered(true);
+    try {
+      // time initialization without the memo file used by the other tests
+      long t0 = System.nanoTime();
+      timingReader.setId(id);
+      long t1 = System.nanoTime();
+      String msg = baseline.checkTime(key, PerformanceBaseline.SET_ID,
+        (t1 - t0) / 1000000.0, timeMultiplier);
+      if (msg != null) regressions.add(msg);
+
+      int planeSize = FormatTools.getPlaneSize(timingReader);
+      if (planeSize > 0 && TestTools.canFitInMemory(planeSize)) {
+        byte[] buf = new byte[planeSize];
+        t0 = System.nanoTime();
+        timingReader.openBytes(0, buf);
+        t1 = System.nanoTime();
+        msg = baseline.checkTime(key, PerformanceBaseline.FIRST_PLANE,
+          (t1 - t0) / 1000000.0, timeMultiplier);
+        if (msg != null) regressions.add(msg);
+
+        // read every plane of the first series
+        int imageCount = timingReader.getImageCount();
+        t0 = System.nanoTime();
+        for (int i=0; i<imageCount; i++) {
+          timingReader.openBytes(i, buf);
+        }
+        t1 = System.nanoTime();
+        double seconds = Math.max(t1 - t0, 1) / 1000000000.0;
+        double mb = (double) planeSize * imageCount / (1024 * 1024);
+        msg = baseline.checkThroughput(key,
+          PerformanceBaseline.READ_THROUGHPUT, mb / seconds, mb,
+          timeMultiplier);
+        if (msg != null) regressions.add(msg);
+      }
+    }
+    catch (Throwable t) {
+      LOGGER.info("", t);
+      regressions.add(String.valueOf(t.getMessage()));
+    }
+    finally {
+      try {
+        timingReader.close();
+      }
+      catch (IOException e) {
+        LOGGER.warn("", e);
+      }
+    }
+    result(testName, regressions.isEmpty(),
+      regressions.isEmpty() ? null : regressions.toString());
+  }
+
+  @Test(groups = {"all", "performance"})
+  public void testPerformanceBaseline() {
+    String testName = "testPerformanceBaseline";
+    if (!initFile()) result(testName, false, "initFile");
+    if (config == null) throw new SkipException("No config tree");
+    if (!config.hasPerformanceBaseline()) {
+      throw new SkipException("No performance baseline");
+    }
+    PerformanceBaseline baseline = PerformanceBaseline.getInstance();
+    List<String> regressions = new LinkedList<String>();
+    try {
+      PerformanceMeasurement m = PerformanceMeasurement.measure(id);
+      LOGGER.debug("{}: {}", id, m);
+
+      String msg = null;
+      if (config.getSetIdMillis() >= 0) {
+        msg = baseline.compareTime("setId", config.getSetIdMillis(),
+          m.getSetIdMillis(), timeMultiplier);
+        if (msg != null) regressions.add(msg);
+      }
+      if (config.getMemoLoadMillis() >= 0) {
+        if (m.getMemoLoadMillis() < 0) {
+          regressions.add("memo file could not be loaded");
+        }
+        else {
+          msg = baseline.compareTime("memo load", config.getMemoLoadMillis(),
+            m.getMemoLoadMillis(), timeMultiplier);
+          if (msg != null) regressions.add(msg);
+        }
+      }
+      if (config.getReadThroughput() >= 0 && m.getReadThroughput() >= 0) {
+        msg = baseline.compareThroughput("read throughput",
+          config.getReadThroughput(), m.getReadThroughput(), m.getReadMB(),
+          timeMultiplier);
+        if (msg != null) regressions.add(msg);
+      }
+      if (config.getPeakMemory() >= 0) {
+        msg = baseline.compareMemory("peak heap", config.getPeakMemory(),
+          m.getPeakMemory());
+        if (msg != null) regressions.add(msg);
+      }
+    }
+    catch (Throwable t) {
+      LOGGER.info("", t);
+      regressions.add(String.valueOf(t.getMessage()));
+    }
+    result(testName, regressions.isEmpty(),
+      regressions.isEmpty() ? null : regressions.toString());
+  }
+
   @Test(groups = {"all", "type", "automated"})
   public void testRequiredDirectories() {
     if (!initFile()) return;
@@ -2338,7 +2458,8 @@ public class FormatReaderTest {
       // this should prevent conflicts when running multiple tests
       // on the same system and/or in multiple threads
       String tmpdir = System.getProperty("java.io.tmpdir");
-      memoDir = new File(tmpdir, System.currentTimeMillis() + ".memo");
+      memoDir = new File(tmpdir, System.currentTimeMillis() + "-" +
+        Thread.currentThread().getId() + ".memo");
       memoDir.mkdir();
       Memoizer memo = new Memoizer(TestTools.getTestImageReader(), 0, memoDir);
       memo.setId(reader.getCurrentFile());
@@ -2393,6 +2514,13 @@ public class FormatReaderTest {
     if (!initFile(false)) return;
     String file = reader.getCurrentFile();
     try {
+      PerformanceMeasurement performance = null;
+      if (Boolean.parseBoolean(
+        System.getProperty("testng.record-performance")))
+      {
+        performance = PerformanceMeasurement.measure(file);
+      }
+
       String parent = new Location(file).getParent();
       String configDir = configTree.getConfigDirectory();
       String rootDir = configTree.getRootDirectory();
@@ -2406,6 +2534,9 @@ public class FormatReaderTest {
       File f = new File(parent, ".bioformats");
       LOGGER.info("Generating configuration: {}", f);
       Configuration newConfig = new Configuration(reader, f.getAbsolutePath());
+      if (performance != null) {
+        newConfig.setPerformanceBaseline(performance);
+      }
       newConfig.saveToFile();
       reader.close();
     }
@@ -2491,12 +2622,14 @@ public class FormatReaderTest {
     }
 
     // skip files that were already tested as part of another file's dataset
-    int ndx = skipFiles.indexOf(id);
-    if (ndx >= 0 && removeDuplicateFiles) {
-      LOGGER.info("Skipping {}", id);
-      skipFiles.remove(ndx);
-      skip = true;
-      throw new SkipException(SKIP_MESSAGE);
+    synchronized (skipFiles) {
+      int ndx = skipFiles.indexOf(id);
+      if (ndx >= 0 && removeDuplicateFiles) {
+        LOGGER.info("Skipping {}", id);
+        skipFiles.remove(ndx);
+        skip = true;
+        throw new SkipException(SKIP_MESSAGE);
+      }
     }
 
     // only test for missing configuration *after* we have removed duplicates
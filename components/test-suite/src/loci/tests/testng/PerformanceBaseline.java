@@ -0,0 +1,334 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests.testng;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import loci.common.Constants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records test timings and compares them against a previously recorded
+ * baseline, so that performance regressions can fail a test run.
+ *
+ * Timings are appended to the file named by the
+ * <code>testng.timings</code> system property as soon as they are
+ * recorded, one tab-separated <code>key measure value</code> line per
+ * timing.  A file in the same format can then be passed back via the
+ * <code>testng.baseline</code> system property.  If a key/measure pair is
+ * recorded more than once, the last value wins.
+ *
+ * This class is thread safe.
+ */
+public class PerformanceBaseline {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(PerformanceBaseline.class);
+
+  /** System property naming the baseline timings file. */
+  public static final String BASELINE_PROPERTY = "testng.baseline";
+
+  /** System property naming the file to which timings are written. */
+  public static final String TIMINGS_PROPERTY = "testng.timings";
+
+  /**
+   * System property defining the allowed relative deviation from the
+   * baseline, e.g. 0.5 to allow timings to be up to 50% slower.
+   */
+  public static final String TOLERANCE_PROPERTY = "testng.baseline-tolerance";
+
+  /** Default allowed relative deviation from the baseline. */
+  public static final double DEFAULT_TOLERANCE = 0.5;
+
+  /**
+   * Absolute deviation in milliseconds that is always allowed, so that
+   * very short timings do not fail because of scheduling noise.
+   */
+  public static final double MIN_SLACK_MILLIS = 50;
+
+  /**
+   * Absolute deviation in MB that is always allowed when comparing memory
+   * use, so that garbage collection noise does not fail small files.
+   */
+  public static final double MIN_SLACK_MB = 20;
+
+  /** Measure name for the time taken by setId, in milliseconds. */
+  public static final String SET_ID = "setId-ms";
+
+  /** Measure name for the time taken by the first openBytes call. */
+  public static final String FIRST_PLANE = "firstOpenBytes-ms";
+
+  /** Measure name for the throughput of a full series read, in MB/s. */
+  public static final String READ_THROUGHPUT = "read-MB/s";
+
+  /** Measure name for the total time taken by a test, in milliseconds. */
+  public static final String TEST_TIME = "test-ms";
+
+  private static PerformanceBaseline instance;
+
+  // -- Fields --
+
+  private final Map<String, Double> baseline = new HashMap<String, Double>();
+
+  private final PrintWriter timings;
+
+  private final double tolerance;
+
+  // -- Constructor --
+
+  /**
+   * Constructs a baseline reading expected timings from the given file and
+   * appending new timings to another file.  Either file may be null.
+   */
+  public PerformanceBaseline(String baselineFile, String timingsFile,
+    double tolerance) throws IOException
+  {
+    this.tolerance = tolerance;
+    if (baselineFile != null) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(baselineFile), Constants.ENCODING));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.startsWith("#")) {
+            continue;
+          }
+          String[] tokens = line.split("\t");
+          if (tokens.length != 3) {
+            continue;
+          }
+          try {
+            baseline.put(tokens[0] + "\t" + tokens[1],
+              Double.parseDouble(tokens[2]));
+          }
+          catch (NumberFormatException e) {
+            LOGGER.warn("Invalid baseline value: {}", line);
+          }
+        }
+      }
+      finally {
+        in.close();
+      }
+      LOGGER.info("Loaded {} baseline timings from {}",
+        baseline.size(), baselineFile);
+    }
+    if (timingsFile != null) {
+      timings = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(timingsFile, true), Constants.ENCODING));
+    }
+    else {
+      timings = null;
+    }
+  }
+
+  // -- PerformanceBaseline API methods --
+
+  /**
+   * Returns the baseline configured by system properties; this is shared
+   * by all tests in the JVM.
+   */
+  public static synchronized PerformanceBaseline getInstance() {
+    if (instance == null) {
+      String baselineFile = getProperty(BASELINE_PROPERTY);
+      String timingsFile = getProperty(TIMINGS_PROPERTY);
+      double tolerance = DEFAULT_TOLERANCE;
+      String toleranceValue = getProperty(TOLERANCE_PROPERTY);
+      if (toleranceValue != null) {
+        try {
+          tolerance = Double.parseDouble(toleranceValue);
+        }
+        catch (NumberFormatException e) {
+          LOGGER.warn("Invalid baseline tolerance: {}", toleranceValue);
+        }
+      }
+      try {
+        instance = new PerformanceBaseline(baselineFile, timingsFile,
+          tolerance);
+      }
+      catch (IOException e) {
+        LOGGER.warn("Could not initialize performance baseline", e);
+        try {
+          instance = new PerformanceBaseline(null, null, tolerance);
+        }
+        catch (IOException e2) { }
+      }
+    }
+    return instance;
+  }
+
+  /** Returns true if timings are either recorded or checked. */
+  public boolean isEnabled() {
+    return timings != null || !baseline.isEmpty();
+  }
+
+  /** Returns the baseline value for the given key and measure, or null. */
+  public synchronized Double getBaseline(String key, String measure) {
+    return baseline.get(key + "\t" + measure);
+  }
+
+  /** Appends a timing to the timings file, if one was configured. */
+  public synchronized void record(String key, String measure, double value) {
+    if (timings != null) {
+      timings.println(key + "\t" + measure + "\t" + value);
+      timings.flush();
+    }
+  }
+
+  /**
+   * Records a time in milliseconds and compares it against the baseline.
+   * @param multiplier scale factor applied to the baseline value, as for
+   *   the <code>testng.multiplier</code> property
+   * @return a description of the regression, or null if the time is
+   *   within tolerance or there is no baseline
+   */
+  public String checkTime(String key, String measure, double millis,
+    float multiplier)
+  {
+    record(key, measure, millis);
+    Double expected = getBaseline(key, measure);
+    if (expected == null) {
+      return null;
+    }
+    return compareTime(measure, expected, millis, multiplier);
+  }
+
+  /**
+   * Records a throughput and compares it against the baseline.
+   * @param mb amount of data, in MB, over which the throughput was measured
+   * @param multiplier scale factor applied to the baseline time, as for
+   *   the <code>testng.multiplier</code> property
+   * @return a description of the regression, or null if the throughput is
+   *   within tolerance or there is no baseline
+   */
+  public String checkThroughput(String key, String measure, double value,
+    double mb, float multiplier)
+  {
+    record(key, measure, value);
+    Double expected = getBaseline(key, measure);
+    if (expected == null) {
+      return null;
+    }
+    return compareThroughput(measure, expected, value, mb, multiplier);
+  }
+
+  /**
+   * Compares a time in milliseconds against an expected time, without
+   * recording either value.
+   * @return a description of the regression, or null if the time is
+   *   within tolerance
+   */
+  public String compareTime(String measure, double expected, double millis,
+    float multiplier)
+  {
+    double allowed = expected * multiplier * (1 + tolerance);
+    if (millis > allowed && millis - expected * multiplier > MIN_SLACK_MILLIS) {
+      return measure + ": got " + millis + ", expected <= " + allowed;
+    }
+    return null;
+  }
+
+  /**
+   * Compares a throughput against an expected throughput, without
+   * recording either value.  The comparison is made on the time taken to
+   * read <code>mb</code> MB at each throughput, so that small reads get
+   * the same {@link #MIN_SLACK_MILLIS} allowance as other timings.
+   * @param mb amount of data, in MB, over which the throughput was measured
+   * @return a description of the regression, or null if the throughput is
+   *   within tolerance
+   */
+  public String compareThroughput(String measure, double expected,
+    double value, double mb, float multiplier)
+  {
+    if (expected <= 0 || mb <= 0) {
+      return null;
+    }
+    if (value <= 0) {
+      return measure + ": got " + value + ", expected > 0";
+    }
+    double expectedMillis = mb * 1000 / expected;
+    double millis = mb * 1000 / value;
+    if (compareTime(measure, expectedMillis, millis, multiplier) != null) {
+      double allowed = expected / (multiplier * (1 + tolerance));
+      return measure + ": got " + value + ", expected >= " + allowed;
+    }
+    return null;
+  }
+
+  /**
+   * Compares an amount of memory in MB against an expected amount.
+   * @return a description of the regression, or null if the memory use is
+   *   within tolerance
+   */
+  public String compareMemory(String measure, double expected, double mb) {
+    double allowed = expected * (1 + tolerance);
+    if (mb > allowed && mb - expected > MIN_SLACK_MB) {
+      return measure + ": used " + mb + " MB, expected <= " + allowed + " MB";
+    }
+    return null;
+  }
+
+  /**
+   * Returns a key for the given file that does not depend on where the
+   * data repository is mounted.
+   */
+  public static String getKey(String file, String rootDir) {
+    String path = new File(file).getAbsolutePath();
+    if (rootDir != null) {
+      String root = new File(rootDir).getAbsolutePath();
+      if (path.startsWith(root + File.separator)) {
+        return path.substring(root.length() + 1);
+      }
+    }
+    return path;
+  }
+
+  // -- Helper methods --
+
+  /** Returns a system property, excluding unset Ant values. */
+  private static String getProperty(String key) {
+    String value = System.getProperty(key);
+    if (value == null || value.equals("${" + key + "}") ||
+      value.trim().length() == 0)
+    {
+      return null;
+    }
+    return value;
+  }
+
+}
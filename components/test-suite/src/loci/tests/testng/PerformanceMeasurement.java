@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2015 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests.testng;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import loci.formats.FileStitcher;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.Memoizer;
+import loci.formats.MetadataTools;
+import loci.formats.in.DefaultMetadataOptions;
+import loci.formats.in.MetadataLevel;
+
+/**
+ * Measures how quickly a single file can be initialized and read, for
+ * comparison with the values stored in a {@link Configuration}.
+ *
+ * The file is opened once, untimed, before anything is measured.  The
+ * performance tests run after other tests (or at least initFile) have
+ * already opened the file, so a truly cold initialization cannot be
+ * measured reliably; priming the reader means that both gen-config and
+ * the performance tests measure the same thing, excluding one-off costs
+ * such as class loading.  No measurement flushes the operating system's
+ * file cache.
+ *
+ * Peak heap usage is the largest amount of old generation heap retained
+ * after a full garbage collection while the file is open, i.e. after
+ * setId and after the planes have been read.  Short-lived allocations are
+ * therefore not counted.  It is only meaningful when files are measured
+ * one at a time.
+ */
+public class PerformanceMeasurement {
+
+  // -- Constants --
+
+  /** Maximum number of planes read when measuring throughput. */
+  public static final int MAX_PLANES = 100;
+
+  // -- Fields --
+
+  private long setIdMillis = -1;
+  private long memoLoadMillis = -1;
+  private double readThroughput = -1;
+  private double readMB = -1;
+  private int peakMemory = -1;
+
+  // -- Constructor --
+
+  private PerformanceMeasurement() { }
+
+  // -- PerformanceMeasurement API methods --
+
+  /**
+   * Measures the given file.  Values that could not be measured, e.g.
+   * the read throughput of a file whose planes do not fit in memory,
+   * are set to -1.
+   */
+  public static PerformanceMeasurement measure(String id)
+    throws FormatException, IOException
+  {
+    PerformanceMeasurement m = new PerformanceMeasurement();
+
+    // prime the reader, so that the timings below exclude one-off costs
+    IFormatReader reader = createReader();
+    try {
+      reader.setId(id);
+    }
+    finally {
+      reader.close();
+    }
+
+    long usedBefore = getRetainedHeap();
+    long peak = usedBefore;
+
+    reader = createReader();
+    try {
+      long t0 = System.nanoTime();
+      reader.setId(id);
+      long t1 = System.nanoTime();
+      m.setIdMillis = (t1 - t0) / 1000000;
+      peak = Math.max(peak, getRetainedHeap());
+
+      int planeSize = FormatTools.getPlaneSize(reader);
+      if (planeSize > 0 && TestTools.canFitInMemory(planeSize)) {
+        byte[] buf = new byte[planeSize];
+        int planes = Math.min(reader.getImageCount(), MAX_PLANES);
+        t0 = System.nanoTime();
+        for (int i=0; i<planes; i++) {
+          reader.openBytes(i, buf);
+        }
+        t1 = System.nanoTime();
+        double seconds = Math.max(t1 - t0, 1) / 1000000000.0;
+        m.readMB = (double) planeSize * planes / (1024 * 1024);
+        m.readThroughput = m.readMB / seconds;
+        peak = Math.max(peak, getRetainedHeap());
+      }
+    }
+    finally {
+      reader.close();
+    }
+
+    m.peakMemory = (int) ((peak - usedBefore) >> 20);
+
+    m.memoLoadMillis = measureMemoLoad(id);
+
+    return m;
+  }
+
+  /**
+   * Returns the time taken by setId on a newly created reader, after the
+   * file has already been opened once, in milliseconds.
+   */
+  public long getSetIdMillis() {
+    return setIdMillis;
+  }
+
+  /**
+   * Returns the time taken to initialize from an existing memo file, in
+   * milliseconds, or -1 if the memo file could not be saved or loaded.
+   */
+  public long getMemoLoadMillis() {
+    return memoLoadMillis;
+  }
+
+  /** Returns the plane read throughput of the first series, in MB/s. */
+  public double getReadThroughput() {
+    return readThroughput;
+  }
+
+  /**
+   * Returns the amount of data read when measuring throughput, in MB, or
+   * -1 if throughput was not measured.
+   */
+  public double getReadMB() {
+    return readMB;
+  }
+
+  /**
+   * Returns the peak heap retained after garbage collection while the file
+   * was open, above that retained before it was opened, in MB.
+   */
+  public int getPeakMemory() {
+    return peakMemory;
+  }
+
+  // -- Object API methods --
+
+  @Override
+  public String toString() {
+    return "setId=" + setIdMillis + " ms, memo load=" + memoLoadMillis +
+      " ms, read=" + readThroughput + " MB/s, peak heap=" + peakMemory +
+      " MB";
+  }
+
+  // -- Helper methods --
+
+  /** Creates a reader configured as in FormatReaderTest, without memo. */
+  private static IFormatReader createReader() {
+    IFormatReader reader = new FileStitcher(TestTools.getTestImageReader());
+    reader.setMetadataOptions(
+      new DefaultMetadataOptions(MetadataLevel.NO_OVERLAYS));
+    reader.setNormalized(true);
+    reader.setOriginalMetadataPopulated(false);
+    reader.setMetadataFiltered(true);
+    reader.setMetadataStore(MetadataTools.createOMEXMLMetadata());
+    return reader;
+  }
+
+  private static long measureMemoLoad(String id)
+    throws FormatException, IOException
+  {
+    String tmpdir = System.getProperty("java.io.tmpdir");
+    File memoDir = new File(tmpdir, System.currentTimeMillis() + "-" +
+      Thread.currentThread().getId() + "-perf.memo");
+    memoDir.mkdir();
+    File memoFile = null;
+    try {
+      Memoizer memo = new Memoizer(TestTools.getTestImageReader(), 0, memoDir);
+      memo.setId(id);
+      memo.close();
+      memoFile = memo.getMemoFile(id);
+      if (!memo.isSavedToMemo()) {
+        return -1;
+      }
+      long t0 = System.nanoTime();
+      memo.setId(id);
+      long t1 = System.nanoTime();
+      boolean loaded = memo.isLoadedFromMemo();
+      memo.close();
+      return loaded ? (t1 - t0) / 1000000 : -1;
+    }
+    finally {
+      if (memoFile != null) {
+        memoFile.delete();
+        // the original file's path is replicated within the memo directory
+        File parent = memoFile.getParentFile();
+        while (parent != null && !parent.equals(memoDir)) {
+          parent.delete();
+          parent = parent.getParentFile();
+        }
+      }
+      memoDir.delete();
+    }
+  }
+
+  /**
+   * Collects garbage and returns the old generation heap still in use, in
+   * bytes.  The old generation pools are the heap pools that support
+   * usage thresholds; their collection usage is the amount in use after
+   * the most recent collection, which excludes short-lived garbage in the
+   * young generation.
+   */
+  private static long getRetainedHeap() {
+    System.gc();
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP &&
+        pool.isUsageThresholdSupported())
+      {
+        MemoryUsage usage = pool.getCollectionUsage();
+        used += usage == null ? pool.getUsage().getUsed() : usage.getUsed();
+      }
+    }
+    return used;
+  }
+
+}
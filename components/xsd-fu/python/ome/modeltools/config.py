@@ -15,6 +15,10 @@ METADATA_OBJECT_IGNORE = ('BinData', 'External', 'MapPairs', 'M')
 # to these interfaces and implementations.
 METADATA_COUNT_IGNORE = {'Annotation': ['AnnotationRef']}
 
+# Types which are stored as per-parent columns, rather than as individual
+# model objects, by the columnar OME-XML metadata store implementation.
+METADATA_COLUMNAR_OBJECTS = ('Plane', 'TiffData', 'WellSample')
+
 # Types which have not been recognized as explicit defines (XML Schema
 # definitions that warrant a the creation of a first class model object) that
 # we wish to be treated otherwise. As part of the code generation process they
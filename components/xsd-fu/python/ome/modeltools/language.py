@@ -44,6 +44,7 @@ class Language(object):
             'METADATA_RETRIEVE': 'MetadataRetrieve.template',
             'METADATA_AGGREGATE': 'AggregateMetadata.template',
             'OMEXML_METADATA': 'OMEXMLMetadataImpl.template',
+            'COLUMNAR_OMEXML_METADATA': 'ColumnarOMEXMLMetadataImpl.template',
             'DUMMY_METADATA': 'DummyMetadata.template',
             'FILTER_METADATA': 'FilterMetadata.template',
             'OMERO_METADATA': 'OmeroMetadata.template',
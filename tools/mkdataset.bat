@@ -0,0 +1,13 @@
+@echo off
+
+rem mkdataset: a script for writing large synthetic datasets
+rem            to the file system
+
+rem Required JARs: loci_tools.jar or bioformats_package.jar
+
+setlocal
+set BF_DIR=%~dp0
+if "%BF_DIR:~-1%" == "\" set BF_DIR=%BF_DIR:~0,-1%
+
+set BF_PROG=loci.formats.tools.ImageGenerator
+call "%BF_DIR%\bf.bat" %*